@@ -17,14 +17,22 @@
  */
 package org.magnum.dataup;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.servlet.MultipartConfigElement;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.HttpMessageConverters;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
 import org.springframework.boot.context.embedded.MultiPartConfigFactory;
+import org.springframework.boot.context.embedded.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 
 // This annotation tells Spring to auto-wire your application
 @EnableAutoConfiguration
@@ -37,7 +45,8 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class Application {
 
-	private static final String MAX_REQUEST_SIZE = "150MB";
+	// 150MB
+	public static final long MAX_REQUEST_SIZE = 150 * 1024 * 1024;
 
 	// The entry point to the application.
 	public static void main(String[] args) {
@@ -62,4 +71,54 @@ public class Application {
 		return factory.createMultipartConfig();
 	}
 
+	// This registers the StreamingVideoDataServlet next to the Spring
+	// DispatcherServlet. It deliberately has no MultipartConfigElement, so
+	// the web container doesn't save its uploads to temp files and the
+	// servlet can read the request body as it arrives.
+	@Bean
+	public ServletRegistrationBean streamingVideoDataServlet() {
+		ServletRegistrationBean bean = new ServletRegistrationBean(new StreamingVideoDataServlet(),
+				VideoSvcApi.VIDEO_STREAM_SVC_PATH + "/*");
+		// The servlet hands its requests to the I/O threads of the
+		// VideoFileManager and finishes them from there
+		bean.setAsyncSupported(true);
+		return bean;
+	}
+
+	// This tags the response to GET /video with an ETag (a hash of the
+	// list) and answers a request whose If-None-Match matches it with a
+	// 304 and no body, so a client that already has the list (e.g., the
+	// Android VideoDataMediator) doesn't download it again. The filter
+	// buffers the whole response to hash it, so it is only mapped to the
+	// list and never to the video data.
+	@Bean
+	public FilterRegistrationBean videoListETagFilter() {
+		FilterRegistrationBean bean = new FilterRegistrationBean(new ShallowEtagHeaderFilter());
+		bean.addUrlPatterns(VideoSvcApi.VIDEO_SVC_PATH);
+		return bean;
+	}
+
+	// This adds the SmileHttpMessageConverter to the converters that Spring
+	// uses for @RequestBody and @ResponseBody, so that clients can ask for
+	// Smile instead of JSON.
+	//
+	// Spring Boot normally puts the HttpMessageConverter beans that we
+	// declare in front of its own converters. When a client accepts any
+	// content type (which is what Retrofit and browsers send), Spring uses
+	// the first converter that can write the object, so every client that
+	// didn't ask for Smile would suddenly get it. Adding the Smile
+	// converter at the end keeps JSON the default.
+	@Bean
+	public HttpMessageConverters messageConverters() {
+		return new HttpMessageConverters() {
+			@Override
+			public List<HttpMessageConverter<?>> getConverters() {
+				List<HttpMessageConverter<?>> converters =
+						new ArrayList<HttpMessageConverter<?>>(super.getConverters());
+				converters.add(new SmileHttpMessageConverter());
+				return converters;
+			}
+		};
+	}
+
 }
@@ -0,0 +1,166 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes in a file, from start to end (both inclusive), as
+ * they are asked for in the HTTP Range header. Video players send a
+ * Range header to seek to a different part of the video without
+ * downloading everything before it.
+ *
+ * @author jules
+ *
+ */
+public class ByteRange {
+
+	public static final String BYTES_UNIT = "bytes";
+
+	private final long start;
+	private final long end;
+
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	// The value of the Content-Range header for this range of a
+	// file with the given length (e.g., "bytes 0-499/1234")
+	public String toContentRange(long fileLength) {
+		return BYTES_UNIT + " " + start + "-" + end + "/" + fileLength;
+	}
+
+	/**
+	 * Parses the value of a Range header (e.g., "bytes=0-499,1000-",
+	 * or "bytes=-500" for the last 500 bytes) for a file with the given
+	 * length. Ranges that go past the end of the file are cut off at the
+	 * end of the file. Ranges that overlap or touch are merged and the
+	 * result is sorted by start.
+	 *
+	 * Returns null if the header is missing or can't be parsed, which
+	 * means that the whole file should be sent. Returns an empty list if
+	 * the header is valid but none of the ranges are inside the file,
+	 * which should be answered with a 416 Range Not Satisfiable.
+	 *
+	 * @param header
+	 * @param fileLength
+	 * @return
+	 */
+	public static List<ByteRange> parse(String header, long fileLength) {
+		if (header == null || !header.startsWith(BYTES_UNIT + "=")) {
+			return null;
+		}
+
+		List<ByteRange> ranges = new ArrayList<ByteRange>();
+		for (String spec : header.substring(BYTES_UNIT.length() + 1).split(",")) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			try {
+				String first = spec.substring(0, dash).trim();
+				String last = spec.substring(dash + 1).trim();
+				long start;
+				long end;
+				if (first.isEmpty()) {
+					// "-n" is the last n bytes of the file
+					long suffix = Long.parseLong(last);
+					if (suffix < 0) {
+						return null;
+					}
+					start = Math.max(0, fileLength - suffix);
+					end = fileLength - 1;
+					if (suffix == 0) {
+						continue;
+					}
+				} else {
+					start = Long.parseLong(first);
+					end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+					if (start < 0 || end < start) {
+						return null;
+					}
+					end = Math.min(end, fileLength - 1);
+				}
+				if (start < fileLength) {
+					ranges.add(new ByteRange(start, end));
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return merge(ranges);
+	}
+
+	// Sort the ranges and merge the ones that overlap or touch, so that
+	// no byte is sent twice
+	private static List<ByteRange> merge(List<ByteRange> ranges) {
+		Collections.sort(ranges, new Comparator<ByteRange>() {
+			@Override
+			public int compare(ByteRange a, ByteRange b) {
+				return Long.compare(a.start, b.start);
+			}
+		});
+		List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+		for (ByteRange r : ranges) {
+			ByteRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && r.start <= last.end + 1) {
+				merged.set(merged.size() - 1, new ByteRange(last.start, Math.max(last.end, r.end)));
+			} else {
+				merged.add(r);
+			}
+		}
+		return merged;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ByteRange)) {
+			return false;
+		}
+		ByteRange other = (ByteRange) obj;
+		return start == other.start && end == other.end;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (31 * start + end);
+	}
+
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+import java.util.Collections;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * Reads and writes the objects of the VideoSvcApi (Video, VideoStatus,
+ * UploadSession, etc.) in Smile, a binary encoding of JSON, instead of
+ * JSON text.
+ *
+ * Smile has exactly the same objects, arrays, and values as JSON, so the
+ * same Jackson mapping works for both. It just writes them more compactly:
+ * small numbers take one byte, numbers are binary instead of digits, and a
+ * field name (e.g., "title") that shows up again in the same response
+ * (e.g., in every Video of a list) is written once and then referred to by
+ * a one byte back reference. The same goes for short string values that
+ * repeat (e.g., the contentType of every Video in a list).
+ *
+ * A client asks for Smile by sending "Accept: application/x-jackson-smile"
+ * and sends Smile request bodies with that Content-Type. Everyone else
+ * still gets JSON (see Application.messageConverters()).
+ *
+ * @author jules
+ *
+ */
+public class SmileHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+	public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+	public static final MediaType SMILE = MediaType.parseMediaType(SMILE_CONTENT_TYPE);
+
+	public SmileHttpMessageConverter() {
+		SmileFactory factory = new SmileFactory();
+		factory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+		setObjectMapper(new ObjectMapper(factory));
+		setSupportedMediaTypes(Collections.singletonList(SMILE));
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase.FileUploadIOException;
+import org.apache.commons.fileupload.FileUploadBase.SizeLimitExceededException;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoStatus;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * This servlet accepts the same multipart requests as POST /video/{id}/data,
+ * but at /stream/video/{id}/data (see VideoSvcApi.streamVideoData()).
+ *
+ * When a multipart request goes to the Spring DispatcherServlet, the web
+ * container first saves every part to a temp file (that is what the
+ * MultipartConfigElement in Application sets up), and the controller then
+ * copies the "data" part from the temp file into the "videos" folder. Every
+ * upload is written to disk twice.
+ *
+ * This servlet is registered without a MultipartConfigElement, so the
+ * container leaves the request body alone. The servlet uses the streaming
+ * API of Commons FileUpload to parse the body as it arrives and hands the
+ * "data" part to VideoFileManager.saveVideoDataAsync(), which writes it
+ * straight to disk. Nothing is spooled and the data is only written once.
+ * The saved data is then handed to the VideoProcessor, and the upload is
+ * answered with PROCESSING. Uploads for a video that isn't in the
+ * VideoRegistry are answered with a 404.
+ *
+ * Both the upload (POST) and the download (GET) of the data are done with
+ * the servlet's async support. The request is put into async mode first,
+ * before any of its data is handed to another thread, and then the
+ * VideoFileManager's I/O threads do the disk reads and writes. They never
+ * touch the client's socket: every read of the request body, write of the
+ * response body, and the final status are handed back to the web
+ * container's threads with AsyncContext.start(). The container here is
+ * Tomcat 7 (Servlet 3.0), which doesn't have the non-blocking
+ * ReadListener and WriteListener, so those reads and writes can block, but
+ * only ever on a container thread. When too many uploads and downloads are
+ * in progress the servlet answers with a 503 and a Retry-After header
+ * instead of letting the work pile up.
+ *
+ * @author jules
+ *
+ */
+public class StreamingVideoDataServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	// How long an upload or download may take before the container gives
+	// up on it
+	public static final long ASYNC_TIMEOUT = 30 * 60 * 1000L;
+
+	public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+	private static final String RETRY_AFTER_SECONDS = "5";
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	private VideoFileManager videoDataMgr;
+
+	private VideoProcessor processor;
+
+	@Override
+	public void init() throws ServletException {
+		try {
+			videoDataMgr = VideoFileManager.get();
+			processor = VideoProcessor.get();
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		Video v = getVideo(req);
+		if (v == null || !videoDataMgr.hasVideoData(v)) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		long length = videoDataMgr.getVideoDataLength(v);
+		resp.setContentType(VideoFileManager.DEFAULT_CONTENT_TYPE);
+		resp.setHeader("Content-Length", Long.toString(length));
+
+		AsyncContext async = req.startAsync();
+		ListenableFuture<Long> copied;
+		try {
+			copied = videoDataMgr.copyVideoDataAsync(v, 0, length,
+					Channels.newChannel(resp.getOutputStream()), containerThreads(async));
+		} catch (RejectedExecutionException e) {
+			busy(async);
+			return;
+		} catch (IOException e) {
+			copied = Futures.immediateFailedFuture(e);
+		}
+		finishWhenDone(async, v, copied);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		// Unknown videos are turned away before any of the body is read
+		Video v = getVideo(req);
+		if (v == null || !VideoRegistry.get().contains(v.getId())) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		if (!ServletFileUpload.isMultipartContent(req)) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a multipart request");
+			return;
+		}
+
+		// The same upper bound that Application puts on normal
+		// multipart requests
+		ServletFileUpload upload = new ServletFileUpload();
+		upload.setSizeMax(Application.MAX_REQUEST_SIZE);
+
+		try {
+			FileItemIterator parts = upload.getItemIterator(req);
+			while (parts.hasNext()) {
+				FileItemStream part = parts.next();
+
+				// Any other parts are skipped over without being saved
+				if (!part.isFormField() && VideoSvcApi.DATA_PARAMETER.equals(part.getFieldName())) {
+					// The rest of the request is read on container threads,
+					// while the I/O threads write it to disk
+					AsyncContext async = req.startAsync();
+					ListenableFuture<Long> saved;
+					try {
+						saved = videoDataMgr.saveVideoDataAsync(v, Channels.newChannel(part.openStream()),
+								containerThreads(async));
+					} catch (RejectedExecutionException e) {
+						busy(async);
+						return;
+					} catch (IOException e) {
+						saved = Futures.immediateFailedFuture(e);
+					}
+					finishWhenDone(async, v, saved);
+					return;
+				}
+			}
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Missing the '" + VideoSvcApi.DATA_PARAMETER + "' part");
+		} catch (SizeLimitExceededException e) {
+			resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+		} catch (FileUploadException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+		}
+	}
+
+	// The video whose id is in the path info ("/{id}/data"), or null if
+	// the path doesn't look like that
+	private Video getVideo(HttpServletRequest req) {
+		String[] path = req.getPathInfo() == null ? new String[0] : req.getPathInfo().split("/");
+		if (path.length != 3 || !"data".equals(path[2])) {
+			return null;
+		}
+		Video v = new Video();
+		try {
+			v.setId(Long.parseLong(path[1]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return v;
+	}
+
+	// Runs each task on one of the web container's threads, which is
+	// where the client's socket is read and written
+	private static Executor containerThreads(final AsyncContext async) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				async.start(task);
+			}
+		};
+	}
+
+	// Finish the async request (on a container thread) once the I/O threads
+	// are done with it. An upload is answered with the VideoStatus; a
+	// download has already written its body.
+	private void finishWhenDone(final AsyncContext async, final Video v, final ListenableFuture<Long> done) {
+		async.setTimeout(ASYNC_TIMEOUT);
+		Futures.addCallback(done, new FutureCallback<Long>() {
+			@Override
+			public void onSuccess(Long length) {
+				HttpServletRequest req = (HttpServletRequest) async.getRequest();
+				HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+				try {
+					if ("POST".equals(req.getMethod())) {
+						resp.setContentType("application/json");
+						mapper.writeValue(resp.getOutputStream(), new VideoStatus(processor.submit(v)));
+					}
+				} catch (IOException e) {
+					// The client has gone away
+				} finally {
+					async.complete();
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+				try {
+					if (!resp.isCommitted()) {
+						// The size limit is found while the data is being
+						// read, so it shows up wrapped in an IOException
+						resp.sendError(t instanceof FileUploadIOException
+								&& t.getCause() instanceof SizeLimitExceededException
+								? HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE
+								: HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					}
+				} catch (IOException e) {
+					// The client has gone away
+				} finally {
+					async.complete();
+				}
+			}
+		}, containerThreads(async));
+	}
+
+	private void busy(AsyncContext async) throws IOException {
+		HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+		try {
+			resp.setHeader(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		} finally {
+			async.complete();
+		}
+	}
+
+}
@@ -0,0 +1,677 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * This class stores video data by its content. Every distinct video is
+ * kept once, in a "blob" file named after the SHA-256 hash of its bytes,
+ * no matter how many videos have uploaded the same bytes. Each video id
+ * is mapped to the hash of its data, and each blob has a reference count
+ * (the number of videos mapped to it), so that a blob is deleted when
+ * the last video that uses it lets go of it.
+ *
+ * The mapping from video ids to hashes is saved in the blob directory, so
+ * it survives restarts. Every change is appended to a journal file as one
+ * short line ("<id>=<hash>", or "<id>=" when a video lets go of its data),
+ * so storing, linking or releasing a video costs the same small write no
+ * matter how many videos there are. Once the journal has more lines than
+ * half the number of videos (and at least 1000), the whole mapping is
+ * written to an index file (to a temp file that is renamed over the old
+ * one, so a crash never leaves a half written index behind) and the
+ * journal starts over. So rewriting the index costs a constant per change
+ * on average, and the journal stays smaller than the index. A load reads
+ * the index and then replays the journal on top of it. The reference
+ * counts aren't saved separately; they are counted from the mapping when
+ * it is loaded.
+ *
+ * The blobs are spread over two levels of subdirectories named after the
+ * first four hex digits of their hashes (e.g., "ab/cd/abcd0123....mpg"), so
+ * that no directory ends up with more than a few entries even when there
+ * are millions of videos. Since the hashes are uniformly distributed, so
+ * are the blobs. Blobs in the flat layout of older versions (right in the
+ * blob directory) are moved into place when the index is loaded.
+ *
+ * Uploads are hashed while they are written to disk, so storing a video
+ * never reads its data a second time. If the hash turns out to be one
+ * that is already stored, the new copy is simply thrown away. A client
+ * that knows the hash of a video before uploading it can use link() to
+ * skip the upload altogether.
+ *
+ * There is one VideoBlobStore per directory (see get()), and all of its
+ * methods are thread-safe.
+ *
+ * @author jules
+ *
+ */
+public class VideoBlobStore {
+
+	public static final String HASH_ALGORITHM = "SHA-256";
+
+	public static final String INDEX_FILE = "index.properties";
+
+	public static final String JOURNAL_FILE = "index.journal";
+
+	// The journal is compacted into the index once it has more lines than
+	// this, or than half the number of videos, whichever is more
+	private static final int MIN_JOURNAL_SIZE = 1000;
+
+	// Blobs are named "<hash>.mpg" and uploads that are still being written
+	// are named "upload<random>.tmp"
+	private static final String BLOB_SUFFIX = ".mpg";
+
+	private static final String TEMP_PREFIX = "upload";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// A SHA-256 hash as lower case hex. Hashes that come from clients are
+	// checked against this before they are used as file names.
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+	// The most that store() asks transferFrom() to copy at once
+	private static final long TRANSFER_SIZE = 8 * 1024 * 1024;
+
+	// The size of the buffer that storeAsync() reads into
+	private static final int ASYNC_BUFFER_SIZE = 256 * 1024;
+
+	// The number of hex digits of the hash in each subdirectory name, and
+	// the number of levels of subdirectories
+	private static final int SHARD_WIDTH = 2;
+
+	private static final int SHARD_DEPTH = 2;
+
+	private static final Map<Path, VideoBlobStore> stores = new ConcurrentHashMap<Path, VideoBlobStore>();
+
+	/**
+	 * Returns the VideoBlobStore for the given directory, creating the
+	 * directory and loading its index the first time that it is asked for.
+	 *
+	 * @param dir
+	 * @return
+	 * @throws IOException
+	 */
+	public static VideoBlobStore get(Path dir) throws IOException {
+		Path key = dir.toAbsolutePath().normalize();
+		synchronized (stores) {
+			VideoBlobStore store = stores.get(key);
+			if (store == null) {
+				store = new VideoBlobStore(key);
+				stores.put(key, store);
+			}
+			return store;
+		}
+	}
+
+	private final Path dir_;
+
+	// video id -> hash of its data
+	private final Map<Long, String> videos_ = new HashMap<Long, String>();
+
+	// hash -> number of videos that use it
+	private final Map<String, Integer> refCounts_ = new HashMap<String, Integer>();
+
+	// The number of lines in the journal
+	private int journalSize_;
+
+	// Use get() instead, so that there is only one store per directory.
+	// This is only visible so that the tests can load a store from disk
+	// again, as if the server had been restarted.
+	VideoBlobStore(Path dir) throws IOException {
+		dir_ = dir;
+		Files.createDirectories(dir_);
+		load();
+	}
+
+	/**
+	 * Returns the blob file with the data of the given video, or null if
+	 * the video doesn't have any data in this store.
+	 *
+	 * @param videoId
+	 * @return
+	 */
+	public synchronized Path getBlobPath(long videoId) {
+		String hash = videos_.get(videoId);
+		return hash != null ? getBlobPath(hash) : null;
+	}
+
+	/**
+	 * Returns the hash of the given video's data, or null if the video
+	 * doesn't have any data in this store.
+	 *
+	 * @param videoId
+	 * @return
+	 */
+	public synchronized String getHash(long videoId) {
+		return videos_.get(videoId);
+	}
+
+	/**
+	 * Returns the number of videos that use the blob with the given hash.
+	 *
+	 * @param hash
+	 * @return
+	 */
+	public synchronized int getRefCount(String hash) {
+		Integer count = refCounts_.get(hash);
+		return count != null ? count : 0;
+	}
+
+	/**
+	 * Writes all of the data in the channel to disk and makes it the data of
+	 * the given video. The data is hashed as it goes by, and if a blob with
+	 * the same hash is already stored the video just gets a reference to it.
+	 *
+	 * @param videoId
+	 * @param data
+	 * @return the hash of the data
+	 * @throws IOException
+	 */
+	public String store(long videoId, ReadableByteChannel data) throws IOException {
+		MessageDigest digest = newDigest();
+		Path temp = Files.createTempFile(dir_, TEMP_PREFIX, TEMP_SUFFIX);
+		try {
+			DigestingChannel in = new DigestingChannel(data, digest);
+			try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				long written = 0;
+				long read;
+				// transferFrom() returns 0 once the channel has run out
+				while ((read = out.transferFrom(in, written, TRANSFER_SIZE)) > 0) {
+					written += read;
+				}
+			}
+			return put(videoId, toHex(digest), temp);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Does the same as store(), but without blocking the caller. The data is
+	 * read from the channel and hashed on threads of the reader, and written
+	 * to disk with an AsynchronousFileChannel on threads of the executor,
+	 * which also moves the finished file into the store. The returned future
+	 * is done once the data is stored and the video points at it.
+	 *
+	 * The work is done one step at a time (read a buffer, write it), and
+	 * each step queues the next one when it finishes, so each call only
+	 * ever has one task in either queue.
+	 *
+	 * @param videoId
+	 * @param data
+	 * @param reader
+	 * @param executor
+	 * @return the hash of the data
+	 * @throws IOException
+	 */
+	public ListenableFuture<String> storeAsync(final long videoId, final ReadableByteChannel data,
+			final Executor reader, final ExecutorService executor) throws IOException {
+		final SettableFuture<String> result = SettableFuture.create();
+		final Path temp = Files.createTempFile(dir_, TEMP_PREFIX, TEMP_SUFFIX);
+		final AsynchronousFileChannel out;
+		try {
+			out = AsynchronousFileChannel.open(temp, EnumSet.of(StandardOpenOption.WRITE), executor);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		final MessageDigest digest = newDigest();
+		final ByteBuffer buffer = ByteBuffer.allocate(ASYNC_BUFFER_SIZE);
+
+		final Runnable readNext = new Runnable() {
+			private long position;
+
+			private boolean ended;
+
+			// Fills the whole buffer before writing it (a socket usually
+			// has much less than a buffer's worth ready at a time), so that
+			// each trip between the reader and the executor moves as much
+			// data as it can
+			@Override
+			public void run() {
+				try {
+					buffer.clear();
+					while (buffer.hasRemaining() && !ended) {
+						ended = data.read(buffer) < 0;
+					}
+					buffer.flip();
+					if (!buffer.hasRemaining()) {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								finish();
+							}
+						});
+						return;
+					}
+					digest.update(buffer.duplicate());
+					write();
+				} catch (Throwable t) {
+					fail(t);
+				}
+			}
+
+			// A write can be shorter than the buffer, so keep writing
+			// until the whole buffer is on disk before reading more
+			private void write() {
+				final Runnable readNext = this;
+				out.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+					@Override
+					public void completed(Integer written, Void attachment) {
+						position += written;
+						try {
+							if (buffer.hasRemaining()) {
+								write();
+							} else if (ended) {
+								finish();
+							} else {
+								reader.execute(readNext);
+							}
+						} catch (Throwable t) {
+							fail(t);
+						}
+					}
+
+					@Override
+					public void failed(Throwable t, Void attachment) {
+						fail(t);
+					}
+				});
+			}
+
+			private void finish() {
+				try {
+					out.close();
+					String hash = put(videoId, toHex(digest), temp);
+					Files.deleteIfExists(temp);
+					result.set(hash);
+				} catch (Throwable t) {
+					fail(t);
+				}
+			}
+
+			private void fail(Throwable t) {
+				try {
+					out.close();
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					// The original failure is the one to report
+				}
+				result.setException(t);
+			}
+		};
+		try {
+			reader.execute(readNext);
+		} catch (RuntimeException e) {
+			out.close();
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Makes the given file the data of the given video. The file is hashed
+	 * and then either renamed into the store or, if its hash is already
+	 * stored, deleted. Either way the file is gone afterwards. It has to be
+	 * on the same file system as the store.
+	 *
+	 * @param videoId
+	 * @param file
+	 * @return the hash of the data
+	 * @throws IOException
+	 */
+	public String storeFile(long videoId, Path file) throws IOException {
+		MessageDigest digest = newDigest();
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+			while (in.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		try {
+			return put(videoId, toHex(digest), file);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Makes the blob with the given hash the data of the given video,
+	 * without any data being uploaded. This only works if the blob is
+	 * already stored and has the given length (which guards against a
+	 * client that has the hash but not the data).
+	 *
+	 * @param videoId
+	 * @param hash
+	 * @param length
+	 * @return true if the video now has the data, false if the blob isn't
+	 *         stored and the data has to be uploaded
+	 * @throws IOException
+	 */
+	public synchronized boolean link(long videoId, String hash, long length) throws IOException {
+		if (hash == null || !HASH_PATTERN.matcher(hash).matches() || !refCounts_.containsKey(hash)) {
+			return false;
+		}
+		if (Files.size(getBlobPath(hash)) != length) {
+			return false;
+		}
+		map(videoId, hash);
+		return true;
+	}
+
+	/**
+	 * Removes the given video's reference to its data, and deletes the blob
+	 * if no other video uses it.
+	 *
+	 * @param videoId
+	 * @throws IOException
+	 */
+	public synchronized void release(long videoId) throws IOException {
+		String old = videos_.remove(videoId);
+		if (old != null) {
+			record(videoId, null);
+			unref(old);
+		}
+	}
+
+	/**
+	 * Deletes the blobs that no video refers to. These can only be left
+	 * behind by a crash (e.g., between moving a blob into place and adding
+	 * it to the journal). Since this has to look at every blob, it is left to the
+	 * VideoStoreMigration tool rather than done at every startup.
+	 *
+	 * @return the number of blobs that were deleted
+	 * @throws IOException
+	 */
+	public synchronized int removeOrphans() throws IOException {
+		final int[] removed = new int[1];
+		Files.walkFileTree(dir_, EnumSet.noneOf(FileVisitOption.class), SHARD_DEPTH + 1,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						String hash = getHash(file);
+						if (hash != null && !refCounts_.containsKey(hash) && file.equals(getBlobPath(hash))) {
+							Files.delete(file);
+							removed[0]++;
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+		return removed[0];
+	}
+
+	// Move the temp file into the store as the blob for the hash (unless
+	// the blob is already there) and point the video at it
+	private synchronized String put(long videoId, String hash, Path temp) throws IOException {
+		Path blob = getBlobPath(hash);
+		if (!refCounts_.containsKey(hash)) {
+			Files.createDirectories(blob.getParent());
+			Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		map(videoId, hash);
+		return hash;
+	}
+
+	private void map(long videoId, String hash) throws IOException {
+		Integer count = refCounts_.get(hash);
+		refCounts_.put(hash, count != null ? count + 1 : 1);
+		String old = videos_.put(videoId, hash);
+		record(videoId, hash);
+		if (old != null) {
+			unref(old);
+		}
+	}
+
+	private void unref(String hash) throws IOException {
+		int count = refCounts_.get(hash) - 1;
+		if (count > 0) {
+			refCounts_.put(hash, count);
+		} else {
+			refCounts_.remove(hash);
+			Files.deleteIfExists(getBlobPath(hash));
+		}
+	}
+
+	// The sharded path of the blob with the given hash
+	private Path getBlobPath(String hash) {
+		Path shard = dir_;
+		for (int i = 0; i < SHARD_DEPTH; i++) {
+			shard = shard.resolve(hash.substring(i * SHARD_WIDTH, (i + 1) * SHARD_WIDTH));
+		}
+		return shard.resolve(hash + BLOB_SUFFIX);
+	}
+
+	// The hash of the blob in the given file, or null if the file isn't
+	// named like a blob
+	private static String getHash(Path file) {
+		String name = file.getFileName().toString();
+		if (!name.endsWith(BLOB_SUFFIX)) {
+			return null;
+		}
+		String hash = name.substring(0, name.length() - BLOB_SUFFIX.length());
+		return HASH_PATTERN.matcher(hash).matches() ? hash : null;
+	}
+
+	// Append the change to the journal, and compact the journal into the
+	// index once it has grown past the size of the index
+	private void record(long videoId, String hash) throws IOException {
+		String line = videoId + "=" + (hash != null ? hash : "") + "\n";
+		Files.write(dir_.resolve(JOURNAL_FILE), line.getBytes(Charsets.US_ASCII),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		journalSize_++;
+		if (journalSize_ > Math.max(MIN_JOURNAL_SIZE, videos_.size() / 2)) {
+			compact();
+		}
+	}
+
+	// Write the whole mapping to the index and start a new journal. If this
+	// is interrupted after the index has been replaced, the old journal is
+	// replayed on top of an index that already has its changes, which
+	// leaves the mapping the same.
+	private void compact() throws IOException {
+		Properties index = new Properties();
+		for (Map.Entry<Long, String> e : videos_.entrySet()) {
+			index.setProperty(e.getKey().toString(), e.getValue());
+		}
+		Path temp = Files.createTempFile(dir_, "index", TEMP_SUFFIX);
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				index.store(out, "video id = " + HASH_ALGORITHM + " of its data");
+			}
+			Files.move(temp, dir_.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		Files.deleteIfExists(dir_.resolve(JOURNAL_FILE));
+		journalSize_ = 0;
+	}
+
+	// Read the index, replay the journal on top of it, and count the
+	// references to each blob. Blobs that are still in the old flat layout
+	// are moved into their subdirectories. Temp files (and flat blobs that
+	// nothing refers to) are left over from a crash, so they are cleaned up.
+	// Only the top of the blob directory is looked at, so this stays quick
+	// however many blobs there are.
+	private void load() throws IOException {
+		Map<Long, String> mapping = new HashMap<Long, String>();
+		Path indexFile = dir_.resolve(INDEX_FILE);
+		if (Files.exists(indexFile)) {
+			Properties index = new Properties();
+			try (InputStream in = Files.newInputStream(indexFile)) {
+				index.load(in);
+			}
+			for (String id : index.stringPropertyNames()) {
+				try {
+					mapping.put(Long.valueOf(id), index.getProperty(id));
+				} catch (NumberFormatException e) {
+					// Not a video id
+				}
+			}
+		}
+		boolean replayed = replayJournal(mapping);
+
+		for (Map.Entry<Long, String> e : mapping.entrySet()) {
+			String hash = e.getValue();
+			if (!HASH_PATTERN.matcher(hash).matches()) {
+				continue;
+			}
+			Path blob = getBlobPath(hash);
+			Path flat = dir_.resolve(hash + BLOB_SUFFIX);
+			if (!Files.exists(blob) && Files.exists(flat)) {
+				Files.createDirectories(blob.getParent());
+				Files.move(flat, blob, StandardCopyOption.ATOMIC_MOVE);
+			}
+			if (Files.exists(blob)) {
+				videos_.put(e.getKey(), hash);
+				Integer count = refCounts_.get(hash);
+				refCounts_.put(hash, count != null ? count + 1 : 1);
+			}
+		}
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir_)) {
+			for (Path file : files) {
+				if (file.getFileName().toString().endsWith(TEMP_SUFFIX) || getHash(file) != null) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+
+		// Start from a clean index, without the journal (or whatever
+		// half written line a crash left at its end)
+		if (replayed) {
+			compact();
+		}
+	}
+
+	// Apply the changes in the journal to the mapping, in the order they
+	// were made. Only whole lines count: a line without its newline was
+	// being written when the server stopped, and the change never
+	// happened. Returns true if there was a journal.
+	private boolean replayJournal(Map<Long, String> mapping) throws IOException {
+		Path journal = dir_.resolve(JOURNAL_FILE);
+		if (!Files.exists(journal)) {
+			return false;
+		}
+		String[] lines = new String(Files.readAllBytes(journal), Charsets.US_ASCII).split("\n", -1);
+		// The last piece is whatever followed the last newline
+		for (int i = 0; i < lines.length - 1; i++) {
+			int eq = lines[i].indexOf('=');
+			if (eq < 0) {
+				continue;
+			}
+			long id;
+			try {
+				id = Long.parseLong(lines[i].substring(0, eq));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			String hash = lines[i].substring(eq + 1);
+			if (hash.isEmpty()) {
+				mapping.remove(id);
+			} else {
+				mapping.put(id, hash);
+			}
+		}
+		return true;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(MessageDigest digest) {
+		return BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+
+	// Passes the bytes read from another channel through a MessageDigest
+	// on their way to the caller
+	private static class DigestingChannel implements ReadableByteChannel {
+
+		private final ReadableByteChannel in_;
+
+		private final MessageDigest digest_;
+
+		public DigestingChannel(ReadableByteChannel in, MessageDigest digest) {
+			in_ = in;
+			digest_ = digest;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			int start = dst.position();
+			int read = in_.read(dst);
+			if (read > 0) {
+				ByteBuffer bytes = dst.duplicate();
+				bytes.position(start);
+				bytes.limit(start + read);
+				digest_.update(bytes);
+			}
+			return read;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return in_.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			in_.close();
+		}
+	}
+
+}
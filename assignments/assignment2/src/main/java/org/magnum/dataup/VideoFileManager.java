@@ -17,27 +17,130 @@
  */
 package org.magnum.dataup;
 
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.magnum.dataup.model.Video;
 
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * This class provides a simple implementation to store video binary
  * data on the file system in a "videos" folder. The class provides
  * methods for saving videos and retrieving their binary data.
  * 
+ * The serveVideoData() method sends the binary data in an HTTP response
+ * and supports the Range header, which video players use to seek. It is
+ * meant to be called from the controller method for GET /video/{id}/data.
+ * 
+ * The data itself is kept in a VideoBlobStore in the "videos/blobs" folder,
+ * which stores each distinct video only once no matter how many times it
+ * is uploaded. Data that was saved as "videos/video<id>.mpg" before the
+ * blob store existed can still be read (the VideoStoreMigration tool moves
+ * them into the blob store).
+ * 
+ * The copyVideoDataAsync() and saveVideoDataAsync() methods do their
+ * file I/O with AsynchronousFileChannels on a small, bounded pool of I/O
+ * threads, so that a servlet that uses them (see StreamingVideoDataServlet)
+ * doesn't tie up one of the container's request threads while it waits for
+ * a slow disk. The reads and writes of the other channel (e.g., the
+ * client's socket) are handed to an Executor that the caller supplies, so
+ * that the I/O threads never wait for the network.
+ * 
  * @author jules
  *
  */
 public class VideoFileManager {
 
+	public static final String DEFAULT_CONTENT_TYPE = "video/mpeg";
+	
+	public static final String RANGE_HEADER = "Range";
+	
+	public static final String IF_RANGE_HEADER = "If-Range";
+	
+	public static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+	
+	public static final String CONTENT_RANGE_HEADER = "Content-Range";
+	
+	public static final String LAST_MODIFIED_HEADER = "Last-Modified";
+	
+	// A request for more separate ranges than this gets the whole file
+	// instead, so that a client can't make the server send thousands of
+	// tiny parts
+	public static final int MAX_RANGES = 16;
+	
+	// Files (or ranges) smaller than this are copied through the output
+	// stream, since handing them to the container's sendfile support
+	// costs more than it saves
+	public static final long SENDFILE_THRESHOLD = 48 * 1024;
+	
+	// The request attributes that Tomcat's NIO connector uses to send a
+	// file with sendfile(), so that the bytes go straight from the page
+	// cache to the socket without ever being copied into the JVM. This is
+	// the only way that a response gets the data without a copy: the
+	// servlet's output stream is not a channel that transferTo() can hand
+	// to the operating system.
+	public static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+	public static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+	public static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+	public static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+	
+	private static final String MULTIPART_BOUNDARY = "VIDEO_DATA_RANGE_BOUNDARY";
+	
+	private static final String CRLF = "\r\n";
+	
+	// The async methods do their file I/O on a pool of IO_THREADS threads.
+	// At most MAX_ASYNC_OPERATIONS async reads and writes can be in progress
+	// at once; beyond that the async methods throw a
+	// RejectedExecutionException (which should be answered with a 503)
+	// instead of queueing up more work than the disk can keep up with.
+	// Each operation only ever has one task waiting in the pool's queue,
+	// so the queue never fills up with the operations that were let in.
+	public static final int IO_THREADS = 8;
+	
+	public static final int MAX_ASYNC_OPERATIONS = 256;
+	
+	private static final int ASYNC_BUFFER_SIZE = 256 * 1024;
+	
+	private static final ExecutorService ioExecutor_ = new ThreadPoolExecutor(IO_THREADS, IO_THREADS,
+			0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_ASYNC_OPERATIONS),
+			new ThreadFactoryBuilder().setNameFormat("video-io-%d").setDaemon(true).build());
+	
+	private static final Semaphore asyncOperations_ = new Semaphore(MAX_ASYNC_OPERATIONS);
+
 	/**
 	 * This static factory method creates and returns a 
 	 * VideoFileManager object to the caller. Feel free to customize
@@ -52,21 +155,42 @@ public class VideoFileManager {
 	
 	private Path targetDir_ = Paths.get("videos");
 	
+	private VideoBlobStore blobStore_;
+	
 	// The VideoFileManager.get() method should be used
 	// to obtain an instance
 	private VideoFileManager() throws IOException{
 		if(!Files.exists(targetDir_)){
 			Files.createDirectories(targetDir_);
 		}
+		// Every VideoFileManager shares the same blob store
+		blobStore_ = VideoBlobStore.get(targetDir_.resolve("blobs"));
 	}
 	
-	// Private helper method for resolving video file paths
+	// Private helper method for resolving video file paths. This is
+	// where video data was kept before the blob store.
 	private Path getVideoPath(Video v){
 		assert(v != null);
 		
 		return targetDir_.resolve("video"+v.getId()+".mpg");
 	}
 	
+	// The file with the video's data, which is its blob if it has one
+	private Path getStoredVideoPath(Video v){
+		assert(v != null);
+		
+		Path blob = blobStore_.getBlobPath(v.getId());
+		return blob != null ? blob : getVideoPath(v);
+	}
+	
+	// The file that the chunks of a resumable upload are written to
+	// until the upload is committed
+	private Path getPartialVideoPath(Video v){
+		assert(v != null);
+		
+		return targetDir_.resolve("video"+v.getId()+".mpg.part");
+	}
+	
 	/**
 	 * This method returns true if the specified Video has binary
 	 * data stored on the file system.
@@ -75,7 +199,7 @@ public class VideoFileManager {
 	 * @return
 	 */
 	public boolean hasVideoData(Video v){
-		Path source = getVideoPath(v);
+		Path source = getStoredVideoPath(v);
 		return Files.exists(source);
 	}
 	
@@ -90,11 +214,491 @@ public class VideoFileManager {
 	 * @throws IOException 
 	 */
 	public void copyVideoData(Video v, OutputStream out) throws IOException {
-		Path source = getVideoPath(v);
+		Files.copy(getExistingVideoPath(v), out);
+	}
+	
+	/**
+	 * This method returns the number of bytes of binary data stored for
+	 * the given video. It throws a FileNotFoundException if the video
+	 * doesn't have any data.
+	 * 
+	 * @param v
+	 * @return
+	 * @throws IOException
+	 */
+	public long getVideoDataLength(Video v) throws IOException {
+		return Files.size(getExistingVideoPath(v));
+	}
+	
+	/**
+	 * This method returns the SHA-256 hash (as lower case hex) that the
+	 * blob store has for the given video's data, or null if the video
+	 * has no data or its data is still in the old "video<id>.mpg" file.
+	 * 
+	 * @param v
+	 * @return
+	 */
+	public String getVideoDataHash(Video v) {
+		return blobStore_.getHash(v.getId());
+	}
+	
+	/**
+	 * This method copies length bytes of the binary data for the given
+	 * video, starting at offset start, to the provided channel. The bytes
+	 * are moved with FileChannel.transferTo(), so when the channel is a
+	 * SocketChannel or a FileChannel the operating system copies them
+	 * directly (e.g., with sendfile()) and they never pass through the
+	 * Java heap. Any other channel, such as one from Channels.newChannel()
+	 * around a stream, gets the bytes copied through a heap buffer.
+	 * 
+	 * @param v
+	 * @param start
+	 * @param length
+	 * @param out
+	 * @throws IOException
+	 */
+	public void copyVideoData(Video v, long start, long length, WritableByteChannel out) throws IOException {
+		try (FileChannel in = FileChannel.open(getExistingVideoPath(v), StandardOpenOption.READ)) {
+			transfer(in, start, length, out);
+		}
+	}
+	
+	/**
+	 * This method does the same as copyVideoData(Video, long, long,
+	 * WritableByteChannel), but without blocking the caller. The file is read
+	 * with an AsynchronousFileChannel on the I/O threads, and each buffer
+	 * that is read is then written to the channel by a task that is handed
+	 * to the writer. The next read only starts once the buffer has been
+	 * written. The returned future is done once all of the bytes have been
+	 * written to the channel.
+	 * 
+	 * When the channel is a socket (e.g., a servlet response), the writer
+	 * should run the tasks on the web container's threads (see
+	 * AsyncContext.start()), so that a slow client never holds up the I/O
+	 * threads, which only ever wait for the disk.
+	 * 
+	 * @param v
+	 * @param start
+	 * @param length
+	 * @param out
+	 * @param writer
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 * @throws RejectedExecutionException if too many async reads and writes
+	 *         are already in progress
+	 */
+	public ListenableFuture<Long> copyVideoDataAsync(Video v, final long start, final long length,
+			final WritableByteChannel out, final Executor writer) throws IOException {
+		Path source = getExistingVideoPath(v);
+		acquireAsyncOperation();
+		final AsynchronousFileChannel in;
+		try {
+			in = AsynchronousFileChannel.open(source, EnumSet.of(StandardOpenOption.READ), ioExecutor_);
+		} catch (IOException | RuntimeException e) {
+			asyncOperations_.release();
+			throw e;
+		}
+		
+		final SettableFuture<Long> result = SettableFuture.create();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(ASYNC_BUFFER_SIZE);
+		final long end = start + length;
+		
+		// Each completed read hands its buffer to the writer, and once the
+		// buffer has been written the next read starts, until the whole
+		// region has been copied
+		final CompletionHandler<Integer, Long> handler = new CompletionHandler<Integer, Long>() {
+			@Override
+			public void completed(final Integer read, final Long position) {
+				try {
+					if (read < 0) {
+						throw new EOFException("The video file ended before byte " + end);
+					}
+					buffer.flip();
+					writer.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								while (buffer.hasRemaining()) {
+									out.write(buffer);
+								}
+								readFrom(position + read);
+							} catch (Throwable t) {
+								failed(t, position);
+							}
+						}
+					});
+				} catch (Throwable t) {
+					failed(t, position);
+				}
+			}
+			
+			@Override
+			public void failed(Throwable t, Long position) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// The original failure is the one to report
+				}
+				result.setException(t);
+			}
+			
+			// Starts the read of the next buffer, or finishes the copy
+			// if there is nothing left to read
+			private void readFrom(long next) throws IOException {
+				if (next >= end) {
+					in.close();
+					result.set(length);
+					return;
+				}
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - next));
+				in.read(buffer, next, next, this);
+			}
+		};
+		try {
+			if (length > 0) {
+				buffer.limit((int) Math.min(buffer.capacity(), length));
+				in.read(buffer, start, start, handler);
+			} else {
+				in.close();
+				result.set(0L);
+			}
+		} catch (Throwable t) {
+			handler.failed(t, start);
+		}
+		return releaseWhenDone(result);
+	}
+	
+	/**
+	 * This method writes the binary data for the given video to the
+	 * response, honoring the Range header of the request:
+	 * 
+	 * - No Range header (or one that can't be parsed): 200 OK and the
+	 *   whole file
+	 * - One range: 206 Partial Content with a Content-Range header
+	 * - Several ranges: 206 Partial Content with a multipart/byteranges
+	 *   body that has one part per range
+	 * - No range inside the file: 416 Range Not Satisfiable
+	 * 
+	 * An If-Range header that doesn't match the Last-Modified time of the
+	 * file means that the client's partial copy is out of date, so the
+	 * whole file is sent instead of the ranges.
+	 * 
+	 * When the container supports it (Tomcat's NIO connector, which Spring
+	 * Boot uses by default), a response with a single part is handed to the
+	 * container to send with sendfile(), which is zero-copy. Otherwise (and
+	 * for multipart responses) the data is written to the response's output
+	 * stream, which copies it through the Java heap in chunks like any
+	 * other stream.
+	 * 
+	 * The caller is responsible for checking that the video exists and has
+	 * data; this method throws a FileNotFoundException if it doesn't.
+	 * 
+	 * @param v
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void serveVideoData(Video v, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Path source = getExistingVideoPath(v);
+		long fileLength = Files.size(source);
+		long lastModified = Files.getLastModifiedTime(source).toMillis();
+		String contentType = v.getContentType() != null ? v.getContentType() : DEFAULT_CONTENT_TYPE;
+		
+		response.setHeader(ACCEPT_RANGES_HEADER, ByteRange.BYTES_UNIT);
+		response.setDateHeader(LAST_MODIFIED_HEADER, lastModified);
+		
+		List<ByteRange> ranges = null;
+		if (ifRangeMatches(request, lastModified)) {
+			ranges = ByteRange.parse(request.getHeader(RANGE_HEADER), fileLength);
+		}
+		if (ranges != null && ranges.size() > MAX_RANGES) {
+			ranges = null;
+		}
+		
+		if (ranges == null) {
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setContentType(contentType);
+			sendRegion(source, 0, fileLength, request, response);
+		} else if (ranges.isEmpty()) {
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader(CONTENT_RANGE_HEADER, ByteRange.BYTES_UNIT + " */" + fileLength);
+		} else if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType(contentType);
+			response.setHeader(CONTENT_RANGE_HEADER, range.toContentRange(fileLength));
+			sendRegion(source, range.getStart(), range.getLength(), request, response);
+		} else {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			sendMultipart(source, fileLength, contentType, ranges, response);
+		}
+	}
+	
+	// The Range header only applies if there is no If-Range header, or if
+	// the If-Range date is the Last-Modified date of the file. If-Range
+	// can also carry an ETag, which never matches since the files don't
+	// have ETags.
+	private boolean ifRangeMatches(HttpServletRequest request, long lastModified) {
+		if (request.getHeader(IF_RANGE_HEADER) == null) {
+			return true;
+		}
+		try {
+			// HTTP dates only have a resolution of one second
+			return request.getDateHeader(IF_RANGE_HEADER) / 1000 == lastModified / 1000;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	// Send one region of the file as the whole body of the response
+	private void sendRegion(Path source, long start, long length,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		setContentLength(response, length);
+		if (length >= SENDFILE_THRESHOLD
+				&& Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+			// The container sends the file after this method returns
+			request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, source.toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START_ATTRIBUTE, Long.valueOf(start));
+			request.setAttribute(SENDFILE_END_ATTRIBUTE, Long.valueOf(start + length));
+			return;
+		}
+		// The output stream isn't a real channel, so transferTo() reads the
+		// file into a heap buffer and writes that to the stream
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+			transfer(in, start, length, Channels.newChannel(response.getOutputStream()));
+		}
+	}
+	
+	// Send several regions of the file as a multipart/byteranges body.
+	// The Content-Length is worked out before anything is written so
+	// that the client knows how much data is coming. The container can
+	// only sendfile() a single region, so the parts are copied through
+	// the output stream (and the heap).
+	private void sendMultipart(Path source, long fileLength, String contentType,
+			List<ByteRange> ranges, HttpServletResponse response) throws IOException {
+		List<byte[]> headers = new ArrayList<byte[]>(ranges.size());
+		long length = 0;
+		for (ByteRange range : ranges) {
+			byte[] header = (CRLF + "--" + MULTIPART_BOUNDARY + CRLF
+					+ "Content-Type: " + contentType + CRLF
+					+ CONTENT_RANGE_HEADER + ": " + range.toContentRange(fileLength) + CRLF
+					+ CRLF).getBytes(StandardCharsets.US_ASCII);
+			headers.add(header);
+			length += header.length + range.getLength();
+		}
+		byte[] trailer = (CRLF + "--" + MULTIPART_BOUNDARY + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+		length += trailer.length;
+		
+		response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+		setContentLength(response, length);
+		
+		OutputStream out = response.getOutputStream();
+		WritableByteChannel channel = Channels.newChannel(out);
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+			for (int i = 0; i < ranges.size(); i++) {
+				out.write(headers.get(i));
+				transfer(in, ranges.get(i).getStart(), ranges.get(i).getLength(), channel);
+			}
+		}
+		out.write(trailer);
+	}
+	
+	// setContentLength() only takes an int, which isn't enough for videos
+	// over 2GB
+	private void setContentLength(HttpServletResponse response, long length) {
+		response.setHeader("Content-Length", Long.toString(length));
+	}
+	
+	// transferTo() may send fewer bytes than it was asked to, so keep
+	// going until the whole region has been sent
+	private void transfer(FileChannel in, long start, long length, WritableByteChannel out) throws IOException {
+		long position = start;
+		long end = start + length;
+		while (position < end) {
+			long sent = in.transferTo(position, end - position, out);
+			if (sent <= 0) {
+				throw new EOFException("The video file ended before byte " + end);
+			}
+			position += sent;
+		}
+	}
+	
+	// Resolve the path of the video's data and make sure that it is there
+	private Path getExistingVideoPath(Video v) throws FileNotFoundException {
+		Path source = getStoredVideoPath(v);
 		if(!Files.exists(source)){
 			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
 		}
-		Files.copy(source, out);
+		return source;
+	}
+	
+	/**
+	 * This method writes one chunk of a resumable upload for the given
+	 * video. The data is read from the InputStream and written straight
+	 * into the video's partial file, starting at the given offset, without
+	 * being buffered anywhere else first. At most maxLength + 1 bytes are
+	 * read, so a caller that gets back more than maxLength knows that the
+	 * chunk was too big (and should truncate it away again).
+	 * 
+	 * @param v
+	 * @param offset
+	 * @param data
+	 * @param maxLength
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	public long writeVideoDataChunk(Video v, long offset, InputStream data, long maxLength) throws IOException {
+		ReadableByteChannel in = Channels.newChannel(data);
+		try (FileChannel out = FileChannel.open(getPartialVideoPath(v),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			long written = 0;
+			while (written <= maxLength) {
+				long read = out.transferFrom(in, offset + written, maxLength + 1 - written);
+				// transferFrom() returns 0 once the stream has run out
+				if (read <= 0) {
+					break;
+				}
+				written += read;
+			}
+			return written;
+		}
+	}
+	
+	/**
+	 * This method cuts the partial file of a resumable upload back to the
+	 * given length, which throws away a chunk that was rejected.
+	 * 
+	 * @param v
+	 * @param length
+	 * @throws IOException
+	 */
+	public void truncateVideoDataChunks(Video v, long length) throws IOException {
+		try (FileChannel out = FileChannel.open(getPartialVideoPath(v),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			out.truncate(length);
+		}
+	}
+	
+	/**
+	 * This method finishes a resumable upload by moving the partial file
+	 * into the blob store as the video's data. The move is a rename, so the
+	 * data is never copied again and a reader never sees a half written
+	 * file. (The partial file does have to be read once more to hash it,
+	 * since its chunks arrived in separate requests.)
+	 * 
+	 * @param v
+	 * @throws IOException
+	 */
+	public void commitVideoDataChunks(Video v) throws IOException {
+		Path partial = getPartialVideoPath(v);
+		if(!Files.exists(partial)){
+			// An empty upload never writes a chunk
+			Files.createFile(partial);
+		}
+		blobStore_.storeFile(v.getId(), partial);
+		Files.deleteIfExists(getVideoPath(v));
+	}
+	
+	/**
+	 * This method makes an already stored blob the data of the given video,
+	 * so that a client that sends the SHA-256 hash of a video that is
+	 * already on the server doesn't have to upload it again. It returns
+	 * false (and changes nothing) if there is no blob with that hash and
+	 * length.
+	 * 
+	 * @param v
+	 * @param sha256 the hash as lower case hex
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean linkVideoData(Video v, String sha256, long length) throws IOException {
+		if(!blobStore_.link(v.getId(), sha256, length)){
+			return false;
+		}
+		Files.deleteIfExists(getVideoPath(v));
+		return true;
+	}
+	
+	/**
+	 * This method deletes the binary data of the given video. The blob
+	 * with the data is only deleted if no other video uses it.
+	 * 
+	 * @param v
+	 * @throws IOException
+	 */
+	public void deleteVideoData(Video v) throws IOException {
+		blobStore_.release(v.getId());
+		Files.deleteIfExists(getVideoPath(v));
+	}
+	
+	/**
+	 * This method throws away the partial file of a resumable upload
+	 * that won't be finished.
+	 * 
+	 * @param v
+	 * @throws IOException
+	 */
+	public void deleteVideoDataChunks(Video v) throws IOException {
+		Files.deleteIfExists(getPartialVideoPath(v));
+	}
+	
+	/**
+	 * This method does the same as saveVideoData(Video, ReadableByteChannel),
+	 * but without blocking the caller. The data is read from the channel by
+	 * tasks that are handed to the reader, and written to disk with an
+	 * AsynchronousFileChannel on the I/O threads. The returned future is
+	 * done once the data is stored.
+	 * 
+	 * When the channel is a socket (e.g., a servlet request), the reader
+	 * should run the tasks on the web container's threads (see
+	 * AsyncContext.start()), so that a slow client never holds up the I/O
+	 * threads, which only ever wait for the disk.
+	 * 
+	 * @param v
+	 * @param videoData
+	 * @param reader
+	 * @return the number of bytes written
+	 * @throws IOException
+	 * @throws RejectedExecutionException if too many async reads and writes
+	 *         are already in progress
+	 */
+	public ListenableFuture<Long> saveVideoDataAsync(final Video v, ReadableByteChannel videoData,
+			Executor reader) throws IOException{
+		assert(videoData != null);
+		
+		acquireAsyncOperation();
+		ListenableFuture<String> stored;
+		try {
+			stored = blobStore_.storeAsync(v.getId(), videoData, reader, ioExecutor_);
+		} catch (IOException | RuntimeException e) {
+			asyncOperations_.release();
+			throw e;
+		}
+		return releaseWhenDone(Futures.transform(stored, new AsyncFunction<String, Long>() {
+			@Override
+			public ListenableFuture<Long> apply(String hash) throws IOException {
+				Files.deleteIfExists(getVideoPath(v));
+				return Futures.immediateFuture(Files.size(getStoredVideoPath(v)));
+			}
+		}));
+	}
+	
+	private void acquireAsyncOperation() {
+		if (!asyncOperations_.tryAcquire()) {
+			throw new RejectedExecutionException("Too many video reads and writes are in progress");
+		}
+	}
+	
+	private <T> ListenableFuture<T> releaseWhenDone(ListenableFuture<T> future) {
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				asyncOperations_.release();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return future;
 	}
 	
 	/**
@@ -109,8 +713,30 @@ public class VideoFileManager {
 	public void saveVideoData(Video v, InputStream videoData) throws IOException{
 		assert(videoData != null);
 		
-		Path target = getVideoPath(v);
-		Files.copy(videoData, target, StandardCopyOption.REPLACE_EXISTING);
+		saveVideoData(v, Channels.newChannel(videoData));
+	}
+	
+	/**
+	 * This method reads all of the data in the provided channel and writes it
+	 * straight to disk with FileChannel.transferFrom(), so the data isn't
+	 * buffered anywhere else on the way. The data is hashed as it is written
+	 * and then handed to the blob store, which renames it into place (the
+	 * rename doesn't copy the data again) or, if the same video has been
+	 * stored before, throws it away and points the video at the old copy.
+	 * A failed upload never leaves a half written video (or destroys the
+	 * old one).
+	 * 
+	 * @param v
+	 * @param videoData
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	public long saveVideoData(Video v, ReadableByteChannel videoData) throws IOException{
+		assert(videoData != null);
+		
+		blobStore_.store(v.getId(), videoData);
+		Files.deleteIfExists(getVideoPath(v));
+		return Files.size(getStoredVideoPath(v));
 	}
 	
 }
@@ -0,0 +1,96 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoMetadata;
+import org.magnum.dataup.model.VideoStatus;
+import org.magnum.dataup.model.VideoStatus.VideoState;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * This controller lets clients follow the processing that the
+ * VideoProcessor does after an upload. A client whose upload came back
+ * PROCESSING polls GET /video/{id}/status until it says READY (or FAILED),
+ * and can then get the metadata and the thumbnail that the processing
+ * produced.
+ *
+ * Like the VideoUploadController, it is separate from the controller that
+ * you write for the assignment.
+ *
+ * @author jules
+ *
+ */
+@Controller
+public class VideoProcessingController {
+
+	private VideoProcessor processor;
+
+	public VideoProcessingController() throws IOException {
+		processor = VideoProcessor.get();
+	}
+
+	@RequestMapping(value = VideoSvcApi.VIDEO_STATUS_PATH, method = RequestMethod.GET)
+	public ResponseEntity<VideoStatus> getVideoStatus(@PathVariable(VideoSvcApi.ID_PARAMETER) long id) {
+		VideoState state = processor.getState(video(id));
+		if (state == null) {
+			return new ResponseEntity<VideoStatus>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<VideoStatus>(new VideoStatus(state), HttpStatus.OK);
+	}
+
+	@RequestMapping(value = VideoSvcApi.VIDEO_METADATA_PATH, method = RequestMethod.GET)
+	public ResponseEntity<VideoMetadata> getVideoMetadata(@PathVariable(VideoSvcApi.ID_PARAMETER) long id) {
+		VideoMetadata metadata = processor.getMetadata(video(id));
+		if (metadata == null) {
+			return new ResponseEntity<VideoMetadata>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<VideoMetadata>(metadata, HttpStatus.OK);
+	}
+
+	@RequestMapping(value = VideoSvcApi.VIDEO_THUMBNAIL_PATH, method = RequestMethod.GET)
+	public void getVideoThumbnail(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			HttpServletResponse response) throws IOException {
+		Video v = video(id);
+		VideoMetadata metadata = processor.getMetadata(v);
+		if (metadata == null || !metadata.isThumbnail()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		response.setContentType(VideoFileManager.DEFAULT_CONTENT_TYPE);
+		processor.copyThumbnail(v, response.getOutputStream());
+	}
+
+	// The VideoProcessor only needs the id of the video
+	private Video video(long id) {
+		Video v = new Video();
+		v.setId(id);
+		return v;
+	}
+
+}
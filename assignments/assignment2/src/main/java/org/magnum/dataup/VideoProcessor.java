@@ -0,0 +1,379 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoMetadata;
+import org.magnum.dataup.model.VideoStatus.VideoState;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * This class does the work on a video's data that doesn't have to be done
+ * before the upload is answered. An upload stores the data, calls submit(),
+ * and returns PROCESSING right away. A small pool of workers then takes the
+ * video through these stages:
+ *
+ * 1. Checksum: the data is read back and its SHA-256 hash is compared with
+ *    the one that the blob store computed while it was being written, so a
+ *    video that was damaged on disk becomes FAILED instead of READY.
+ * 2. Metadata: the picture size, frame rate, and bit rate are read from the
+ *    first mpeg sequence header in the data.
+ * 3. Thumbnail: the first picture (which is always intra coded, so it can
+ *    be shown on its own) is cut out together with the sequence header in
+ *    front of it, which makes a one frame mpeg video that can be used as a
+ *    poster. This is a pure Java stand-in for a real thumbnailer: nothing is
+ *    decoded, and in a program stream the pack and packet headers in
+ *    between are cut out with the picture.
+ *
+ * Once the stages are done the video is READY, and its VideoMetadata is
+ * available from getMetadata(). If one of them fails the video is FAILED and
+ * has no metadata, until new data is uploaded for it. Clients poll
+ * GET /video/{id}/status (see VideoProcessingController) and code in the
+ * server can use whenProcessed() to be told when it happens.
+ *
+ * The stages never run on the thread that submits a video, which is a
+ * container thread answering an upload. The work queue is unbounded instead,
+ * but each entry is only a video id and its future, not the video's data.
+ *
+ * The thumbnails are kept in "videos/thumbnails", named after the hash of
+ * the video's data, so videos with the same data share one. Which videos are
+ * being processed or have failed, and the metadata, are only kept in memory;
+ * after a restart a video whose data is there is READY.
+ *
+ * @author jules
+ *
+ */
+public class VideoProcessor {
+
+	public static final int WORKERS = 2;
+
+	// How much of the start of the data is searched for the sequence
+	// header and the first picture
+	private static final int HEAD_LENGTH = 1024 * 1024;
+
+	// The mpeg start codes are 00 00 01 followed by one of these
+	private static final int PICTURE_START_CODE = 0x00;
+
+	private static final int SEQUENCE_HEADER_CODE = 0xB3;
+
+	private static final int SEQUENCE_END_CODE = 0xB7;
+
+	private static final int I_PICTURE = 1;
+
+	// The frame rates that the frame_rate_code in a sequence header
+	// stands for
+	private static final double[] FRAME_RATES = { 0, 24000 / 1001.0, 24, 25, 30000 / 1001.0, 30, 50,
+			60000 / 1001.0, 60 };
+
+	// The sequence header gives the bit rate in units of 400 bit/s
+	private static final long BIT_RATE_UNIT = 400;
+
+	private static VideoProcessor processor_;
+
+	/**
+	 * Returns the VideoProcessor that the server's controllers and servlets
+	 * share, creating it the first time that it is asked for.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized VideoProcessor get() throws IOException {
+		if (processor_ == null) {
+			processor_ = new VideoProcessor(VideoFileManager.get(), Paths.get("videos", "thumbnails"),
+					WORKERS);
+		}
+		return processor_;
+	}
+
+	private final VideoFileManager videoDataMgr_;
+
+	private final Path thumbnailDir_;
+
+	private final ThreadPoolExecutor executor_;
+
+	// video id -> the processing that is going on for it. Guarded by this.
+	private final Map<Long, SettableFuture<VideoMetadata>> processing_ = new HashMap<Long, SettableFuture<VideoMetadata>>();
+
+	// video id -> what the last processing of its data found. Guarded by this.
+	private final Map<Long, VideoMetadata> metadata_ = new HashMap<Long, VideoMetadata>();
+
+	// The ids of the videos whose last processing failed. Guarded by this.
+	private final Set<Long> failed_ = new HashSet<Long>();
+
+	// Use get() instead. This is only visible so that the tests can use a
+	// processor with a different number of workers.
+	VideoProcessor(VideoFileManager videoDataMgr, Path thumbnailDir, int workers) throws IOException {
+		videoDataMgr_ = videoDataMgr;
+		thumbnailDir_ = thumbnailDir;
+		Files.createDirectories(thumbnailDir_);
+		executor_ = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("video-processing-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Starts processing the data that was just stored for the given video.
+	 * Any processing of data that the video had before is forgotten.
+	 *
+	 * @param v
+	 * @return PROCESSING, or READY or FAILED if the processing is already done
+	 */
+	public VideoState submit(Video v) {
+		final long id = v.getId();
+		final SettableFuture<VideoMetadata> done = SettableFuture.create();
+		synchronized (this) {
+			processing_.put(id, done);
+			metadata_.remove(id);
+			failed_.remove(id);
+		}
+
+		// Only the id goes into the queue. The stages only need the id to
+		// find the video's data.
+		executor_.execute(new Runnable() {
+			@Override
+			public void run() {
+				Video video = new Video();
+				video.setId(id);
+				VideoMetadata metadata = null;
+				Throwable failure = null;
+				try {
+					metadata = process(video);
+				} catch (Throwable t) {
+					failure = t;
+				}
+
+				// Newer data may have been submitted in the meantime, in which
+				// case this result is out of date
+				synchronized (VideoProcessor.this) {
+					if (processing_.get(id) == done) {
+						processing_.remove(id);
+						if (failure != null) {
+							failed_.add(id);
+						} else {
+							metadata_.put(id, metadata);
+						}
+					}
+				}
+				if (failure != null) {
+					done.setException(failure);
+				} else {
+					done.set(metadata);
+				}
+			}
+		});
+
+		synchronized (this) {
+			if (processing_.get(id) == done) {
+				return VideoState.PROCESSING;
+			}
+			return failed_.contains(id) ? VideoState.FAILED : VideoState.READY;
+		}
+	}
+
+	/**
+	 * Returns PROCESSING while the given video's data is being processed,
+	 * FAILED if the processing failed, READY once it is done (or if the
+	 * video's data was never submitted), and null if the video doesn't have
+	 * any data.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public VideoState getState(Video v) {
+		if (!videoDataMgr_.hasVideoData(v)) {
+			return null;
+		}
+		synchronized (this) {
+			if (processing_.containsKey(v.getId())) {
+				return VideoState.PROCESSING;
+			}
+			return failed_.contains(v.getId()) ? VideoState.FAILED : VideoState.READY;
+		}
+	}
+
+	/**
+	 * Returns what the processing found out about the given video's data, or
+	 * null if it hasn't been processed (yet) or the processing failed.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public synchronized VideoMetadata getMetadata(Video v) {
+		return metadata_.get(v.getId());
+	}
+
+	/**
+	 * Returns a future that is done once the given video's data has been
+	 * processed. It fails if the processing does, and it is done right away
+	 * (with the metadata, if there is any) if nothing is being processed.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public synchronized ListenableFuture<VideoMetadata> whenProcessed(Video v) {
+		SettableFuture<VideoMetadata> done = processing_.get(v.getId());
+		return done != null ? done : Futures.immediateFuture(metadata_.get(v.getId()));
+	}
+
+	/**
+	 * Copies the thumbnail of the given video to the output stream.
+	 *
+	 * @param v
+	 * @param out
+	 * @return false if the video doesn't have a thumbnail
+	 * @throws IOException
+	 */
+	public boolean copyThumbnail(Video v, OutputStream out) throws IOException {
+		VideoMetadata metadata = getMetadata(v);
+		if (metadata == null || !metadata.isThumbnail()) {
+			return false;
+		}
+		Files.copy(getThumbnailPath(metadata.getSha256()), out);
+		return true;
+	}
+
+	// Runs the stages for the video's data
+	private VideoMetadata process(Video v) throws IOException {
+		VideoMetadata metadata = new VideoMetadata();
+		metadata.setLength(videoDataMgr_.getVideoDataLength(v));
+		metadata.setSha256(checksum(v));
+
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		videoDataMgr_.copyVideoData(v, 0, Math.min(metadata.getLength(), HEAD_LENGTH), Channels.newChannel(head));
+		byte[] data = head.toByteArray();
+
+		int sequenceHeader = findStartCode(data, SEQUENCE_HEADER_CODE, 0);
+		if (sequenceHeader >= 0) {
+			readSequenceHeader(data, sequenceHeader, metadata);
+			metadata.setThumbnail(saveThumbnail(data, sequenceHeader, metadata.getSha256()));
+		}
+		return metadata;
+	}
+
+	// Hash the whole of the data and check that it is what the blob store
+	// thinks it is
+	private String checksum(Video v) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(VideoBlobStore.HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		videoDataMgr_.copyVideoData(v, new DigestOutputStream(ByteStreams.nullOutputStream(), digest));
+
+		String sha256 = BaseEncoding.base16().lowerCase().encode(digest.digest());
+		String stored = videoDataMgr_.getVideoDataHash(v);
+		if (stored != null && !stored.equals(sha256)) {
+			throw new IOException("The data of video " + v.getId() + " doesn't match its hash");
+		}
+		return sha256;
+	}
+
+	// The sequence header is the start code followed by 12 bits of width,
+	// 12 bits of height, 4 bits of aspect ratio, 4 bits of frame rate code,
+	// and 18 bits of bit rate
+	private void readSequenceHeader(byte[] data, int start, VideoMetadata metadata) {
+		if (start + 11 > data.length) {
+			return;
+		}
+		int b4 = data[start + 4] & 0xFF, b5 = data[start + 5] & 0xFF, b6 = data[start + 6] & 0xFF;
+		int b7 = data[start + 7] & 0xFF, b8 = data[start + 8] & 0xFF, b9 = data[start + 9] & 0xFF;
+		int b10 = data[start + 10] & 0xFF;
+
+		metadata.setWidth((b4 << 4) | (b5 >> 4));
+		metadata.setHeight(((b5 & 0x0F) << 8) | b6);
+		int frameRateCode = b7 & 0x0F;
+		if (frameRateCode < FRAME_RATES.length) {
+			metadata.setFrameRate(FRAME_RATES[frameRateCode]);
+		}
+		metadata.setBitRate(((b8 << 10) | (b9 << 2) | (b10 >> 6)) * BIT_RATE_UNIT);
+	}
+
+	// Cut out everything from the sequence header up to the second picture,
+	// as long as the first picture is an I picture, and end it with a
+	// sequence end code
+	private boolean saveThumbnail(byte[] data, int sequenceHeader, String sha256) throws IOException {
+		Path thumbnail = getThumbnailPath(sha256);
+		if (Files.exists(thumbnail)) {
+			return true;
+		}
+
+		int first = findStartCode(data, PICTURE_START_CODE, sequenceHeader);
+		if (first < 0 || first + 5 >= data.length || ((data[first + 5] >> 3) & 0x07) != I_PICTURE) {
+			return false;
+		}
+		int second = findStartCode(data, PICTURE_START_CODE, first + 4);
+		if (second < 0) {
+			return false;
+		}
+
+		Path temp = Files.createTempFile(thumbnailDir_, "thumbnail", ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				out.write(data, sequenceHeader, second - sequenceHeader);
+				out.write(new byte[] { 0, 0, 1, (byte) SEQUENCE_END_CODE });
+			}
+			Files.move(temp, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return true;
+	}
+
+	private Path getThumbnailPath(String sha256) {
+		return thumbnailDir_.resolve(sha256 + ".mpg");
+	}
+
+	// The index of the first 00 00 01 <code> at or after from, or -1
+	private static int findStartCode(byte[] data, int code, int from) {
+		for (int i = from; i + 3 < data.length; i++) {
+			if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1 && (data[i + 3] & 0xFF) == code) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
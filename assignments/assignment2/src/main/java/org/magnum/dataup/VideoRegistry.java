@@ -0,0 +1,71 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.magnum.dataup.model.Video;
+
+/**
+ * This class keeps track of which videos have been added to the server, so
+ * that the parts of the server that were written for you
+ * (VideoUploadController and StreamingVideoDataServlet) can answer a 404 for
+ * data sent for a video that doesn't exist, instead of storing it.
+ *
+ * The controller that you write for POST /video should call
+ * VideoRegistry.get().register(v) once it has given the Video its id.
+ * Like the list of videos, the registry is only kept in memory.
+ *
+ * @author jules
+ *
+ */
+public class VideoRegistry {
+
+	private static final VideoRegistry registry_ = new VideoRegistry();
+
+	/**
+	 * Returns the VideoRegistry that the server's controllers and servlets
+	 * share.
+	 *
+	 * @return
+	 */
+	public static VideoRegistry get() {
+		return registry_;
+	}
+
+	private final Set<Long> ids_ = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+	// Use get() instead
+	private VideoRegistry() {
+	}
+
+	public void register(Video v) {
+		ids_.add(v.getId());
+	}
+
+	public void unregister(Video v) {
+		ids_.remove(v.getId());
+	}
+
+	public boolean contains(long id) {
+		return ids_.contains(id);
+	}
+
+}
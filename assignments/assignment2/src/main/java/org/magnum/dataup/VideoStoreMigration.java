@@ -0,0 +1,102 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This tool moves the video data that an older version of the server left
+ * in the flat "videos" folder (one "video<id>.mpg" file per video) into
+ * the sharded VideoBlobStore in "videos/blobs". Each file is renamed into
+ * its blob's subdirectory, so no data is copied, and a file whose data is
+ * already in the store is simply deleted. Blobs that are still in the flat
+ * layout of the blob store itself are moved into their subdirectories when
+ * the store is opened.
+ *
+ * Once the files have been moved, the blobs that no video refers to (which
+ * a crash can leave behind) are deleted as well.
+ *
+ * The blob store's index belongs to the server that is using it, so the
+ * server has to be stopped while this runs. It can be run with:
+ *
+ *   gradle migrateVideoStore
+ *
+ * or, for a folder other than "videos":
+ *
+ *   java -cp ... org.magnum.dataup.VideoStoreMigration /path/to/videos
+ *
+ * @author jules
+ *
+ */
+public class VideoStoreMigration {
+
+	// The name of a video's file in the old flat layout
+	private static final Pattern VIDEO_FILE_PATTERN = Pattern.compile("video(\\d+)\\.mpg");
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Paths.get(args.length > 0 ? args[0] : "videos");
+		if (!Files.isDirectory(dir)) {
+			System.err.println(dir + " isn't a directory");
+			System.exit(1);
+		}
+
+		VideoBlobStore store = VideoBlobStore.get(dir.resolve("blobs"));
+		int migrated = migrate(dir, store);
+		int orphans = store.removeOrphans();
+		System.out.println("Moved " + migrated + " videos into " + dir.resolve("blobs")
+				+ " and deleted " + orphans + " unused blobs");
+	}
+
+	/**
+	 * Moves every "video<id>.mpg" file in the given directory into the
+	 * given store. A video that already has data in the store keeps it,
+	 * since that data was saved after the old file.
+	 *
+	 * @param dir
+	 * @param store
+	 * @return the number of files that were moved into the store
+	 * @throws IOException
+	 */
+	public static int migrate(Path dir, VideoBlobStore store) throws IOException {
+		int migrated = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "video*.mpg")) {
+			for (Path file : files) {
+				Matcher m = VIDEO_FILE_PATTERN.matcher(file.getFileName().toString());
+				if (!m.matches()) {
+					continue;
+				}
+				long videoId = Long.parseLong(m.group(1));
+				if (store.getHash(videoId) == null) {
+					store.storeFile(videoId, file);
+					migrated++;
+				} else {
+					Files.delete(file);
+				}
+			}
+		}
+		return migrated;
+	}
+
+}
@@ -44,18 +44,24 @@ package org.magnum.dataup;
  */
 import java.util.Collection;
 
+import org.magnum.dataup.model.UploadSession;
 import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoMetadata;
 import org.magnum.dataup.model.VideoStatus;
 
 import retrofit.client.Response;
 import retrofit.http.Body;
 import retrofit.http.GET;
+import retrofit.http.Header;
 import retrofit.http.Multipart;
 import retrofit.http.POST;
+import retrofit.http.PUT;
 import retrofit.http.Part;
 import retrofit.http.Path;
+import retrofit.http.Query;
 import retrofit.http.Streaming;
 import retrofit.mime.TypedFile;
+import retrofit.mime.TypedOutput;
 
 /**
  * This interface defines an API for a VideoSvc. The
@@ -74,6 +80,9 @@ import retrofit.mime.TypedFile;
  *     persisted across restarts of the server. The list of
  *     Video objects should be able to be unmarshalled by the
  *     client into a Collection<Video>.
+ *   - The response has an ETag header, and a request whose If-None-Match
+ *     header matches it gets a 304 with no body (Application sets this up
+ *     for you).
  *     
  * POST /video
  *   - The video data is provided as an application/json request
@@ -87,6 +96,10 @@ import retrofit.mime.TypedFile;
  *     method. The returned Video JSON should include this server-generated
  *     identifier so that the client can refer to it when uploading the
  *     binary mpeg video content for the Video.
+ *    -- The server should register the Video with
+ *     VideoRegistry.get().register(v) once it has its id. The resumable and
+ *     streaming uploads, which are implemented for you, answer a 404 for
+ *     any video that isn't registered.
  *    -- The server should also generate a "data url" for the
  *     Video. The "data url" is the url of the binary data for a
  *     Video (e.g., the raw mpeg data). The URL should be the *full* URL
@@ -112,6 +125,47 @@ import retrofit.mime.TypedFile;
  *     identifier. If no mpeg data has been uploaded for the specified video,
  *     then the server should return a 404 status code.
  *     
+ * Resumable uploads (already implemented for you by VideoUploadController):
+ * 
+ * POST /video/{id}/upload?length={length}
+ *   - Starts an upload of length bytes of mpeg data for the video and
+ *     returns an UploadSession.
+ * 
+ * PUT /video/{id}/upload/{uploadId}/{chunk}?offset={offset}
+ *   - Sends one chunk of the data as the raw (application/octet-stream)
+ *     request body. Chunks are numbered from 0 and each one has to start
+ *     at the offset in the UploadSession. A Content-MD5 header with the
+ *     Base64 MD5 of the chunk lets the server reject a corrupted chunk.
+ *     Returns the updated UploadSession, or a 409 with the current one
+ *     if the chunk is out of order.
+ * 
+ * GET /video/{id}/upload/{uploadId}
+ *   - Returns the UploadSession, so that a client that lost its
+ *     connection can find out where to carry on from.
+ * 
+ * POST /video/{id}/upload/{uploadId}/commit
+ *   - Makes the uploaded data the video's data once every byte has
+ *     been received and returns the VideoStatus.
+ * 
+ * Processing (already implemented for you by VideoProcessingController):
+ * 
+ * The resumable and the streaming uploads return PROCESSING while the
+ * server checks the data and extracts its metadata and a thumbnail in
+ * the background.
+ * 
+ * GET /video/{id}/status
+ *   - Returns the VideoStatus of the video's data, which is READY once
+ *     the processing is done, FAILED if it failed (e.g., the data was
+ *     damaged on disk), or a 404 if the video has no data.
+ * 
+ * GET /video/{id}/metadata
+ *   - Returns the VideoMetadata that the processing found, or a 404 if
+ *     the processing isn't done yet (or failed).
+ * 
+ * GET /video/{id}/thumbnail
+ *   - Returns a one frame mpeg video with the first picture of the
+ *     video, or a 404 if there isn't one.
+ *     
  *     
  * The VideoSvcApi interface described below should be used as the ultimate ground
  * truth for what should be implemented in the assignment. If there are any details
@@ -135,6 +189,36 @@ public interface VideoSvcApi {
 	public static final String VIDEO_SVC_PATH = "/video";
 	
 	public static final String VIDEO_DATA_PATH = VIDEO_SVC_PATH + "/{id}/data";
+	
+	public static final String UPLOAD_ID_PARAMETER = "uploadId";
+	
+	public static final String CHUNK_PARAMETER = "chunk";
+	
+	public static final String LENGTH_PARAMETER = "length";
+	
+	public static final String OFFSET_PARAMETER = "offset";
+	
+	public static final String SHA256_PARAMETER = "sha256";
+	
+	public static final String CONTENT_MD5_HEADER = "Content-MD5";
+	
+	public static final String VIDEO_UPLOAD_PATH = VIDEO_SVC_PATH + "/{id}/upload";
+	
+	public static final String VIDEO_UPLOAD_SESSION_PATH = VIDEO_UPLOAD_PATH + "/{uploadId}";
+	
+	public static final String VIDEO_UPLOAD_CHUNK_PATH = VIDEO_UPLOAD_SESSION_PATH + "/{chunk}";
+	
+	public static final String VIDEO_UPLOAD_COMMIT_PATH = VIDEO_UPLOAD_SESSION_PATH + "/commit";
+	
+	public static final String VIDEO_STREAM_SVC_PATH = "/stream" + VIDEO_SVC_PATH;
+	
+	public static final String VIDEO_DATA_STREAM_PATH = VIDEO_STREAM_SVC_PATH + "/{id}/data";
+	
+	public static final String VIDEO_STATUS_PATH = VIDEO_SVC_PATH + "/{id}/status";
+	
+	public static final String VIDEO_METADATA_PATH = VIDEO_SVC_PATH + "/{id}/metadata";
+	
+	public static final String VIDEO_THUMBNAIL_PATH = VIDEO_SVC_PATH + "/{id}/thumbnail";
 
 	/**
 	 * This endpoint in the API returns a list of the videos that have
@@ -194,4 +278,108 @@ public interface VideoSvcApi {
     @GET(VIDEO_DATA_PATH)
     Response getData(@Path(ID_PARAMETER) long id);
 	
+	/**
+	 * This endpoint takes the same multipart request as setVideoData(), but
+	 * the server reads the request body as it arrives and writes the "data"
+	 * part straight to the video's file. Unlike a normal multipart request,
+	 * the web container never saves the upload to a temp file first, so the
+	 * video data is only written to disk once.
+	 * 
+	 * @param id
+	 * @param videoData
+	 * @return
+	 */
+	@Multipart
+	@POST(VIDEO_DATA_STREAM_PATH)
+	public VideoStatus streamVideoData(@Path(ID_PARAMETER) long id, @Part(DATA_PARAMETER) TypedFile videoData);
+	
+	/**
+	 * This endpoint starts a resumable upload of the mpeg data for a
+	 * previously added Video. Instead of sending the whole file in one
+	 * request, the client sends it in chunks with sendVideoDataChunk() and
+	 * then calls commitVideoData(). If the connection drops, the client
+	 * only has to send the chunks that the server doesn't have yet.
+	 * 
+	 * The server stores every distinct video only once. If the client sends
+	 * the SHA-256 hash of the data (as lower case hex) and the server already
+	 * has data with that hash and length, the video gets that data right
+	 * away: the UploadSession that comes back is already complete, and the
+	 * client can go straight to commitVideoData() without sending any chunks.
+	 * 
+	 * @param id
+	 * @param length the total number of bytes that will be uploaded
+	 * @param sha256 the hash of the data, or null if the client doesn't know it
+	 * @return
+	 */
+	@POST(VIDEO_UPLOAD_PATH)
+	public UploadSession startVideoDataUpload(@Path(ID_PARAMETER) long id, @Query(LENGTH_PARAMETER) long length,
+			@Query(SHA256_PARAMETER) String sha256);
+	
+	/**
+	 * This endpoint sends one chunk of a resumable upload. The chunk has to
+	 * start at UploadSession.getOffset() and be no bigger than
+	 * UploadSession.getMaxChunkSize(). The md5 is the Base64 encoded MD5
+	 * digest of the chunk (or null to skip the check).
+	 * 
+	 * @return the UploadSession with the new offset
+	 */
+	@PUT(VIDEO_UPLOAD_CHUNK_PATH)
+	public UploadSession sendVideoDataChunk(@Path(ID_PARAMETER) long id,
+			@Path(UPLOAD_ID_PARAMETER) String uploadId,
+			@Path(CHUNK_PARAMETER) int chunk,
+			@Query(OFFSET_PARAMETER) long offset,
+			@Header(CONTENT_MD5_HEADER) String md5,
+			@Body TypedOutput data);
+	
+	/**
+	 * This endpoint returns the current state of a resumable upload, which
+	 * tells a client that lost its connection which chunk to send next.
+	 * 
+	 * @return
+	 */
+	@GET(VIDEO_UPLOAD_SESSION_PATH)
+	public UploadSession getVideoDataUpload(@Path(ID_PARAMETER) long id, @Path(UPLOAD_ID_PARAMETER) String uploadId);
+	
+	/**
+	 * This endpoint finishes a resumable upload once all of the data has
+	 * been sent.
+	 * 
+	 * @return
+	 */
+	@POST(VIDEO_UPLOAD_COMMIT_PATH)
+	public VideoStatus commitVideoData(@Path(ID_PARAMETER) long id, @Path(UPLOAD_ID_PARAMETER) String uploadId);
+	
+	/**
+	 * This endpoint returns the VideoStatus of a video's data. After an
+	 * upload that returned PROCESSING, the client polls this until it
+	 * returns READY (or FAILED, in which case it uploads the data again).
+	 * 
+	 * @param id
+	 * @return
+	 */
+	@GET(VIDEO_STATUS_PATH)
+	public VideoStatus getVideoStatus(@Path(ID_PARAMETER) long id);
+	
+	/**
+	 * This endpoint returns the metadata (length, hash, picture size, frame
+	 * rate, and bit rate) that the server found in a video's data once it
+	 * is READY.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	@GET(VIDEO_METADATA_PATH)
+	public VideoMetadata getVideoMetadata(@Path(ID_PARAMETER) long id);
+	
+	/**
+	 * This endpoint returns the thumbnail of a video, which is a one frame
+	 * mpeg video with its first picture.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	@Streaming
+	@GET(VIDEO_THUMBNAIL_PATH)
+	public Response getVideoThumbnail(@Path(ID_PARAMETER) long id);
+	
 }
@@ -0,0 +1,292 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.magnum.dataup.model.UploadSession;
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoStatus;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * This controller implements the resumable upload part of the VideoSvcApi
+ * (see the description at the top of VideoSvcApi). It is separate from the
+ * controller that you write for the assignment and doesn't need anything
+ * from it.
+ *
+ * A resumable upload sends the video data in chunks of up to
+ * MAX_CHUNK_SIZE bytes. Each chunk is a plain request body (not a
+ * multipart request), so it is never spooled to a temp file by the
+ * container and isn't limited by the multipart MAX_REQUEST_SIZE in
+ * Application. The VideoFileManager writes each chunk straight into the
+ * video's partial file at the chunk's offset, and the commit renames the
+ * partial file into place.
+ *
+ * A client that sends the SHA-256 hash of the data when it starts an upload
+ * doesn't have to send any chunks if the server already has data with that
+ * hash (see VideoFileManager.linkVideoData()). The video gets the data at
+ * once, and the session comes back complete.
+ *
+ * Once the data is committed, it is handed to the VideoProcessor, and the
+ * commit returns PROCESSING without waiting for the processing to finish.
+ *
+ * The upload sessions are kept in memory. Starting an upload for a video
+ * replaces any earlier upload for it that wasn't committed. Sessions that
+ * haven't been used for SESSION_TIMEOUT are thrown away (with their
+ * partial files) the next time that an upload is started. Everything that
+ * touches a video's partial file holds that video's lock, so a new upload
+ * can't truncate the file while a chunk of the upload it replaces is still
+ * being written to it.
+ *
+ * Uploads are only accepted for videos in the VideoRegistry; for any other
+ * id the server answers 404 Not Found.
+ *
+ * @author jules
+ *
+ */
+@Controller
+public class VideoUploadController {
+
+	public static final long MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	public static final long SESSION_TIMEOUT = 24 * 60 * 60 * 1000L;
+
+	private final ConcurrentMap<String, UploadSession> sessions = new ConcurrentHashMap<String, UploadSession>();
+
+	// video id -> the lock for the video's partial file and sessions
+	private final ConcurrentMap<Long, Object> locks = new ConcurrentHashMap<Long, Object>();
+
+	private VideoFileManager videoDataMgr;
+
+	private VideoProcessor processor;
+
+	public VideoUploadController() throws IOException {
+		videoDataMgr = VideoFileManager.get();
+		processor = VideoProcessor.get();
+	}
+
+	@RequestMapping(value = VideoSvcApi.VIDEO_UPLOAD_PATH, method = RequestMethod.POST)
+	public @ResponseBody UploadSession startVideoDataUpload(
+			@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@RequestParam(VideoSvcApi.LENGTH_PARAMETER) long length,
+			@RequestParam(value = VideoSvcApi.SHA256_PARAMETER, required = false) String sha256) throws IOException {
+		if (length < 0) {
+			throw new IllegalArgumentException("The length can't be negative");
+		}
+		if (!VideoRegistry.get().contains(id)) {
+			throw new VideoNotFoundException();
+		}
+		expireSessions();
+
+		synchronized (lock(id)) {
+			// A new upload for a video replaces any that hasn't been
+			// committed yet, since they share the video's partial file
+			for (Iterator<UploadSession> it = sessions.values().iterator(); it.hasNext();) {
+				if (it.next().getVideoId() == id) {
+					it.remove();
+				}
+			}
+
+			UploadSession session = new UploadSession(UUID.randomUUID().toString(), id, length, MAX_CHUNK_SIZE);
+			session.setLastUsed(System.currentTimeMillis());
+			if (sha256 != null && videoDataMgr.linkVideoData(video(id), sha256, length)) {
+				session.setOffset(length);
+				session.setDeduplicated(true);
+			} else {
+				videoDataMgr.truncateVideoDataChunks(video(id), 0);
+			}
+			sessions.put(session.getId(), session);
+			return session;
+		}
+	}
+
+	@RequestMapping(value = VideoSvcApi.VIDEO_UPLOAD_SESSION_PATH, method = RequestMethod.GET)
+	public @ResponseBody UploadSession getVideoDataUpload(
+			@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoSvcApi.UPLOAD_ID_PARAMETER) String uploadId) {
+		return getSession(id, uploadId);
+	}
+
+	// Receives one chunk as the raw request body. The chunk is only
+	// accepted if it starts where the last one ended, fits in the upload,
+	// and matches its Content-MD5. Otherwise whatever was written for it
+	// is cut off again so that the client can simply send it again.
+	@RequestMapping(value = VideoSvcApi.VIDEO_UPLOAD_CHUNK_PATH, method = RequestMethod.PUT)
+	public ResponseEntity<UploadSession> sendVideoDataChunk(
+			@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoSvcApi.UPLOAD_ID_PARAMETER) String uploadId,
+			@PathVariable(VideoSvcApi.CHUNK_PARAMETER) int chunk,
+			@RequestParam(VideoSvcApi.OFFSET_PARAMETER) long offset,
+			@RequestHeader(value = VideoSvcApi.CONTENT_MD5_HEADER, required = false) String md5,
+			HttpServletRequest request) throws IOException {
+		UploadSession session = getSession(id, uploadId);
+
+		// Only one chunk of a video can be written at a time, and not while
+		// a new upload for it is started
+		synchronized (lock(id)) {
+			checkCurrent(session);
+			session.setLastUsed(System.currentTimeMillis());
+			if (chunk != session.getNextChunk() || offset != session.getOffset()) {
+				return new ResponseEntity<UploadSession>(session, HttpStatus.CONFLICT);
+			}
+
+			MessageDigest digest = md5Digest();
+			Video v = video(id);
+			long written = 0;
+			boolean accepted = false;
+			try {
+				written = videoDataMgr.writeVideoDataChunk(v, offset,
+						new DigestInputStream(request.getInputStream(), digest), MAX_CHUNK_SIZE);
+				if (written > MAX_CHUNK_SIZE || offset + written > session.getLength()) {
+					return new ResponseEntity<UploadSession>(session, HttpStatus.REQUEST_ENTITY_TOO_LARGE);
+				}
+				if (md5 != null && !md5.equals(BaseEncoding.base64().encode(digest.digest()))) {
+					return new ResponseEntity<UploadSession>(session, HttpStatus.BAD_REQUEST);
+				}
+				accepted = true;
+			} finally {
+				if (!accepted) {
+					videoDataMgr.truncateVideoDataChunks(v, session.getOffset());
+				}
+			}
+
+			session.setOffset(offset + written);
+			session.setNextChunk(chunk + 1);
+			return new ResponseEntity<UploadSession>(session, HttpStatus.OK);
+		}
+	}
+
+	@RequestMapping(value = VideoSvcApi.VIDEO_UPLOAD_COMMIT_PATH, method = RequestMethod.POST)
+	public ResponseEntity<VideoStatus> commitVideoData(
+			@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoSvcApi.UPLOAD_ID_PARAMETER) String uploadId) throws IOException {
+		UploadSession session = getSession(id, uploadId);
+		synchronized (lock(id)) {
+			checkCurrent(session);
+			if (!session.isComplete()) {
+				return new ResponseEntity<VideoStatus>(HttpStatus.CONFLICT);
+			}
+			if (!session.isDeduplicated()) {
+				videoDataMgr.commitVideoDataChunks(video(id));
+			}
+			sessions.remove(uploadId);
+			return new ResponseEntity<VideoStatus>(new VideoStatus(processor.submit(video(id))), HttpStatus.OK);
+		}
+	}
+
+	// Unknown videos and unknown (or expired) upload sessions are
+	// reported to the client as a 404 Not Found
+	@ExceptionHandler({ VideoNotFoundException.class, UploadNotFoundException.class })
+	@ResponseStatus(HttpStatus.NOT_FOUND)
+	public void uploadNotFound() {
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void badRequest() {
+	}
+
+	private UploadSession getSession(long id, String uploadId) {
+		UploadSession session = sessions.get(uploadId);
+		if (session == null || session.getVideoId() != id) {
+			throw new UploadNotFoundException();
+		}
+		return session;
+	}
+
+	// A session that was replaced (or expired) while its request was
+	// waiting for the video's lock must not touch the partial file, which
+	// now belongs to the newer upload
+	private void checkCurrent(UploadSession session) {
+		if (sessions.get(session.getId()) != session) {
+			throw new UploadNotFoundException();
+		}
+	}
+
+	private Object lock(long id) {
+		Object lock = locks.get(id);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = locks.putIfAbsent(id, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+
+	private void expireSessions() throws IOException {
+		long cutoff = System.currentTimeMillis() - SESSION_TIMEOUT;
+		for (UploadSession session : sessions.values()) {
+			if (session.getLastUsed() < cutoff) {
+				synchronized (lock(session.getVideoId())) {
+					if (sessions.remove(session.getId(), session)) {
+						videoDataMgr.deleteVideoDataChunks(video(session.getVideoId()));
+					}
+				}
+			}
+		}
+	}
+
+	// The VideoFileManager only needs the id of the video to find its files
+	private Video video(long id) {
+		Video v = new Video();
+		v.setId(id);
+		return v;
+	}
+
+	private MessageDigest md5Digest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class VideoNotFoundException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class UploadNotFoundException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * The state of a resumable upload of a video's data. The client sends
+ * the data in numbered chunks, each of which starts at the offset where
+ * the previous one ended. If the connection drops, the client asks the
+ * server for the UploadSession and carries on from its offset instead of
+ * starting over.
+ *
+ * @author jules
+ *
+ */
+public class UploadSession {
+
+	private String id;
+	private long videoId;
+	private long length;
+	private long offset;
+	private int nextChunk;
+	private long maxChunkSize;
+	private boolean deduplicated;
+
+	// When the session was last used, so that abandoned sessions
+	// can be cleaned up
+	@JsonIgnore
+	private long lastUsed;
+
+	public UploadSession() {
+	}
+
+	public UploadSession(String id, long videoId, long length, long maxChunkSize) {
+		this.id = id;
+		this.videoId = videoId;
+		this.length = length;
+		this.maxChunkSize = maxChunkSize;
+	}
+
+	// The id that the client uses in the paths of the chunks
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public long getVideoId() {
+		return videoId;
+	}
+
+	public void setVideoId(long videoId) {
+		this.videoId = videoId;
+	}
+
+	// The total number of bytes that will be uploaded
+	public long getLength() {
+		return length;
+	}
+
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	// The number of bytes that the server has received so far, which is
+	// where the next chunk has to start
+	public long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	// The number of the next chunk that the server expects
+	public int getNextChunk() {
+		return nextChunk;
+	}
+
+	public void setNextChunk(int nextChunk) {
+		this.nextChunk = nextChunk;
+	}
+
+	// The largest chunk that the server will accept
+	public long getMaxChunkSize() {
+		return maxChunkSize;
+	}
+
+	public void setMaxChunkSize(long maxChunkSize) {
+		this.maxChunkSize = maxChunkSize;
+	}
+
+	// True if the server already had the data, so the upload was complete
+	// as soon as it was started
+	public boolean isDeduplicated() {
+		return deduplicated;
+	}
+
+	public void setDeduplicated(boolean deduplicated) {
+		this.deduplicated = deduplicated;
+	}
+
+	@JsonIgnore
+	public long getLastUsed() {
+		return lastUsed;
+	}
+
+	public void setLastUsed(long lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+
+	@JsonIgnore
+	public boolean isComplete() {
+		return offset == length;
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magnum.dataup.model;
+
+
+/**
+ * What the VideoProcessor found out about a video's data after it was
+ * uploaded. The fields that come from the mpeg sequence header (the
+ * width, height, frame rate, and bit rate) are 0 if the data doesn't
+ * have one.
+ *
+ * @author jules
+ *
+ */
+public class VideoMetadata {
+
+	private long length;
+	private String sha256;
+	private int width;
+	private int height;
+	private double frameRate;
+	private long bitRate;
+	private boolean thumbnail;
+
+	public VideoMetadata() {
+	}
+
+	// The number of bytes of data
+	public long getLength() {
+		return length;
+	}
+
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	// The SHA-256 hash of the data as lower case hex
+	public String getSha256() {
+		return sha256;
+	}
+
+	public void setSha256(String sha256) {
+		this.sha256 = sha256;
+	}
+
+	// The size of the picture in pixels
+	public int getWidth() {
+		return width;
+	}
+
+	public void setWidth(int width) {
+		this.width = width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void setHeight(int height) {
+		this.height = height;
+	}
+
+	// Frames per second
+	public double getFrameRate() {
+		return frameRate;
+	}
+
+	public void setFrameRate(double frameRate) {
+		this.frameRate = frameRate;
+	}
+
+	// Bits per second, as declared by the encoder
+	public long getBitRate() {
+		return bitRate;
+	}
+
+	public void setBitRate(long bitRate) {
+		this.bitRate = bitRate;
+	}
+
+	// True if a thumbnail could be cut out of the data
+	public boolean isThumbnail() {
+		return thumbnail;
+	}
+
+	public void setThumbnail(boolean thumbnail) {
+		this.thumbnail = thumbnail;
+	}
+
+}
@@ -0,0 +1,267 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ *
+ * This test uploads a large video to an embedded Tomcat in two ways and
+ * measures how long each upload takes and how much data the server writes
+ * to files for it:
+ *
+ * 1. A multipart servlet, set up with the same MultipartConfigElement as
+ *    Application. Tomcat saves the part to a temp file and the servlet then
+ *    copies it into the "videos" folder with saveVideoData(), which is what
+ *    happens with a Spring controller for POST /video/{id}/data
+ * 2. The StreamingVideoDataServlet, which parses the request as it arrives
+ *    and writes the part straight to the video's file
+ *
+ * After each upload the video is downloaded again from the
+ * StreamingVideoDataServlet to check that it was saved correctly.
+ *
+ * The data written to files is the "wchar" counter of /proc/self/io (so this
+ * part of the measurement only works on Linux) minus the bytes that the
+ * client wrote to the socket, since the client runs in the same process.
+ *
+ * The size of the video (in MB) and the number of uploads can be changed
+ * with the "benchmark.megabytes" and "benchmark.rounds" system properties.
+ *
+ * The measurements need -Dbenchmark=true; the 1 MB upload check always runs.
+ *
+ * @author jules
+ *
+ */
+public class StreamingUploadBenchmarkTest {
+
+	private static final long MB = 1024 * 1024;
+
+	private static final String BOUNDARY = "StreamingUploadBenchmarkTestBoundary";
+
+	private static final Path PROC_IO = Paths.get("/proc/self/io");
+
+	private Tomcat tomcat;
+
+	private Path baseDir;
+
+	private Video video = new Video();
+
+	private byte[] chunk = new byte[(int) MB];
+
+	private long length;
+
+	@Before
+	public void setUp() throws Exception {
+		video.setId(Long.MAX_VALUE - 3000 - new Random().nextInt(1000));
+		VideoRegistry.get().register(video);
+		new Random().nextBytes(chunk);
+		length = MB;
+
+		baseDir = Files.createTempDirectory("tomcat");
+		tomcat = new Tomcat();
+		tomcat.setPort(0);
+		tomcat.setBaseDir(baseDir.toString());
+		Context ctx = tomcat.addContext("", baseDir.toString());
+
+		Wrapper spooled = Tomcat.addServlet(ctx, "spooled", new SpooledVideoDataServlet());
+		spooled.setMultipartConfigElement(new MultipartConfigElement(baseDir.toString(),
+				Application.MAX_REQUEST_SIZE, Application.MAX_REQUEST_SIZE, 0));
+		ctx.addServletMapping("/spooled" + VideoSvcApi.VIDEO_SVC_PATH + "/*", "spooled");
+
+		Wrapper stream = Tomcat.addServlet(ctx, "stream", new StreamingVideoDataServlet());
+		stream.setAsyncSupported(true);
+		ctx.addServletMapping(VideoSvcApi.VIDEO_STREAM_SVC_PATH + "/*", "stream");
+
+		tomcat.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		tomcat.stop();
+		tomcat.destroy();
+		FileSystemUtils.deleteRecursively(baseDir.toFile());
+		VideoFileManager.get().deleteVideoData(video);
+		VideoRegistry.get().unregister(video);
+	}
+
+	@Test
+	public void testUploadsAreSaved() throws Exception {
+		upload(spooledPath(), 1);
+		upload(streamPath(), 1);
+	}
+
+	@Test
+	public void testUnknownVideoIsNotFound() throws Exception {
+		VideoRegistry.get().unregister(video);
+
+		// The video is looked up before the body is even checked
+		HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:"
+				+ tomcat.getConnector().getLocalPort() + streamPath()).openConnection();
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		conn.getOutputStream().close();
+		assertEquals(HttpURLConnection.HTTP_NOT_FOUND, conn.getResponseCode());
+	}
+
+	@Test
+	public void testUploadLatencyAndDiskWrites() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		int rounds = Integer.getInteger("benchmark.rounds", 3);
+		length = Long.getLong("benchmark.megabytes", 100) * MB;
+		String spooledPath = spooledPath();
+		String streamPath = streamPath();
+
+		// Warm up
+		upload(spooledPath, 1);
+		upload(streamPath, 1);
+
+		report("Spooled multipart", upload(spooledPath, rounds), rounds);
+		report("Streaming multipart", upload(streamPath, rounds), rounds);
+	}
+
+	private String spooledPath() {
+		return "/spooled" + VideoSvcApi.VIDEO_SVC_PATH + "/" + video.getId() + "/data";
+	}
+
+	private String streamPath() {
+		return VideoSvcApi.VIDEO_STREAM_SVC_PATH + "/" + video.getId() + "/data";
+	}
+
+	// Upload the video the given number of times, check that the server
+	// saved it, and return the time taken and the file writes
+	private long[] upload(String path, int rounds) throws Exception {
+		long written = fileWrites();
+		long start = System.nanoTime();
+		long sent = 0;
+		for (int i = 0; i < rounds; i++) {
+			sent += post(path);
+		}
+		long elapsed = System.nanoTime() - start;
+		written = fileWrites() - written - sent;
+
+		checkSavedData(streamPath());
+		return new long[] { elapsed, written };
+	}
+
+	// Send one multipart request with the video and return the
+	// number of bytes in the request body
+	private long post(String path) throws IOException {
+		byte[] head = ("--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"" + VideoSvcApi.DATA_PARAMETER + "\"; filename=\"video.mpg\"\r\n"
+				+ "Content-Type: video/mpeg\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+		byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		long bodyLength = head.length + length + tail.length;
+
+		HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:"
+				+ tomcat.getConnector().getLocalPort() + path).openConnection();
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+		conn.setFixedLengthStreamingMode(bodyLength);
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(head);
+			for (long n = 0; n < length; n += chunk.length) {
+				out.write(chunk);
+			}
+			out.write(tail);
+		}
+		assertEquals(HttpURLConnection.HTTP_OK, conn.getResponseCode());
+		try (InputStream in = conn.getInputStream()) {
+			while (in.read() >= 0) {
+			}
+		}
+		return bodyLength;
+	}
+
+	// Download the video and check that it is the chunk over and over again
+	private void checkSavedData(String path) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:"
+				+ tomcat.getConnector().getLocalPort() + path).openConnection();
+		assertEquals(HttpURLConnection.HTTP_OK, conn.getResponseCode());
+		assertEquals(length, Long.parseLong(conn.getHeaderField("Content-Length")));
+
+		byte[] buffer = new byte[64 * 1024];
+		long position = 0;
+		try (InputStream in = conn.getInputStream()) {
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+				for (int i = 0; i < n; i++, position++) {
+					if (buffer[i] != chunk[(int) (position % chunk.length)]) {
+						fail("The saved data differs at byte " + position);
+					}
+				}
+			}
+		}
+		assertEquals(length, position);
+	}
+
+	// The number of bytes that this process has written so far (to files
+	// and sockets), or 0 if the operating system doesn't say
+	private long fileWrites() throws IOException {
+		if (!Files.isReadable(PROC_IO)) {
+			return 0;
+		}
+		List<String> lines = Files.readAllLines(PROC_IO, StandardCharsets.US_ASCII);
+		for (String line : lines) {
+			if (line.startsWith("wchar:")) {
+				return Long.parseLong(line.substring("wchar:".length()).trim());
+			}
+		}
+		return 0;
+	}
+
+	private void report(String name, long[] results, int rounds) {
+		System.out.println(String.format("%-20s %,8.0f ms per %d MB upload, %,8.1f MB written to files per upload",
+				name,
+				results[0] / 1e6 / rounds,
+				length / MB,
+				Files.isReadable(PROC_IO) ? (double) results[1] / MB / rounds : Double.NaN));
+	}
+
+	// Does what a Spring controller for POST /video/{id}/data does with
+	// the MultipartConfigElement from Application: the container saves the
+	// part to a temp file, and the part is then copied into "videos"
+	private static class SpooledVideoDataServlet extends HttpServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+				throws ServletException, IOException {
+			Video v = new Video();
+			v.setId(Long.parseLong(req.getPathInfo().split("/")[1]));
+			try (InputStream in = req.getPart(VideoSvcApi.DATA_PARAMETER).getInputStream()) {
+				VideoFileManager.get().saveVideoData(v, in);
+			}
+			resp.setContentType("application/json");
+			resp.getWriter().write("{\"state\":\"READY\"}");
+		}
+	}
+
+}
@@ -0,0 +1,328 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+/**
+ *
+ * This test checks that the VideoBlobStore keeps one copy of each distinct
+ * video, counts the videos that use it, deletes it when the last of them
+ * lets go, and finds everything again after a restart. It also checks that
+ * the blobs are spread over the subdirectories named after their hashes,
+ * and that blobs in the old flat layout are moved there.
+ *
+ * @author jules
+ *
+ */
+public class VideoBlobStoreTest {
+
+	private Path dir;
+
+	private VideoBlobStore store;
+
+	private byte[] data = new byte[5000];
+
+	private byte[] other = new byte[5000];
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("blobs");
+		store = new VideoBlobStore(dir);
+		new Random().nextBytes(data);
+		new Random().nextBytes(other);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(dir.toFile());
+	}
+
+	@Test
+	public void testDuplicatesAreStoredOnce() throws Exception {
+		String hash = store(1, data);
+		assertEquals(sha256(data), hash);
+		assertEquals(hash, store(2, data));
+
+		assertEquals(store.getBlobPath(1), store.getBlobPath(2));
+		assertEquals(2, store.getRefCount(hash));
+		assertEquals(1, countBlobs());
+		assertArrayEquals(data, Files.readAllBytes(store.getBlobPath(2)));
+
+		// The blob stays until the last video lets go of it
+		store.release(1);
+		assertNull(store.getBlobPath(1));
+		assertEquals(1, store.getRefCount(hash));
+		assertTrue(Files.exists(store.getBlobPath(2)));
+
+		Path blob = store.getBlobPath(2);
+		store.release(2);
+		assertEquals(0, store.getRefCount(hash));
+		assertFalse(Files.exists(blob));
+		assertEquals(0, countBlobs());
+	}
+
+	@Test
+	public void testNewDataReleasesOldBlob() throws Exception {
+		String first = store(1, data);
+		Path firstBlob = store.getBlobPath(1);
+		String second = store(1, other);
+
+		assertEquals(0, store.getRefCount(first));
+		assertFalse(Files.exists(firstBlob));
+		assertEquals(1, store.getRefCount(second));
+		assertArrayEquals(other, Files.readAllBytes(store.getBlobPath(1)));
+	}
+
+	@Test
+	public void testStoreFile() throws Exception {
+		store(1, data);
+		Path file = Files.write(dir.resolve("upload.part"), data);
+
+		assertEquals(sha256(data), store.storeFile(2, file));
+		assertFalse(Files.exists(file));
+		assertEquals(2, store.getRefCount(sha256(data)));
+		assertEquals(1, countBlobs());
+	}
+
+	@Test
+	public void testBlobsAreSharded() throws Exception {
+		String hash = store(1, data);
+		assertEquals(shardedPath(hash), store.getBlobPath(1));
+	}
+
+	// The data is only ever read on the reader's thread, which stands in
+	// for the web container's threads, and the disk work is left to the
+	// executor
+	@Test
+	public void testStoreAsync() throws Exception {
+		ExecutorService reader = Executors.newSingleThreadExecutor();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Thread readerThread = reader.submit(new Callable<Thread>() {
+				@Override
+				public Thread call() {
+					return Thread.currentThread();
+				}
+			}).get();
+			final Set<Thread> readThreads = Collections.synchronizedSet(new HashSet<Thread>());
+			ReadableByteChannel in = new FilterChannel(Channels.newChannel(new ByteArrayInputStream(data))) {
+				@Override
+				public int read(ByteBuffer dst) throws IOException {
+					readThreads.add(Thread.currentThread());
+					return super.read(dst);
+				}
+			};
+			String hash = store.storeAsync(1, in, reader, executor).get(10, TimeUnit.SECONDS);
+			assertEquals(sha256(data), hash);
+			assertArrayEquals(data, Files.readAllBytes(store.getBlobPath(1)));
+			assertEquals(Collections.singleton(readerThread), readThreads);
+
+			// The same data again doesn't add a blob
+			assertEquals(hash, store.storeAsync(2, Channels.newChannel(new ByteArrayInputStream(data)),
+					reader, executor).get(10, TimeUnit.SECONDS));
+			assertEquals(2, store.getRefCount(hash));
+			assertEquals(1, countBlobs());
+		} finally {
+			reader.shutdown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testLink() throws Exception {
+		String hash = store(1, data);
+
+		// Linking only works with the right hash and length
+		assertFalse(store.link(2, sha256(other), other.length));
+		assertFalse(store.link(2, hash, data.length + 1));
+		assertFalse(store.link(2, "../../etc/passwd", data.length));
+		assertNull(store.getBlobPath(2));
+
+		assertTrue(store.link(2, hash, data.length));
+		assertEquals(store.getBlobPath(1), store.getBlobPath(2));
+		assertEquals(2, store.getRefCount(hash));
+	}
+
+	@Test
+	public void testIndexSurvivesRestart() throws Exception {
+		String hash = store(1, data);
+		store(2, data);
+		store(3, other);
+		store.release(3);
+
+		// A blob that never made it into the index (e.g., because the server
+		// crashed in between) and a half written upload are cleaned up
+		Files.write(dir.resolve(sha256(other) + ".mpg"), other);
+		Files.write(dir.resolve("upload123.tmp"), other);
+
+		VideoBlobStore reloaded = new VideoBlobStore(dir);
+		assertEquals(hash, reloaded.getHash(1));
+		assertEquals(hash, reloaded.getHash(2));
+		assertNull(reloaded.getHash(3));
+		assertEquals(2, reloaded.getRefCount(hash));
+		assertEquals(1, countBlobs());
+		assertFalse(Files.exists(dir.resolve("upload123.tmp")));
+	}
+
+	// The changes only go to the journal, and a line that a crash cut
+	// short is ignored on the next load
+	@Test
+	public void testJournalIsReplayedOnLoad() throws Exception {
+		String hash = store(1, data);
+		String otherHash = store(2, other);
+		store.release(1);
+		assertFalse(Files.exists(dir.resolve(VideoBlobStore.INDEX_FILE)));
+		assertEquals(3, Files.readAllLines(dir.resolve(VideoBlobStore.JOURNAL_FILE), Charsets.US_ASCII).size());
+
+		Files.write(dir.resolve(VideoBlobStore.JOURNAL_FILE), ("2=" + hash.substring(0, 10)).getBytes(Charsets.US_ASCII),
+				StandardOpenOption.APPEND);
+
+		VideoBlobStore reloaded = new VideoBlobStore(dir);
+		assertNull(reloaded.getHash(1));
+		assertEquals(otherHash, reloaded.getHash(2));
+		assertEquals(0, reloaded.getRefCount(hash));
+		assertEquals(1, countBlobs());
+
+		// The load starts over with the whole mapping in the index
+		assertTrue(Files.exists(dir.resolve(VideoBlobStore.INDEX_FILE)));
+		assertFalse(Files.exists(dir.resolve(VideoBlobStore.JOURNAL_FILE)));
+	}
+
+	// However many videos are linked, the journal stays smaller than the
+	// index, and nothing is lost when it is compacted
+	@Test
+	public void testJournalIsCompacted() throws Exception {
+		String hash = store(0, data);
+		int videos = 2500;
+		for (int i = 1; i < videos; i++) {
+			assertTrue(store.link(i, hash, data.length));
+			Path journal = dir.resolve(VideoBlobStore.JOURNAL_FILE);
+			if (Files.exists(journal)) {
+				assertTrue(Files.readAllLines(journal, Charsets.US_ASCII).size() <= Math.max(1000, (i + 1) / 2));
+			}
+		}
+		assertTrue(Files.exists(dir.resolve(VideoBlobStore.INDEX_FILE)));
+
+		VideoBlobStore reloaded = new VideoBlobStore(dir);
+		assertEquals(videos, reloaded.getRefCount(hash));
+		assertEquals(hash, reloaded.getHash(videos - 1));
+	}
+
+	@Test
+	public void testFlatBlobsAreMovedOnLoad() throws Exception {
+		String hash = store(1, data);
+
+		// Put the blob where the old flat layout kept it
+		Path flat = dir.resolve(hash + ".mpg");
+		Files.move(store.getBlobPath(1), flat);
+
+		VideoBlobStore reloaded = new VideoBlobStore(dir);
+		assertFalse(Files.exists(flat));
+		assertArrayEquals(data, Files.readAllBytes(reloaded.getBlobPath(1)));
+		assertEquals(1, countBlobs());
+	}
+
+	@Test
+	public void testRemoveOrphans() throws Exception {
+		String hash = store(1, data);
+
+		// A blob that is in its subdirectory but not in the index, as if
+		// the server had crashed before adding it to the journal
+		Path orphan = shardedPath(sha256(other));
+		Files.createDirectories(orphan.getParent());
+		Files.write(orphan, other);
+		Path unrelated = Files.write(orphan.getParent().resolve("notes.txt"), other);
+
+		assertEquals(1, store.removeOrphans());
+		assertFalse(Files.exists(orphan));
+		assertTrue(Files.exists(unrelated));
+		assertEquals(1, store.getRefCount(hash));
+		assertEquals(1, countBlobs());
+	}
+
+	private String store(long videoId, byte[] bytes) throws Exception {
+		return store.store(videoId, Channels.newChannel(new ByteArrayInputStream(bytes)));
+	}
+
+	// "ab/cd/abcd....mpg"
+	private Path shardedPath(String hash) {
+		return dir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash + ".mpg");
+	}
+
+	// The number of blob files anywhere under the store's directory
+	private int countBlobs() throws Exception {
+		final int[] count = new int[1];
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (file.getFileName().toString().endsWith(".mpg")) {
+					count[0]++;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return count[0];
+	}
+
+	private String sha256(byte[] bytes) throws Exception {
+		return BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("SHA-256").digest(bytes));
+	}
+
+	// Passes everything on to another channel
+	private static class FilterChannel implements ReadableByteChannel {
+
+		private final ReadableByteChannel in;
+
+		private FilterChannel(ReadableByteChannel in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return in.read(dst);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return in.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
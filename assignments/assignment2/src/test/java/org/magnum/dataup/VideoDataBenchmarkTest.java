@@ -0,0 +1,175 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+
+/**
+ *
+ * This test measures how fast the VideoFileManager can send a large
+ * video over a (loopback) socket, and how much CPU the sending thread
+ * uses per GB, with the two ways that it can copy video data:
+ *
+ * 1. copyVideoData(Video, OutputStream), which reads the file into the
+ *    Java heap and writes it back out to the socket's stream
+ * 2. copyVideoData(Video, start, length, WritableByteChannel), which uses
+ *    FileChannel.transferTo() so that the operating system copies the
+ *    file straight to the socket (sendfile() on Linux)
+ *
+ * Both of them write to a SocketChannel, so the second one measures the
+ * zero-copy path that a response only gets when Tomcat sends the file
+ * with sendfile() (see VideoFileManager.SENDFILE_THRESHOLD). A response
+ * that is written to the servlet's output stream (a small or multipart
+ * response, or a container without sendfile support) is copied through
+ * the heap, like the first one.
+ *
+ * The user CPU time is the time spent running Java code (e.g., copying
+ * bytes in and out of the heap). The total also includes the time that
+ * the kernel spends on behalf of the thread.
+ *
+ * The size of the video (in MB) and the number of times it is sent can
+ * be changed with the "benchmark.megabytes" and "benchmark.rounds" system
+ * properties.
+ *
+ * Needs -Dbenchmark=true; VideoDataRangeTest covers copying the video data.
+ *
+ * @author jules
+ *
+ */
+public class VideoDataBenchmarkTest {
+
+	private static final long MB = 1024 * 1024;
+
+	private static final long GB = 1024 * MB;
+
+	private VideoFileManager videoDataMgr;
+
+	private Video video;
+
+	private long length;
+
+	private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@Before
+	public void setUp() throws Exception {
+		videoDataMgr = VideoFileManager.get();
+		video = Video.create().withContentType("video/mpeg").withTitle("benchmark").build();
+		video.setId(Long.MAX_VALUE - 1000 - new Random().nextInt(1000));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		Files.deleteIfExists(videoFile());
+	}
+
+	@Test
+	public void testCopyThroughput() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		int rounds = Integer.getInteger("benchmark.rounds", 4);
+
+		length = Long.getLong("benchmark.megabytes", 256) * MB;
+		byte[] chunk = new byte[(int) MB];
+		new Random().nextBytes(chunk);
+		try (OutputStream out = Files.newOutputStream(videoFile())) {
+			for (long written = 0; written < length; written += chunk.length) {
+				out.write(chunk);
+			}
+		}
+
+		// Warm up
+		send(false, 1);
+		send(true, 1);
+
+		report("Files.copy() to OutputStream", send(false, rounds), rounds);
+		report("FileChannel.transferTo()", send(true, rounds), rounds);
+	}
+
+	// Send the video over a new loopback connection the given number of
+	// times and return the time and CPU time used by the sending thread
+	private long[] send(boolean zeroCopy, int rounds) throws Exception {
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress("127.0.0.1", 0));
+			Future<Long> received = executor.submit(drain(server));
+
+			try (SocketChannel socket = SocketChannel.open(server.getLocalAddress())) {
+				ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+				long cpu = threads.getCurrentThreadCpuTime();
+				long user = threads.getCurrentThreadUserTime();
+				long start = System.nanoTime();
+
+				OutputStream out = socket.socket().getOutputStream();
+				for (int i = 0; i < rounds; i++) {
+					if (zeroCopy) {
+						videoDataMgr.copyVideoData(video, 0, length, socket);
+					} else {
+						videoDataMgr.copyVideoData(video, out);
+					}
+				}
+				socket.shutdownOutput();
+
+				long elapsed = System.nanoTime() - start;
+				cpu = threads.getCurrentThreadCpuTime() - cpu;
+				user = threads.getCurrentThreadUserTime() - user;
+
+				assertEquals(length * rounds, received.get().longValue());
+				return new long[] { elapsed, cpu, user };
+			}
+		}
+	}
+
+	// Read and throw away everything sent to the server socket, and
+	// return the number of bytes that were read
+	private Callable<Long> drain(final ServerSocketChannel server) {
+		return new Callable<Long>() {
+			@Override
+			public Long call() throws IOException {
+				try (SocketChannel client = server.accept()) {
+					ByteBuffer buffer = ByteBuffer.allocateDirect((int) MB);
+					long total = 0;
+					int read;
+					while ((read = client.read(buffer)) >= 0) {
+						total += read;
+						buffer.clear();
+					}
+					return total;
+				}
+			}
+		};
+	}
+
+	private void report(String name, long[] times, int rounds) {
+		double gb = (double) (length * rounds) / GB;
+		System.out.println(String.format("%-30s %,8.0f MB/s, CPU %,6.0f ms/GB (user %,6.0f ms/GB)",
+				name,
+				(length * rounds) / (times[0] / 1e9) / MB,
+				times[1] / 1e6 / gb,
+				times[2] / 1e6 / gb));
+	}
+
+	private Path videoFile() {
+		return Paths.get("videos", "video" + video.getId() + ".mpg");
+	}
+
+}
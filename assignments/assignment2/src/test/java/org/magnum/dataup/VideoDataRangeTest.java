@@ -0,0 +1,144 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ *
+ * This test checks that VideoFileManager.serveVideoData() answers
+ * requests with and without a Range header the way that video players
+ * expect: the whole file, one range, several ranges as a
+ * multipart/byteranges body, or a 416 if the ranges are all past the end
+ * of the file.
+ *
+ * @author jules
+ *
+ */
+public class VideoDataRangeTest {
+
+	private static final int DATA_LENGTH = 10000;
+
+	private VideoFileManager videoDataMgr;
+
+	private Video video;
+
+	private byte[] data = new byte[DATA_LENGTH];
+
+	@Before
+	public void setUp() throws Exception {
+		videoDataMgr = VideoFileManager.get();
+		video = Video.create().withContentType("video/mp4").withTitle("range-test").build();
+		video.setId(Long.MAX_VALUE - new Random().nextInt(1000));
+		new Random().nextBytes(data);
+		videoDataMgr.saveVideoData(video, new ByteArrayInputStream(data));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		videoDataMgr.deleteVideoData(video);
+	}
+
+	@Test
+	public void testWholeFile() throws Exception {
+		MockHttpServletResponse response = serve(null);
+		assertEquals(200, response.getStatus());
+		assertEquals("bytes", response.getHeader(VideoFileManager.ACCEPT_RANGES_HEADER));
+		assertEquals("video/mp4", response.getContentType());
+		assertEquals(Integer.toString(DATA_LENGTH), response.getHeader("Content-Length"));
+		assertArrayEquals(data, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void testSingleRanges() throws Exception {
+		assertRange("bytes=0-99", 0, 99);
+		assertRange("bytes=9900-", 9900, DATA_LENGTH - 1);
+		assertRange("bytes=-500", DATA_LENGTH - 500, DATA_LENGTH - 1);
+		// Ranges that go past the end of the file are cut off
+		assertRange("bytes=9000-20000", 9000, DATA_LENGTH - 1);
+		// Overlapping ranges are merged into one
+		assertRange("bytes=0-99,50-199", 0, 199);
+	}
+
+	@Test
+	public void testMultipleRanges() throws Exception {
+		MockHttpServletResponse response = serve("bytes=0-9, 100-109");
+		assertEquals(206, response.getStatus());
+		assertTrue(response.getContentType().startsWith("multipart/byteranges"));
+
+		byte[] body = response.getContentAsByteArray();
+		assertEquals(Integer.toString(body.length), response.getHeader("Content-Length"));
+
+		String text = new String(body, "ISO-8859-1");
+		assertTrue(text.contains("Content-Range: bytes 0-9/" + DATA_LENGTH));
+		assertTrue(text.contains("Content-Range: bytes 100-109/" + DATA_LENGTH));
+		assertTrue(text.contains(new String(Arrays.copyOfRange(data, 0, 10), "ISO-8859-1")));
+		assertTrue(text.contains(new String(Arrays.copyOfRange(data, 100, 110), "ISO-8859-1")));
+	}
+
+	@Test
+	public void testUnsatisfiableRange() throws Exception {
+		MockHttpServletResponse response = serve("bytes=" + DATA_LENGTH + "-");
+		assertEquals(416, response.getStatus());
+		assertEquals("bytes */" + DATA_LENGTH, response.getHeader(VideoFileManager.CONTENT_RANGE_HEADER));
+		assertEquals(0, response.getContentAsByteArray().length);
+	}
+
+	@Test
+	public void testBadOrStaleRangeSendsWholeFile() throws Exception {
+		assertEquals(200, serve("bytes=abc").getStatus());
+		assertEquals(200, serve("lines=1-2").getStatus());
+
+		// The client's copy is from before the file was last changed
+		long lastModified = (Long) serve(null).getHeaderValue(VideoFileManager.LAST_MODIFIED_HEADER);
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/video/1/data");
+		request.addHeader(VideoFileManager.RANGE_HEADER, "bytes=0-99");
+		request.addHeader(VideoFileManager.IF_RANGE_HEADER,
+				new Date(lastModified - 60000));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		videoDataMgr.serveVideoData(video, request, response);
+		assertEquals(200, response.getStatus());
+		assertEquals(DATA_LENGTH, response.getContentAsByteArray().length);
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		assertNull(ByteRange.parse(null, 100));
+		assertNull(ByteRange.parse("bytes=5-1", 100));
+		assertEquals(Arrays.asList(new ByteRange(0, 9), new ByteRange(20, 29)),
+				ByteRange.parse("bytes=20-29,0-4,5-9", 100));
+		assertTrue(ByteRange.parse("bytes=100-200", 100).isEmpty());
+	}
+
+	private void assertRange(String header, int start, int end) throws Exception {
+		MockHttpServletResponse response = serve(header);
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes " + start + "-" + end + "/" + DATA_LENGTH,
+				response.getHeader(VideoFileManager.CONTENT_RANGE_HEADER));
+		assertArrayEquals(Arrays.copyOfRange(data, start, end + 1), response.getContentAsByteArray());
+	}
+
+	private MockHttpServletResponse serve(String range) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/video/1/data");
+		if (range != null) {
+			request.addHeader(VideoFileManager.RANGE_HEADER, range);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		videoDataMgr.serveVideoData(video, request, response);
+		return response;
+	}
+
+}
@@ -0,0 +1,105 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+import org.springframework.stereotype.Controller;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+/**
+ *
+ * This test checks that the filter that Application maps to GET /video
+ * tags the list with an ETag, answers a matching If-None-Match with a 304
+ * and no body, and sends the list again once it has changed. The list
+ * comes from a stand-in for the controller that you write.
+ *
+ * @author jules
+ *
+ */
+public class VideoListETagTest {
+
+	private static final String ETAG_HEADER = "ETag";
+
+	private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+	private MockMvc mockMvc;
+
+	private VideoListController controller = new VideoListController();
+
+	@Before
+	public void setUp() throws Exception {
+		// The filter is set up with the same url patterns as in Application
+		Collection<String> patterns = new Application().videoListETagFilter().getUrlPatterns();
+		mockMvc = MockMvcBuilders.standaloneSetup(controller)
+				.addFilter(new ShallowEtagHeaderFilter(), patterns.toArray(new String[patterns.size()]))
+				.build();
+		controller.add("First");
+	}
+
+	@Test
+	public void testUnchangedListIsNotSentAgain() throws Exception {
+		String etag = mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(ETAG_HEADER);
+		assertNotNull(etag);
+
+		mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH).header(IF_NONE_MATCH_HEADER, etag))
+				.andExpect(status().isNotModified())
+				.andExpect(content().string(""));
+
+		// Once another video is added the old ETag doesn't match
+		controller.add("Second");
+		String changed = mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH).header(IF_NONE_MATCH_HEADER, etag))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(ETAG_HEADER);
+		assertNotEquals(etag, changed);
+	}
+
+	@Test
+	public void testVideoDataIsNotTagged() throws Exception {
+		assertEquals(null, mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH + "/1/data"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(ETAG_HEADER));
+	}
+
+	@Controller
+	public static class VideoListController {
+
+		private final List<Video> videos = new ArrayList<Video>();
+
+		public void add(String title) {
+			Video v = new Video();
+			v.setId(videos.size() + 1);
+			v.setTitle(title);
+			videos.add(v);
+		}
+
+		@RequestMapping(value = VideoSvcApi.VIDEO_SVC_PATH, method = RequestMethod.GET)
+		public @ResponseBody Collection<Video> getVideoList() {
+			return videos;
+		}
+
+		@RequestMapping(value = VideoSvcApi.VIDEO_DATA_PATH, method = RequestMethod.GET)
+		public @ResponseBody String getData() {
+			return "data";
+		}
+
+	}
+
+}
@@ -0,0 +1,170 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoMetadata;
+import org.magnum.dataup.model.VideoStatus.VideoState;
+import org.springframework.util.FileSystemUtils;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ *
+ * This test runs a small, made up mpeg video through the VideoProcessor and
+ * checks the metadata and the thumbnail that come out of it, and that data
+ * that doesn't match its hash never gets any metadata.
+ *
+ * @author jules
+ *
+ */
+public class VideoProcessorTest {
+
+	// 352x240, 4:3, 25 frames per second, 1,150,000 bit/s
+	private static final byte[] SEQUENCE_HEADER = { 0, 0, 1, (byte) 0xB3,
+			0x16, 0x00, (byte) 0xF0, 0x23, 0x02, (byte) 0xCE, (byte) 0xE0, 0x00 };
+
+	private static final byte[] GOP_HEADER = { 0, 0, 1, (byte) 0xB8, 0x00, 0x08, 0x00, 0x00 };
+
+	// The picture_coding_type is in bits 3-5 of the second byte
+	// after the start code
+	private static final byte[] I_PICTURE_HEADER = { 0, 0, 1, 0x00, 0x00, 0x08, (byte) 0xFF, (byte) 0xF8 };
+
+	private static final byte[] P_PICTURE_HEADER = { 0, 0, 1, 0x00, 0x00, 0x50, (byte) 0xFF, (byte) 0xF8 };
+
+	private Path thumbnailDir;
+
+	private VideoProcessor processor;
+
+	private VideoFileManager videoDataMgr;
+
+	private Video video = new Video();
+
+	@Before
+	public void setUp() throws Exception {
+		thumbnailDir = Files.createTempDirectory("thumbnails");
+		videoDataMgr = VideoFileManager.get();
+		processor = new VideoProcessor(videoDataMgr, thumbnailDir, 1);
+		video.setId(Long.MAX_VALUE - 4000 - new Random().nextInt(1000));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(thumbnailDir.toFile());
+		videoDataMgr.deleteVideoData(video);
+	}
+
+	@Test
+	public void testProcessing() throws Exception {
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		first.write(SEQUENCE_HEADER);
+		first.write(GOP_HEADER);
+		first.write(I_PICTURE_HEADER);
+		first.write(slice(2000));
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(first.toByteArray());
+		data.write(P_PICTURE_HEADER);
+		data.write(slice(1000));
+		videoDataMgr.saveVideoData(video, new ByteArrayInputStream(data.toByteArray()));
+
+		processor.submit(video);
+		VideoMetadata metadata = processor.whenProcessed(video).get(10, TimeUnit.SECONDS);
+		assertEquals(VideoState.READY, processor.getState(video));
+
+		assertEquals(data.size(), metadata.getLength());
+		assertEquals(sha256(data.toByteArray()), metadata.getSha256());
+		assertEquals(352, metadata.getWidth());
+		assertEquals(240, metadata.getHeight());
+		assertEquals(25.0, metadata.getFrameRate(), 0.001);
+		assertEquals(1150000, metadata.getBitRate());
+		assertTrue(metadata.isThumbnail());
+
+		// The thumbnail is everything up to the second picture
+		// followed by a sequence end code
+		first.write(new byte[] { 0, 0, 1, (byte) 0xB7 });
+		ByteArrayOutputStream thumbnail = new ByteArrayOutputStream();
+		assertTrue(processor.copyThumbnail(video, thumbnail));
+		assertArrayEquals(first.toByteArray(), thumbnail.toByteArray());
+	}
+
+	@Test
+	public void testDataWithoutSequenceHeader() throws Exception {
+		byte[] data = slice(5000);
+		videoDataMgr.saveVideoData(video, new ByteArrayInputStream(data));
+
+		processor.submit(video);
+		VideoMetadata metadata = processor.whenProcessed(video).get(10, TimeUnit.SECONDS);
+		assertEquals(sha256(data), metadata.getSha256());
+		assertEquals(0, metadata.getWidth());
+		assertFalse(metadata.isThumbnail());
+		assertFalse(processor.copyThumbnail(video, new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void testDamagedData() throws Exception {
+		byte[] data = slice(5000);
+		videoDataMgr.saveVideoData(video, new ByteArrayInputStream(data));
+
+		// Change the stored data behind the blob store's back
+		data[0]++;
+		Files.write(VideoBlobStore.get(Paths.get("videos", "blobs")).getBlobPath(video.getId()), data);
+
+		processor.submit(video);
+		try {
+			processor.whenProcessed(video).get(10, TimeUnit.SECONDS);
+			fail("The damaged data wasn't noticed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(VideoState.FAILED, processor.getState(video));
+		assertNull(processor.getMetadata(video));
+
+		// New data starts over
+		videoDataMgr.saveVideoData(video, new ByteArrayInputStream(slice(5000)));
+		processor.submit(video);
+		processor.whenProcessed(video).get(10, TimeUnit.SECONDS);
+		assertEquals(VideoState.READY, processor.getState(video));
+	}
+
+	@Test
+	public void testNoData() throws Exception {
+		assertNull(processor.getState(video));
+		assertNull(processor.whenProcessed(video).get());
+	}
+
+	// Random bytes without any start codes in them
+	private byte[] slice(int length) {
+		byte[] bytes = new byte[length];
+		new Random().nextBytes(bytes);
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == 0) {
+				bytes[i] = (byte) 0xFF;
+			}
+		}
+		return bytes;
+	}
+
+	private String sha256(byte[] bytes) throws Exception {
+		return BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("SHA-256").digest(bytes));
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ *
+ * This test puts videos in the flat layout of the old "videos" folder and
+ * checks that VideoStoreMigration moves them into the blob store without
+ * losing any data, keeps a single copy of duplicates, and leaves alone the
+ * videos that already have data in the store.
+ *
+ * @author jules
+ *
+ */
+public class VideoStoreMigrationTest {
+
+	private Path dir;
+
+	private VideoBlobStore store;
+
+	private byte[] data = new byte[5000];
+
+	private byte[] other = new byte[5000];
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("videos");
+		store = new VideoBlobStore(dir.resolve("blobs"));
+		new Random().nextBytes(data);
+		new Random().nextBytes(other);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(dir.toFile());
+	}
+
+	@Test
+	public void testMigrate() throws Exception {
+		Files.write(dir.resolve("video1.mpg"), data);
+		Files.write(dir.resolve("video2.mpg"), data);
+		Files.write(dir.resolve("video3.mpg"), other);
+
+		// Video 3 was uploaded again after the blob store came along, so
+		// its old file is out of date
+		store.store(3, Channels.newChannel(new ByteArrayInputStream(data)));
+
+		// Files that aren't finished videos stay where they are
+		Path partial = Files.write(dir.resolve("video4.mpg.part"), other);
+
+		assertEquals(2, VideoStoreMigration.migrate(dir, store));
+
+		assertFalse(Files.exists(dir.resolve("video1.mpg")));
+		assertFalse(Files.exists(dir.resolve("video2.mpg")));
+		assertFalse(Files.exists(dir.resolve("video3.mpg")));
+		assertTrue(Files.exists(partial));
+
+		assertEquals(store.getBlobPath(1), store.getBlobPath(2));
+		assertEquals(store.getBlobPath(1), store.getBlobPath(3));
+		assertEquals(3, store.getRefCount(store.getHash(1)));
+		assertArrayEquals(data, Files.readAllBytes(store.getBlobPath(1)));
+
+		// Running it again finds nothing to do
+		assertEquals(0, VideoStoreMigration.migrate(dir, store));
+		assertEquals(0, store.removeOrphans());
+	}
+
+}
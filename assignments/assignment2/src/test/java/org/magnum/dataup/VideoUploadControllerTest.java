@@ -0,0 +1,215 @@
+package org.magnum.dataup;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.UploadSession;
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoMetadata;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.BaseEncoding;
+
+/**
+ *
+ * This test sends a video to the VideoUploadController in chunks and
+ * checks that out of order and corrupted chunks are turned away without
+ * losing the chunks that were already received, and that the committed
+ * data is exactly what was sent and becomes READY once it has been
+ * processed.
+ *
+ * @author jules
+ *
+ */
+public class VideoUploadControllerTest {
+
+	private static final int CHUNK_SIZE = 1000;
+
+	private MockMvc mockMvc;
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	private Video video = new Video();
+
+	private Video copy = new Video();
+
+	private byte[] data = new byte[2500];
+
+	@Before
+	public void setUp() throws Exception {
+		mockMvc = MockMvcBuilders.standaloneSetup(new VideoUploadController(), new VideoProcessingController()).build();
+		video.setId(Long.MAX_VALUE - 2000 - new Random().nextInt(1000));
+		copy.setId(video.getId() - 1000);
+		VideoRegistry.get().register(video);
+		VideoRegistry.get().register(copy);
+		new Random().nextBytes(data);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		VideoRegistry.get().unregister(video);
+		VideoRegistry.get().unregister(copy);
+		VideoFileManager.get().deleteVideoData(video);
+		VideoFileManager.get().deleteVideoDataChunks(video);
+		VideoFileManager.get().deleteVideoData(copy);
+		VideoFileManager.get().deleteVideoDataChunks(copy);
+	}
+
+	@Test
+	public void testResumableUpload() throws Exception {
+		String uploadPath = "/video/" + video.getId() + "/upload";
+		UploadSession session = session(mockMvc.perform(
+				post(uploadPath).param(VideoSvcApi.LENGTH_PARAMETER, Integer.toString(data.length)))
+				.andExpect(status().isOk()));
+		String sessionPath = uploadPath + "/" + session.getId();
+
+		assertEquals(CHUNK_SIZE, session(sendChunk(sessionPath, 0, 0)
+				.andExpect(status().isOk())).getOffset());
+
+		// Sending the first chunk again (e.g., because the response to it
+		// was lost) is turned away with the current state of the upload
+		assertEquals(1, session(sendChunk(sessionPath, 0, 0)
+				.andExpect(status().isConflict())).getNextChunk());
+
+		// A chunk that was corrupted on the way isn't kept
+		byte[] corrupt = Arrays.copyOfRange(data, CHUNK_SIZE, 2 * CHUNK_SIZE);
+		corrupt[0]++;
+		mockMvc.perform(put(sessionPath + "/1").param(VideoSvcApi.OFFSET_PARAMETER, Integer.toString(CHUNK_SIZE))
+				.header(VideoSvcApi.CONTENT_MD5_HEADER, md5(Arrays.copyOfRange(data, CHUNK_SIZE, 2 * CHUNK_SIZE)))
+				.content(corrupt))
+				.andExpect(status().isBadRequest());
+
+		// Committing before all of the data is there fails
+		mockMvc.perform(post(sessionPath + "/commit")).andExpect(status().isConflict());
+
+		// Resume from the offset that the server reports
+		assertEquals(CHUNK_SIZE, session(mockMvc.perform(get(sessionPath))
+				.andExpect(status().isOk())).getOffset());
+		sendChunk(sessionPath, 1, CHUNK_SIZE).andExpect(status().isOk());
+		assertEquals(data.length, session(sendChunk(sessionPath, 2, 2 * CHUNK_SIZE)
+				.andExpect(status().isOk())).getOffset());
+
+		mockMvc.perform(post(sessionPath + "/commit")).andExpect(status().isOk());
+		awaitReady(video);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		VideoFileManager.get().copyVideoData(video, out);
+		assertArrayEquals(data, out.toByteArray());
+
+		// The session is gone once it has been committed
+		mockMvc.perform(get(sessionPath)).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void testUnknownVideoIsNotFound() throws Exception {
+		VideoRegistry.get().unregister(video);
+		mockMvc.perform(post("/video/" + video.getId() + "/upload")
+				.param(VideoSvcApi.LENGTH_PARAMETER, Integer.toString(data.length)))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void testNewUploadReplacesOldSession() throws Exception {
+		String uploadPath = "/video/" + video.getId() + "/upload";
+		UploadSession old = session(mockMvc.perform(
+				post(uploadPath).param(VideoSvcApi.LENGTH_PARAMETER, Integer.toString(data.length)))
+				.andExpect(status().isOk()));
+		sendChunk(uploadPath + "/" + old.getId(), 0, 0).andExpect(status().isOk());
+
+		UploadSession session = session(mockMvc.perform(
+				post(uploadPath).param(VideoSvcApi.LENGTH_PARAMETER, Integer.toString(data.length)))
+				.andExpect(status().isOk()));
+		assertEquals(0, session.getOffset());
+
+		// The old session can't write into the new upload's partial file
+		sendChunk(uploadPath + "/" + old.getId(), 1, CHUNK_SIZE).andExpect(status().isNotFound());
+		for (int chunk = 0; chunk * CHUNK_SIZE < data.length; chunk++) {
+			sendChunk(uploadPath + "/" + session.getId(), chunk, chunk * CHUNK_SIZE).andExpect(status().isOk());
+		}
+		mockMvc.perform(post(uploadPath + "/" + session.getId() + "/commit")).andExpect(status().isOk());
+		awaitReady(video);
+	}
+
+	@Test
+	public void testDuplicateUploadNeedsNoChunks() throws Exception {
+		VideoFileManager.get().saveVideoData(video, new ByteArrayInputStream(data));
+		String sha256 = sha256(data);
+		String uploadPath = "/video/" + copy.getId() + "/upload";
+
+		// The wrong length means that the client doesn't have the same data
+		assertFalse(session(mockMvc.perform(post(uploadPath)
+				.param(VideoSvcApi.LENGTH_PARAMETER, Integer.toString(data.length + 1))
+				.param(VideoSvcApi.SHA256_PARAMETER, sha256))
+				.andExpect(status().isOk())).isDeduplicated());
+
+		UploadSession session = session(mockMvc.perform(post(uploadPath)
+				.param(VideoSvcApi.LENGTH_PARAMETER, Integer.toString(data.length))
+				.param(VideoSvcApi.SHA256_PARAMETER, sha256))
+				.andExpect(status().isOk()));
+		assertTrue(session.isDeduplicated());
+		assertEquals(data.length, session.getOffset());
+
+		mockMvc.perform(post(uploadPath + "/" + session.getId() + "/commit")).andExpect(status().isOk());
+		awaitReady(copy);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		VideoFileManager.get().copyVideoData(copy, out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	// Wait for the processing of the committed data and check that the
+	// status and metadata endpoints report it
+	private void awaitReady(Video v) throws Exception {
+		VideoProcessor.get().whenProcessed(v).get(10, TimeUnit.SECONDS);
+		mockMvc.perform(get("/video/" + v.getId() + "/status"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("READY")));
+		VideoMetadata metadata = mapper.readValue(mockMvc.perform(get("/video/" + v.getId() + "/metadata"))
+				.andExpect(status().isOk()).andReturn().getResponse().getContentAsString(), VideoMetadata.class);
+		assertEquals(data.length, metadata.getLength());
+		assertEquals(sha256(data), metadata.getSha256());
+	}
+
+	private ResultActions sendChunk(String sessionPath,
+			int chunk, int offset) throws Exception {
+		byte[] bytes = Arrays.copyOfRange(data, offset, Math.min(offset + CHUNK_SIZE, data.length));
+		return mockMvc.perform(put(sessionPath + "/" + chunk)
+				.param(VideoSvcApi.OFFSET_PARAMETER, Integer.toString(offset))
+				.header(VideoSvcApi.CONTENT_MD5_HEADER, md5(bytes))
+				.content(bytes));
+	}
+
+	private UploadSession session(ResultActions result) throws Exception {
+		return mapper.readValue(result.andReturn().getResponse().getContentAsString(), UploadSession.class);
+	}
+
+	private String sha256(byte[] bytes) throws Exception {
+		return BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("SHA-256").digest(bytes));
+	}
+
+	private String md5(byte[] bytes) throws Exception {
+		return BaseEncoding.base64().encode(MessageDigest.getInstance("MD5").digest(bytes));
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.UploadSession;
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoStatus;
+import org.magnum.dataup.model.VideoStatus.VideoState;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+
+/**
+ *
+ * This test checks that a client can ask for Smile instead of JSON (see
+ * SmileHttpMessageConverter), and compares the size of the payloads of the
+ * VideoSvcApi and how long it takes to encode and decode them in:
+ *
+ * 1. JSON with Jackson, which is what the server uses
+ * 2. JSON with Gson, which is what the Retrofit clients use by default
+ * 3. Smile with Jackson
+ *
+ * The number of times that each payload is encoded and decoded can be
+ * changed with the "benchmark.rounds" system property.
+ * testPayloadSizeAndSpeed() needs -Dbenchmark=true.
+ *
+ * @author jules
+ *
+ */
+public class WireFormatBenchmarkTest {
+
+	// The number of videos in the list payload
+	private static final int VIDEOS = 100;
+
+	private MockMvc mockMvc;
+
+	private ObjectMapper json = new ObjectMapper();
+
+	private ObjectMapper smile = new SmileHttpMessageConverter().getObjectMapper();
+
+	private Gson gson = new Gson();
+
+	private Video video = new Video();
+
+	@Before
+	public void setUp() throws Exception {
+		// The same converters, in the same order, that the Application
+		// gives to Spring
+		List<HttpMessageConverter<?>> converters = new Application().messageConverters().getConverters();
+		mockMvc = MockMvcBuilders.standaloneSetup(new VideoUploadController())
+				.setMessageConverters(converters.toArray(new HttpMessageConverter<?>[converters.size()]))
+				.build();
+		video.setId(Long.MAX_VALUE - 3000 - new Random().nextInt(1000));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		VideoFileManager.get().deleteVideoDataChunks(video);
+	}
+
+	@Test
+	public void testContentNegotiation() throws Exception {
+		String uploadPath = "/video/" + video.getId() + "/upload";
+
+		// A client that doesn't ask for anything in particular gets JSON
+		MockHttpServletResponse response = mockMvc.perform(post(uploadPath)
+				.param(VideoSvcApi.LENGTH_PARAMETER, "2500")
+				.accept(MediaType.ALL))
+				.andExpect(status().isOk()).andReturn().getResponse();
+		assertTrue(response.getContentType().startsWith(MediaType.APPLICATION_JSON_VALUE));
+		assertEquals(2500, json.readValue(response.getContentAsByteArray(), UploadSession.class).getLength());
+
+		// A client that asks for Smile gets Smile
+		response = mockMvc.perform(post(uploadPath)
+				.param(VideoSvcApi.LENGTH_PARAMETER, "2500")
+				.accept(SmileHttpMessageConverter.SMILE))
+				.andExpect(status().isOk()).andReturn().getResponse();
+		assertTrue(response.getContentType().startsWith(SmileHttpMessageConverter.SMILE_CONTENT_TYPE));
+		UploadSession session = smile.readValue(response.getContentAsByteArray(), UploadSession.class);
+		assertEquals(2500, session.getLength());
+		assertEquals(video.getId(), session.getVideoId());
+	}
+
+	@Test
+	public void testPayloadSizeAndSpeed() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		int rounds = Integer.getInteger("benchmark.rounds", 20000);
+
+		List<Video> videos = new ArrayList<Video>();
+		Random random = new Random(42);
+		for (int i = 0; i < VIDEOS; i++) {
+			Video v = Video.create().withTitle("Video " + random.nextInt(100000))
+					.withDuration(random.nextInt(3600) * 1000L)
+					.withSubject("Subject " + random.nextInt(10))
+					.withContentType("video/mp4").build();
+			v.setId(i + 1);
+			v.setLocation("http://localhost:8080/video/" + v.getId() + "/data");
+			videos.add(v);
+		}
+		UploadSession session = new UploadSession("2c4d6a28-5f0b-4b8e-9d6c-0a1b2c3d4e5f", 42, 150 * 1024 * 1024, 1024 * 1024);
+
+		// VideoStatus has no default constructor, so the server can only
+		// write it. Gson (on the clients) can read it anyway.
+		compare("List<Video> (" + VIDEOS + ")", videos, Video[].class, rounds / 10, true);
+		compare("UploadSession", session, UploadSession.class, rounds, true);
+		compare("VideoStatus", new VideoStatus(VideoState.PROCESSING), VideoStatus.class, rounds, false);
+	}
+
+	private void compare(String name, Object payload, Class<?> type, int rounds, boolean jacksonCanRead) throws Exception {
+		byte[] jsonBytes = json.writeValueAsBytes(payload);
+		byte[] smileBytes = smile.writeValueAsBytes(payload);
+
+		// All three formats must carry exactly the same data
+		if (jacksonCanRead) {
+			assertEquals(json.readTree(jsonBytes), json.readTree(json.writeValueAsBytes(smile.readValue(smileBytes, type))));
+			assertEquals(json.readTree(jsonBytes), json.readTree(json.writeValueAsBytes(gson.fromJson(new String(jsonBytes, "UTF-8"), type))));
+		}
+		// Smile starts with a 4 byte header, which can cost more than it
+		// saves on a tiny object like a VideoStatus
+		assertTrue(smileBytes.length < jsonBytes.length || jsonBytes.length < 32);
+
+		System.out.println(String.format("%-22s JSON %,7d bytes, Smile %,7d bytes (%.0f%%)",
+				name, jsonBytes.length, smileBytes.length, 100.0 * smileBytes.length / jsonBytes.length));
+		report("  Jackson JSON", time(rounds, payload, type, json, jacksonCanRead), rounds);
+		report("  Gson JSON", timeGson(rounds, payload, type, jsonBytes), rounds);
+		report("  Jackson Smile", time(rounds, payload, type, smile, jacksonCanRead), rounds);
+	}
+
+	// Returns the ns that encoding and decoding the payload took, after
+	// the same number of rounds to warm up
+	private long[] time(int rounds, Object payload, Class<?> type, ObjectMapper mapper, boolean decode) throws Exception {
+		long[] times = null;
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.nanoTime();
+			byte[] bytes = null;
+			for (int i = 0; i < rounds; i++) {
+				bytes = mapper.writeValueAsBytes(payload);
+			}
+			long encode = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; decode && i < rounds; i++) {
+				mapper.readValue(bytes, type);
+			}
+			times = new long[] { encode, decode ? System.nanoTime() - start : -1 };
+		}
+		return times;
+	}
+
+	private long[] timeGson(int rounds, Object payload, Class<?> type, byte[] jsonBytes) throws Exception {
+		long[] times = null;
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				gson.toJson(payload).getBytes("UTF-8");
+			}
+			long encode = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				gson.fromJson(new String(jsonBytes, "UTF-8"), type);
+			}
+			times = new long[] { encode, System.nanoTime() - start };
+		}
+		return times;
+	}
+
+	private void report(String name, long[] times, int rounds) {
+		System.out.println(String.format("%-22s encode %,8.2f us, decode %s",
+				name, times[0] / 1e3 / rounds,
+				times[1] < 0 ? "       n/a" : String.format("%,8.2f us", times[1] / 1e3 / rounds)));
+	}
+
+}
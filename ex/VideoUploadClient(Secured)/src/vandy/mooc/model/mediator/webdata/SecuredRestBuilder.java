@@ -156,6 +156,12 @@ public class SecuredRestBuilder extends RestAdapter.Builder {
 				// the "Authorization" header.
 				request.addHeader("Authorization", "Bearer " + accessToken );
 			}
+			
+			// If the converter can read more than JSON (e.g., a SmileConverter),
+			// tell the server which formats it may answer with.
+			if (accept != null) {
+				request.addHeader("Accept", accept);
+			}
 		}
 
 	}
@@ -166,6 +172,7 @@ public class SecuredRestBuilder extends RestAdapter.Builder {
 	private String clientId;
 	private String clientSecret = "";
 	private Client client;
+	private String accept;
 	
 	public SecuredRestBuilder setLoginEndpoint(String endpoint){
 		loginUrl = endpoint;
@@ -218,7 +225,7 @@ public class SecuredRestBuilder extends RestAdapter.Builder {
 
 	@Override
 	public SecuredRestBuilder setConverter(Converter converter) {
-
+		accept = (converter instanceof SmileConverter) ? SmileConverter.ACCEPT : null;
 		return (SecuredRestBuilder) super.setConverter(converter);
 	}
 
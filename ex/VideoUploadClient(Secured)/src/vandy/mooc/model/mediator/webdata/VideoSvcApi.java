@@ -6,12 +6,16 @@ import java.util.Collection;
 import retrofit.client.Response;
 import retrofit.http.Body;
 import retrofit.http.GET;
+import retrofit.http.Header;
 import retrofit.http.Multipart;
 import retrofit.http.POST;
+import retrofit.http.PUT;
 import retrofit.http.Part;
 import retrofit.http.Path;
+import retrofit.http.Query;
 import retrofit.http.Streaming;
 import retrofit.mime.TypedFile;
+import retrofit.mime.TypedOutput;
 
 /**
  * This interface defines an API for a VideoSvc. The
@@ -31,16 +35,52 @@ public interface VideoSvcApi {
 
 	public static final String TOKEN_PATH = "/oauth/token";
 
+	// The request header that carries the ETag of the copy of the
+	// Video list that the client already has
+	public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+	// The response header that carries the ETag of the Video list
+	public static final String ETAG_HEADER = "ETag";
+
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_DATA_PATH = VIDEO_SVC_PATH + "/{"+VideoSvcApi.ID_PARAMETER+"}/data";
+	
+	public static final String UPLOAD_ID_PARAMETER = "uploadId";
+	
+	public static final String CHUNK_PARAMETER = "chunk";
+	
+	public static final String LENGTH_PARAMETER = "length";
+	
+	public static final String OFFSET_PARAMETER = "offset";
+	
+	// The request header that carries the Base64 MD5 of a chunk
+	public static final String CONTENT_MD5_HEADER = "Content-MD5";
+	
+	// The paths for resumable uploads of the video data
+	public static final String VIDEO_UPLOAD_PATH = VIDEO_SVC_PATH + "/{"+VideoSvcApi.ID_PARAMETER+"}/upload";
+	
+	public static final String VIDEO_UPLOAD_SESSION_PATH = VIDEO_UPLOAD_PATH + "/{"+VideoSvcApi.UPLOAD_ID_PARAMETER+"}";
+	
+	public static final String VIDEO_UPLOAD_CHUNK_PATH = VIDEO_UPLOAD_SESSION_PATH + "/{"+VideoSvcApi.CHUNK_PARAMETER+"}";
+	
+	public static final String VIDEO_UPLOAD_COMMIT_PATH = VIDEO_UPLOAD_SESSION_PATH + "/commit";
+	
+	public static final String VIDEO_STATUS_PATH = VIDEO_SVC_PATH + "/{"+VideoSvcApi.ID_PARAMETER+"}/status";
 
 	
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
+	// A conditional GET for the Video list. If the list on the server
+	// still has the given ETag, the server answers with a 304 Not Modified
+	// and no body, which Retrofit reports as a RetrofitError. Retrofit
+	// leaves the header out if the etag is null.
+	@GET(VIDEO_SVC_PATH)
+	public Response getVideoList(@Header(IF_NONE_MATCH_HEADER) String etag);
+	
 	@GET(VIDEO_SVC_PATH + "/{id}")
 	public Video getVideoById(@Path("id") long id);
 	
@@ -74,4 +114,33 @@ public interface VideoSvcApi {
     @GET(VIDEO_DATA_PATH)
     Response getVideoData(@Path(ID_PARAMETER) long id);
 	
+	// Start a resumable upload of length bytes of video data. The data
+	// is then sent in chunks with sendVideoDataChunk() and finished with
+	// commitVideoData(), so a dropped connection only costs one chunk.
+	@POST(VIDEO_UPLOAD_PATH)
+	public UploadSession startVideoDataUpload(@Path(ID_PARAMETER) long id, @Query(LENGTH_PARAMETER) long length);
+	
+	// Send one chunk, starting at UploadSession.getOffset(). The md5 is
+	// the Base64 MD5 of the chunk.
+	@PUT(VIDEO_UPLOAD_CHUNK_PATH)
+	public UploadSession sendVideoDataChunk(@Path(ID_PARAMETER) long id,
+			@Path(UPLOAD_ID_PARAMETER) String uploadId,
+			@Path(CHUNK_PARAMETER) int chunk,
+			@Query(OFFSET_PARAMETER) long offset,
+			@Header(CONTENT_MD5_HEADER) String md5,
+			@Body TypedOutput data);
+	
+	// Get the state of an upload, to find out where to carry on from
+	// after a dropped connection
+	@GET(VIDEO_UPLOAD_SESSION_PATH)
+	public UploadSession getVideoDataUpload(@Path(ID_PARAMETER) long id, @Path(UPLOAD_ID_PARAMETER) String uploadId);
+	
+	@POST(VIDEO_UPLOAD_COMMIT_PATH)
+	public VideoStatus commitVideoData(@Path(ID_PARAMETER) long id, @Path(UPLOAD_ID_PARAMETER) String uploadId);
+	
+	// The data is processed after it has been uploaded. This returns
+	// PROCESSING until that is done, and READY after that.
+	@GET(VIDEO_STATUS_PATH)
+	public VideoStatus getVideoStatus(@Path(ID_PARAMETER) long id);
+	
 }
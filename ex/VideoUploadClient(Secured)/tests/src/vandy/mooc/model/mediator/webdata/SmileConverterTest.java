@@ -0,0 +1,247 @@
+package vandy.mooc.model.mediator.webdata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import retrofit.converter.ConversionException;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+import vandy.mooc.model.mediator.webdata.VideoStatus.VideoState;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Tests that the SmileConverter turns Videos into Request bodies and
+ * Response bodies back into Videos, both as Smile and as JSON, and
+ * that it only starts sending Smile once the Video Service has
+ * answered with Smile.
+ *
+ * The SmileConverter doesn't use any Android classes, so these tests
+ * run either on a device (as part of this test project) or on a
+ * desktop JVM with the jars in ../libs.
+ */
+public class SmileConverterTest extends TestCase {
+    /**
+     * The Type of a List of Videos.
+     */
+    private static final Type VIDEO_LIST_TYPE =
+        new TypeToken<List<Video>>(){}.getType();
+
+    /**
+     * The MIME type that the GsonConverter gives its bodies.
+     */
+    private static final String JSON_MIME_TYPE =
+        "application/json; charset=UTF-8";
+
+    /**
+     * The SmileConverter that is tested.
+     */
+    private SmileConverter mConverter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mConverter = new SmileConverter(new Gson());
+    }
+
+    /**
+     * Request bodies are JSON until the Video Service answers with
+     * Smile, so a Video Service without Smile can read them.
+     */
+    public void testSendsJsonUntilServerSpeaksSmile() throws Exception {
+        TypedOutput body = mConverter.toBody(newVideos(3));
+        assertEquals(JSON_MIME_TYPE, body.mimeType());
+
+        // A JSON Response doesn't change that.
+        mConverter.fromBody(toInput(body), VIDEO_LIST_TYPE);
+        assertEquals(JSON_MIME_TYPE,
+                     mConverter.toBody(newVideos(3)).mimeType());
+
+        // But a Smile Response does.
+        mConverter.fromBody(emptySmileList(), VIDEO_LIST_TYPE);
+        body = mConverter.toBody(newVideos(3));
+        assertEquals(SmileConverter.MIME_TYPE, body.mimeType());
+
+        // Every Smile document starts with the ":)\n" header.
+        byte[] bytes = toBytes(body);
+        assertEquals(':', bytes[0]);
+        assertEquals(')', bytes[1]);
+        assertEquals('\n', bytes[2]);
+    }
+
+    /**
+     * A JSON Response is read by the GsonConverter that the
+     * SmileConverter falls back to.
+     */
+    public void testJsonRoundTrip() throws Exception {
+        List<Video> videos = newVideos(10);
+
+        TypedOutput body = mConverter.toBody(videos);
+        assertEquals(new Gson().toJson(videos),
+                     new String(toBytes(body), "UTF-8"));
+
+        assertVideosEqual(videos,
+                          fromBody(toInput(body), VIDEO_LIST_TYPE));
+    }
+
+    /**
+     * Videos written as Smile are read back unchanged, including
+     * numbers that don't fit into an int and missing (null) fields.
+     */
+    public void testSmileRoundTrip() throws Exception {
+        mConverter.fromBody(emptySmileList(), VIDEO_LIST_TYPE);
+
+        List<Video> videos = newVideos(10);
+        Video big = new Video("Big", Long.MIN_VALUE);
+        big.setId(Long.MAX_VALUE);
+        videos.add(big);
+        videos.add(new Video("Unicode \u00e9\u4e2d\ud83d\ude00",
+                             "http://localhost:8080/video/0/data",
+                             0));
+
+        TypedOutput body = mConverter.toBody(videos);
+        assertEquals(SmileConverter.MIME_TYPE, body.mimeType());
+
+        // Smile shares the repeated field names, so it is smaller
+        // than the JSON of the same Videos.
+        assertTrue(toBytes(body).length
+                   < new Gson().toJson(videos).getBytes("UTF-8").length);
+
+        assertVideosEqual(videos,
+                          fromBody(toInput(body), VIDEO_LIST_TYPE));
+    }
+
+    /**
+     * Classes without a default constructor, such as VideoStatus and
+     * AverageVideoRating, are bound by Gson, just as they are with the
+     * GsonConverter.
+     */
+    public void testSmileRoundTripWithoutDefaultConstructor()
+        throws Exception {
+        mConverter.fromBody(emptySmileList(), VIDEO_LIST_TYPE);
+
+        TypedOutput body =
+            mConverter.toBody(new VideoStatus(VideoState.READY));
+        VideoStatus status =
+            (VideoStatus) fromBody(toInput(body), VideoStatus.class);
+
+        assertEquals(VideoState.READY, status.getState());
+
+        body = mConverter.toBody(new AverageVideoRating(3.75, 7, 4));
+        AverageVideoRating rating =
+            (AverageVideoRating) fromBody(toInput(body),
+                                          AverageVideoRating.class);
+
+        assertEquals(3.75, rating.getRating(), 0);
+        assertEquals(7, rating.getVideoId());
+        assertEquals(4, rating.getTotalRatings());
+    }
+
+    /**
+     * A Smile body that is cut short, or that doesn't match the Type,
+     * is reported as a ConversionException, just as bad JSON is.
+     */
+    public void testBadSmileIsConversionException() throws Exception {
+        mConverter.fromBody(emptySmileList(), VIDEO_LIST_TYPE);
+        byte[] bytes = toBytes(mConverter.toBody(newVideos(3)));
+
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            mConverter.fromBody(new TypedByteArray(SmileConverter.MIME_TYPE,
+                                                   truncated),
+                                VIDEO_LIST_TYPE);
+            fail("Read a truncated Smile body");
+        } catch (ConversionException e) {
+            // Expected.
+        }
+
+        try {
+            mConverter.fromBody(new TypedByteArray(SmileConverter.MIME_TYPE,
+                                                   bytes),
+                                Video.class);
+            fail("Read a list of Videos as a Video");
+        } catch (ConversionException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Returns a List of Videos with different fields.
+     */
+    static List<Video> newVideos(int count) {
+        List<Video> videos = new ArrayList<Video>(count);
+        for (int i = 0; i < count; i++) {
+            Video video = new Video("Video " + i,
+                                    "http://localhost:8080/video/"
+                                    + (i + 1)
+                                    + "/data",
+                                    i * 1000L);
+            video.setId(i + 1);
+            videos.add(video);
+        }
+        return videos;
+    }
+
+    /**
+     * Returns a Smile Response body that holds an empty list, which
+     * tells a SmileConverter that the Video Service speaks Smile.
+     */
+    static TypedInput emptySmileList() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator =
+            new SmileFactory().createGenerator(out);
+        generator.writeStartArray();
+        generator.writeEndArray();
+        generator.close();
+        return new TypedByteArray(SmileConverter.MIME_TYPE,
+                                  out.toByteArray());
+    }
+
+    /**
+     * Returns the bytes that a Request body would send.
+     */
+    static byte[] toBytes(TypedOutput body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Turns a Request body into the Response body that a Video
+     * Service would send back with the same bytes.
+     */
+    static TypedInput toInput(TypedOutput body) throws IOException {
+        return new TypedByteArray(body.mimeType(), toBytes(body));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T fromBody(TypedInput body, Type type)
+        throws ConversionException {
+        return (T) mConverter.fromBody(body, type);
+    }
+
+    /**
+     * Video doesn't override equals(), so compare every field here.
+     */
+    private static void assertVideosEqual(List<Video> expected,
+                                          List<Video> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Video e = expected.get(i);
+            Video a = actual.get(i);
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getUrl(), a.getUrl());
+            assertEquals(e.getDuration(), a.getDuration());
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package vandy.mooc.model.mediator;
 
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import retrofit.RequestInterceptor;
 import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+import retrofit.converter.Converter;
+import retrofit.mime.TypedByteArray;
 import retrofit.mime.TypedFile;
 
+import vandy.mooc.model.mediator.webdata.SmileConverter;
+import vandy.mooc.model.mediator.webdata.UploadSession;
 import vandy.mooc.model.mediator.webdata.Video;
 import vandy.mooc.model.mediator.webdata.VideoServiceProxy;
 import vandy.mooc.model.mediator.webdata.VideoStatus;
@@ -15,6 +28,10 @@ import vandy.mooc.utils.Constants;
 import vandy.mooc.utils.VideoMediaStoreUtils;
 import android.content.Context;
 import android.net.Uri;
+import android.util.Base64;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 
 /**
  * Mediates communication between the Video Service and the local
@@ -48,6 +65,57 @@ public class VideoDataMediator {
      */
     private VideoServiceProxy mVideoServiceProxy;
     
+    /**
+     * Content type of the chunks of a resumable upload.
+     */
+    private static final String CHUNK_MIME_TYPE =
+        "application/octet-stream";
+
+    /**
+     * Number of times that sending a chunk is tried again before
+     * the upload is given up.
+     */
+    private static final int MAX_CHUNK_RETRIES = 3;
+
+    /**
+     * Milliseconds to wait between asking the Video Service whether
+     * the uploaded video data has been processed.
+     */
+    private static final long STATUS_POLL_INTERVAL = 1000;
+
+    /**
+     * Number of times that the Video Service is asked whether the
+     * uploaded video data has been processed before giving up.
+     */
+    private static final int MAX_STATUS_POLLS = 60;
+
+    /**
+     * The Type of the JSON list of Videos that the server sends.
+     */
+    private static final Type VIDEO_LIST_TYPE =
+        new TypeToken<List<Video>>(){}.getType();
+
+    /**
+     * Converts the list of Videos in a Response.  This is the same
+     * converter that the RestAdapter uses, which asks the Video
+     * Service for the compact Smile format and falls back to JSON if
+     * the Video Service doesn't support it.
+     */
+    private final Converter mConverter =
+        new SmileConverter(new Gson());
+
+    /**
+     * The List of Videos that was last received from the Video
+     * Service.
+     */
+    private List<Video> mVideoList;
+
+    /**
+     * The ETag that the Video Service sent with mVideoList, or null
+     * if no list has been received yet.
+     */
+    private String mVideoListETag;
+    
     /**
      * Constructor that initializes the VideoDataMediator.
      * 
@@ -58,6 +126,16 @@ public class VideoDataMediator {
         mVideoServiceProxy = new RestAdapter
             .Builder()
             .setEndpoint(Constants.SERVER_URL)
+            .setConverter(mConverter)
+            .setRequestInterceptor(new RequestInterceptor() {
+                    @Override
+                    public void intercept(RequestFacade request) {
+                        // Tell the Video Service that it may answer
+                        // with Smile instead of JSON.
+                        request.addHeader("Accept",
+                                          SmileConverter.ACCEPT);
+                    }
+                })
             .build()
             .create(VideoServiceProxy.class);
     }
@@ -108,12 +186,12 @@ public class VideoDataMediator {
                     if (receivedVideo != null) {
 
                         // Finally, upload the Video data to the server
-                        // and get the status of the uploaded video data.
+                        // in resumable chunks and get the status of the
+                        // uploaded video data.
                         VideoStatus status =
-                            mVideoServiceProxy.setVideoData
-                                (receivedVideo.getId(),
-                                 new TypedFile(receivedVideo.getContentType(),
-                                               videoFile));
+                            uploadVideoData(receivedVideo.getId(),
+                                            receivedVideo.getContentType(),
+                                            videoFile);
 
                         // Check if the Status of the Video or not.
                         if (status.getState() == VideoState.READY) {
@@ -135,17 +213,156 @@ public class VideoDataMediator {
     }
 
     /**
-     * Get the List of Videos from Video Service.
+     * Uploads the data of the Video having the given Id in chunks of
+     * up to UploadSession.getMaxChunkSize() bytes.  If sending a
+     * chunk fails (e.g., because the connection dropped), the Video
+     * Service is asked how much of the data it has received and the
+     * upload carries on from there, so only the chunk that failed is
+     * sent again.  Each chunk carries its MD5, so the Video Service
+     * can turn away a chunk that was corrupted on the way.
+     *
+     * If the Video Service doesn't support resumable uploads the
+     * whole file is sent in one request instead.
+     *
+     * The Video Service processes the data after the upload, so the
+     * commit can return PROCESSING, in which case the Video Service
+     * is polled until the data is READY.
+     *
+     * @return status of the uploaded video data.
+     */
+    private VideoStatus uploadVideoData(long id,
+                                        String contentType,
+                                        File videoFile) throws Exception {
+        UploadSession session;
+        try {
+            session =
+                mVideoServiceProxy.startVideoDataUpload(id,
+                                                        videoFile.length());
+        } catch (RetrofitError e) {
+            if (e.getResponse() != null
+                && e.getResponse().getStatus() == HttpURLConnection.HTTP_NOT_FOUND)
+                return mVideoServiceProxy.setVideoData
+                    (id,
+                     new TypedFile(contentType, videoFile));
+            throw e;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(videoFile, "r");
+        try {
+            byte[] chunk =
+                new byte[(int) Math.min(session.getMaxChunkSize(),
+                                        Math.max(1, session.getLength()))];
+            int retries = 0;
+
+            while (session.getOffset() < session.getLength()) {
+                // Read the next chunk from where the Video Service
+                // says that it has to start.
+                int length =
+                    (int) Math.min(chunk.length,
+                                   session.getLength() - session.getOffset());
+                file.seek(session.getOffset());
+                file.readFully(chunk, 0, length);
+
+                MessageDigest digest = MessageDigest.getInstance("MD5");
+                digest.update(chunk, 0, length);
+                String md5 = Base64.encodeToString(digest.digest(),
+                                                   Base64.NO_WRAP);
+
+                try {
+                    session = mVideoServiceProxy.sendVideoDataChunk
+                        (id,
+                         session.getId(),
+                         session.getNextChunk(),
+                         session.getOffset(),
+                         md5,
+                         new TypedByteArray(CHUNK_MIME_TYPE,
+                                            Arrays.copyOf(chunk, length)));
+                    retries = 0;
+                } catch (RetrofitError e) {
+                    if (++retries > MAX_CHUNK_RETRIES)
+                        throw e;
+
+                    // Find out how much of the data the Video Service
+                    // actually has before trying again.
+                    session =
+                        mVideoServiceProxy.getVideoDataUpload(id,
+                                                              session.getId());
+                }
+            }
+        } finally {
+            file.close();
+        }
+
+        return waitUntilReady(id,
+                              mVideoServiceProxy.commitVideoData(id,
+                                                                 session.getId()));
+    }
+
+    /**
+     * Polls the status of the uploaded data of the Video having the
+     * given Id until the Video Service has finished processing it,
+     * or until MAX_STATUS_POLLS polls have been made.
+     *
+     * @return the last status of the uploaded video data.
+     */
+    private VideoStatus waitUntilReady(long id,
+                                       VideoStatus status)
+        throws InterruptedException {
+        for (int polls = 0;
+             status.getState() == VideoState.PROCESSING
+                 && polls < MAX_STATUS_POLLS;
+             polls++) {
+            Thread.sleep(STATUS_POLL_INTERVAL);
+            status = mVideoServiceProxy.getVideoStatus(id);
+        }
+        return status;
+    }
+
+    /**
+     * Get the List of Videos from Video Service.  The request
+     * carries the ETag of the last list that was received, so if
+     * nothing has changed on the server since then it answers with
+     * a 304 Not Modified and an empty body instead of sending the
+     * whole list again, and the saved copy of the list is returned.
      *
      * @return the List of Videos from Server or null if there is
      *         failure in getting the Videos.
      */
+    @SuppressWarnings("unchecked")
     public List<Video> getVideoList() {
         try {
-            return (ArrayList<Video>)
-                        mVideoServiceProxy.getVideoList();
+            Response response =
+                mVideoServiceProxy.getVideoList(mVideoListETag);
+            List<Video> videos =
+                (List<Video>) mConverter.fromBody(response.getBody(),
+                                                  VIDEO_LIST_TYPE);
+
+            // Save the list and its ETag for the next request.
+            mVideoList = videos;
+            mVideoListETag = getHeader(response,
+                                       VideoServiceProxy.ETAG_HEADER);
+            return new ArrayList<Video>(videos);
+        } catch (RetrofitError e) {
+            // Nothing has changed since the last list was received.
+            if (e.getResponse() != null
+                && e.getResponse().getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED
+                && mVideoList != null)
+                return new ArrayList<Video>(mVideoList);
+            return null;
         } catch (Exception e) {
            return null; 
         }
     }
+
+    /**
+     * Get the value of a header in the Response, or null if the
+     * Response doesn't have that header.
+     */
+    private static String getHeader(Response response,
+                                    String name) {
+        for (Header header : response.getHeaders())
+            if (name.equalsIgnoreCase(header.getName()))
+                return header.getValue();
+        return null;
+    }
 }
@@ -0,0 +1,92 @@
+package vandy.mooc.model.mediator.webdata;
+
+/**
+ * This "Plain Ol' Java Object" (POJO) class represents the state of a
+ * resumable upload of Video data, as it is downloaded in Json from
+ * the Video Service.  The Video data is sent in numbered chunks, each
+ * of which starts at the offset where the previous one ended.
+ */
+public class UploadSession {
+    /**
+     * Id of the upload, which is part of the path of every chunk.
+     */
+    private String id;
+
+    /**
+     * Id of the Video whose data is being uploaded.
+     */
+    private long videoId;
+
+    /**
+     * Total number of bytes that will be uploaded.
+     */
+    private long length;
+
+    /**
+     * Number of bytes that the Video Service has received so far,
+     * which is where the next chunk has to start.
+     */
+    private long offset;
+
+    /**
+     * Number of the next chunk that the Video Service expects.
+     */
+    private int nextChunk;
+
+    /**
+     * Largest chunk that the Video Service accepts.
+     */
+    private long maxChunkSize;
+
+    /*
+     * Getters and setters to access UploadSession.
+     */
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getVideoId() {
+        return videoId;
+    }
+
+    public void setVideoId(long videoId) {
+        this.videoId = videoId;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public int getNextChunk() {
+        return nextChunk;
+    }
+
+    public void setNextChunk(int nextChunk) {
+        this.nextChunk = nextChunk;
+    }
+
+    public long getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public void setMaxChunkSize(long maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+}
@@ -5,12 +5,16 @@ import java.util.Collection;
 import retrofit.client.Response;
 import retrofit.http.Body;
 import retrofit.http.GET;
+import retrofit.http.Header;
 import retrofit.http.Multipart;
 import retrofit.http.POST;
+import retrofit.http.PUT;
 import retrofit.http.Part;
 import retrofit.http.Path;
+import retrofit.http.Query;
 import retrofit.http.Streaming;
 import retrofit.mime.TypedFile;
+import retrofit.mime.TypedOutput;
 
 /**
  * This interface defines an API for a Video Service web service.  The
@@ -43,12 +47,105 @@ public interface VideoServiceProxy {
         + VideoServiceProxy.ID_PARAMETER
         + "}/data";
 
+    /**
+     * Used as Request Parameter for the Id of a resumable upload.
+     */
+    public static final String UPLOAD_ID_PARAMETER = "uploadId";
+
+    /**
+     * Used as Request Parameter for the number of a chunk.
+     */
+    public static final String CHUNK_PARAMETER = "chunk";
+
+    /**
+     * Used as Request Parameter for the total length of an upload.
+     */
+    public static final String LENGTH_PARAMETER = "length";
+
+    /**
+     * Used as Request Parameter for the offset of a chunk.
+     */
+    public static final String OFFSET_PARAMETER = "offset";
+
+    /**
+     * The request header that carries the Base64 MD5 of a chunk.
+     */
+    public static final String CONTENT_MD5_HEADER = "Content-MD5";
+
+    /**
+     * The path where resumable uploads of Video data are started.
+     */
+    public static final String VIDEO_UPLOAD_PATH =
+        VIDEO_SVC_PATH
+        + "/{"
+        + VideoServiceProxy.ID_PARAMETER
+        + "}/upload";
+
+    /**
+     * The path of one resumable upload.
+     */
+    public static final String VIDEO_UPLOAD_SESSION_PATH =
+        VIDEO_UPLOAD_PATH
+        + "/{"
+        + VideoServiceProxy.UPLOAD_ID_PARAMETER
+        + "}";
+
+    /**
+     * The path of one chunk of a resumable upload.
+     */
+    public static final String VIDEO_UPLOAD_CHUNK_PATH =
+        VIDEO_UPLOAD_SESSION_PATH
+        + "/{"
+        + VideoServiceProxy.CHUNK_PARAMETER
+        + "}";
+
+    /**
+     * The path that finishes a resumable upload.
+     */
+    public static final String VIDEO_UPLOAD_COMMIT_PATH =
+        VIDEO_UPLOAD_SESSION_PATH
+        + "/commit";
+
+    /**
+     * The path of the processing status of the Video data.
+     */
+    public static final String VIDEO_STATUS_PATH =
+        VIDEO_SVC_PATH
+        + "/{"
+        + VideoServiceProxy.ID_PARAMETER
+        + "}/status";
+
+    /**
+     * The request header that carries the ETag of the copy of the
+     * Video list that the client already has.
+     */
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /**
+     * The response header that carries the ETag of the Video list.
+     */
+    public static final String ETAG_HEADER = "ETag";
+
     /**
      * Sends a GET request to get the List of Videos from Video
      * Web service using a two-way Retrofit RPC call.
      */
     @GET(VIDEO_SVC_PATH)
     public Collection<Video> getVideoList();
+
+    /**
+     * Sends a conditional GET request for the List of Videos.  If
+     * the list on the server still has the given ETag, the server
+     * answers with a 304 Not Modified and no body, which Retrofit
+     * reports as a RetrofitError.  Otherwise the Response contains
+     * the new list and its ETag.  Retrofit leaves the header out if
+     * the etag is null.
+     *
+     * @param etag The ETag of the list that the client has, or null.
+     * @return Response which contains the Video list as JSON.
+     */
+    @GET(VIDEO_SVC_PATH)
+    public Response getVideoList(@Header(IF_NONE_MATCH_HEADER) String etag);
     
     /**
      * Sends a POST request to add the Video metadata to the Video 
@@ -95,4 +192,63 @@ public interface VideoServiceProxy {
     @Streaming
     @GET(VIDEO_DATA_PATH)
     Response getData(@Path(ID_PARAMETER) long id);
+
+    /**
+     * Sends a POST request to start a resumable upload of the Video
+     * data to the Video Web service.  Instead of sending the whole
+     * file in one request, the data is then sent in chunks with
+     * sendVideoDataChunk() and finished with commitVideoData(), so
+     * a dropped connection only costs the chunk that was being sent.
+     *
+     * @param id
+     * @param length Total number of bytes that will be uploaded.
+     * @return UploadSession that says where the first chunk starts.
+     */
+    @POST(VIDEO_UPLOAD_PATH)
+    public UploadSession startVideoDataUpload(@Path(ID_PARAMETER) long id,
+                                              @Query(LENGTH_PARAMETER) long length);
+
+    /**
+     * Sends a PUT request with one chunk of a resumable upload.  The
+     * chunk has to start at UploadSession.getOffset().
+     *
+     * @param md5 Base64 MD5 of the chunk, so the Video Service can
+     *            reject a chunk that was corrupted on the way.
+     * @return UploadSession with the new offset.
+     */
+    @PUT(VIDEO_UPLOAD_CHUNK_PATH)
+    public UploadSession sendVideoDataChunk(@Path(ID_PARAMETER) long id,
+                                            @Path(UPLOAD_ID_PARAMETER) String uploadId,
+                                            @Path(CHUNK_PARAMETER) int chunk,
+                                            @Query(OFFSET_PARAMETER) long offset,
+                                            @Header(CONTENT_MD5_HEADER) String md5,
+                                            @Body TypedOutput data);
+
+    /**
+     * Sends a GET request for the state of a resumable upload, which
+     * says which chunk to send next after a dropped connection.
+     */
+    @GET(VIDEO_UPLOAD_SESSION_PATH)
+    public UploadSession getVideoDataUpload(@Path(ID_PARAMETER) long id,
+                                            @Path(UPLOAD_ID_PARAMETER) String uploadId);
+
+    /**
+     * Sends a POST request that finishes a resumable upload once all
+     * of the data has been sent.
+     *
+     * @return videoStatus indicating status of the uploaded video.
+     */
+    @POST(VIDEO_UPLOAD_COMMIT_PATH)
+    public VideoStatus commitVideoData(@Path(ID_PARAMETER) long id,
+                                       @Path(UPLOAD_ID_PARAMETER) String uploadId);
+
+    /**
+     * Sends a GET request for the status of the Video data, which is
+     * PROCESSING until the Video Service has finished processing the
+     * data after an upload, and READY after that.
+     *
+     * @return videoStatus indicating status of the uploaded video.
+     */
+    @GET(VIDEO_STATUS_PATH)
+    public VideoStatus getVideoStatus(@Path(ID_PARAMETER) long id);
 }
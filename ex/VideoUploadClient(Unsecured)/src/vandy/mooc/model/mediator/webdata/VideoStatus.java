@@ -12,7 +12,8 @@ public class VideoStatus {
      */
     public enum VideoState {
         READY, 
-        PROCESSING
+        PROCESSING,
+        FAILED
     }
 
     /**
@@ -0,0 +1,90 @@
+package vandy.mooc.model.mediator.webdata;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+import junit.framework.TestCase;
+import retrofit.converter.Converter;
+import retrofit.converter.GsonConverter;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Compares the SmileConverter with the GsonConverter that it
+ * replaced, by timing how long each takes to write a list of Videos
+ * into a body and read it back, and how big that body is.  This is
+ * the work the client does for every list of Videos, so it shows
+ * what Smile saves on the device itself, apart from the network.
+ *
+ * Needs -Dbenchmark=true on a desktop JVM (-Dbenchmark.videos and
+ * -Dbenchmark.rounds change the sizes), so it is skipped on a device.
+ */
+public class SmileConverterBenchmarkTest extends TestCase {
+    /**
+     * The Type of a List of Videos.
+     */
+    private static final Type VIDEO_LIST_TYPE =
+        new TypeToken<List<Video>>(){}.getType();
+
+    /**
+     * Rounds that are run (and thrown away) before timing, so the
+     * JIT has compiled both converters.
+     */
+    private static final int WARMUP_ROUNDS = 200;
+
+    public void testSmileVersusJson() throws Exception {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+
+        int count = Integer.getInteger("benchmark.videos", 1000);
+        int rounds = Integer.getInteger("benchmark.rounds", 500);
+        List<Video> videos = SmileConverterTest.newVideos(count);
+
+        Gson gson = new Gson();
+        GsonConverter json = new GsonConverter(gson);
+        SmileConverter smile = new SmileConverter(gson);
+        smile.fromBody(SmileConverterTest.emptySmileList(),
+                       VIDEO_LIST_TYPE);
+
+        // Warm up
+        roundTrip(json, videos, WARMUP_ROUNDS);
+        roundTrip(smile, videos, WARMUP_ROUNDS);
+        long jsonNanos = roundTrip(json, videos, rounds);
+        long smileNanos = roundTrip(smile, videos, rounds);
+
+        int jsonBytes =
+            SmileConverterTest.toBytes(json.toBody(videos)).length;
+        int smileBytes =
+            SmileConverterTest.toBytes(smile.toBody(videos)).length;
+
+        System.out.println("Round trip of " + count + " Videos, "
+                           + rounds + " rounds:");
+        System.out.println("  JSON:  " + jsonBytes + " bytes, "
+                           + (jsonNanos / rounds / 1000) + " us/round");
+        System.out.println("  Smile: " + smileBytes + " bytes, "
+                           + (smileNanos / rounds / 1000) + " us/round");
+
+        assertTrue(smileBytes < jsonBytes);
+    }
+
+    /**
+     * Writes the Videos into a body and reads them back the given
+     * number of times, and returns how many nanoseconds that took.
+     */
+    private static long roundTrip(Converter converter,
+                                  List<Video> videos,
+                                  int rounds) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            TypedOutput body = converter.toBody(videos);
+            TypedInput input = SmileConverterTest.toInput(body);
+            List<?> read = (List<?>) converter.fromBody(input,
+                                                        VIDEO_LIST_TYPE);
+            assertEquals(videos.size(), read.size());
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,128 @@
+package org.magnum.mobilecloud.servlet;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * This servlet sends back exactly the same "Echo:" + msg responses as the
+ * EchoServlet, but it is built for handling a lot of requests at once.
+ *
+ * The EchoServlet writes its response through resp.getWriter(), so every
+ * request gets its own PrintWriter and charset encoder, and the whole
+ * "Echo:" + msg String is built and then encoded. This servlet encodes the
+ * parts that never change ("Echo:", and the "Echo:null" that is sent when
+ * there is no msg) into bytes once, when the class is loaded. A request
+ * only has to turn its msg into bytes and copy them after the prefix, and
+ * since the length of the body is known up front, it is sent in a
+ * Content-Length header and the container doesn't have to chunk it.
+ *
+ * The body is written with the non-blocking I/O of Servlet 3.1: the
+ * servlet calls startAsync() and hands the body to a WriteListener, which
+ * the container calls when the connection can take it. The request thread
+ * never waits on a client that is slow to read its response.
+ *
+ * The listener can still be called after the response has been completed
+ * (e.g., onError() when the client goes away just as the body is sent),
+ * and calling complete() twice throws an IllegalStateException, so each
+ * request remembers whether it has been completed already.
+ *
+ * Because this servlet needs a Servlet 3.1 container, it isn't in the
+ * web.xml that jettyRun uses (which runs an older Jetty). The load
+ * generator in 1-SimpleServletLoadGenerator runs it next to the
+ * EchoServlet in an embedded Jetty 9 and compares the two.
+ *
+ * @author jules
+ *
+ */
+public class AsyncEchoServlet extends HttpServlet
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	public static final String CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+	// How long a client gets to read the response before the container
+	// gives up on it
+	public static final long ASYNC_TIMEOUT = 30 * 1000L;
+
+	// Encoded once, instead of on every request
+	private static final byte[] ECHO_PREFIX = "Echo:".getBytes(CHARSET);
+
+	// What the EchoServlet sends when there is no msg parameter
+	private static final byte[] ECHO_NULL = ("Echo:" + null).getBytes(CHARSET);
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+
+		final byte[] body = echo(req.getParameter("msg"));
+
+		// Setting the charset in the content type means that the container
+		// doesn't have to pick one (nothing is encoded by it anyway)
+		resp.setContentType(CONTENT_TYPE);
+		resp.setContentLength(body.length);
+
+		// Tell the container that the response will be finished later,
+		// by whichever thread the WriteListener is called on
+		final AsyncContext async = req.startAsync();
+		async.setTimeout(ASYNC_TIMEOUT);
+		final ServletOutputStream out = resp.getOutputStream();
+		final AtomicBoolean completed = new AtomicBoolean();
+
+		out.setWriteListener(new WriteListener() {
+
+			private boolean sent;
+
+			@Override
+			public void onWritePossible() throws IOException {
+				// The body is written in one go. If the connection can't
+				// take all of it right away, the container calls this
+				// method again once it has been sent, and only then is
+				// the response completed.
+				while (!completed.get() && out.isReady()) {
+					if (sent) {
+						complete(async, completed);
+						return;
+					}
+					out.write(body);
+					sent = true;
+				}
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				// The client went away
+				complete(async, completed);
+			}
+		});
+	}
+
+	private static void complete(AsyncContext async, AtomicBoolean completed) {
+		if (completed.compareAndSet(false, true)) {
+			async.complete();
+		}
+	}
+
+	// The bytes of "Echo:" + msg
+	private static byte[] echo(String msg) {
+		if (msg == null) {
+			return ECHO_NULL;
+		}
+		byte[] encoded = msg.getBytes(CHARSET);
+		byte[] body = new byte[ECHO_PREFIX.length + encoded.length];
+		System.arraycopy(ECHO_PREFIX, 0, body, 0, ECHO_PREFIX.length);
+		System.arraycopy(encoded, 0, body, ECHO_PREFIX.length, encoded.length);
+		return body;
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.magnum.mobilecloud.servlet.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * A minimal HTTP/1.1 client that sends GET requests over one keep-alive
+ * connection, one after the other.
+ *
+ * A full HTTP client does a lot of work of its own for every request
+ * (headers, cookies, connection pooling, ...). This one sends requests that
+ * were encoded ahead of time and reads just enough of the response to find
+ * its body, so that the time it measures is, as much as possible, the time
+ * that the server took.
+ *
+ * @author jules
+ *
+ */
+public class EchoClient implements Closeable {
+
+	public static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final String host;
+	private final int port;
+
+	private Socket socket;
+	private InputStream in;
+	private OutputStream out;
+
+	public EchoClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Encodes a GET request for the given path and query (e.g.
+	 * "/echo?msg=1234"), which has to be url encoded already.
+	 *
+	 * @param host
+	 * @param port
+	 * @param target
+	 * @return
+	 */
+	public static byte[] request(String host, int port, String target) {
+		return ("GET " + target + " HTTP/1.1\r\n"
+				+ "Host: " + host + ":" + port + "\r\n"
+				+ "\r\n").getBytes(ASCII);
+	}
+
+	/**
+	 * Sends a request that was encoded by request() and returns the body of
+	 * the response. The connection is opened if it isn't already, and kept
+	 * open for the next request unless the server closes it.
+	 *
+	 * @param request
+	 * @return
+	 * @throws IOException if the connection fails or the response isn't a 200
+	 */
+	public byte[] get(byte[] request) throws IOException {
+		if (socket == null) {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new BufferedInputStream(socket.getInputStream());
+			out = socket.getOutputStream();
+		}
+
+		try {
+			out.write(request);
+			out.flush();
+			return readResponse();
+		} catch (IOException e) {
+			// The connection can't be trusted anymore, so the next
+			// request starts a new one
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// It's gone either way
+			}
+			socket = null;
+		}
+	}
+
+	private byte[] readResponse() throws IOException {
+		String status = readLine();
+		if (!status.startsWith("HTTP/1.1 200")) {
+			throw new IOException("Unexpected response: " + status);
+		}
+
+		int contentLength = -1;
+		boolean chunked = false;
+		boolean keepAlive = true;
+		String header;
+		while ((header = readLine()).length() > 0) {
+			int colon = header.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String name = header.substring(0, colon).trim();
+			String value = header.substring(colon + 1).trim();
+			if ("Content-Length".equalsIgnoreCase(name)) {
+				contentLength = Integer.parseInt(value);
+			} else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+				chunked = "chunked".equalsIgnoreCase(value);
+			} else if ("Connection".equalsIgnoreCase(name)) {
+				keepAlive = !"close".equalsIgnoreCase(value);
+			}
+		}
+
+		byte[] body;
+		if (chunked) {
+			ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+			int size;
+			while ((size = Integer.parseInt(readLine().split(";")[0].trim(), 16)) > 0) {
+				chunks.write(readFully(size));
+				readLine();
+			}
+			// Skip the trailers
+			while (readLine().length() > 0) {
+			}
+			body = chunks.toByteArray();
+		} else if (contentLength >= 0) {
+			body = readFully(contentLength);
+		} else {
+			throw new IOException("The response has no length");
+		}
+
+		if (!keepAlive) {
+			close();
+		}
+		return body;
+	}
+
+	private byte[] readFully(int length) throws IOException {
+		byte[] data = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int n = in.read(data, read, length - read);
+			if (n < 0) {
+				throw new IOException("The connection was closed");
+			}
+			read += n;
+		}
+		return data;
+	}
+
+	// A header line, without the CRLF at its end
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0) {
+				throw new IOException("The connection was closed");
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+}
@@ -0,0 +1,208 @@
+package org.magnum.mobilecloud.servlet.loadgen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.magnum.mobilecloud.servlet.AsyncEchoServlet;
+import org.magnum.mobilecloud.servlet.EchoServlet;
+
+/**
+ * Runs the EchoServlet and the AsyncEchoServlet side by side in an embedded
+ * Jetty 9 and measures how each of them holds up when many clients send
+ * requests at the same time.
+ *
+ * Every client is a thread with its own keep-alive connection (see
+ * EchoClient) that sends a GET as soon as it has the answer to its last
+ * one, and records how long each answer took. After a warm up, each servlet
+ * gets the same load for the same amount of time, and the requests per
+ * second and the p50 and p99 latency are printed for both of them (see
+ * LoadResult).
+ *
+ * The arguments are the number of clients, the number of seconds that each
+ * servlet is measured for, and the number of seconds of warm up (see the
+ * README.md).
+ *
+ * @author jules
+ *
+ */
+public class EchoLoadGenerator {
+
+	public static final String ECHO_PATH = "/echo";
+
+	public static final String ASYNC_ECHO_PATH = "/async/echo";
+
+	// The message that the clients send
+	public static final String MSG = "1234test";
+
+	public static final int DEFAULT_CLIENTS = 64;
+
+	public static final int DEFAULT_SECONDS = 10;
+
+	public static final int DEFAULT_WARMUP_SECONDS = 5;
+
+	private static final String HOST = "localhost";
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+		int warmup = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WARMUP_SECONDS;
+
+		EchoLoadGenerator generator = new EchoLoadGenerator();
+		generator.start();
+		try {
+			List<LoadResult> results = new ArrayList<LoadResult>();
+			for (String path : new String[] { ECHO_PATH, ASYNC_ECHO_PATH }) {
+				System.out.println(String.format("Warming up %s for %d s...", path, warmup));
+				generator.run(path, clients, warmup * 1000L);
+				System.out.println(String.format("Measuring %s for %d s...", path, seconds));
+				results.add(generator.run(path, clients, seconds * 1000L));
+			}
+
+			System.out.println();
+			for (LoadResult result : results) {
+				System.out.println(result);
+			}
+		} finally {
+			generator.stop();
+		}
+	}
+
+	private Server server;
+
+	private int port;
+
+	/**
+	 * Starts both servlets in an embedded Jetty 9 on a free port.
+	 *
+	 * @throws Exception
+	 */
+	public void start() throws Exception {
+		server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(0);
+		server.addConnector(connector);
+
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(new ServletHolder(new EchoServlet()), ECHO_PATH);
+		ServletHolder async = new ServletHolder(new AsyncEchoServlet());
+		async.setAsyncSupported(true);
+		context.addServlet(async, ASYNC_ECHO_PATH);
+		server.setHandler(context);
+
+		server.start();
+		port = connector.getLocalPort();
+	}
+
+	public void stop() throws Exception {
+		server.stop();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getHost() {
+		return HOST;
+	}
+
+	/**
+	 * Sends requests to the servlet at the given path from the given number
+	 * of clients for the given number of ms, and returns what was measured.
+	 *
+	 * @param path
+	 * @param clients
+	 * @param millis
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public LoadResult run(final String path, int clients, long millis) throws InterruptedException {
+		final byte[] request = EchoClient.request(HOST, port, path + "?msg=" + MSG);
+		final byte[] expected = ("Echo:" + MSG).getBytes(AsyncEchoServlet.CHARSET);
+
+		final CountDownLatch go = new CountDownLatch(1);
+		final long[] deadline = new long[1];
+		final Latencies[] latencies = new Latencies[clients];
+		final long[] errors = new long[clients];
+
+		Thread[] threads = new Thread[clients];
+		for (int i = 0; i < clients; i++) {
+			final int client = i;
+			latencies[client] = new Latencies();
+			threads[client] = new Thread("echo-client-" + client) {
+				@Override
+				public void run() {
+					EchoClient echo = new EchoClient(HOST, port);
+					try {
+						go.await();
+						long start;
+						while ((start = System.nanoTime()) < deadline[0]) {
+							try {
+								byte[] body = echo.get(request);
+								long latency = System.nanoTime() - start;
+								if (Arrays.equals(expected, body)) {
+									latencies[client].add(latency);
+								} else {
+									errors[client]++;
+								}
+							} catch (IOException e) {
+								errors[client]++;
+							}
+						}
+					} catch (InterruptedException e) {
+						// Stop sending
+					} finally {
+						echo.close();
+					}
+				}
+			};
+			threads[client].start();
+		}
+
+		// All of the clients start at the same time. The deadline is
+		// written before the latch is opened, so the clients all see it.
+		long start = System.nanoTime();
+		deadline[0] = start + millis * 1000000L;
+		go.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		long totalErrors = 0;
+		int total = 0;
+		for (int i = 0; i < clients; i++) {
+			totalErrors += errors[i];
+			total += latencies[i].size;
+		}
+		long[] all = new long[total];
+		int offset = 0;
+		for (Latencies l : latencies) {
+			System.arraycopy(l.values, 0, all, offset, l.size);
+			offset += l.size;
+		}
+		return new LoadResult(path, clients, elapsed, totalErrors, all);
+	}
+
+	// The latencies that one client recorded. Each client has its own, so
+	// recording one doesn't need any locking.
+	private static class Latencies {
+
+		private long[] values = new long[16 * 1024];
+		private int size;
+
+		private void add(long latency) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = latency;
+		}
+	}
+
+}
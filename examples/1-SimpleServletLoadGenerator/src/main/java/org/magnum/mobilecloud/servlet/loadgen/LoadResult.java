@@ -0,0 +1,82 @@
+package org.magnum.mobilecloud.servlet.loadgen;
+
+import java.util.Arrays;
+
+/**
+ * What the EchoLoadGenerator measured while it sent requests to one
+ * servlet: how many requests were answered, how long each of them took,
+ * and how many of them failed.
+ *
+ * @author jules
+ *
+ */
+public class LoadResult {
+
+	private final String path;
+	private final int clients;
+	private final long elapsedNanos;
+	private final long errors;
+
+	// The latency of every answered request in ns, sorted
+	private final long[] latencies;
+
+	public LoadResult(String path, int clients, long elapsedNanos, long errors, long[] latencies) {
+		this.path = path;
+		this.clients = clients;
+		this.elapsedNanos = elapsedNanos;
+		this.errors = errors;
+		this.latencies = latencies.clone();
+		Arrays.sort(this.latencies);
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getClients() {
+		return clients;
+	}
+
+	// The number of requests that were answered correctly
+	public long getRequests() {
+		return latencies.length;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public double getRequestsPerSecond() {
+		return latencies.length / (elapsedNanos / 1e9);
+	}
+
+	/**
+	 * The latency in ms that the given percentage of the requests were
+	 * answered within (e.g., 50 for the median, 99 for the p99).
+	 *
+	 * @param percent
+	 * @return
+	 */
+	public double getPercentile(double percent) {
+		if (latencies.length == 0) {
+			return Double.NaN;
+		}
+		// The nearest rank
+		int rank = (int) Math.ceil(percent / 100 * latencies.length);
+		return latencies[Math.min(Math.max(rank, 1), latencies.length) - 1] / 1e6;
+	}
+
+	// The slowest request in ms
+	public double getMax() {
+		return getPercentile(100);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-12s %4d clients: %,10.0f req/s   p50 %8.3f ms   p99 %8.3f ms   max %8.3f ms   %,d requests, %,d errors",
+				path, clients, getRequestsPerSecond(),
+				getPercentile(50), getPercentile(99), getMax(),
+				getRequests(), errors);
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.magnum.mobilecloud.servlet.loadgen.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.mobilecloud.servlet.AsyncEchoServlet;
+import org.magnum.mobilecloud.servlet.loadgen.EchoClient;
+import org.magnum.mobilecloud.servlet.loadgen.EchoLoadGenerator;
+import org.magnum.mobilecloud.servlet.loadgen.LoadResult;
+
+/**
+ *
+ * This test starts the EchoLoadGenerator's embedded server and checks that
+ * the AsyncEchoServlet answers exactly like the EchoServlet, and that a
+ * short run of the load generator against each of them works.
+ *
+ * The short run only checks that the load generator works; it is too short
+ * to say anything about the servlets' latency or throughput. The actual load
+ * runs outside of the tests, with "gradle runLoadGenerator".
+ *
+ * To run this test, right-click on it in Eclipse and select
+ *   "Run As"->"JUnit Test"
+ *
+ * @author jules
+ *
+ */
+public class EchoLoadGeneratorTest {
+
+	// How long (in ms) the load generator runs against each servlet
+	private static final int SHORT_RUN = 200;
+
+	private EchoLoadGenerator generator;
+
+	private EchoClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		generator = new EchoLoadGenerator();
+		generator.start();
+		client = new EchoClient(generator.getHost(), generator.getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		client.close();
+		generator.stop();
+	}
+
+	@Test
+	public void testSameEchoes() throws Exception {
+		String[] queries = { "?msg=1234", "?msg=hello+world", "?msg=", "" };
+		for (String query : queries) {
+			byte[] echo = get(EchoLoadGenerator.ECHO_PATH + query);
+			byte[] asyncEcho = get(EchoLoadGenerator.ASYNC_ECHO_PATH + query);
+			assertArrayEquals(echo, asyncEcho);
+		}
+		assertEquals("Echo:hello world", new String(get(EchoLoadGenerator.ASYNC_ECHO_PATH + "?msg=hello+world"), AsyncEchoServlet.CHARSET));
+		assertEquals("Echo:null", new String(get(EchoLoadGenerator.ASYNC_ECHO_PATH), AsyncEchoServlet.CHARSET));
+	}
+
+	@Test
+	public void testShortRun() throws Exception {
+		for (String path : new String[] { EchoLoadGenerator.ECHO_PATH, EchoLoadGenerator.ASYNC_ECHO_PATH }) {
+			LoadResult result = generator.run(path, 4, SHORT_RUN);
+			assertEquals(0, result.getErrors());
+			assertTrue(result.getRequests() > 0);
+			assertTrue(result.getPercentile(50) <= result.getPercentile(99));
+			assertTrue(result.getPercentile(99) <= result.getMax());
+		}
+	}
+
+	private byte[] get(String target) throws Exception {
+		return client.get(EchoClient.request(generator.getHost(), generator.getPort(), target));
+	}
+
+}
@@ -1,11 +1,13 @@
 package org.magnum.mobilecloud.video;
 
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.json.ResourcesMapper;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.data.rest.core.config.RepositoryRestConfiguration;
 import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguration;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
@@ -42,9 +44,24 @@ public class Application extends RepositoryRestMvcConfiguration {
 	// on the ObjectMapper. This is an example of how Spring dependency
 	// injection allows us to easily configure dependencies in code that
 	// we don't have easy control over otherwise.
+	//
+	// The GET requests that return lists of videos (e.g., GET /video)
+	// never reach Spring Data Rest or this ObjectMapper. They are answered
+	// by the VideoListHandlerMapping, which writes the same JSON directly.
 	@Override
 	public ObjectMapper halObjectMapper(){
 		return new ResourcesMapper();
 	}
+	
+	// Spring Data Rest reads the page size for search methods that take
+	// a Pageable from the "size" parameter by default. We tell it to use
+	// the "limit" parameter from our VideoSvcApi instead and to cap the
+	// page size so that clients always get bounded responses.
+	@Override
+	protected void configureRepositoryRestConfiguration(
+			RepositoryRestConfiguration config) {
+		config.setLimitParamName(VideoSvcApi.LIMIT_PARAMETER);
+		config.setMaxPageSize(VideoSvcApi.MAX_PAGE_SIZE);
+	}
 
 }
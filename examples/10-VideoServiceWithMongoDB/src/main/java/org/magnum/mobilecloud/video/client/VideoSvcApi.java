@@ -3,6 +3,7 @@ package org.magnum.mobilecloud.video.client;
 import java.util.Collection;
 
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 
 import retrofit.http.Body;
 import retrofit.http.GET;
@@ -24,6 +25,20 @@ public interface VideoSvcApi {
 	public static final String TITLE_PARAMETER = "title";
 	
 	public static final String DURATION_PARAMETER = "duration";
+	
+	// The maximum number of videos to return in one page
+	public static final String LIMIT_PARAMETER = "limit";
+	
+	// The continuation token from the previous page
+	public static final String AFTER_PARAMETER = "after";
+	
+	// The largest page that the VideoSvc will return, no matter
+	// what limit the client asks for
+	public static final int MAX_PAGE_SIZE = 100;
+	
+	public static final String PAGE_SEARCH = "page";
+	
+	public static final String TITLE_PAGE_SEARCH = "findByNamePage";
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
@@ -33,6 +48,12 @@ public interface VideoSvcApi {
 	
 	// The path to search videos by title
 	public static final String VIDEO_DURATION_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByDurationLessThan";
+	
+	// The path to get one page of videos
+	public static final String VIDEO_PAGE_PATH = VIDEO_SVC_PATH + "/search/" + PAGE_SEARCH;
+	
+	// The path to get one page of videos with a matching title
+	public static final String VIDEO_TITLE_PAGE_PATH = VIDEO_SVC_PATH + "/search/" + TITLE_PAGE_SEARCH;
 
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
@@ -46,4 +67,18 @@ public interface VideoSvcApi {
 	@GET(VIDEO_DURATION_SEARCH_PATH)
 	public Collection<Video> findByDurationLessThan(@Query(DURATION_PARAMETER) String title);
 	
+	// Get up to limit videos, in the order they were added. Pass null as
+	// "after" to get the first page and then the next token from each
+	// page to get the page after it. A null next token means there are
+	// no more videos.
+	@GET(VIDEO_PAGE_PATH)
+	public VideoPage getVideoPage(@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
+	// Get one page of the videos with a matching title
+	@GET(VIDEO_TITLE_PAGE_PATH)
+	public VideoPage findByTitlePage(@Query(TITLE_PARAMETER) String title,
+			@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
 }
@@ -13,8 +13,12 @@ import com.google.common.base.Objects;
  */
 public class Video {
 
+	// MongoDB generates an ObjectId for each new Video and stores
+	// it here as a String. ObjectIds start with a timestamp, so
+	// they increase as videos are added and can be used to page
+	// through the videos in the order they were added.
 	@Id
-	private long id;
+	private String id;
 
 	private String name;
 	private String url;
@@ -54,11 +58,11 @@ public class Video {
 		this.duration = duration;
 	}
 
-	public long getId() {
+	public String getId() {
 		return id;
 	}
 
-	public void setId(long id) {
+	public void setId(String id) {
 		this.id = id;
 	}
 
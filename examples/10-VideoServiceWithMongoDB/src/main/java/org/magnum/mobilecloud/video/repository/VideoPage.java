@@ -0,0 +1,96 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.bson.types.ObjectId;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * One page of a list of videos plus the continuation token that a client
+ * sends back (as the "after" parameter) to get the next page.
+ *
+ * The token is opaque to clients. Here it encodes the id of the last video
+ * in the page, so that the VideoRepository can seek straight to the next
+ * video in the _id index. Clients shouldn't build or take apart tokens
+ * themselves, so that what is encoded into them can change without
+ * breaking the clients. When there are no more videos, the next token is
+ * null.
+ *
+ * @author jules
+ *
+ */
+public class VideoPage {
+
+	// The smallest possible MongoDB ObjectId, which every video's id is
+	// greater than
+	private static final String FIRST_ID = "000000000000000000000000";
+
+	private static final BaseEncoding CURSOR_ENCODING = BaseEncoding.base64Url().omitPadding();
+
+	private Collection<Video> videos = new ArrayList<Video>();
+	private String next;
+
+	public VideoPage() {
+	}
+
+	public VideoPage(Collection<Video> videos, String next) {
+		super();
+		this.videos = videos;
+		this.next = next;
+	}
+
+	public Collection<Video> getVideos() {
+		return videos;
+	}
+
+	public void setVideos(Collection<Video> videos) {
+		this.videos = videos;
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+
+	/**
+	 * Encode the id of the last video in a page as a continuation token.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static String toCursor(String id) {
+		return CURSOR_ENCODING.encode(id.getBytes(Charsets.UTF_8));
+	}
+
+	/**
+	 * Decode a continuation token created by toCursor() back into a video
+	 * id. A null token means "start from the beginning" and decodes to
+	 * FIRST_ID.
+	 *
+	 * @param cursor
+	 * @return
+	 * @throws IllegalArgumentException if the token was not created by toCursor()
+	 */
+	public static String fromCursor(String cursor) {
+		if (cursor == null) {
+			return FIRST_ID;
+		}
+		String id;
+		try {
+			id = new String(CURSOR_ENCODING.decode(cursor), Charsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token: " + cursor, e);
+		}
+		if (!ObjectId.isValid(id)) {
+			throw new IllegalArgumentException("Invalid continuation token: " + cursor);
+		}
+		return id;
+	}
+
+}
@@ -1,11 +1,14 @@
 package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 /**
  * An interface for a repository that can store Video
@@ -26,7 +29,7 @@ import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 //    (e.g., /video/search/findByName?title=Foo)
 //
 @RepositoryRestResource(path = VideoSvcApi.VIDEO_SVC_PATH)
-public interface VideoRepository extends MongoRepository<Video, Long>{
+public interface VideoRepository extends MongoRepository<Video, String>{
 
 	// Find all videos with a matching title (e.g., Video.name)
 	public Collection<Video> findByName(
@@ -42,6 +45,25 @@ public interface VideoRepository extends MongoRepository<Video, Long>{
 			// search for Videos
 			@Param(VideoSvcApi.DURATION_PARAMETER) long maxduration);
 	
+	// Find one page of videos that were added after the video with the
+	// "after" id. The query seeks straight to that id in the _id index, so
+	// every page costs the same no matter how deep into the collection it
+	// is. The @RestResource annotation maps the search to
+	// /video/search/page, where the VideoListHandlerMapping answers it
+	// with a VideoPage that hides the id in an opaque continuation token.
+	@RestResource(path = VideoSvcApi.PAGE_SEARCH)
+	public List<Video> findByIdGreaterThanOrderByIdAsc(
+			@Param(VideoSvcApi.AFTER_PARAMETER) String after,
+			Pageable page);
+	
+	// Find one page of videos with a matching title, using the same
+	// approach as findByIdGreaterThanOrderByIdAsc()
+	@RestResource(path = VideoSvcApi.TITLE_PAGE_SEARCH)
+	public List<Video> findByNameAndIdGreaterThanOrderByIdAsc(
+			@Param(VideoSvcApi.TITLE_PARAMETER) String title,
+			@Param(VideoSvcApi.AFTER_PARAMETER) String after,
+			Pageable page);
+	
 	/*
 	 * See: http://docs.spring.io/spring-data/jpa/docs/1.3.0.RELEASE/reference/html/jpa.repositories.html 
 	 * for more examples of writing query methods
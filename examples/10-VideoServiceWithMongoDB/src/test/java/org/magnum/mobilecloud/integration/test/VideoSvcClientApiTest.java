@@ -1,14 +1,18 @@
 package org.magnum.mobilecloud.integration.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.Test;
 import org.magnum.mobilecloud.video.TestData;
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 
 import retrofit.RestAdapter;
 import retrofit.RestAdapter.LogLevel;
@@ -62,4 +66,32 @@ public class VideoSvcClientApiTest {
 		assertTrue(videos.contains(video));
 	}
 
+	// Add some videos with the same title and then page through the title
+	// search 2 videos at a time, following the next token from each page
+	// until there isn't one. Every video should come back exactly once and
+	// in the order it was added.
+	@Test
+	public void testVideoTitleSearchPaging() throws Exception {
+		Video first = TestData.randomVideo();
+		List<Video> added = new ArrayList<Video>();
+		for (int i = 0; i < 5; i++) {
+			Video video = TestData.randomVideo();
+			video.setName(first.getName());
+			videoService.addVideo(video);
+			added.add(video);
+		}
+
+		List<Video> found = new ArrayList<Video>();
+		VideoPage page = videoService.findByTitlePage(first.getName(), 2, null);
+		found.addAll(page.getVideos());
+		while (page.getNext() != null) {
+			assertEquals(2, page.getVideos().size());
+			page = videoService.findByTitlePage(first.getName(), 2, page.getNext());
+			found.addAll(page.getVideos());
+		}
+
+		assertEquals(added, found);
+		assertNull(page.getNext());
+	}
+
 }
@@ -0,0 +1,117 @@
+package org.magnum.mobilecloud.video.controller;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.json.VideoJsonWriter;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.HttpRequestHandler;
+import org.springframework.web.servlet.handler.AbstractHandlerMapping;
+
+/**
+ * Answers the GET requests of the VideoSvcApi that return a list of Videos
+ * (e.g., GET /video and GET /video/search/findByName?title=Foo) without
+ * going through Spring Data Rest.
+ *
+ * For these requests, Spring Data Rest wraps every Video that the
+ * VideoRepository returns in a Resource, builds a "self" link for each one,
+ * wraps the list in a Resources with more links, and then the
+ * ResourcesMapper throws all of the wrappers and most of the links away
+ * again. This class calls the same VideoRepository method with the same
+ * request parameters and hands the Videos straight to a VideoJsonWriter,
+ * which streams them into the response as the flat JSON array that the
+ * Retrofit clients expect.
+ *
+ * The DispatcherServlet asks each HandlerMapping in turn for a handler,
+ * in order. This one goes first and only answers GET requests for the
+ * paths below. Everything else (POST /video, GET /video/{id}, the search
+ * listing, etc.) gets a null and falls through to Spring Data Rest, which
+ * still uses the ResourcesMapper.
+ *
+ * We don't use a @Controller for this, because a @RequestMapping for
+ * GET /video would make Spring answer POST /video with a
+ * "405 Method Not Allowed" instead of letting Spring Data Rest have it.
+ *
+ * @author jules
+ *
+ */
+@Component
+public class VideoListHandlerMapping extends AbstractHandlerMapping {
+
+	public static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+
+	@Autowired
+	private VideoRepository videos;
+
+	private final VideoJsonWriter writer = new VideoJsonWriter();
+
+	private final Map<String, HttpRequestHandler> handlers = new HashMap<String, HttpRequestHandler>();
+
+	public VideoListHandlerMapping() {
+		setOrder(Ordered.HIGHEST_PRECEDENCE);
+
+		handlers.put(VideoSvcApi.VIDEO_SVC_PATH, new VideoList() {
+			@Override
+			protected Iterable<Video> find(HttpServletRequest request) {
+				return videos.findAll();
+			}
+		});
+		handlers.put(VideoSvcApi.VIDEO_TITLE_SEARCH_PATH, new VideoList() {
+			@Override
+			protected Iterable<Video> find(HttpServletRequest request) {
+				return videos.findByName(request.getParameter(VideoSvcApi.TITLE_PARAMETER));
+			}
+		});
+		handlers.put(VideoSvcApi.VIDEO_DURATION_SEARCH_PATH, new VideoList() {
+			@Override
+			protected Iterable<Video> find(HttpServletRequest request) {
+				return videos.findByDurationLessThan(
+						longParameter(request, VideoSvcApi.DURATION_PARAMETER));
+			}
+		});
+	}
+
+	@Override
+	protected Object getHandlerInternal(HttpServletRequest request) {
+		if (!"GET".equals(request.getMethod())) {
+			return null;
+		}
+		return handlers.get(getUrlPathHelper().getLookupPathForRequest(request));
+	}
+
+	private static long longParameter(HttpServletRequest request, String name) {
+		return Long.parseLong(request.getParameter(name));
+	}
+
+	// Runs one of the VideoRepository searches and writes its result. A
+	// missing or malformed parameter (e.g., ?duration=abc) is reported to
+	// the client as a 400 Bad Request.
+	private abstract class VideoList implements HttpRequestHandler {
+
+		protected abstract Iterable<Video> find(HttpServletRequest request);
+
+		@Override
+		public void handleRequest(HttpServletRequest request,
+				HttpServletResponse response) throws IOException {
+			Iterable<Video> result;
+			try {
+				result = find(request);
+			} catch (IllegalArgumentException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+				return;
+			}
+			response.setContentType(CONTENT_TYPE);
+			writer.write(result, response.getOutputStream());
+		}
+	}
+
+}
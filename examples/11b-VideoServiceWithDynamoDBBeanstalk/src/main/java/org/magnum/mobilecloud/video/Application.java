@@ -51,6 +51,10 @@ public class Application extends RepositoryRestMvcConfiguration {
 	// on the ObjectMapper. This is an example of how Spring dependency
 	// injection allows us to easily configure dependencies in code that
 	// we don't have easy control over otherwise.
+	//
+	// The GET requests that return lists of videos (e.g., GET /video)
+	// never reach Spring Data Rest or this ObjectMapper. They are answered
+	// by the VideoListHandlerMapping, which writes the same JSON directly.
 	@Override
 	public ObjectMapper halObjectMapper(){
 		return new ResourcesMapper();
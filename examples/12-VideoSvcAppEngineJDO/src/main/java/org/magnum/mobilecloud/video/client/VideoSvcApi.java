@@ -1,6 +1,7 @@
 package org.magnum.mobilecloud.video.client;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.repository.Video;
 
@@ -29,6 +30,14 @@ public interface VideoSvcApi {
 	// The path to search videos by title
 	public static final String VIDEO_TITLE_SEARCH_PATH = VIDEO_SVC_PATH + "/find";
 
+	// The path to add a batch of videos in one request
+	public static final String VIDEO_BATCH_PATH = VIDEO_SVC_PATH + "/batch";
+
+	// The content type for a batch of videos that is sent as
+	// newline-delimited JSON (one Video object per line) instead
+	// of as a JSON array
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
@@ -38,4 +47,12 @@ public interface VideoSvcApi {
 	@GET(VIDEO_TITLE_SEARCH_PATH)
 	public Collection<Video> findByTitle(@Query(TITLE_PARAMETER) String title);
 	
+	// Add a batch of videos in one request. The result has one
+	// entry for each video, in the same order, that is true if
+	// the video was added. The videos are written in chunks, and
+	// every video in a chunk that fails gets false, even though
+	// the datastore may have stored some of them anyway.
+	@POST(VIDEO_BATCH_PATH)
+	public List<Boolean> addVideos(@Body Collection<Video> v);
+	
 }
@@ -1,6 +1,13 @@
 package org.magnum.mobilecloud.video.controller;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jdo.JDOException;
+import javax.servlet.http.HttpServletRequest;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.repository.Video;
@@ -13,6 +20,9 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.util.Lists;
 
 /**
@@ -44,6 +54,13 @@ public class VideoSvc implements VideoSvcApi {
 	//
 	@Autowired
 	private VideoRepository videos;
+	
+	// The number of videos from a batch request that are saved
+	// in each call to VideoRepository.save(Iterable). The datastore
+	// will write at most 500 entities in a single batch put.
+	public static final int SAVE_BATCH_SIZE = 500;
+	
+	private final ObjectMapper mapper = new ObjectMapper();
 
 	// Receives POST requests to /video and converts the HTTP
 	// request body, which should contain json, into a Video
@@ -83,4 +100,75 @@ public class VideoSvc implements VideoSvcApi {
 		return videos.findByName(title);
 	}
 	
+	// Receives POST requests to /video/batch with a JSON array of
+	// videos and saves all of them. One request replaces a round trip
+	// per video. The response has one result per video, in the same
+	// order as the request, that is true if the video was saved.
+	//
+	// The videos are saved in chunks of SAVE_BATCH_SIZE so that each
+	// chunk is written to the datastore as one batch. If the batch put
+	// of a chunk fails, all of its videos get a false result and the
+	// chunks after it are still saved. A batch put outside of a
+	// transaction isn't atomic, though, so some of the videos with a
+	// false result may have been stored anyway. A client that resends
+	// them should check for them first (e.g., with findByTitle()).
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody List<Boolean> addVideos(@RequestBody Collection<Video> v){
+		List<Boolean> results = new ArrayList<Boolean>(v.size());
+		List<Video> chunk = new ArrayList<Video>(SAVE_BATCH_SIZE);
+		for (Video video : v) {
+			add(video, chunk, results);
+		}
+		saveChunk(chunk, results);
+		return results;
+	}
+	
+	// Receives POST requests to /video/batch with a newline-delimited
+	// JSON body (one video per line). Jackson's MappingIterator parses
+	// the videos one at a time as they are read from the request, so
+	// only one chunk of the batch is ever held in memory. The batch
+	// stops at the first line that can't be parsed, since the parser
+	// can't be trusted to find the start of the next video after an
+	// error. The response only has results for the lines before it, so
+	// every video from that line on was not saved.
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST, consumes=NDJSON_CONTENT_TYPE)
+	public @ResponseBody List<Boolean> addVideoStream(HttpServletRequest request) throws IOException {
+		MappingIterator<Video> stream = mapper.reader(Video.class).readValues(request.getInputStream());
+		List<Boolean> results = new ArrayList<Boolean>();
+		List<Video> chunk = new ArrayList<Video>(SAVE_BATCH_SIZE);
+		try {
+			while (stream.hasNextValue()) {
+				add(stream.nextValue(), chunk, results);
+			}
+		} catch (JsonProcessingException e) {
+			// The batch ends at the line that couldn't be parsed
+		}
+		saveChunk(chunk, results);
+		return results;
+	}
+	
+	private void add(Video video, List<Video> chunk, List<Boolean> results) {
+		chunk.add(video);
+		if (chunk.size() == SAVE_BATCH_SIZE) {
+			saveChunk(chunk, results);
+		}
+	}
+	
+	// Saves one chunk with a batch put and adds a result for each of
+	// its videos
+	private void saveChunk(List<Video> chunk, List<Boolean> results) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		boolean saved;
+		try {
+			videos.save(chunk);
+			saved = true;
+		} catch (JDOException e) {
+			saved = false;
+		}
+		results.addAll(Collections.nCopies(chunk.size(), saved));
+		chunk.clear();
+	}
+	
 }
@@ -47,17 +47,19 @@ public class JDOCrudRepository<T,ID extends Serializable> {
 	}
 
 	/**
-	 * Saves all given entities.
+	 * Saves all given entities. The entities are handed to JDO in a
+	 * single makePersistentAll() call so that the datastore can write
+	 * them in one batch rather than with one round trip per entity.
 	 * 
 	 * @param entities
 	 * @return the saved entities
 	 */
 	public <S extends T> Iterable<S> save(Iterable<S> entities){
-		List<S> saved = new ArrayList<S>();
+		List<S> toSave = new ArrayList<S>();
 		for(S entity : entities){
-			saved.add(save(entity));
+			toSave.add(entity);
 		}
-		return saved;
+		return PMF.get().getPersistenceManager().makePersistentAll(toSave);
 	}
 
 	/**
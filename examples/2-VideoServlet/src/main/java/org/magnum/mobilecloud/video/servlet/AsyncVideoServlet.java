@@ -0,0 +1,262 @@
+package org.magnum.mobilecloud.video.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This servlet does the same thing as the VideoServlet, but it never makes
+ * one of the web container's threads wait for a client.
+ *
+ * The VideoServlet holds on to a container thread for the whole time that
+ * it takes to read the request and write the response. If a client is slow
+ * (e.g., a phone on a bad network), the thread spends most of that time
+ * waiting, and once all of the container's threads are waiting for slow
+ * clients, every other request has to queue up behind them.
+ *
+ * This servlet uses the asynchronous support of Servlet 3.0 and the
+ * non-blocking I/O of Servlet 3.1 instead. It calls startAsync() and
+ * registers a ReadListener (for the body of a POST) or a WriteListener
+ * (for the list of videos), and then hands the thread back to the
+ * container. The container calls the listener when there is more data to
+ * read, or room to write more, so a thread is only used while there is
+ * actually work to do.
+ *
+ * A listener can still be called after the request has been completed
+ * (e.g., onError() when the client goes away right after a 413), and
+ * calling complete() twice throws an IllegalStateException, so each request
+ * remembers whether it has been completed already.
+ *
+ * Since the listeners for many requests run at the same time, the videos
+ * are kept in a CopyOnWriteArrayList. Adding a video copies the list, but
+ * writing out the list (which happens far more often) just walks a
+ * snapshot of it without any locking, even if the writing is spread out
+ * over many calls to the WriteListener.
+ *
+ * Because this servlet needs a Servlet 3.1 container, it isn't in the
+ * web.xml that jettyRun uses (which runs an older Jetty). The
+ * VideoServletLoadTest runs it next to the VideoServlet in an embedded
+ * Jetty 9 and compares how many slow clients each of them can handle.
+ *
+ * @author jules
+ *
+ */
+public class AsyncVideoServlet extends HttpServlet
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final String VIDEO_ADDED = VideoServlet.VIDEO_ADDED;
+
+	// The largest POST body that the servlet will read. The form only
+	// has three short parameters, so anything bigger is a bad request.
+	public static final int MAX_FORM_SIZE = 16 * 1024;
+
+	// How long a client gets to send its request or read the response
+	// before the container gives up on it
+	public static final long ASYNC_TIMEOUT = 60 * 1000L;
+
+	// A thread-safe in-memory list that the servlet uses to store the
+	// videos that are sent to it by clients
+	private final List<Video> videos = new CopyOnWriteArrayList<Video>();
+
+	/**
+	 * This method sends the same plain/text list of the videos as
+	 * VideoServlet.doGet(), but it only writes as much of the list as the
+	 * connection can take without blocking. The rest is written by the
+	 * WriteListener when the container says that there is room again.
+	 */
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+
+		// Make sure and set the content-type header so that the client
+		// can properly (and securely!) display the content that you send
+		// back
+		resp.setContentType("text/plain");
+		resp.setCharacterEncoding("UTF-8");
+
+		// Tell the container that the response will be finished later,
+		// by some other thread
+		final AsyncContext async = req.startAsync();
+		async.setTimeout(ASYNC_TIMEOUT);
+		final AtomicBoolean completed = new AtomicBoolean();
+		final ServletOutputStream out = resp.getOutputStream();
+
+		// The iterator is over a snapshot of the list, so videos that are
+		// added while the list is being written don't disturb it
+		final Iterator<Video> toSend = videos.iterator();
+
+		out.setWriteListener(new WriteListener() {
+
+			@Override
+			public void onWritePossible() throws IOException {
+				// Keep writing until the connection can't take any more
+				// without blocking. The container calls this method again
+				// once it can.
+				while (out.isReady()) {
+					if (!toSend.hasNext()) {
+						complete(async, completed);
+						return;
+					}
+					Video v = toSend.next();
+					out.write((v.getName() + " : " + v.getUrl() + "\n").getBytes(StandardCharsets.UTF_8));
+				}
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				// The client went away
+				complete(async, completed);
+			}
+		});
+	}
+
+	/**
+	 * This method accepts the same POST requests as VideoServlet.doPost().
+	 * The url encoded form body is read by a ReadListener as it arrives, and
+	 * the video is only added once all of it is there.
+	 */
+	@Override
+	protected void doPost(final HttpServletRequest req, final HttpServletResponse resp)
+			throws ServletException, IOException {
+
+		// Make sure and set the content-type header so that the client knows
+		// how to interpret the data that gets sent back
+		resp.setContentType("text/plain");
+
+		final AsyncContext async = req.startAsync();
+		async.setTimeout(ASYNC_TIMEOUT);
+		final AtomicBoolean completed = new AtomicBoolean();
+		final ServletInputStream in = req.getInputStream();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		in.setReadListener(new ReadListener() {
+
+			private final byte[] buffer = new byte[4096];
+
+			@Override
+			public void onDataAvailable() throws IOException {
+				// Read whatever has arrived. The container calls this method
+				// again when there is more.
+				while (!completed.get() && in.isReady()) {
+					int read = in.read(buffer);
+					if (read < 0) {
+						return;
+					}
+					body.write(buffer, 0, read);
+					if (body.size() > MAX_FORM_SIZE) {
+						resp.sendError(413, "The request is too large.");
+						complete(async, completed);
+						return;
+					}
+				}
+			}
+
+			@Override
+			public void onAllDataRead() throws IOException {
+				if (completed.get()) {
+					// Already answered with a 413
+					return;
+				}
+				Map<String, String> params;
+				try {
+					params = parseParameters(req.getQueryString(), body.toString("ISO-8859-1"));
+				} catch (IllegalArgumentException e) {
+					// URLDecoder throws this for a malformed "%" escape
+					params = null;
+				}
+				if (params == null) {
+					resp.sendError(400, "Malformed form data.");
+				} else {
+					addVideo(params, resp);
+				}
+				complete(async, completed);
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				// The client went away
+				complete(async, completed);
+			}
+		});
+	}
+
+	// Completes the request, unless that has been done already
+	private static void complete(AsyncContext async, AtomicBoolean completed) {
+		if (completed.compareAndSet(false, true)) {
+			async.complete();
+		}
+	}
+
+	// The same checks as VideoServlet.doPost(), on parameters that have
+	// already been read
+	private void addVideo(Map<String, String> params, HttpServletResponse resp) throws IOException {
+		String name = params.get("name");
+		String url = params.get("url");
+		String durationStr = params.get("duration");
+
+		// Check that the duration parameter provided by the client
+		// is actually a number
+		long duration = -1;
+		try{
+			duration = Long.parseLong(durationStr);
+		}catch(NumberFormatException e){
+			// The client sent us a duration value that wasn't a number!
+		}
+
+		if (name == null || url == null || durationStr == null
+				|| name.trim().length() < 1 || url.trim().length() < 10
+				|| durationStr.trim().length() < 1
+				|| duration <= 0) {
+			resp.sendError(400, "Missing ['name','duration','url'].");
+		}
+		else {
+			videos.add(new Video(name, url, duration));
+
+			// The response is tiny, so it is simply written
+			resp.getWriter().write(VIDEO_ADDED);
+		}
+	}
+
+	// Since the servlet reads the body itself, it has to decode the form
+	// parameters itself as well (calling getParameter() would make the
+	// container read the body again, blocking). The parameters in the query
+	// string and the body are combined, as getParameter() does.
+	private Map<String, String> parseParameters(String... forms) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String form : forms) {
+			if (form == null) {
+				continue;
+			}
+			for (String pair : form.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					String key = URLDecoder.decode(pair.substring(0, eq), "UTF-8");
+					if (!params.containsKey(key)) {
+						params.put(key, URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+					}
+				}
+			}
+		}
+		return params;
+	}
+
+}
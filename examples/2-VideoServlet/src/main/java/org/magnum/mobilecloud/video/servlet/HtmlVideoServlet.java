@@ -7,9 +7,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStream;
 
 /**
  * Adds an html form to capture and display video metadata. 
@@ -21,6 +19,12 @@ import java.util.List;
  * of videos that have been sent to it because they are stored
  * in memory.
  * 
+ * Nothing on the page is rendered while a request is handled. The
+ * fixed parts of the page are encoded into bytes once, and each video
+ * is rendered into bytes once, when it is added (see RenderedVideoList).
+ * A response just writes out those bytes, so sending the page costs the
+ * same few write() calls whether there are ten videos or ten thousand.
+ * 
  * @author jules
  * @author Anonymous
  *
@@ -30,24 +34,14 @@ public class HtmlVideoServlet extends HttpServlet // Servlets should inherit Htt
 	private static final long serialVersionUID = 1L;
 	
 	public static final String VIDEO_ADDED = "Video added.";
-    // An in-memory list that the servlet uses to store the
-    // videos that are sent to it by clients
-    private List<Video> videos = new java.util.concurrent.CopyOnWriteArrayList<Video>();
     
-    protected void processRequest(HttpServletRequest req, HttpServletResponse resp)
-            throws ServletException, IOException {
-
-        // Make sure and set the content-type header so that the client
-        // can properly (and securely!) display the content that you send
-        // back
-        resp.setContentType("text/html");
-
-        // This PrintWriter allows us to write data to the HTTP 
-        // response body that is going to be sent to the client.
-        PrintWriter sendToClient = resp.getWriter();
-        
-        // UI form
-        sendToClient.write(
+    // The parts of the page that never change, already encoded
+    private static final byte[] PAGE_START = bytes("<html><body>");
+    
+    private static final byte[] VIDEO_ADDED_BYTES = bytes(VIDEO_ADDED);
+    
+    // UI form
+    private static final byte[] FORM = bytes(
             "<form name='formvideo' method='POST' target='_self'>" +
             "<fieldset><legend>Video Data</legend>" +
             "<table><tr>" +
@@ -62,16 +56,42 @@ public class HtmlVideoServlet extends HttpServlet // Servlets should inherit Htt
             "</tr><tr>" +
             "<td style='text-align: right;' colspan=2><input type='submit' value='Add Video' /></td>" +
             "</tr></table></fieldset></form>");
-        
-        // Loop through all of the stored videos and print them out
-        // for the client to see.
-        for (Video v : this.videos) {
-            
-            // For each video, write its name and URL into the HTTP
-            // response body
-            sendToClient.write(v.getName() + " : " + v.getUrl() + " (" + v.getDuration() + ")<br />");
+    
+    private static final byte[] PAGE_END = bytes("</body></html>");
+    
+    // An in-memory list that the servlet uses to store the
+    // videos that are sent to it by clients, already rendered
+    // into html
+    private final RenderedVideoList videos = new RenderedVideoList();
+    
+    protected void processRequest(HttpServletRequest req, HttpServletResponse resp, byte[] message)
+            throws ServletException, IOException {
+
+        // Make sure and set the content-type header so that the client
+        // can properly (and securely!) display the content that you send
+        // back
+        resp.setContentType("text/html;charset=" + RenderedVideoList.CHARSET.name());
+
+        // Take the list as it is right now, so that the length that is
+        // sent in the Content-Length header matches what is written even
+        // if other clients add videos in the meantime
+        RenderedVideoList.Snapshot list = videos.getSnapshot();
+        long length = PAGE_START.length + message.length + FORM.length + list.getLength() + PAGE_END.length;
+        if (length <= Integer.MAX_VALUE) {
+            resp.setContentLength((int) length);
         }
-        sendToClient.write("</body></html>");
+
+        // This OutputStream allows us to write data to the HTTP 
+        // response body that is going to be sent to the client.
+        OutputStream sendToClient = resp.getOutputStream();
+        sendToClient.write(PAGE_START);
+        sendToClient.write(message);
+        sendToClient.write(FORM);
+        
+        // Write out all of the stored videos for the client to see
+        list.writeTo(sendToClient);
+        
+        sendToClient.write(PAGE_END);
     }
     
     /**
@@ -84,8 +104,7 @@ public class HtmlVideoServlet extends HttpServlet // Servlets should inherit Htt
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
-    	resp.getWriter().write("<html><body>");
-        processRequest(req, resp);
+        processRequest(req, resp, new byte[0]);
     }
 
     /**
@@ -143,9 +162,11 @@ public class HtmlVideoServlet extends HttpServlet // Servlets should inherit Htt
             
             // Let the client know that we successfully added the video
             // by writing a message into the HTTP response body
-            resp.getWriter().write("<html><body>" + VIDEO_ADDED);
-            
-            processRequest(req, resp);
+            processRequest(req, resp, VIDEO_ADDED_BYTES);
         }
     }
+    
+    private static byte[] bytes(String html) {
+        return html.getBytes(RenderedVideoList.CHARSET);
+    }
 }
\ No newline at end of file
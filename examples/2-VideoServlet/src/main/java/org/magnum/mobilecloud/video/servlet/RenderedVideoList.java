@@ -0,0 +1,133 @@
+package org.magnum.mobilecloud.video.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The list of videos that the HtmlVideoServlet shows, already rendered
+ * into the bytes of its html.
+ *
+ * Each video is rendered (and encoded into bytes) exactly once, when it is
+ * added. The rendered videos are packed one after the other into blocks of
+ * BLOCK_SIZE bytes, so writing out the whole list is just a handful of
+ * write() calls, one per block, no matter how many videos there are. No
+ * Strings are built and nothing is encoded while a page is being sent.
+ *
+ * Adding a video never changes any bytes that have been published already:
+ * it is copied into the unused end of the last block (or into a new block)
+ * and a new Snapshot that covers it is published. A request takes one
+ * Snapshot and writes exactly what it covers, so the length that it puts
+ * in the Content-Length header always matches the bytes that it sends,
+ * even while other requests are adding videos. Reading a Snapshot takes
+ * no locks at all.
+ *
+ * @author jules
+ *
+ */
+public class RenderedVideoList {
+
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	// The size of the blocks that the rendered videos are packed into
+	public static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * The rendered list as it was at one point in time.
+	 */
+	public static class Snapshot {
+
+		private final byte[][] blocks;
+		private final int[] blockLengths;
+		private final int blockCount;
+		private final int lastBlockLength;
+		private final long length;
+		private final int size;
+
+		private Snapshot(byte[][] blocks, int[] blockLengths, int blockCount,
+				int lastBlockLength, long length, int size) {
+			this.blocks = blocks;
+			this.blockLengths = blockLengths;
+			this.blockCount = blockCount;
+			this.lastBlockLength = lastBlockLength;
+			this.length = length;
+			this.size = size;
+		}
+
+		// The number of bytes that writeTo() writes
+		public long getLength() {
+			return length;
+		}
+
+		// The number of videos
+		public int size() {
+			return size;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			for (int i = 0; i < blockCount; i++) {
+				out.write(blocks[i], 0, i == blockCount - 1 ? lastBlockLength : blockLengths[i]);
+			}
+		}
+	}
+
+	// The blocks and the number of bytes used in each of them. Only the
+	// last block ever gets more bytes. Guarded by this.
+	private byte[][] blocks_ = new byte[16][];
+	private int[] blockLengths_ = new int[16];
+	private int blockCount_;
+	private long length_;
+	private int size_;
+
+	private volatile Snapshot snapshot_ = new Snapshot(blocks_, blockLengths_, 0, 0, 0, 0);
+
+	/**
+	 * Renders the video and adds it to the end of the list.
+	 *
+	 * @param v
+	 */
+	public void add(Video v) {
+		byte[] rendered = render(v);
+
+		synchronized (this) {
+			if (blockCount_ == 0 || blockLengths_[blockCount_ - 1] + rendered.length > blocks_[blockCount_ - 1].length) {
+				newBlock(Math.max(BLOCK_SIZE, rendered.length));
+			}
+			int last = blockCount_ - 1;
+			System.arraycopy(rendered, 0, blocks_[last], blockLengths_[last], rendered.length);
+			blockLengths_[last] += rendered.length;
+			length_ += rendered.length;
+			size_++;
+
+			snapshot_ = new Snapshot(blocks_, blockLengths_, blockCount_, blockLengths_[last], length_, size_);
+		}
+	}
+
+	/**
+	 * Returns the list as it is now. Videos that are added later
+	 * aren't in it.
+	 *
+	 * @return
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot_;
+	}
+
+	// The html for one video. This is the only place where a video
+	// is turned into text.
+	public static byte[] render(Video v) {
+		return (v.getName() + " : " + v.getUrl() + " (" + v.getDuration() + ")<br />").getBytes(CHARSET);
+	}
+
+	// Start a new block. The arrays are copied when they are full, so that
+	// the Snapshots that still use the old ones never see them change.
+	private void newBlock(int size) {
+		if (blockCount_ == blocks_.length) {
+			blocks_ = Arrays.copyOf(blocks_, blocks_.length * 2);
+			blockLengths_ = Arrays.copyOf(blockLengths_, blockLengths_.length * 2);
+		}
+		blocks_[blockCount_++] = new byte[size];
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.magnum.mobilecloud.servlet.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Consts;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.Test;
+import org.magnum.mobilecloud.video.servlet.HtmlVideoServlet;
+import org.magnum.mobilecloud.video.servlet.RenderedVideoList;
+import org.magnum.mobilecloud.video.servlet.Video;
+
+/**
+ *
+ * This test compares the CPU time that it takes to write out the list of
+ * videos on the HtmlVideoServlet's page in two ways:
+ *
+ * 1. The way that the HtmlVideoServlet used to do it, by concatenating the
+ *    name, url, and duration of every video into a String and writing it
+ *    through the response's PrintWriter (which encodes it) on every request
+ * 2. With a RenderedVideoList, which renders each video once when it is
+ *    added and then just writes out the blocks of bytes
+ *
+ * It also checks that both produce exactly the same bytes, and that the
+ * HtmlVideoServlet sends a Content-Length that matches its page.
+ *
+ * The number of videos can be changed with the "benchmark.videos" system
+ * property (the list is also measured with ten times as many videos, to
+ * show how the cost grows).
+ *
+ * testRenderCost() needs -Dbenchmark=true; the other checks always run.
+ *
+ * @author jules
+ *
+ */
+public class HtmlVideoServletBenchmarkTest {
+
+	private static final int ROUNDS = 20;
+
+	private static final int CHECKED_VIDEOS = 1000;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	@Test
+	public void testSameBytes() throws Exception {
+		List<Video> videos = new ArrayList<Video>();
+		RenderedVideoList rendered = new RenderedVideoList();
+		for (int i = 0; i < CHECKED_VIDEOS; i++) {
+			Video v = new Video("Video " + i, "http://coursera.org/some/video-" + i, 1000 + i);
+			videos.add(v);
+			rendered.add(v);
+		}
+		assertSameBytes(videos, rendered.getSnapshot());
+	}
+
+	@Test
+	public void testRenderCost() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		int videos = Integer.getInteger("benchmark.videos", 10000);
+		measure(videos);
+		measure(10 * videos);
+	}
+
+	@Test
+	public void testPageOverHttp() throws Exception {
+		Server server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(HtmlVideoServlet.class, "/view/video");
+		server.setHandler(context);
+		server.start();
+
+		try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+			String url = "http://localhost:" + connector.getLocalPort() + "/view/video";
+			for (int i = 0; i < 3; i++) {
+				HttpPost post = new HttpPost(url);
+				List<NameValuePair> params = new ArrayList<>();
+				params.add(new BasicNameValuePair("name", "Video " + i));
+				params.add(new BasicNameValuePair("url", "http://coursera.org/some/video-" + i));
+				params.add(new BasicNameValuePair("duration", "" + (i + 1)));
+				post.setEntity(new UrlEncodedFormEntity(params, Consts.UTF_8));
+				HttpResponse response = httpClient.execute(post);
+				assertEquals(200, response.getStatusLine().getStatusCode());
+				assertTrue(IOUtils.toString(response.getEntity().getContent()).startsWith("<html><body>" + HtmlVideoServlet.VIDEO_ADDED + "<form"));
+			}
+
+			HttpResponse response = httpClient.execute(new HttpGet(url));
+			byte[] page = IOUtils.toByteArray(response.getEntity().getContent());
+			assertEquals(page.length, Long.parseLong(response.getFirstHeader("Content-Length").getValue()));
+			assertTrue(new String(page, "UTF-8").endsWith("</form>"
+					+ "Video 0 : http://coursera.org/some/video-0 (1)<br />"
+					+ "Video 1 : http://coursera.org/some/video-1 (2)<br />"
+					+ "Video 2 : http://coursera.org/some/video-2 (3)<br />"
+					+ "</body></html>"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	private void measure(int count) throws IOException {
+		List<Video> videos = new ArrayList<Video>();
+		RenderedVideoList rendered = new RenderedVideoList();
+		long addTime = 0;
+		for (int i = 0; i < count; i++) {
+			Video v = new Video("Video " + i, "http://coursera.org/some/video-" + i, 1000 + i);
+			videos.add(v);
+			long start = threads.getCurrentThreadCpuTime();
+			rendered.add(v);
+			addTime += threads.getCurrentThreadCpuTime() - start;
+		}
+		RenderedVideoList.Snapshot snapshot = rendered.getSnapshot();
+		assertSameBytes(videos, snapshot);
+
+		// Warm up
+		CountingOutputStream out = new CountingOutputStream();
+		for (int i = 0; i < ROUNDS; i++) {
+			renderEveryTime(videos, out);
+			snapshot.writeTo(out);
+		}
+
+		out = new CountingOutputStream();
+		long start = threads.getCurrentThreadCpuTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			renderEveryTime(videos, out);
+		}
+		long everyTime = threads.getCurrentThreadCpuTime() - start;
+		long everyTimeWrites = out.writes / ROUNDS;
+
+		out = new CountingOutputStream();
+		start = threads.getCurrentThreadCpuTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			snapshot.writeTo(out);
+		}
+		long cached = threads.getCurrentThreadCpuTime() - start;
+		long cachedWrites = out.writes / ROUNDS;
+
+		System.out.println(String.format("%,7d videos (%,d KB): rendered every time %,8.3f ms and %,6d writes per page, "
+				+ "pre-rendered %,8.3f ms and %,4d writes per page (%,.2f us to add a video)",
+				count, snapshot.getLength() / 1024,
+				everyTime / 1e6 / ROUNDS, everyTimeWrites,
+				cached / 1e6 / ROUNDS, cachedWrites,
+				addTime / 1e3 / count));
+	}
+
+	// Both ways have to produce the same bytes
+	private void assertSameBytes(List<Video> videos, RenderedVideoList.Snapshot snapshot) throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		renderEveryTime(videos, expected);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		snapshot.writeTo(actual);
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+		assertEquals(actual.size(), snapshot.getLength());
+	}
+
+	// What HtmlVideoServlet.processRequest() used to do for the list
+	private void renderEveryTime(List<Video> videos, OutputStream out) throws IOException {
+		PrintWriter sendToClient = new PrintWriter(new OutputStreamWriter(out, RenderedVideoList.CHARSET));
+		for (Video v : videos) {
+			sendToClient.write(v.getName() + " : " + v.getUrl() + " (" + v.getDuration() + ")<br />");
+		}
+		sendToClient.flush();
+	}
+
+	// Throws the bytes away, but counts the calls to write()
+	private static class CountingOutputStream extends OutputStream {
+
+		private long writes;
+
+		@Override
+		public void write(int b) {
+			writes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			writes++;
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+package org.magnum.mobilecloud.servlet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Consts;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.mobilecloud.video.servlet.AsyncVideoServlet;
+import org.magnum.mobilecloud.video.servlet.VideoServlet;
+
+/**
+ *
+ * This test runs the VideoServlet and the AsyncVideoServlet side by side in
+ * an embedded Jetty 9 (so, unlike VideoServletHttpTest, it doesn't need a
+ * running server) and compares how many slow clients each of them can handle
+ * before other requests have to queue up.
+ *
+ * A slow client is simulated with a plain socket that sends the headers of a
+ * POST and the first few bytes of its body, and then stops sending. While a
+ * given number of these are connected, the test times a normal GET of the
+ * video list. Once the GET takes longer than QUEUED_LATENCY (or doesn't get
+ * an answer at all), the servlet can't sustain that many slow clients.
+ *
+ * The VideoServlet reads the body with a container thread, so each slow
+ * client ties up one of the MAX_THREADS threads of the container, and the
+ * GET queues up as soon as they are all taken. The AsyncVideoServlet only
+ * uses a thread when there is data to read, so the slow clients don't take
+ * any threads at all.
+ *
+ * testSlowClients() needs -Dbenchmark=true; the other tests always run.
+ *
+ * @author jules
+ *
+ */
+public class VideoServletLoadTest {
+
+	// The size of the container's thread pool. Two of the threads
+	// accept and select connections; the rest handle requests.
+	private static final int MAX_THREADS = 16;
+
+	// The numbers of slow clients to try
+	private static final int[] SLOW_CLIENTS = { 4, 8, 12, 16, 32, 64, 128 };
+
+	// A GET that takes longer than this has been queued
+	private static final int QUEUED_LATENCY = 500;
+
+	private Server server;
+
+	private int port;
+
+	private final CloseableHttpClient httpClient = HttpClients.createDefault();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new Server(new QueuedThreadPool(MAX_THREADS, MAX_THREADS));
+		ServerConnector connector = new ServerConnector(server, 1, 1);
+		connector.setPort(0);
+		server.addConnector(connector);
+
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(new ServletHolder(new VideoServlet()), "/video");
+		ServletHolder async = new ServletHolder(new AsyncVideoServlet());
+		async.setAsyncSupported(true);
+		context.addServlet(async, "/async/video");
+		server.setHandler(context);
+
+		server.start();
+		port = connector.getLocalPort();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		httpClient.close();
+		server.stop();
+	}
+
+	/**
+	 * This test does the same add and list cycle as
+	 * VideoServletHttpTest.testVideoAddAndList(), but against the
+	 * AsyncVideoServlet.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAsyncVideoAddAndList() throws Exception {
+		String myRandomID = UUID.randomUUID().toString();
+		String title = "Video - " + myRandomID;
+		String videoUrl = "http://coursera.org/some/video-"+myRandomID;
+		long duration = 60 * 10 * 1000; // 10min in milliseconds
+
+		HttpResponse response = httpClient.execute(createVideoPostRequest("/async/video", title, videoUrl, duration));
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(AsyncVideoServlet.VIDEO_ADDED, extractResponseBody(response));
+
+		HttpResponse listResponse = httpClient.execute(new HttpGet(url("/async/video")));
+		assertEquals(200, listResponse.getStatusLine().getStatusCode());
+		assertTrue(extractResponseBody(listResponse).contains(title + " : " + videoUrl + "\n"));
+
+		// The same validation as the VideoServlet
+		response = httpClient.execute(createVideoPostRequest("/async/video", "", videoUrl, duration));
+		assertEquals(400, response.getStatusLine().getStatusCode());
+		extractResponseBody(response);
+	}
+
+	@Test
+	public void testAsyncBadPosts() throws Exception {
+		// A malformed "%" escape is a bad request, just like a missing
+		// parameter
+		HttpPost malformed = new HttpPost(url("/async/video"));
+		malformed.setEntity(new StringEntity("name=%zz&url=http://coursera.org/x&duration=1",
+				ContentType.APPLICATION_FORM_URLENCODED));
+		HttpResponse response = httpClient.execute(malformed);
+		assertEquals(400, response.getStatusLine().getStatusCode());
+		extractResponseBody(response);
+
+		// A body that is larger than MAX_FORM_SIZE is refused
+		char[] title = new char[2 * AsyncVideoServlet.MAX_FORM_SIZE];
+		Arrays.fill(title, 'x');
+		HttpPost tooLarge = createVideoPostRequest("/async/video",
+				new String(title), "http://coursera.org/x", 1);
+		response = httpClient.execute(tooLarge);
+		assertEquals(413, response.getStatusLine().getStatusCode());
+		extractResponseBody(response);
+
+		// The servlet still answers normally afterwards
+		response = httpClient.execute(new HttpGet(url("/async/video")));
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		extractResponseBody(response);
+	}
+
+	@Test
+	public void testSlowClients() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		// Put something in both lists, so that the GETs have work to do
+		for (int i = 0; i < 100; i++) {
+			extractResponseBody(httpClient.execute(createVideoPostRequest("/video", "Video " + i, "http://coursera.org/some/video-" + i, 1000)));
+			extractResponseBody(httpClient.execute(createVideoPostRequest("/async/video", "Video " + i, "http://coursera.org/some/video-" + i, 1000)));
+		}
+
+		int blocking = sustainedSlowClients("/video");
+		int async = sustainedSlowClients("/async/video");
+		System.out.println(String.format("%d container threads: VideoServlet sustains %d slow clients, AsyncVideoServlet sustains %d",
+				MAX_THREADS, blocking, async));
+
+		assertTrue(async > blocking);
+	}
+
+	// The largest number of slow clients in SLOW_CLIENTS that the servlet
+	// at the given path handles without a GET having to queue
+	private int sustainedSlowClients(String path) throws Exception {
+		int sustained = 0;
+		for (int clients : SLOW_CLIENTS) {
+			List<Socket> slow = new ArrayList<Socket>();
+			long latency;
+			try {
+				for (int i = 0; i < clients; i++) {
+					slow.add(startSlowPost(path));
+				}
+				// Give the container time to hand the requests to the servlet
+				Thread.sleep(200);
+				latency = timeGet(path);
+			} finally {
+				for (Socket s : slow) {
+					s.close();
+				}
+			}
+			System.out.println(String.format("%-20s %4d slow clients: GET took %s",
+					path, clients, latency < 0 ? "too long" : latency + " ms"));
+
+			// Let the threads that were stuck with the slow clients notice
+			// that they are gone
+			Thread.sleep(200);
+			if (latency < 0 || latency > QUEUED_LATENCY) {
+				break;
+			}
+			sustained = clients;
+		}
+		return sustained;
+	}
+
+	// Send the headers of a POST that promises a body, and the first few
+	// bytes of it, and then leave the rest of it hanging
+	private Socket startSlowPost(String path) throws IOException {
+		Socket s = new Socket("localhost", port);
+		OutputStream out = s.getOutputStream();
+		out.write(("POST " + path + " HTTP/1.1\r\n"
+				+ "Host: localhost:" + port + "\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded\r\n"
+				+ "Content-Length: 1000\r\n\r\n"
+				+ "name=slow").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		return s;
+	}
+
+	// The time in ms that a GET of the list takes, or -1 if it doesn't
+	// get an answer at all
+	private long timeGet(String path) throws IOException {
+		HttpGet get = new HttpGet(url(path));
+		get.setConfig(RequestConfig.custom()
+				.setConnectTimeout(4 * QUEUED_LATENCY)
+				.setSocketTimeout(4 * QUEUED_LATENCY).build());
+		long start = System.nanoTime();
+		try {
+			HttpResponse response = httpClient.execute(get);
+			extractResponseBody(response);
+			assertEquals(200, response.getStatusLine().getStatusCode());
+		} catch (SocketTimeoutException e) {
+			get.abort();
+			return -1;
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private String url(String path) {
+		return "http://localhost:" + port + path;
+	}
+
+	private String extractResponseBody(HttpResponse response)
+			throws IOException {
+		return IOUtils.toString(response.getEntity().getContent());
+	}
+
+	private HttpPost createVideoPostRequest(String path, String title, String videoUrl,
+			long duration) {
+		HttpPost post = new HttpPost(url(path));
+		List<NameValuePair> params = new ArrayList<>();
+		params.add(new BasicNameValuePair("name", title));
+		params.add(new BasicNameValuePair("url", videoUrl));
+		params.add(new BasicNameValuePair("duration", "" + duration));
+		post.setEntity(new UrlEncodedFormEntity(params, Consts.UTF_8));
+		return post;
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.magnum.mobilecloud.video.client;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.magnum.mobilecloud.video.controller.Video;
@@ -25,10 +26,25 @@ public interface VideoSvcApi {
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
 
+	// The path to add a batch of videos in one request
+	public static final String VIDEO_BATCH_PATH = VIDEO_SVC_PATH + "/batch";
+	
+	// The content type for a batch of videos that is sent as
+	// newline-delimited JSON (one Video object per line) instead
+	// of as a JSON array
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
 	@GET(VIDEO_SVC_PATH)
 	public List<Video> getVideoList();
 	
 	@POST(VIDEO_SVC_PATH)
 	public boolean addVideo(@Body Video v);
 	
+	// Add a batch of videos in one request. The result has one
+	// entry for each video, in the same order, that is true if
+	// the video was added. The batch is added all or nothing, so
+	// an error means that none of the videos were added.
+	@POST(VIDEO_BATCH_PATH)
+	public List<Boolean> addVideos(@Body Collection<Video> v);
+	
 }
@@ -1,8 +1,14 @@
 package org.magnum.mobilecloud.video.controller;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -10,6 +16,10 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * This simple VideoSvc allows clients to send HTTP POST requests with
  * videos that are stored in memory using a list. Clients can send HTTP GET
@@ -35,6 +45,12 @@ public class VideoSvc implements VideoSvcApi {
 	// An in-memory list that the servlet uses to store the
 	// videos that are sent to it by clients
 	private List<Video> videos = new CopyOnWriteArrayList<Video>();
+	
+	private final ObjectMapper mapper = new ObjectMapper();
+	
+	// The number of videos from a newline-delimited batch that are
+	// added in each call to addAll()
+	public static final int ADD_BATCH_SIZE = 500;
 
 	// Receives POST requests to /video and converts the HTTP
 	// request body, which should contain json, into a Video
@@ -68,5 +84,53 @@ public class VideoSvc implements VideoSvcApi {
 	public @ResponseBody List<Video> getVideoList(){
 		return videos;
 	}
+	
+	// Receives POST requests to /video/batch with a JSON array of
+	// videos and adds all of them at once. Adding the whole batch with
+	// addAll() copies the CopyOnWriteArrayList once instead of once per
+	// video. The response has one result per video, in the same order
+	// as the request.
+	//
+	// A list takes every video it is given, and addAll() swaps in the
+	// new copy of the list in one step, so the batch is added all or
+	// nothing: if addAll() returns, every video was added and gets a
+	// true result, and if it throws, none were and the client gets an
+	// error instead of a partly added batch.
+	@RequestMapping(value=VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody List<Boolean> addVideos(@RequestBody Collection<Video> v){
+		videos.addAll(v);
+		return Collections.nCopies(v.size(), Boolean.TRUE);
+	}
+	
+	// Receives POST requests to /video/batch with a newline-delimited
+	// JSON body (one video per line). Jackson's MappingIterator parses
+	// the videos one at a time as they are read from the request, and
+	// they are added in chunks of ADD_BATCH_SIZE with one addAll() each,
+	// so only one chunk of the batch is ever held in memory apart from
+	// the list itself. Each chunk is added all or nothing, just like a
+	// whole batch in addVideos(). The batch stops at the first line that
+	// can't be parsed, since the parser can't be trusted to find the
+	// start of the next video after an error. The response only has
+	// results for the lines before it, so every video from that line on
+	// was not added.
+	@RequestMapping(value=VIDEO_BATCH_PATH, method=RequestMethod.POST, consumes=NDJSON_CONTENT_TYPE)
+	public @ResponseBody List<Boolean> addVideoStream(HttpServletRequest request) throws IOException {
+		MappingIterator<Video> stream = mapper.reader(Video.class).readValues(request.getInputStream());
+		List<Boolean> results = new ArrayList<Boolean>();
+		List<Video> chunk = new ArrayList<Video>(ADD_BATCH_SIZE);
+		try {
+			while (stream.hasNextValue()) {
+				chunk.add(stream.nextValue());
+				if (chunk.size() == ADD_BATCH_SIZE) {
+					results.addAll(addVideos(chunk));
+					chunk.clear();
+				}
+			}
+		} catch (JsonProcessingException e) {
+			// The batch ends at the line that couldn't be parsed
+		}
+		results.addAll(addVideos(chunk));
+		return results;
+	}
 
 }
@@ -1,8 +1,10 @@
 package org.magnum.mobilecloud.video.client;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.controller.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 
 import retrofit.http.Body;
 import retrofit.http.GET;
@@ -22,6 +24,16 @@ import retrofit.http.Query;
 public interface VideoSvcApi {
 	
 	public static final String TITLE_PARAMETER = "title";
+	
+	// The maximum number of videos to return in one page
+	public static final String LIMIT_PARAMETER = "limit";
+	
+	// The continuation token from the previous page
+	public static final String AFTER_PARAMETER = "after";
+	
+	// The largest page that the VideoSvc will return, no matter
+	// what limit the client asks for
+	public static final int MAX_PAGE_SIZE = 100;
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
@@ -29,6 +41,14 @@ public interface VideoSvcApi {
 	// The path to search videos by title
 	public static final String VIDEO_TITLE_SEARCH_PATH = VIDEO_SVC_PATH + "/find";
 
+	// The path to add a batch of videos in one request
+	public static final String VIDEO_BATCH_PATH = VIDEO_SVC_PATH + "/batch";
+	
+	// The content type for a batch of videos that is sent as
+	// newline-delimited JSON (one Video object per line) instead
+	// of as a JSON array
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
@@ -38,4 +58,24 @@ public interface VideoSvcApi {
 	@GET(VIDEO_TITLE_SEARCH_PATH)
 	public Collection<Video> findByTitle(@Query(TITLE_PARAMETER) String title);
 	
+	// Get one page of the video list. Pass a null "after" token to get
+	// the first page and then the VideoPage.getNext() token from each
+	// page to get the page after it. Retrofit leaves null parameters
+	// out of the query string.
+	@GET(VIDEO_SVC_PATH)
+	public VideoPage getVideoPage(@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
+	// Get one page of the videos with a matching title
+	@GET(VIDEO_TITLE_SEARCH_PATH)
+	public VideoPage findByTitlePage(@Query(TITLE_PARAMETER) String title,
+			@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
+	// Add a batch of videos in one request. The result has one
+	// entry for each video, in the same order, that is true if
+	// the video was added.
+	@POST(VIDEO_BATCH_PATH)
+	public List<Boolean> addVideos(@Body Collection<Video> v);
+	
 }
@@ -1,6 +1,6 @@
 package org.magnum.mobilecloud.video.controller;
 
-import org.magnum.mobilecloud.video.repository.NoDuplicatesVideoRepository;
+import org.magnum.mobilecloud.video.repository.TitleIndexedVideoRepository;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -34,9 +34,15 @@ public class Application {
 	// that it should use. Spring is going to automatically inject whatever
 	// we return into the VideoSvc's videos member variable that is annotated
 	// with @Autowired.
+	//
+	// The TitleIndexedVideoRepository works just like the
+	// NoDuplicatesVideoRepository, but keeps an index of titles so that
+	// searches don't have to look at every video. Try swapping in one of
+	// the other VideoRepository implementations -- the VideoSvc doesn't
+	// need to change at all.
 	@Bean
 	public VideoRepository videoRepository(){
-		return new NoDuplicatesVideoRepository();
+		return new TitleIndexedVideoRepository();
 	}
 	
 }
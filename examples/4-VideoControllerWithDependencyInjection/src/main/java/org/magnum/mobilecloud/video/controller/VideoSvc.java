@@ -1,16 +1,28 @@
 package org.magnum.mobilecloud.video.controller;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * This simple VideoSvc allows clients to send HTTP POST requests with
@@ -46,6 +58,8 @@ public class VideoSvc implements VideoSvcApi {
 	//
 	@Autowired
 	private VideoRepository videos;
+	
+	private final ObjectMapper mapper = new ObjectMapper();
 
 	// Receives POST requests to /video and converts the HTTP
 	// request body, which should contain json, into a Video
@@ -87,5 +101,70 @@ public class VideoSvc implements VideoSvcApi {
 	){
 		return videos.findByTitle(title);
 	}
+	
+	// Receives POST requests to /video/batch with a JSON array of
+	// videos and adds each of them to the repository. One request
+	// replaces a round trip per video. The response has one result
+	// per video, in the same order as the request, so that the client
+	// can tell which videos were added (e.g., a NoDuplicatesVideoRepository
+	// returns false for a video that it already has).
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody List<Boolean> addVideos(@RequestBody Collection<Video> v){
+		List<Boolean> results = new ArrayList<Boolean>(v.size());
+		for (Video video : v) {
+			results.add(videos.addVideo(video));
+		}
+		return results;
+	}
+	
+	// Receives POST requests to /video/batch with a newline-delimited
+	// JSON body (one video per line). Jackson's MappingIterator parses
+	// the videos one at a time as they are read from the request, so
+	// each video is added without ever holding the whole batch in memory.
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST, consumes=NDJSON_CONTENT_TYPE)
+	public @ResponseBody List<Boolean> addVideoStream(HttpServletRequest request) throws IOException {
+		List<Boolean> results = new ArrayList<Boolean>();
+		MappingIterator<Video> stream = mapper.reader(Video.class).readValues(request.getInputStream());
+		while (stream.hasNext()) {
+			results.add(videos.addVideo(stream.next()));
+		}
+		return results;
+	}
+
+	// Receives GET requests to /video that include a "limit" parameter
+	// and returns one page of videos plus a token for the next page. The
+	// "params" in the @RequestMapping is what sends requests with a limit
+	// here instead of to getVideoList().
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET, params=LIMIT_PARAMETER)
+	public @ResponseBody VideoPage getVideoPage(
+			@RequestParam(LIMIT_PARAMETER) int limit,
+			@RequestParam(value=AFTER_PARAMETER, required=false) String after
+	){
+		return videos.getVideos(after, pageSize(limit));
+	}
+	
+	// Receives GET requests to /video/find that include a "limit" parameter
+	// and returns one page of the videos with a matching title
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_SEARCH_PATH, method=RequestMethod.GET, params=LIMIT_PARAMETER)
+	public @ResponseBody VideoPage findByTitlePage(
+			@RequestParam(TITLE_PARAMETER) String title,
+			@RequestParam(LIMIT_PARAMETER) int limit,
+			@RequestParam(value=AFTER_PARAMETER, required=false) String after
+	){
+		return videos.findByTitle(title, after, pageSize(limit));
+	}
+	
+	// Keep the page size between 1 and MAX_PAGE_SIZE so that a client
+	// can't ask for the whole list in one page
+	private int pageSize(int limit) {
+		return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+	}
+	
+	// Continuation tokens that weren't created by the repository are
+	// reported to the client as a 400 Bad Request
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void badRequest() {
+	}
 
 }
@@ -5,7 +5,6 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.magnum.mobilecloud.video.controller.Video;
 
@@ -26,8 +25,10 @@ public class AllowsDuplicatesVideoRepository implements VideoRepository {
 	// Lists allow duplicate objects that are .equals() to
 	// each other
 	//
-	// Assume a lot more reads than writes
-	private List<Video> videoList = new CopyOnWriteArrayList<Video>();
+	// An AppendOnlyList lets many threads add videos at once
+	// without locking or copying the list, and readers can
+	// iterate over it while videos are being added
+	private List<Video> videoList = new AppendOnlyList<Video>();
 	
 	@Override
 	public boolean addVideo(Video v) {
@@ -52,4 +53,35 @@ public class AllowsDuplicatesVideoRepository implements VideoRepository {
 		return matches;
 	}
 
+	@Override
+	public VideoPage getVideos(String after, int limit) {
+		return findByTitle(null, after, limit);
+	}
+
+	// Videos are only ever appended to the list, so a video's index
+	// never changes and can be used as the key in the continuation
+	// token. Each page starts at the index right after the last video
+	// in the previous page. A null title matches every video.
+	@Override
+	public VideoPage findByTitle(String title, String after, int limit) {
+		long last = Math.max(-1, VideoPage.fromCursor(after, -1));
+		List<Video> page = new ArrayList<Video>(limit);
+		String next = null;
+		int size = videoList.size();
+		for (long i = last + 1; i < size; i++) {
+			Video video = videoList.get((int) i);
+			if (title == null || video.getName().equals(title)) {
+				// There is at least one more match past the end of this
+				// page, so the client needs a token to ask for it
+				if (page.size() == limit) {
+					next = VideoPage.toCursor(last);
+					break;
+				}
+				page.add(video);
+				last = i;
+			}
+		}
+		return new VideoPage(page, next);
+	}
+
 }
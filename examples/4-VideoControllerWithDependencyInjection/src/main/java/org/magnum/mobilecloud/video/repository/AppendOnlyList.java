@@ -0,0 +1,154 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe List that can only be appended to.
+ *
+ * A CopyOnWriteArrayList copies its entire array every time something is
+ * added, so adding n items costs O(n^2) and every add allocates a new array.
+ * This list stores its items in a series of segments instead. Each segment
+ * is twice as big as the one before it and, once created, is never copied
+ * or resized. Adding an item never copies anything:
+ *
+ * 1. The writer reserves the next index with an atomic increment, so
+ *    writers never wait on a lock.
+ * 2. It stores the item in the slot for that index, creating the segment
+ *    with a compareAndSet() if it is the first item in the segment.
+ * 3. It moves the "published" size forward past every slot that has been
+ *    filled. If another writer reserved an earlier index but hasn't filled
+ *    it yet, that writer will move the size forward when it finishes.
+ *
+ * Readers only ever look at indexes below the published size, so they
+ * never see an empty slot. Iterating reads the published size once and
+ * walks the segments in place, so each iterator is a snapshot of the list
+ * at the time it was created and nothing is copied.
+ *
+ * Items can't be removed or replaced, and null items aren't allowed
+ * (an empty slot is how the list knows that an item hasn't been stored
+ * yet).
+ *
+ * @author jules
+ *
+ * @param <E>
+ */
+public class AppendOnlyList<E> extends AbstractList<E> {
+
+	// The first segment holds 2^FIRST_SEGMENT_BITS items
+	private static final int FIRST_SEGMENT_BITS = 5;
+
+	private static final int FIRST_SEGMENT_SIZE = 1 << FIRST_SEGMENT_BITS;
+
+	// Enough segments for indexes up to Integer.MAX_VALUE - FIRST_SEGMENT_SIZE
+	private static final int MAX_SEGMENTS = 31 - FIRST_SEGMENT_BITS;
+
+	private static final int MAX_SIZE = Integer.MAX_VALUE - FIRST_SEGMENT_SIZE;
+
+	private final AtomicReferenceArray<AtomicReferenceArray<E>> segments =
+			new AtomicReferenceArray<AtomicReferenceArray<E>>(MAX_SEGMENTS);
+
+	// The number of indexes that writers have claimed
+	private final AtomicInteger reserved = new AtomicInteger();
+
+	// The number of items that readers can see. Every slot below this
+	// index has been filled.
+	private final AtomicInteger published = new AtomicInteger();
+
+	@Override
+	public boolean add(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		int index = reserved.getAndIncrement();
+		if (index < 0 || index >= MAX_SIZE) {
+			throw new IllegalStateException("AppendOnlyList is full");
+		}
+		segment(segmentFor(index), true).set(offsetFor(index), e);
+		publish();
+		return true;
+	}
+
+	// Move the published size forward over every filled slot
+	private void publish() {
+		int size;
+		while ((size = published.get()) < reserved.get() && slot(size) != null) {
+			published.compareAndSet(size, size + 1);
+		}
+	}
+
+	@Override
+	public E get(int index) {
+		if (index < 0 || index >= published.get()) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		return slot(index);
+	}
+
+	@Override
+	public int size() {
+		return published.get();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		final int size = published.get();
+		return new Iterator<E>() {
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public E next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return slot(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	// The item at an index, or null if it hasn't been stored yet
+	private E slot(int index) {
+		AtomicReferenceArray<E> segment = segment(segmentFor(index), false);
+		return (segment != null) ? segment.get(offsetFor(index)) : null;
+	}
+
+	private AtomicReferenceArray<E> segment(int segment, boolean create) {
+		AtomicReferenceArray<E> s = segments.get(segment);
+		if (s == null && create) {
+			// If two writers race to create the same segment, only one
+			// of them wins and they both use the winner's segment
+			segments.compareAndSet(segment, null,
+					new AtomicReferenceArray<E>(FIRST_SEGMENT_SIZE << segment));
+			s = segments.get(segment);
+		}
+		return s;
+	}
+
+	// Segment k holds the indexes from FIRST_SEGMENT_SIZE * (2^k - 1) up to
+	// FIRST_SEGMENT_SIZE * (2^(k+1) - 1), so the segment is given by the
+	// position of the highest bit in (index + FIRST_SEGMENT_SIZE)
+	private static int segmentFor(int index) {
+		int position = index + FIRST_SEGMENT_SIZE;
+		return (31 - Integer.numberOfLeadingZeros(position)) - FIRST_SEGMENT_BITS;
+	}
+
+	private static int offsetFor(int index) {
+		int position = index + FIRST_SEGMENT_SIZE;
+		return position - Integer.highestOneBit(position);
+	}
+
+}
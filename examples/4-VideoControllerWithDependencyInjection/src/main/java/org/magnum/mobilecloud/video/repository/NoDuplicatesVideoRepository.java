@@ -1,10 +1,15 @@
 package org.magnum.mobilecloud.video.repository;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.magnum.mobilecloud.video.controller.Video;
 
@@ -29,9 +34,31 @@ public class NoDuplicatesVideoRepository implements VideoRepository {
 	private Set<Video> videoSet = Collections.newSetFromMap(
 	        new ConcurrentHashMap<Video, Boolean>());
 	
+	// Every video that is added is also given a key from an increasing
+	// sequence and stored in a sorted map. The keys are what the
+	// continuation tokens for paged requests refer to, so a page can
+	// start right after the last video in the previous page.
+	private ConcurrentNavigableMap<Long, Video> videosByKey =
+			new ConcurrentSkipListMap<Long, Video>();
+	
+	// Guarded by addLock
+	private long lastKey;
+
+	private final Object addLock = new Object();
+	
+	// The duplicate check, the next key and the put happen in one step,
+	// so keys are published in order and a page can't skip a video whose
+	// key is smaller than its continuation token
 	@Override
 	public boolean addVideo(Video v) {
-		return videoSet.add(v);
+		synchronized (addLock) {
+			if (videoSet.contains(v)) {
+				return false;
+			}
+			videosByKey.put(++lastKey, v);
+			videoSet.add(v);
+			return true;
+		}
 	}
 
 	@Override
@@ -52,4 +79,33 @@ public class NoDuplicatesVideoRepository implements VideoRepository {
 		return matches;
 	}
 
+	@Override
+	public VideoPage getVideos(String after, int limit) {
+		return findByTitle(null, after, limit);
+	}
+
+	// Walk the videos in key order, starting right after the key in
+	// the continuation token, until the page is full. A null title
+	// matches every video.
+	@Override
+	public VideoPage findByTitle(String title, String after, int limit) {
+		long last = VideoPage.fromCursor(after, 0);
+		List<Video> page = new ArrayList<Video>(limit);
+		String next = null;
+		for (Map.Entry<Long, Video> entry : videosByKey.tailMap(last, false).entrySet()) {
+			Video video = entry.getValue();
+			if (title == null || video.getName().equals(title)) {
+				// There is at least one more match past the end of this
+				// page, so the client needs a token to ask for it
+				if (page.size() == limit) {
+					next = VideoPage.toCursor(last);
+					break;
+				}
+				page.add(video);
+				last = entry.getKey();
+			}
+		}
+		return new VideoPage(page, next);
+	}
+
 }
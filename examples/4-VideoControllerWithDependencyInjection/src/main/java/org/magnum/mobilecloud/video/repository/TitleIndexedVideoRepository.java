@@ -0,0 +1,142 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.magnum.mobilecloud.video.controller.Video;
+
+/**
+ * An implementation of the VideoRepository that does not allow duplicate
+ * Videos and keeps a secondary index from each title to the Videos with
+ * that title.
+ *
+ * NoDuplicatesVideoRepository has to look at every Video to answer a
+ * findByTitle() search, so searches get slower as more Videos are added.
+ * This repository looks the title up in a ConcurrentHashMap instead, so a
+ * search costs the same no matter how many Videos have been added.
+ *
+ * Adding a Video happens in one step, under addLock: the duplicate check,
+ * picking the next key, and putting the Video into the title index,
+ * videosByKey and videoSet, in that order. So:
+ *
+ * 1. concurrent adds never put the same Video in the index twice
+ * 2. keys are published in the order that they are handed out, so a
+ * continuation token never points past a Video that shows up later (which
+ * would make the next page skip it)
+ * 3. a Video that can be seen in getVideos() is already in the index, and
+ * once a client has been told that its Video was added, every search will
+ * find it
+ *
+ * Searches and paging don't take the lock. Adds wait for each other, but
+ * each one only does a few map operations while it holds the lock.
+ *
+ * @author jules
+ *
+ */
+public class TitleIndexedVideoRepository implements VideoRepository {
+
+	// The primary store, which is the same as NoDuplicatesVideoRepository
+	private Set<Video> videoSet = Collections.newSetFromMap(
+	        new ConcurrentHashMap<Video, Boolean>());
+
+	// All of the Videos in the order that they were added, which is
+	// what the continuation tokens for paged requests refer to
+	private ConcurrentNavigableMap<Long, Video> videosByKey =
+			new ConcurrentSkipListMap<Long, Video>();
+
+	// The secondary index. Each title maps to the Videos with that title,
+	// sorted by the same keys as videosByKey so that title searches can be
+	// paged too.
+	private ConcurrentMap<String, ConcurrentNavigableMap<Long, Video>> titleIndex =
+			new ConcurrentHashMap<String, ConcurrentNavigableMap<Long, Video>>();
+
+	// Guarded by addLock
+	private long lastKey;
+
+	private final Object addLock = new Object();
+
+	@Override
+	public boolean addVideo(Video v) {
+		synchronized (addLock) {
+			if (videoSet.contains(v)) {
+				return false;
+			}
+			long key = ++lastKey;
+			if (v.getName() != null) {
+				titleBucket(v.getName()).put(key, v);
+			}
+			videosByKey.put(key, v);
+			videoSet.add(v);
+			return true;
+		}
+	}
+
+	// Get the index entry for a title, creating it if this is the first
+	// Video with that title. Only called while holding addLock, so no
+	// other thread can be creating the same entry.
+	private ConcurrentNavigableMap<Long, Video> titleBucket(String title) {
+		ConcurrentNavigableMap<Long, Video> bucket = titleIndex.get(title);
+		if (bucket == null) {
+			bucket = new ConcurrentSkipListMap<Long, Video>();
+			titleIndex.put(title, bucket);
+		}
+		return bucket;
+	}
+
+	@Override
+	public Collection<Video> getVideos() {
+		return videoSet;
+	}
+
+	// Look the title up in the index instead of searching every Video.
+	// The result is a read-only view of the index entry, so nothing
+	// is copied.
+	@Override
+	public Collection<Video> findByTitle(String title) {
+		ConcurrentNavigableMap<Long, Video> bucket = (title != null) ? titleIndex.get(title) : null;
+		if (bucket == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableCollection(bucket.values());
+	}
+
+	@Override
+	public VideoPage getVideos(String after, int limit) {
+		return page(videosByKey, after, limit);
+	}
+
+	@Override
+	public VideoPage findByTitle(String title, String after, int limit) {
+		ConcurrentNavigableMap<Long, Video> bucket = (title != null) ? titleIndex.get(title) : null;
+		if (bucket == null) {
+			return new VideoPage(Collections.<Video>emptyList(), null);
+		}
+		return page(bucket, after, limit);
+	}
+
+	// Every Video in the map matches, so a page is just the next
+	// limit entries after the key in the continuation token
+	private VideoPage page(ConcurrentNavigableMap<Long, Video> videos, String after, int limit) {
+		long last = VideoPage.fromCursor(after, 0);
+		List<Video> page = new ArrayList<Video>(limit);
+		String next = null;
+		for (Map.Entry<Long, Video> entry : videos.tailMap(last, false).entrySet()) {
+			if (page.size() == limit) {
+				next = VideoPage.toCursor(last);
+				break;
+			}
+			page.add(entry.getValue());
+			last = entry.getKey();
+		}
+		return new VideoPage(page, next);
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.magnum.mobilecloud.video.controller.Video;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * One page of a list of videos plus the continuation token that a client
+ * sends back (as the "after" parameter) to get the next page.
+ *
+ * The token is opaque to clients. Each VideoRepository decides what it
+ * encodes into its tokens (e.g., the key of the last video in the page)
+ * so that it can seek directly to the start of the next page instead of
+ * skipping over all of the videos in the pages before it. When there are
+ * no more videos, the next token is null.
+ *
+ * @author jules
+ *
+ */
+public class VideoPage {
+
+	private static final BaseEncoding CURSOR_ENCODING = BaseEncoding.base64Url().omitPadding();
+
+	private Collection<Video> videos = new ArrayList<Video>();
+	private String next;
+
+	public VideoPage() {
+	}
+
+	public VideoPage(Collection<Video> videos, String next) {
+		super();
+		this.videos = videos;
+		this.next = next;
+	}
+
+	public Collection<Video> getVideos() {
+		return videos;
+	}
+
+	public void setVideos(Collection<Video> videos) {
+		this.videos = videos;
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+
+	/**
+	 * Encode the key of the last video in a page as a continuation token.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static String toCursor(long key) {
+		return CURSOR_ENCODING.encode(Long.toString(key).getBytes(Charsets.UTF_8));
+	}
+
+	/**
+	 * Decode a continuation token created by toCursor(). A null token
+	 * means "start from the beginning" and decodes to the supplied
+	 * default key.
+	 *
+	 * @param cursor
+	 * @param start
+	 * @return
+	 * @throws IllegalArgumentException if the token was not created by toCursor()
+	 */
+	public static long fromCursor(String cursor, long start) {
+		if (cursor == null) {
+			return start;
+		}
+		try {
+			return Long.parseLong(new String(CURSOR_ENCODING.decode(cursor), Charsets.UTF_8));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token: " + cursor, e);
+		}
+	}
+
+}
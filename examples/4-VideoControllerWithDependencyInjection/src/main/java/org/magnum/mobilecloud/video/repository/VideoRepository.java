@@ -22,4 +22,13 @@ public interface VideoRepository {
 	// Find all videos with a matching title (e.g., Video.name)
 	public Collection<Video> findByTitle(String title);
 	
+	// Get up to limit videos, starting after the video that the
+	// continuation token refers to (or from the first video when
+	// the token is null)
+	public VideoPage getVideos(String after, int limit);
+	
+	// Get up to limit videos with a matching title, starting after
+	// the video that the continuation token refers to
+	public VideoPage findByTitle(String title, String after, int limit);
+	
 }
@@ -1,11 +1,16 @@
 package org.magnum.mobilecloud.integration.test;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,6 +18,7 @@ import org.magnum.mobilecloud.video.TestData;
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.controller.Application;
 import org.magnum.mobilecloud.video.controller.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 import org.magnum.mobilecloud.video.controller.VideoSvc;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationContextLoader;
@@ -100,4 +106,32 @@ public class VideoSvcIntegrationTest {
 	            .andReturn();
 	}
 
+	// This test adds several videos with the same title and then pages
+	// through the search results two at a time, following the continuation
+	// token from each page until there isn't one. Every video should come
+	// back exactly once and in the order it was added.
+	@Test
+	public void testVideoTitleSearchPaging() throws Exception {
+		Video first = TestData.randomVideo();
+		List<Video> added = new ArrayList<Video>();
+		for (int i = 0; i < 5; i++) {
+			Video video = TestData.randomVideo();
+			video.setName(first.getName());
+			videoService.addVideo(video);
+			added.add(video);
+		}
+		
+		List<Video> found = new ArrayList<Video>();
+		VideoPage page = videoService.findByTitlePage(first.getName(), 2, null);
+		found.addAll(page.getVideos());
+		while (page.getNext() != null) {
+			assertEquals(2, page.getVideos().size());
+			page = videoService.findByTitlePage(first.getName(), 2, page.getNext());
+			found.addAll(page.getVideos());
+		}
+		
+		assertEquals(added, found);
+		assertNull(page.getNext());
+	}
+
 }
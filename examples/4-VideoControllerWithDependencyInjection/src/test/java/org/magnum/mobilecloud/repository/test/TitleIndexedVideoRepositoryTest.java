@@ -0,0 +1,125 @@
+package org.magnum.mobilecloud.repository.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.magnum.mobilecloud.video.controller.Video;
+import org.magnum.mobilecloud.video.repository.NoDuplicatesVideoRepository;
+import org.magnum.mobilecloud.video.repository.TitleIndexedVideoRepository;
+import org.magnum.mobilecloud.video.repository.VideoPage;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+
+/**
+ *
+ * This test adds videos to a TitleIndexedVideoRepository from several
+ * threads while another thread pages through the list with continuation
+ * tokens. Since the adds are published in the order of their keys, a
+ * client that keeps following the tokens sees every video, even the ones
+ * that were added while it was paging. If a video with a smaller key could
+ * show up after the token had moved past it, it would never be seen.
+ * The NoDuplicatesVideoRepository pages the same way, so it is checked too.
+ *
+ * @author jules
+ *
+ */
+public class TitleIndexedVideoRepositoryTest {
+
+	private static final int THREADS = 8;
+
+	private static final int VIDEOS_PER_THREAD = 5000;
+
+	private static final int PAGE_SIZE = 7;
+
+	@Test
+	public void testPagingWhileAdding() throws Exception {
+		pageWhileAdding(new TitleIndexedVideoRepository());
+	}
+
+	@Test
+	public void testNoDuplicatesPagingWhileAdding() throws Exception {
+		pageWhileAdding(new NoDuplicatesVideoRepository());
+	}
+
+	private void pageWhileAdding(final VideoRepository repository) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> adds = new ArrayList<Future<?>>();
+			for (int t = 0; t < THREADS; t++) {
+				final int thread = t;
+				adds.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = 0; i < VIDEOS_PER_THREAD; i++) {
+							Video v = new Video("Video-" + (i % 10),
+									"http://coursera.org/some/video-" + thread + "-" + i, i + 1);
+							assertTrue(repository.addVideo(v));
+						}
+						return null;
+					}
+				}));
+			}
+
+			// Follow the tokens while the videos are being added. A null
+			// token means "no more for now", so start over from the last
+			// token that was handed out.
+			Set<String> seen = new HashSet<String>();
+			String after = null;
+			boolean adding = true;
+			while (adding) {
+				adding = false;
+				for (Future<?> add : adds) {
+					adding |= !add.isDone();
+				}
+				after = drain(repository, after, seen);
+			}
+			for (Future<?> add : adds) {
+				add.get();
+			}
+			drain(repository, after, seen);
+
+			assertEquals(THREADS * VIDEOS_PER_THREAD, seen.size());
+			assertEquals(THREADS * VIDEOS_PER_THREAD, repository.getVideos().size());
+			assertEquals(THREADS * VIDEOS_PER_THREAD / 10, repository.findByTitle("Video-3").size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testDuplicatesAreRejected() throws Exception {
+		TitleIndexedVideoRepository repository = new TitleIndexedVideoRepository();
+		Video v = new Video("Video", "http://coursera.org/some/video", 1);
+		assertTrue(repository.addVideo(v));
+		assertFalse(repository.addVideo(new Video("Video", "http://coursera.org/some/video", 1)));
+		assertEquals(1, repository.findByTitle("Video").size());
+		assertEquals(1, repository.getVideos(null, 10).getVideos().size());
+	}
+
+	// Reads pages until there is no next token, and returns the token of the
+	// last page, to continue from later. The last page is read again then,
+	// so a video that has been seen before is skipped.
+	private String drain(VideoRepository repository, String after, Set<String> seen) {
+		while (true) {
+			VideoPage page = repository.getVideos(after, PAGE_SIZE);
+			for (Video v : page.getVideos()) {
+				seen.add(v.getUrl());
+			}
+			if (page.getNext() == null) {
+				return after;
+			}
+			after = page.getNext();
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.magnum.mobilecloud.repository.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.magnum.mobilecloud.video.controller.Video;
+import org.magnum.mobilecloud.video.repository.AppendOnlyList;
+
+/**
+ *
+ * This test has 1 to 32 threads add videos to a list at the same time and
+ * reports how many videos per second were added. It compares the
+ * AppendOnlyList that the AllowsDuplicatesVideoRepository uses with the
+ * CopyOnWriteArrayList that it used to use.
+ *
+ * After each run, the test checks that every video that was added is in
+ * the list exactly once.
+ *
+ * testConcurrentIngest() needs -Dbenchmark=true; the check that concurrent
+ * adds are all kept always runs.
+ *
+ * @author jules
+ *
+ */
+public class VideoIngestBenchmarkTest {
+
+	private static final int VIDEO_COUNT = 50000;
+
+	private static final int CHECKED_VIDEOS = 5000;
+
+	private static final int[] WRITER_THREADS = { 1, 2, 4, 8, 16, 32 };
+
+	@Test
+	public void testConcurrentAddsAreAllKept() throws Exception {
+		List<Video> videos = newVideos(CHECKED_VIDEOS);
+		List<Video> appendOnly = new AppendOnlyList<Video>();
+		ingest(appendOnly, videos, 8);
+		assertContainsExactly(videos, appendOnly);
+	}
+
+	@Test
+	public void testConcurrentIngest() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		List<Video> videos = newVideos(VIDEO_COUNT);
+
+		// Warm up
+		ingest(new AppendOnlyList<Video>(), videos, 4);
+
+		for (int threads : WRITER_THREADS) {
+			List<Video> appendOnly = new AppendOnlyList<Video>();
+			long appendOnlyTime = ingest(appendOnly, videos, threads);
+			assertContainsExactly(videos, appendOnly);
+
+			List<Video> copyOnWrite = new CopyOnWriteArrayList<Video>();
+			long copyOnWriteTime = ingest(copyOnWrite, videos, threads);
+			assertContainsExactly(videos, copyOnWrite);
+
+			System.out.println(String.format(
+					"%2d writers: AppendOnlyList %,12d videos/s, CopyOnWriteArrayList %,12d videos/s",
+					threads, perSecond(appendOnlyTime), perSecond(copyOnWriteTime)));
+		}
+	}
+
+	private List<Video> newVideos(int count) {
+		List<Video> videos = new ArrayList<Video>(count);
+		for (int i = 0; i < count; i++) {
+			videos.add(new Video("Video-" + i, "http://coursera.org/some/video-" + i, i));
+		}
+		return videos;
+	}
+
+	// Split the videos between the writer threads, start them all at
+	// the same time, and return how long it took until they all finished
+	private long ingest(final Collection<Video> target, final List<Video> videos, int threads)
+			throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		int perThread = (videos.size() + threads - 1) / threads;
+		for (int t = 0; t < threads; t++) {
+			final List<Video> mine = videos.subList(Math.min(t * perThread, videos.size()),
+					Math.min((t + 1) * perThread, videos.size()));
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (Video v : mine) {
+							target.add(v);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return System.nanoTime() - begin;
+	}
+
+	private long perSecond(long nanos) {
+		return (long) (VIDEO_COUNT / (nanos / 1e9));
+	}
+
+	private void assertContainsExactly(List<Video> expected, List<Video> actual) {
+		assertEquals(expected.size(), actual.size());
+		Set<Video> seen = new HashSet<Video>();
+		for (Video v : actual) {
+			seen.add(v);
+		}
+		assertEquals(new HashSet<Video>(expected), seen);
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.magnum.mobilecloud.repository.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.magnum.mobilecloud.video.controller.Video;
+import org.magnum.mobilecloud.video.repository.AllowsDuplicatesVideoRepository;
+import org.magnum.mobilecloud.video.repository.NoDuplicatesVideoRepository;
+import org.magnum.mobilecloud.video.repository.TitleIndexedVideoRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+
+/**
+ *
+ * This test compares how long findByTitle() takes in the VideoRepository
+ * implementations as the number of videos grows. The scanning repositories
+ * should get roughly 10x slower each time the number of videos goes up by
+ * 10x, while the TitleIndexedVideoRepository should stay about the same.
+ *
+ * The sizes can be changed with the "benchmark.sizes" system property
+ * (e.g., -Dbenchmark.sizes=10000,100000).
+ *
+ * Needs -Dbenchmark=true.
+ *
+ * @author jules
+ *
+ */
+public class VideoRepositorySearchBenchmarkTest {
+
+	private static final int SEARCHES = 50;
+
+	private static final int VIDEOS_PER_TITLE = 10;
+
+	@Test
+	public void testFindByTitleScaling() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		String[] sizes = System.getProperty("benchmark.sizes", "10000,100000,1000000").split(",");
+		for (String size : sizes) {
+			int count = Integer.parseInt(size.trim());
+			report(count, "NoDuplicatesVideoRepository", new NoDuplicatesVideoRepository());
+			report(count, "AllowsDuplicatesVideoRepository", new AllowsDuplicatesVideoRepository());
+			report(count, "TitleIndexedVideoRepository", new TitleIndexedVideoRepository());
+		}
+	}
+
+	private void report(int count, String name, VideoRepository repository) {
+		List<Video> videos = new ArrayList<Video>(count);
+		for (int i = 0; i < count; i++) {
+			videos.add(new Video("Video-" + (i / VIDEOS_PER_TITLE),
+					"http://coursera.org/some/video-" + i, i));
+		}
+		for (Video v : videos) {
+			repository.addVideo(v);
+		}
+
+		// Warm up
+		search(repository, count);
+
+		long start = System.nanoTime();
+		search(repository, count);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(String.format("%-34s %,9d videos: %,12d ns per findByTitle()",
+				name, count, elapsed / SEARCHES));
+	}
+
+	private void search(VideoRepository repository, int count) {
+		int titles = count / VIDEOS_PER_TITLE;
+		for (int i = 0; i < SEARCHES; i++) {
+			String title = "Video-" + ((i * 7919) % titles);
+			assertEquals(VIDEOS_PER_TITLE, repository.findByTitle(title).size());
+		}
+	}
+
+}
@@ -1,12 +1,20 @@
 package org.magnum.mobilecloud.video;
 
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.controller.AsyncVideoSvc;
+import org.magnum.mobilecloud.video.controller.VideoETagInterceptor;
+import org.magnum.mobilecloud.video.controller.VideoListCompressionFilter;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
 //Tell Spring to automatically inject any dependencies that are marked in
 //our classes with @Autowired
@@ -25,11 +33,35 @@ import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 // Any class in this package that is annotated with @Controller is going to be
 // automatically discovered and connected to the DispatcherServlet.
 @ComponentScan
-public class Application {
+public class Application extends WebMvcConfigurerAdapter {
 	
 	// Tell Spring to launch our app!
 	public static void main(String[] args) {
 		SpringApplication.run(Application.class, args);
 	}
 	
+	// Check the ETag of every GET request for videos before it gets to
+	// the VideoSvc, so that clients that already have the latest copy
+	// get a 304 Not Modified without the VideoSvc doing any work. The
+	// AsyncVideoSvc serves the same videos, so it gets the same ETags.
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new VideoETagInterceptor())
+			.addPathPatterns(VideoSvcApi.VIDEO_SVC_PATH, VideoSvcApi.VIDEO_SVC_PATH + "/**",
+					AsyncVideoSvc.ASYNC_PATH + VideoSvcApi.VIDEO_SVC_PATH,
+					AsyncVideoSvc.ASYNC_PATH + VideoSvcApi.VIDEO_SVC_PATH + "/**");
+	}
+	
+	// Gzip the lists of videos for clients that accept it, and keep the
+	// gzipped lists until the videos change. Only the list and search
+	// paths are filtered: a single video is too small to be worth it,
+	// GET /video/stream writes its response as it goes, and the
+	// AsyncVideoSvc only answers after the filter has already returned.
+	@Bean
+	public FilterRegistrationBean videoListCompressionFilter() {
+		FilterRegistrationBean registration = new FilterRegistrationBean(new VideoListCompressionFilter());
+		registration.addUrlPatterns(VideoSvcApi.VIDEO_SVC_PATH, VideoSvcApi.VIDEO_TITLE_SEARCH_PATH);
+		return registration;
+	}
+	
 }
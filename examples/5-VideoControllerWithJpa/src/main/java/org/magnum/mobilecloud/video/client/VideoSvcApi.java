@@ -1,12 +1,15 @@
 package org.magnum.mobilecloud.video.client;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 
 import retrofit.http.Body;
 import retrofit.http.GET;
 import retrofit.http.POST;
+import retrofit.http.Path;
 import retrofit.http.Query;
 
 /**
@@ -22,20 +25,74 @@ import retrofit.http.Query;
 public interface VideoSvcApi {
 	
 	public static final String TITLE_PARAMETER = "title";
+	
+	public static final String ID_PARAMETER = "id";
+	
+	// The maximum number of videos to return in one page
+	public static final String LIMIT_PARAMETER = "limit";
+	
+	// The continuation token from the previous page
+	public static final String AFTER_PARAMETER = "after";
+	
+	// The largest page that the VideoSvc will return, no matter
+	// what limit the client asks for
+	public static final int MAX_PAGE_SIZE = 100;
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
 
+	// The path to get one video by its id
+	public static final String VIDEO_ID_PATH = VIDEO_SVC_PATH + "/{" + ID_PARAMETER + "}";
+
 	// The path to search videos by title
 	public static final String VIDEO_TITLE_SEARCH_PATH = VIDEO_SVC_PATH + "/find";
 
+	// The path that streams the full list of videos. The response is the
+	// same JSON array as VIDEO_SVC_PATH, so clients can read it with the
+	// same code, but the server never holds the whole list in memory.
+	public static final String VIDEO_STREAM_PATH = VIDEO_SVC_PATH + "/stream";
+
+	// The path to add a batch of videos in one request
+	public static final String VIDEO_BATCH_PATH = VIDEO_SVC_PATH + "/batch";
+	
+	// The content type for a batch of videos that is sent as
+	// newline-delimited JSON (one Video object per line) instead
+	// of as a JSON array
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
 	@POST(VIDEO_SVC_PATH)
 	public boolean addVideo(@Body Video v);
 	
+	@GET(VIDEO_ID_PATH)
+	public Video getVideoById(@Path(ID_PARAMETER) long id);
+	
 	@GET(VIDEO_TITLE_SEARCH_PATH)
 	public Collection<Video> findByTitle(@Query(TITLE_PARAMETER) String title);
 	
+	// Get one page of the video list. Pass a null "after" token to get
+	// the first page and then the VideoPage.getNext() token from each
+	// page to get the page after it. Retrofit leaves null parameters
+	// out of the query string.
+	@GET(VIDEO_SVC_PATH)
+	public VideoPage getVideoPage(@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
+	// Get one page of the videos with a matching title
+	@GET(VIDEO_TITLE_SEARCH_PATH)
+	public VideoPage findByTitlePage(@Query(TITLE_PARAMETER) String title,
+			@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
+	// Add a batch of videos in one request. The result has one
+	// entry for each video, in the same order, that is true if
+	// the video was added. The videos are saved in chunks, each
+	// all or nothing, so one video that can't be saved makes its
+	// whole chunk false while the other chunks are still saved.
+	// Resend just the videos that got false, not the whole batch.
+	@POST(VIDEO_BATCH_PATH)
+	public List<Boolean> addVideos(@Body Collection<Video> v);
+	
 }
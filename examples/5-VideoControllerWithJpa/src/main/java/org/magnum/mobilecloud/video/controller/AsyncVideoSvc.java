@@ -0,0 +1,200 @@
+package org.magnum.mobilecloud.video.controller;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.AsyncVideoRepository;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A non-blocking version of the VideoSvc. It answers exactly the same
+ * requests as the VideoSvc, with exactly the same responses, but under
+ * ASYNC_PATH (e.g., GET /async/video instead of GET /video). A client can
+ * use it through the same VideoSvcApi, just by adding ASYNC_PATH to the
+ * end of the Retrofit endpoint.
+ *
+ * The VideoSvc holds on to one of the web container's threads while it
+ * waits for the database, so the number of requests that it can work on
+ * at the same time is limited by the size of the container's thread pool,
+ * and every one of them costs a whole thread (and its stack).
+ *
+ * Each method of this controller starts its query on the
+ * AsyncVideoRepository and returns a DeferredResult right away. Spring
+ * puts the request into async mode and hands the container thread back.
+ * When the query is done, the repository thread that ran it fills in the
+ * DeferredResult and Spring finishes the response. Thousands of requests
+ * can be waiting on the database while the container only uses a handful
+ * of threads.
+ *
+ * A query that doesn't finish within TIMEOUT, or that can't even be
+ * queued because the AsyncVideoRepository is full, is answered with a 503
+ * and a Retry-After header.
+ *
+ * The streaming list and the newline-delimited batch upload of the VideoSvc
+ * aren't here, because they read or write the HTTP body while they query
+ * the database. They aren't part of the Retrofit VideoSvcApi either.
+ *
+ * @author jules
+ *
+ */
+@Controller
+@RequestMapping(AsyncVideoSvc.ASYNC_PATH)
+public class AsyncVideoSvc {
+
+	// The path that all of the requests for this controller start with
+	public static final String ASYNC_PATH = "/async";
+
+	// How long a request may wait for the database
+	public static final long TIMEOUT = 30 * 1000L;
+
+	public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+	private static final String RETRY_AFTER_SECONDS = "1";
+
+	@Autowired
+	private AsyncVideoRepository videos;
+
+	// Receives POST requests to /async/video. The response is sent
+	// once the video has been saved.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.POST)
+	public @ResponseBody DeferredResult<Boolean> addVideo(@RequestBody Video v){
+		return defer(videos.save(v), Functions.constant(Boolean.TRUE));
+	}
+
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET)
+	public @ResponseBody DeferredResult<Collection<Video>> getVideoList(){
+		return defer(videos.findAll());
+	}
+
+	// A missing video is reported as a 404 Not Found, just like the
+	// VideoSvc does, by finishing the request with the exception
+	@RequestMapping(value=VideoSvcApi.VIDEO_ID_PATH, method=RequestMethod.GET)
+	public @ResponseBody DeferredResult<Video> getVideoById(@PathVariable(VideoSvcApi.ID_PARAMETER) final long id){
+		return defer(videos.findOne(id), new Function<Video, Video>() {
+			@Override
+			public Video apply(Video v) {
+				if (v == null) {
+					throw new VideoNotFoundException(id);
+				}
+				return v;
+			}
+		});
+	}
+
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody DeferredResult<Collection<Video>> findByTitle(
+			@RequestParam(VideoSvcApi.TITLE_PARAMETER) String title
+	){
+		return defer(videos.findByName(title));
+	}
+
+	// The whole batch is saved by one repository thread, in chunks of
+	// AsyncVideoRepository.SAVE_BATCH_SIZE. Like VideoSvc.addVideos(), a
+	// chunk that can't be saved gets false results instead of failing the
+	// chunks around it.
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody DeferredResult<List<Boolean>> addVideos(@RequestBody Collection<Video> v){
+		return defer(videos.saveAll(v));
+	}
+
+	// The same keyset paging as VideoSvc.getVideoPage()
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET, params=VideoSvcApi.LIMIT_PARAMETER)
+	public @ResponseBody DeferredResult<VideoPage> getVideoPage(
+			@RequestParam(VideoSvcApi.LIMIT_PARAMETER) int limit,
+			@RequestParam(value=VideoSvcApi.AFTER_PARAMETER, required=false) String after
+	){
+		int size = VideoSvc.pageSize(limit);
+		long lastId = VideoPage.fromCursor(after, Long.MIN_VALUE);
+		return defer(videos.findByIdGreaterThan(lastId, size + 1), toPage(size));
+	}
+
+	// The same keyset paging as VideoSvc.findByTitlePage()
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_SEARCH_PATH, method=RequestMethod.GET, params=VideoSvcApi.LIMIT_PARAMETER)
+	public @ResponseBody DeferredResult<VideoPage> findByTitlePage(
+			@RequestParam(VideoSvcApi.TITLE_PARAMETER) String title,
+			@RequestParam(VideoSvcApi.LIMIT_PARAMETER) int limit,
+			@RequestParam(value=VideoSvcApi.AFTER_PARAMETER, required=false) String after
+	){
+		int size = VideoSvc.pageSize(limit);
+		long lastId = VideoPage.fromCursor(after, Long.MIN_VALUE);
+		return defer(videos.findByNameAndIdGreaterThan(title, lastId, size + 1), toPage(size));
+	}
+
+	private Function<List<Video>, VideoPage> toPage(final int size) {
+		return new Function<List<Video>, VideoPage>() {
+			@Override
+			public VideoPage apply(List<Video> rows) {
+				return VideoSvc.toPage(rows, size);
+			}
+		};
+	}
+
+	private <T> DeferredResult<T> defer(ListenableFuture<T> query) {
+		return defer(query, Functions.<T>identity());
+	}
+
+	// Creates the DeferredResult that Spring waits on, and sets it to the
+	// response for the query's result once the query is done. Anything
+	// that goes wrong along the way is handed to Spring as the error
+	// result, which it handles just as if this controller had thrown it.
+	private <F, T> DeferredResult<T> defer(ListenableFuture<F> query, final Function<? super F, ? extends T> toResponse) {
+		final DeferredResult<T> result = new DeferredResult<T>(TIMEOUT,
+				new TimeoutException("The video repository didn't answer in time"));
+		Futures.addCallback(query, new FutureCallback<F>() {
+			@Override
+			public void onSuccess(F value) {
+				try {
+					result.setResult(toResponse.apply(value));
+				} catch (RuntimeException e) {
+					result.setErrorResult(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				result.setErrorResult(t);
+			}
+		});
+		return result;
+	}
+
+	// Continuation tokens that weren't created by VideoSvc.toPage() are
+	// reported to the client as a 400 Bad Request
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void badRequest() {
+	}
+
+	// The AsyncVideoRepository is too busy to take the query, or the
+	// query took longer than TIMEOUT
+	@ExceptionHandler({ RejectedExecutionException.class, TimeoutException.class })
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public void busy(HttpServletResponse response) {
+		response.setHeader(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+	}
+
+}
@@ -0,0 +1,74 @@
+package org.magnum.mobilecloud.video.controller;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.magnum.mobilecloud.video.repository.VideoVersion;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Adds ETags to the GET requests for videos and answers conditional GETs
+ * without ever calling the VideoSvc.
+ *
+ * Every response gets the current VideoVersion.etag(). A client that sends
+ * that ETag back in an If-None-Match header already has the latest copy of
+ * the response, so it gets a 304 Not Modified with no body. The repository
+ * isn't queried and nothing is converted to JSON.
+ *
+ * The "Cache-Control: no-cache" header tells clients and proxies that they
+ * may keep the response, but must check the ETag with the server before
+ * they use it again.
+ *
+ * The same ETag works for every video URL. The version only changes when a
+ * video changes, and caches store a separate ETag for each URL.
+ *
+ * @author jules
+ *
+ */
+public class VideoETagInterceptor extends HandlerInterceptorAdapter {
+
+	public static final String ETAG_HEADER = "ETag";
+
+	public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+	public static final String CACHE_CONTROL_HEADER = "Cache-Control";
+
+	@Override
+	public boolean preHandle(HttpServletRequest request,
+			HttpServletResponse response, Object handler) throws Exception {
+		String method = request.getMethod();
+		if (!"GET".equals(method) && !"HEAD".equals(method)) {
+			return true;
+		}
+
+		String etag = VideoVersion.etag();
+		response.setHeader(ETAG_HEADER, etag);
+		response.setHeader(CACHE_CONTROL_HEADER, "no-cache");
+
+		if (matches(request.getHeader(IF_NONE_MATCH_HEADER), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			// Returning false stops Spring from calling the VideoSvc
+			return false;
+		}
+		return true;
+	}
+
+	// If-None-Match can have a comma separated list of ETags. An ETag
+	// that the VideoListCompressionFilter sent with a gzipped response
+	// is for the same version of the videos, so its suffix is ignored.
+	static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String gzipped = etag.substring(0, etag.length() - 1)
+				+ VideoListCompressionFilter.GZIP_ETAG_SUFFIX + "\"";
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals(etag) || candidate.equals(gzipped)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
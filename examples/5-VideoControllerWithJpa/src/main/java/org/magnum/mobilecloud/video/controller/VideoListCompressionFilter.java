@@ -0,0 +1,320 @@
+package org.magnum.mobilecloud.video.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.magnum.mobilecloud.video.repository.VideoVersion;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Gzips the responses to GET requests for lists of videos (e.g., GET /video
+ * and GET /video/find?title=Foo) for clients that send
+ * "Accept-Encoding: gzip", and keeps the gzipped bytes so that the same
+ * list is only compressed once.
+ *
+ * A list of videos is mostly the same field names and similar values over
+ * and over, so it usually shrinks to a fraction of its size. Compressing
+ * it costs more CPU than producing the JSON in the first place, though,
+ * so doing it on every request would make the server slower, not faster.
+ * The gzipped body is only valid for as long as the videos don't change,
+ * which is exactly what the VideoVersion counter tracks: each cached body
+ * remembers the version that it was made from, and a request is answered
+ * from the cache (without running the VideoSvc, querying the database, or
+ * compressing anything) as long as the version is still the same. Since a
+ * cached body is used many times, it is compressed with the best (and
+ * slowest) compression level.
+ *
+ * Bodies are cached by path and query string, so every search and page has
+ * its own entry. The cache is bounded by the total size of the gzipped
+ * bodies, and the least recently used ones are dropped first. Bodies that
+ * are smaller than MIN_COMPRESS_SIZE aren't worth compressing, and are
+ * sent as they are.
+ *
+ * A gzipped response has a different ETag than the plain one (the ETag
+ * with GZIP_ETAG_SUFFIX added), as a strong ETag has to be different for
+ * different bytes. The VideoETagInterceptor ignores the suffix when a
+ * client sends the ETag back, so conditional GETs work the same for both.
+ *
+ * OkHttp and Android's HttpURLConnection ask for gzip and unzip the
+ * response on their own, so the Retrofit clients don't need any changes.
+ *
+ * @author jules
+ *
+ */
+public class VideoListCompressionFilter extends OncePerRequestFilter {
+
+	public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+	public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+	public static final String VARY_HEADER = "Vary";
+
+	public static final String GZIP = "gzip";
+
+	public static final String GZIP_ETAG_SUFFIX = "--gzip";
+
+	// Bodies smaller than this are sent uncompressed. The gzip header and
+	// trailer alone are 18 bytes, and a body that fits into one packet
+	// doesn't get there any sooner when it is smaller.
+	public static final int MIN_COMPRESS_SIZE = 1024;
+
+	public static final long DEFAULT_CACHE_BYTES = 16 * 1024 * 1024;
+
+	private final Cache<String, CompressedBody> cache;
+
+	public VideoListCompressionFilter() {
+		this(DEFAULT_CACHE_BYTES);
+	}
+
+	// A maxCacheBytes of 0 turns the cache off, so every response is
+	// compressed again
+	public VideoListCompressionFilter(long maxCacheBytes) {
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxCacheBytes)
+				.weigher(new Weigher<String, CompressedBody>() {
+					@Override
+					public int weigh(String key, CompressedBody body) {
+						return key.length() + body.gzipped.length;
+					}
+				})
+				.build();
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request,
+			HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		if (!"GET".equals(request.getMethod())
+				|| !acceptsGzip(request.getHeader(ACCEPT_ENCODING_HEADER))) {
+			chain.doFilter(request, response);
+			return;
+		}
+		response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+
+		// Read the version before anything reads the videos, just like
+		// VideoVersion.etag() does
+		long version = VideoVersion.current();
+		String key = request.getRequestURI()
+				+ (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+
+		CompressedBody cached = cache.getIfPresent(key);
+		if (cached != null && cached.version == version) {
+			sendCached(request, response, cached);
+			return;
+		}
+
+		BufferedResponse buffered = new BufferedResponse(response);
+		chain.doFilter(request, buffered);
+		if (response.isCommitted()) {
+			// sendError() or sendRedirect() has already answered
+			return;
+		}
+		byte[] body = buffered.getBody();
+
+		if (response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+			// The client has the gzipped copy if it sent back a gzip ETag
+			String ifNoneMatch = request.getHeader(VideoETagInterceptor.IF_NONE_MATCH_HEADER);
+			if (ifNoneMatch != null && ifNoneMatch.contains(GZIP_ETAG_SUFFIX)) {
+				gzipETag(response);
+			}
+			return;
+		}
+		if (response.getStatus() != HttpServletResponse.SC_OK
+				|| body.length < MIN_COMPRESS_SIZE) {
+			send(response, body);
+			return;
+		}
+
+		byte[] gzipped = gzip(body);
+		gzipETag(response);
+		response.setHeader(CONTENT_ENCODING_HEADER, GZIP);
+		send(response, gzipped);
+
+		// If a video changed while the VideoSvc was running, the body may
+		// be from either version, so it can't be kept
+		if (VideoVersion.current() == version) {
+			cache.put(key, new CompressedBody(version, response.getContentType(), gzipped));
+		}
+	}
+
+	// Answer exactly the way that the VideoETagInterceptor and the
+	// VideoSvc would have, but with the bytes from the cache
+	private void sendCached(HttpServletRequest request,
+			HttpServletResponse response, CompressedBody cached) throws IOException {
+		String etag = VideoVersion.etag(cached.version);
+		response.setHeader(VideoETagInterceptor.ETAG_HEADER, gzipETag(etag));
+		response.setHeader(VideoETagInterceptor.CACHE_CONTROL_HEADER, "no-cache");
+
+		if (VideoETagInterceptor.matches(request.getHeader(VideoETagInterceptor.IF_NONE_MATCH_HEADER), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setContentType(cached.contentType);
+		response.setHeader(CONTENT_ENCODING_HEADER, GZIP);
+		send(response, cached.gzipped);
+	}
+
+	private void send(HttpServletResponse response, byte[] body) throws IOException {
+		response.setContentLength(body.length);
+		ServletOutputStream out = response.getOutputStream();
+		out.write(body);
+		out.flush();
+	}
+
+	private static void gzipETag(HttpServletResponse response) {
+		String etag = response.getHeader(VideoETagInterceptor.ETAG_HEADER);
+		if (etag != null) {
+			response.setHeader(VideoETagInterceptor.ETAG_HEADER, gzipETag(etag));
+		}
+	}
+
+	// Puts the suffix inside the quotes: "abc-1" becomes "abc-1--gzip"
+	private static String gzipETag(String etag) {
+		return etag.substring(0, etag.length() - 1) + GZIP_ETAG_SUFFIX + "\"";
+	}
+
+	// Accept-Encoding is a comma separated list of encodings, each of which
+	// can have a "q" weight. "q=0" means that the client doesn't want it.
+	// A weight that isn't a number is treated like "q=0", so a malformed
+	// header gets the plain response instead of an error.
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String encoding : acceptEncoding.split(",")) {
+			String[] parts = encoding.split(";");
+			String name = parts[0].trim();
+			if (GZIP.equalsIgnoreCase(name) || "*".equals(name)) {
+				for (int i = 1; i < parts.length; i++) {
+					String param = parts[i].trim();
+					if (param.startsWith("q=") && !(weight(param.substring(2)) > 0)) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Returns NaN for weights that can't be parsed
+	private static double weight(String q) {
+		try {
+			return Double.parseDouble(q.trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+		GZIPOutputStream out = new GZIPOutputStream(bytes) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		};
+		out.write(body);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	// A gzipped body and what it takes to send it again
+	private static class CompressedBody {
+
+		private final long version;
+		private final String contentType;
+		private final byte[] gzipped;
+
+		private CompressedBody(long version, String contentType, byte[] gzipped) {
+			this.version = version;
+			this.contentType = contentType;
+			this.gzipped = gzipped;
+		}
+	}
+
+	// Keeps everything that the VideoSvc writes in memory, so that it can be
+	// compressed before any of it is sent. The headers and the status go
+	// straight to the real response.
+	private static class BufferedResponse extends HttpServletResponseWrapper {
+
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		private ServletOutputStream out;
+
+		private PrintWriter writer;
+
+		private BufferedResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			if (out == null) {
+				out = new ServletOutputStream() {
+					@Override
+					public void write(int b) {
+						body.write(b);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) {
+						body.write(b, off, len);
+					}
+				};
+			}
+			return out;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(body, getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		// The length is set once the body has (or hasn't) been compressed
+		@Override
+		public void setContentLength(int len) {
+		}
+
+		// Nothing may be sent before the body has been compressed
+		@Override
+		public void flushBuffer() {
+		}
+
+		@Override
+		public void resetBuffer() {
+			body.reset();
+		}
+
+		@Override
+		public void reset() {
+			super.reset();
+			body.reset();
+		}
+
+		private byte[] getBody() {
+			if (writer != null) {
+				writer.flush();
+			}
+			return body.toByteArray();
+		}
+	}
+
+}
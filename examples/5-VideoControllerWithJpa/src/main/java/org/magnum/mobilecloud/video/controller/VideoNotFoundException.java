@@ -0,0 +1,23 @@
+package org.magnum.mobilecloud.video.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown by the VideoSvc when a client asks for a video that doesn't
+ * exist. The @ResponseStatus annotation tells Spring to send the client
+ * a 404 Not Found when this exception is thrown out of a controller.
+ * 
+ * @author jules
+ *
+ */
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class VideoNotFoundException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public VideoNotFoundException(long id) {
+		super("No video with id " + id);
+	}
+
+}
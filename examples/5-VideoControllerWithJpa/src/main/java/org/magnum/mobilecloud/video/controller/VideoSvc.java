@@ -1,18 +1,42 @@
 package org.magnum.mobilecloud.video.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.TransactionException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
 
 /**
@@ -37,6 +61,14 @@ import com.google.common.collect.Lists;
 @Controller
 public class VideoSvc implements VideoSvcApi {
 	
+	// The number of rows that are read from the database at a time
+	// when streaming the list of videos to a client
+	public static final int STREAM_FETCH_SIZE = 500;
+	
+	// The number of videos from a batch request that are saved
+	// in each call to VideoRepository.save(Iterable)
+	public static final int SAVE_BATCH_SIZE = 500;
+	
 	// The VideoRepository that we are going to store our videos
 	// in. We don't explicitly construct a VideoRepository, but
 	// instead mark this object as a dependency that needs to be
@@ -49,6 +81,14 @@ public class VideoSvc implements VideoSvcApi {
 	//
 	@Autowired
 	private VideoRepository videos;
+	
+	// The EntityManager that backs the VideoRepository for the current
+	// request. The streaming list clears it after each chunk so that the
+	// Video objects that have already been written can be garbage collected.
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	private final ObjectMapper mapper = new ObjectMapper();
 
 	// Receives POST requests to /video and converts the HTTP
 	// request body, which should contain json, into a Video
@@ -80,6 +120,61 @@ public class VideoSvc implements VideoSvcApi {
 		return Lists.newArrayList(videos.findAll());
 	}
 	
+	// Receives GET requests to /video/{id} and returns the video with
+	// that id, or a 404 Not Found if there isn't one
+	@RequestMapping(value=VideoSvcApi.VIDEO_ID_PATH, method=RequestMethod.GET)
+	public @ResponseBody Video getVideoById(@PathVariable(ID_PARAMETER) long id){
+		Video v = videos.findOne(id);
+		if (v == null) {
+			throw new VideoNotFoundException(id);
+		}
+		return v;
+	}
+	
+	// Receives GET requests to /video/stream and writes the same JSON
+	// array as getVideoList(), but without ever building the list in
+	// memory. The videos are read from the VideoRepository in chunks of
+	// STREAM_FETCH_SIZE and each one is written straight to the HTTP
+	// response with Jackson's streaming JsonGenerator. Memory use stays
+	// flat no matter how many videos are in the database and the client
+	// starts receiving data as soon as the first chunk is read.
+	@RequestMapping(value=VideoSvcApi.VIDEO_STREAM_PATH, method=RequestMethod.GET)
+	public void streamVideoList(HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.setCharacterEncoding("UTF-8");
+		writeVideoList(response.getOutputStream());
+	}
+	
+	// Writes every video in the repository to the OutputStream as a JSON
+	// array, one chunk at a time. Each chunk picks up after the id of the
+	// last video in the previous chunk, so the database never has to skip
+	// over rows that have already been sent.
+	public void writeVideoList(OutputStream out) throws IOException {
+		JsonGenerator json = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+		json.writeStartArray();
+
+		long lastId = Long.MIN_VALUE;
+		List<Video> chunk;
+		do {
+			chunk = videos.findByIdGreaterThanOrderByIdAsc(lastId,
+					new PageRequest(0, STREAM_FETCH_SIZE));
+			for (Video v : chunk) {
+				json.writeObject(v);
+				lastId = v.getId();
+			}
+			
+			// Push the chunk to the client and let go of the Videos that
+			// the EntityManager is still holding on to
+			json.flush();
+			if (entityManager != null) {
+				entityManager.clear();
+			}
+		} while (chunk.size() == STREAM_FETCH_SIZE);
+
+		json.writeEndArray();
+		json.close();
+	}
+	
 	// Receives GET requests to /video/find and returns all Videos
 	// that have a title (e.g., Video.name) matching the "title" request
 	// parameter value that is passed by the client
@@ -91,5 +186,139 @@ public class VideoSvc implements VideoSvcApi {
 	){
 		return videos.findByName(title);
 	}
+	
+	// Receives POST requests to /video/batch with a JSON array of
+	// videos and saves all of them. One request replaces a round trip
+	// per video. The response has one result per video, in the same
+	// order as the request, that is true if the video was saved (see
+	// add() for what a false means).
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody List<Boolean> addVideos(@RequestBody Collection<Video> v){
+		List<Boolean> results = new ArrayList<Boolean>(v.size());
+		List<Video> chunk = new ArrayList<Video>(SAVE_BATCH_SIZE);
+		for (Video video : v) {
+			add(video, chunk, results);
+		}
+		saveChunk(chunk, results);
+		return results;
+	}
+	
+	// Receives POST requests to /video/batch with a newline-delimited
+	// JSON body (one video per line). Jackson's MappingIterator parses
+	// the videos one at a time as they are read from the request, so
+	// only one chunk of the batch is ever held in memory. The batch
+	// stops at the first line that can't be parsed, since the parser
+	// can't be trusted to find the start of the next video after an
+	// error. The response only has results for the lines before it, so
+	// every video from that line on was not saved.
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST, consumes=NDJSON_CONTENT_TYPE)
+	public @ResponseBody List<Boolean> addVideoStream(HttpServletRequest request) throws IOException {
+		MappingIterator<Video> stream = mapper.reader(Video.class).readValues(request.getInputStream());
+		List<Boolean> results = new ArrayList<Boolean>();
+		List<Video> chunk = new ArrayList<Video>(SAVE_BATCH_SIZE);
+		try {
+			while (stream.hasNextValue()) {
+				add(stream.nextValue(), chunk, results);
+			}
+		} catch (JsonProcessingException e) {
+			// The batch ends at the line that couldn't be parsed
+		}
+		saveChunk(chunk, results);
+		return results;
+	}
+	
+	// The batches are saved in chunks of SAVE_BATCH_SIZE. Each chunk is
+	// saved with a single save(Iterable) call, which runs in one
+	// transaction and lets Hibernate group the inserts into JDBC
+	// batches instead of committing every row on its own.
+	//
+	// A chunk is saved all or nothing. If its transaction fails, none of
+	// its videos are saved and they all get a false result, but the
+	// chunks before it stay saved and the chunks after it are still
+	// tried. So a client should resend the videos that got a false
+	// result (e.g., without the one that broke the chunk), rather than
+	// the whole batch.
+	private void add(Video video, List<Video> chunk, List<Boolean> results) {
+		chunk.add(video);
+		if (chunk.size() == SAVE_BATCH_SIZE) {
+			saveChunk(chunk, results);
+		}
+	}
+	
+	// Saves one chunk and adds a result for each of its videos
+	private void saveChunk(List<Video> chunk, List<Boolean> results) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		boolean saved;
+		try {
+			videos.save(chunk);
+			saved = true;
+		} catch (DataAccessException | TransactionException e) {
+			saved = false;
+		}
+		results.addAll(Collections.nCopies(chunk.size(), saved));
+		chunk.clear();
+		
+		// Let go of the Videos that were just saved
+		if (entityManager != null) {
+			entityManager.clear();
+		}
+	}
+
+	// Receives GET requests to /video that include a "limit" parameter
+	// and returns one page of videos plus a token for the next page. The
+	// "params" in the @RequestMapping is what sends requests with a limit
+	// here instead of to getVideoList().
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET, params=LIMIT_PARAMETER)
+	public @ResponseBody VideoPage getVideoPage(
+			@RequestParam(LIMIT_PARAMETER) int limit,
+			@RequestParam(value=AFTER_PARAMETER, required=false) String after
+	){
+		int size = pageSize(limit);
+		long lastId = VideoPage.fromCursor(after, Long.MIN_VALUE);
+		// Ask for one extra row so that we know if there is another page
+		return toPage(videos.findByIdGreaterThanOrderByIdAsc(lastId,
+				new PageRequest(0, size + 1)), size);
+	}
+	
+	// Receives GET requests to /video/find that include a "limit" parameter
+	// and returns one page of the videos with a matching title
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_SEARCH_PATH, method=RequestMethod.GET, params=LIMIT_PARAMETER)
+	public @ResponseBody VideoPage findByTitlePage(
+			@RequestParam(TITLE_PARAMETER) String title,
+			@RequestParam(LIMIT_PARAMETER) int limit,
+			@RequestParam(value=AFTER_PARAMETER, required=false) String after
+	){
+		int size = pageSize(limit);
+		long lastId = VideoPage.fromCursor(after, Long.MIN_VALUE);
+		return toPage(videos.findByNameAndIdGreaterThanOrderByIdAsc(title, lastId,
+				new PageRequest(0, size + 1)), size);
+	}
+	
+	// Keep the page size between 1 and MAX_PAGE_SIZE so that a client
+	// can't ask for the whole list in one page. The AsyncVideoSvc pages
+	// the same way, so this is shared with it.
+	static int pageSize(int limit) {
+		return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+	}
+	
+	// Turn the rows from a keyset query (which asked for one more row than
+	// the page size) into a page. If the extra row came back, there is
+	// another page and it starts after the last video in this one.
+	static VideoPage toPage(List<Video> rows, int size) {
+		if (rows.size() <= size) {
+			return new VideoPage(rows, null);
+		}
+		List<Video> page = rows.subList(0, size);
+		return new VideoPage(page, VideoPage.toCursor(page.get(size - 1).getId()));
+	}
+	
+	// Continuation tokens that weren't created by toPage() are
+	// reported to the client as a 400 Bad Request
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void badRequest() {
+	}
 
 }
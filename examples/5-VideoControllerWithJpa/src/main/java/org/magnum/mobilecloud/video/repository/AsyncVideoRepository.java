@@ -0,0 +1,154 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Wraps the VideoRepository so that its queries can be started without
+ * waiting for them to finish. Each method hands the query to a pool of
+ * repository threads and immediately returns a ListenableFuture for its
+ * result.
+ *
+ * JPA and JDBC have no non-blocking API, so somebody still has to wait for
+ * the database. This class makes sure that it is one of a small, fixed
+ * number of repository threads, instead of one of the web container's
+ * request threads. Since every query needs a connection from the database
+ * connection pool anyway, THREADS is about the size of that pool: more
+ * threads would just wait for a connection.
+ *
+ * If so many queries are waiting that the queue is full, the methods throw
+ * a RejectedExecutionException instead of letting the backlog grow.
+ *
+ * @author jules
+ *
+ */
+@Component
+public class AsyncVideoRepository {
+
+	// The number of queries that can run at the same time
+	public static final int THREADS = 64;
+
+	// The number of queries that can wait for a thread
+	public static final int QUEUE_SIZE = 10000;
+
+	// The number of videos that are saved in each transaction
+	public static final int SAVE_BATCH_SIZE = 500;
+
+	@Autowired
+	private VideoRepository videos;
+
+	private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(
+			new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+					new ThreadFactoryBuilder().setNameFormat("video-repository-%d").setDaemon(true).build()));
+
+	public ListenableFuture<Video> save(final Video v) {
+		return executor.submit(new Callable<Video>() {
+			@Override
+			public Video call() {
+				return videos.save(v);
+			}
+		});
+	}
+
+	// Saves the videos in chunks of SAVE_BATCH_SIZE, each one in its own
+	// transaction, just like VideoSvc.addVideos(). The repository threads
+	// don't keep an EntityManager open between transactions, so the saved
+	// Videos can be garbage collected as soon as their chunk is done. The
+	// result has one entry per video that is true if it was saved. A chunk
+	// whose transaction fails gets false for all of its videos, and the
+	// rest of the chunks are still saved.
+	public ListenableFuture<List<Boolean>> saveAll(final Collection<Video> all) {
+		return executor.submit(new Callable<List<Boolean>>() {
+			@Override
+			public List<Boolean> call() {
+				List<Boolean> results = new ArrayList<Boolean>(all.size());
+				for (List<Video> chunk : Lists.partition(new ArrayList<Video>(all), SAVE_BATCH_SIZE)) {
+					boolean saved;
+					try {
+						videos.save(chunk);
+						saved = true;
+					} catch (DataAccessException | TransactionException e) {
+						saved = false;
+					}
+					results.addAll(Collections.nCopies(chunk.size(), saved));
+				}
+				return results;
+			}
+		});
+	}
+
+	public ListenableFuture<Collection<Video>> findAll() {
+		return executor.submit(new Callable<Collection<Video>>() {
+			@Override
+			public Collection<Video> call() {
+				return Lists.newArrayList(videos.findAll());
+			}
+		});
+	}
+
+	// The future's result is null if there is no video with the id
+	public ListenableFuture<Video> findOne(final long id) {
+		return executor.submit(new Callable<Video>() {
+			@Override
+			public Video call() {
+				return videos.findOne(id);
+			}
+		});
+	}
+
+	public ListenableFuture<Collection<Video>> findByName(final String title) {
+		return executor.submit(new Callable<Collection<Video>>() {
+			@Override
+			public Collection<Video> call() {
+				return videos.findByName(title);
+			}
+		});
+	}
+
+	// The same keyset query as VideoRepository.findByIdGreaterThanOrderByIdAsc()
+	public ListenableFuture<List<Video>> findByIdGreaterThan(final long id, final int size) {
+		return executor.submit(new Callable<List<Video>>() {
+			@Override
+			public List<Video> call() {
+				return videos.findByIdGreaterThanOrderByIdAsc(id, new PageRequest(0, size));
+			}
+		});
+	}
+
+	// The same keyset query as VideoRepository.findByNameAndIdGreaterThanOrderByIdAsc()
+	public ListenableFuture<List<Video>> findByNameAndIdGreaterThan(final String title, final long id, final int size) {
+		return executor.submit(new Callable<List<Video>>() {
+			@Override
+			public List<Video> call() {
+				return videos.findByNameAndIdGreaterThanOrderByIdAsc(title, id, new PageRequest(0, size));
+			}
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+}
@@ -1,9 +1,11 @@
 package org.magnum.mobilecloud.video.repository;
 
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 
 import com.google.common.base.Objects;
 
@@ -13,11 +15,26 @@ import com.google.common.base.Objects;
  * @author jules
  * 
  */
+// VideoVersion is told about every insert, update, and delete so that
+// it can keep the ETags for the videos up to date
 @Entity
+@EntityListeners(VideoVersion.class)
 public class Video {
 
+	// The number of ids that Hibernate reserves from the database
+	// each time it reads the id sequence
+	public static final int ID_ALLOCATION_SIZE = 50;
+
+	// Ids come from a database sequence (or a table, on databases that
+	// don't have sequences) that hands out a block of ID_ALLOCATION_SIZE
+	// ids at a time. Hibernate assigns ids from the block in memory, so
+	// saving a Video doesn't need an extra round trip to get its id and
+	// the inserts can be sent to the database in JDBC batches. AUTO
+	// falls back to IDENTITY columns on many databases, which turns
+	// insert batching off entirely.
 	@Id
-	@GeneratedValue(strategy = GenerationType.AUTO)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "video_seq")
+	@SequenceGenerator(name = "video_seq", sequenceName = "video_seq", allocationSize = ID_ALLOCATION_SIZE)
 	private long id;
 
 	private String name;
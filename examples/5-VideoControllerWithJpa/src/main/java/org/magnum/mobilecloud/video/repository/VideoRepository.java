@@ -1,7 +1,9 @@
 package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
+import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
@@ -18,4 +20,14 @@ public interface VideoRepository extends CrudRepository<Video, Long>{
 	// Find all videos with a matching title (e.g., Video.name)
 	public Collection<Video> findByName(String title);
 	
+	// Find the next chunk of videos with an id greater than the last id
+	// that was seen, ordered by id. Because the query seeks directly to
+	// the id in the primary key index, each chunk costs the same no matter
+	// how far into the table it is (unlike OFFSET-based paging).
+	public List<Video> findByIdGreaterThanOrderByIdAsc(long id, Pageable chunk);
+	
+	// Find the next chunk of videos with a matching title, using the
+	// same keyset approach as findByIdGreaterThanOrderByIdAsc()
+	public List<Video> findByNameAndIdGreaterThanOrderByIdAsc(String title, long id, Pageable chunk);
+	
 }
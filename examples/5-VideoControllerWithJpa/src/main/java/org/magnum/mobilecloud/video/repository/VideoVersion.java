@@ -0,0 +1,82 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * A counter that goes up every time a Video is added, changed, or
+ * removed. Anything that is computed from the videos in the repository
+ * (the video list, one video, or the results of a search) can only have
+ * changed if the counter has changed, so the counter makes a cheap ETag
+ * for all of them. Checking it doesn't touch the database at all.
+ *
+ * Video registers this class as a JPA entity listener, so every save()
+ * and delete() that goes through the VideoRepository bumps the counter.
+ * Hibernate creates the listener itself (not Spring), which is why the
+ * counter is static.
+ *
+ * The ETag also includes the time that the server started. The counter
+ * starts over at zero on every restart, and without the start time a
+ * client could hold on to an ETag from before the restart that happens
+ * to match the new counter.
+ *
+ * @author jules
+ *
+ */
+public class VideoVersion {
+
+	private static final String EPOCH = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+	private static final AtomicLong version = new AtomicLong();
+
+	// The current version of the videos in the repository
+	public static long current() {
+		return version.get();
+	}
+
+	// A strong ETag for the current version. Read it before reading the
+	// videos: if a save commits in between, the response is tagged with
+	// the older version and the client just downloads it again next time.
+	public static String etag() {
+		return etag(current());
+	}
+
+	// The strong ETag for a version that was read earlier with current()
+	public static String etag(long version) {
+		return "\"" + EPOCH + "-" + Long.toString(version, Character.MAX_RADIX) + "\"";
+	}
+
+	// Called by JPA whenever a Video is inserted, updated, or deleted.
+	// JPA calls this when the change is flushed, which is before it is
+	// committed. A request that read the counter right then would tag the
+	// old videos with the new version, so when there is a transaction the
+	// counter is only bumped once the transaction has finished. A batch
+	// save changes many videos in one transaction, but only needs to bump
+	// the counter once, so the transaction is marked the first time.
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	public void videoChanged(Object video) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			if (!TransactionSynchronizationManager.hasResource(VideoVersion.class)) {
+				TransactionSynchronizationManager.bindResource(VideoVersion.class, Boolean.TRUE);
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCompletion(int status) {
+						TransactionSynchronizationManager.unbindResourceIfPossible(VideoVersion.class);
+						version.incrementAndGet();
+					}
+				});
+			}
+		} else {
+			version.incrementAndGet();
+		}
+	}
+
+}
@@ -1,10 +1,15 @@
 package org.magnum.mobilecloud.controller.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,6 +20,7 @@ import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
 
 /**
  * 
@@ -78,4 +84,27 @@ public class VideoSvcTest {
 		assertTrue(videos.contains(video));
 	}
 
+	// A chunk of a batch that can't be saved is reported as false for each
+	// of its videos, and the chunks before and after it are still saved
+	@Test
+	public void testVideoBatchWithFailedChunk() throws Exception {
+		when(videoRepository.save(anyListOf(Video.class)))
+			.thenReturn(null)
+			.thenThrow(new DataIntegrityViolationException("Duplicate video"))
+			.thenReturn(null);
+
+		List<Video> batch = new ArrayList<Video>();
+		for (int i = 0; i < VideoSvc.SAVE_BATCH_SIZE * 2 + 1; i++) {
+			batch.add(TestData.randomVideo());
+		}
+		List<Boolean> results = videoService.addVideos(batch);
+
+		assertEquals(batch.size(), results.size());
+		assertEquals(Collections.nCopies(VideoSvc.SAVE_BATCH_SIZE, Boolean.TRUE),
+				results.subList(0, VideoSvc.SAVE_BATCH_SIZE));
+		assertEquals(Collections.nCopies(VideoSvc.SAVE_BATCH_SIZE, Boolean.FALSE),
+				results.subList(VideoSvc.SAVE_BATCH_SIZE, VideoSvc.SAVE_BATCH_SIZE * 2));
+		assertTrue(results.get(VideoSvc.SAVE_BATCH_SIZE * 2));
+	}
+
 }
@@ -0,0 +1,441 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.controller.AsyncVideoSvc;
+import org.magnum.mobilecloud.video.repository.AsyncVideoRepository;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.boot.context.embedded.jetty.JettyEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.jetty.JettyEmbeddedServletContainerFactory;
+import org.springframework.boot.context.embedded.jetty.JettyServerCustomizer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+
+/**
+ *
+ * This test runs the Application on a free port (so, unlike the other
+ * integration tests, it doesn't need a running server) and compares the
+ * VideoSvc with the AsyncVideoSvc when CONNECTIONS clients (5000 by
+ * default, see the "benchmark.connections" system property) send a
+ * request at the same time.
+ *
+ * An in-memory H2 database answers far too quickly to keep a request
+ * waiting, so the test puts a SlowDatabase in front of the VideoRepository
+ * that makes each query take DATABASE_LATENCY ms and only lets
+ * DATABASE_CONNECTIONS of them run at once, like a real database server
+ * with a connection pool. The queries are slow enough that the database,
+ * not the CPU, is what limits the requests per second, which is the case
+ * that the AsyncVideoSvc is for. Both controllers should answer at about the
+ * same rate, but the VideoSvc needs a container thread for every request
+ * that is waiting on the database.
+ *
+ * The container is also given an accept queue that can hold all of the
+ * connections (the default is only 50). Otherwise most of the connections
+ * would spend their time in TCP retransmits before the server even sees
+ * them, and the test would mostly measure the kernel.
+ *
+ * The clients are non-blocking sockets that are all driven by the test's
+ * own thread, so every other thread in the JVM belongs to the server. For
+ * each controller the test reports:
+ *
+ * 1. The number of the container's threads that were busy (not idle in
+ *    its pool), sampled every SAMPLE_INTERVAL ms while the requests were
+ *    running, on average and at its peak. The peak mostly comes from the
+ *    moment that the connections arrive, when the container has to parse
+ *    and dispatch all of them at once (Jetty 8 also serializes some of its
+ *    bookkeeping for async requests, so they queue up there briefly).
+ * 2. The peak number of threads in the JVM. The container starts new
+ *    threads whenever a burst of connections arrives faster than it can
+ *    parse them, so on a machine with few CPUs this can be high for both
+ *    controllers even though most of the threads sit idle.
+ * 3. The p50 and p99 latency (from sending a request to getting all of its
+ *    response) and the requests per second
+ *
+ * The AsyncVideoSvc is measured first: the container doesn't get rid of
+ * idle threads for a minute, so the threads that the VideoSvc needed would
+ * still be counted.
+ *
+ * The test also checks that the AsyncVideoSvc answers the VideoSvcApi just
+ * like the VideoSvc.
+ *
+ * testConcurrentConnections() needs more file descriptors than a build
+ * machine may allow, so it needs -Dbenchmark=true; testSameApi() always runs.
+ *
+ * @author jules
+ *
+ */
+public class AsyncVideoSvcLoadTest {
+
+	private static final int CONNECTIONS = Integer.getInteger("benchmark.connections", 5000);
+
+	private static final long DATABASE_LATENCY = 200;
+
+	private static final int DATABASE_CONNECTIONS = AsyncVideoRepository.THREADS;
+
+	private static final int VIDEOS = 100;
+
+	// The number of connections that may be waiting to be accepted
+	// by the server at once
+	private static final int MAX_CONNECTING = 1000;
+
+	// How often the busy container threads are counted
+	private static final long SAMPLE_INTERVAL = 10;
+
+	// How long a whole round of requests may take
+	private static final long ROUND_TIMEOUT = 120 * 1000L;
+
+	private static ConfigurableApplicationContext context;
+
+	private static int port;
+
+	private static QueuedThreadPool containerThreads;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	@BeforeClass
+	public static void startServer() {
+		context = SpringApplication.run(new Object[] { Application.class, SlowDatabase.class, AcceptQueue.class },
+				new String[] { "--server.port=0", "--spring.jpa.show-sql=false" });
+		JettyEmbeddedServletContainer container = (JettyEmbeddedServletContainer)
+				((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer();
+		port = container.getPort();
+		containerThreads = (QueuedThreadPool) container.getServer().getThreadPool();
+	}
+
+	@AfterClass
+	public static void stopServer() {
+		context.close();
+	}
+
+	@Test
+	public void testSameApi() throws Exception {
+		VideoSvcApi blocking = client("");
+		VideoSvcApi async = client(AsyncVideoSvc.ASYNC_PATH);
+
+		Video video = TestData.randomVideo();
+		assertTrue(async.addVideo(video));
+		assertTrue(async.getVideoList().contains(video));
+		assertEquals(blocking.getVideoList(), async.getVideoList());
+
+		Collection<Video> found = async.findByTitle(video.getName());
+		assertEquals(Arrays.asList(video), new ArrayList<Video>(found));
+		long id = found.iterator().next().getId();
+		assertEquals(video, async.getVideoById(id));
+		try {
+			async.getVideoById(-1);
+			fail("There is no video with that id");
+		} catch (RetrofitError e) {
+			assertEquals(404, e.getResponse().getStatus());
+		}
+
+		List<Video> batch = Arrays.asList(TestData.randomVideo(), TestData.randomVideo(), TestData.randomVideo());
+		assertEquals(Arrays.asList(true, true, true), async.addVideos(batch));
+		assertTrue(blocking.getVideoList().containsAll(batch));
+
+		VideoPage first = async.getVideoPage(2, null);
+		VideoPage expected = blocking.getVideoPage(2, null);
+		assertEquals(new ArrayList<Video>(expected.getVideos()), new ArrayList<Video>(first.getVideos()));
+		assertEquals(expected.getNext(), first.getNext());
+		assertEquals(new ArrayList<Video>(blocking.getVideoPage(2, first.getNext()).getVideos()),
+				new ArrayList<Video>(async.getVideoPage(2, first.getNext()).getVideos()));
+		assertEquals(1, async.findByTitlePage(video.getName(), 10, null).getVideos().size());
+	}
+
+	@Test
+	public void testConcurrentConnections() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		VideoSvcApi blocking = client("");
+		List<Video> toAdd = new ArrayList<Video>();
+		for (int i = 0; i < VIDEOS; i++) {
+			toAdd.add(TestData.randomVideo());
+		}
+		blocking.addVideos(toAdd);
+		List<Long> ids = new ArrayList<Long>();
+		for (Video v : blocking.getVideoPage(VIDEOS, null).getVideos()) {
+			ids.add(v.getId());
+		}
+
+		// Warm up, then measure
+		load(AsyncVideoSvc.ASYNC_PATH, ids, CONNECTIONS / 10);
+		Round async = load(AsyncVideoSvc.ASYNC_PATH, ids, CONNECTIONS);
+		load("", ids, CONNECTIONS / 10);
+		Round sync = load("", ids, CONNECTIONS);
+
+		System.out.println(String.format("%,d concurrent connections, %d ms per query, %d database connections:",
+				CONNECTIONS, DATABASE_LATENCY, DATABASE_CONNECTIONS));
+		System.out.println("VideoSvc      " + sync);
+		System.out.println("AsyncVideoSvc " + async);
+
+		assertEquals(0, sync.errors);
+		assertEquals(0, async.errors);
+		assertTrue(async.averageBusyThreads() < sync.averageBusyThreads());
+	}
+
+	// Sends a GET for one of the videos over each of the given number of
+	// connections, all at the same time, and waits for all of the responses
+	private Round load(String prefix, List<Long> ids, int connections) throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", port);
+		Selector selector = Selector.open();
+		System.gc();
+		threads.resetPeakThreadCount();
+
+		Round round = new Round();
+		ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+		int opened = 0;
+		int connecting = 0;
+		int finished = 0;
+		long start = System.nanoTime();
+		long deadline = start + ROUND_TIMEOUT * 1000000L;
+		long nextSample = start;
+		long now;
+		while (finished < connections && (now = System.nanoTime()) < deadline) {
+			if (now >= nextSample) {
+				round.sampleBusyThreads(containerThreads.getThreads() - containerThreads.getIdleThreads());
+				nextSample = now + SAMPLE_INTERVAL * 1000000L;
+			}
+
+			// Open the connections as fast as the server accepts them.
+			// Once they are open, they all stay open until their
+			// response has been read.
+			while (opened < connections && connecting < MAX_CONNECTING) {
+				SocketChannel channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.connect(address);
+				String path = prefix + VideoSvcApi.VIDEO_SVC_PATH + "/" + ids.get(opened % ids.size());
+				channel.register(selector, SelectionKey.OP_CONNECT, new Request(path));
+				opened++;
+				connecting++;
+			}
+
+			selector.select(SAMPLE_INTERVAL);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				SocketChannel channel = (SocketChannel) key.channel();
+				Request request = (Request) key.attachment();
+				try {
+					if (key.isConnectable()) {
+						connecting--;
+						channel.finishConnect();
+						request.start = System.nanoTime();
+						channel.write(request.bytes);
+						key.interestOps(SelectionKey.OP_READ);
+					} else if (key.isReadable()) {
+						buffer.clear();
+						int read = channel.read(buffer);
+						if (read > 0) {
+							request.received(buffer);
+						} else if (read < 0) {
+							// The server closes the connection once the
+							// whole response has been sent
+							channel.close();
+							finished++;
+							if (request.isOk()) {
+								round.latencies.add(System.nanoTime() - request.start);
+							} else {
+								round.errors++;
+							}
+						}
+					}
+				} catch (IOException e) {
+					channel.close();
+					finished++;
+					round.errors++;
+				}
+			}
+		}
+		round.elapsed = System.nanoTime() - start;
+		round.errors += connections - finished;
+		round.peakThreads = threads.getPeakThreadCount();
+
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+		return round;
+	}
+
+	private VideoSvcApi client(String prefix) {
+		return new RestAdapter.Builder()
+				.setEndpoint("http://localhost:" + port + prefix).build()
+				.create(VideoSvcApi.class);
+	}
+
+	// One GET request and the start of its response
+	private static class Request {
+
+		private final ByteBuffer bytes;
+		private final StringBuilder statusLine = new StringBuilder();
+		private long start;
+
+		private Request(String path) {
+			bytes = ByteBuffer.wrap(("GET " + path + " HTTP/1.1\r\n"
+					+ "Host: localhost:" + port + "\r\n"
+					+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		}
+
+		private void received(ByteBuffer buffer) {
+			buffer.flip();
+			while (statusLine.length() < 12 && buffer.hasRemaining()) {
+				statusLine.append((char) buffer.get());
+			}
+		}
+
+		private boolean isOk() {
+			return statusLine.toString().equals("HTTP/1.1 200");
+		}
+	}
+
+	// What was measured in one round of requests
+	private static class Round {
+
+		private final List<Long> latencies = new ArrayList<Long>();
+		private long elapsed;
+		private int errors;
+		private long busyThreads;
+		private int samples;
+		private int peakBusyThreads;
+		private int peakThreads;
+
+		private void sampleBusyThreads(int busy) {
+			busyThreads += busy;
+			samples++;
+			peakBusyThreads = Math.max(peakBusyThreads, busy);
+		}
+
+		private double averageBusyThreads() {
+			return samples == 0 ? 0 : (double) busyThreads / samples;
+		}
+
+		private double percentile(double percent) {
+			List<Long> sorted = new ArrayList<Long>(latencies);
+			Collections.sort(sorted);
+			int rank = (int) Math.ceil(percent / 100 * sorted.size());
+			return sorted.get(Math.min(Math.max(rank, 1), sorted.size()) - 1) / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("busy container threads avg %5.1f peak %3d   JVM threads %4d   p50 %7.1f ms   p99 %7.1f ms   %,5.0f req/s   %d errors",
+					averageBusyThreads(), peakBusyThreads, peakThreads, percentile(50), percentile(99),
+					latencies.size() / (elapsed / 1e9), errors);
+		}
+	}
+
+	/**
+	 * Lets the container's accept queue hold all of the connections.
+	 */
+	@Configuration
+	public static class AcceptQueue {
+
+		@Bean
+		public EmbeddedServletContainerCustomizer acceptQueueCustomizer() {
+			return new EmbeddedServletContainerCustomizer() {
+				@Override
+				public void customize(ConfigurableEmbeddedServletContainer container) {
+					((JettyEmbeddedServletContainerFactory) container).addServerCustomizers(new JettyServerCustomizer() {
+						@Override
+						public void customize(Server server) {
+							for (Connector connector : server.getConnectors()) {
+								((AbstractConnector) connector).setAcceptQueueSize(CONNECTIONS);
+							}
+						}
+					});
+				}
+			};
+		}
+	}
+
+	/**
+	 * Makes the VideoRepository behave like a database on another server:
+	 * every query takes DATABASE_LATENCY ms, and no more than
+	 * DATABASE_CONNECTIONS of them run at the same time.
+	 */
+	@Configuration
+	public static class SlowDatabase {
+
+		@Bean
+		public static BeanPostProcessor slowVideoRepository() {
+			return new BeanPostProcessor() {
+				@Override
+				public Object postProcessBeforeInitialization(Object bean, String name) {
+					return bean;
+				}
+
+				@Override
+				public Object postProcessAfterInitialization(Object bean, String name) {
+					return bean instanceof VideoRepository ? slow((VideoRepository) bean) : bean;
+				}
+			};
+		}
+
+		private static VideoRepository slow(final VideoRepository videos) {
+			final Semaphore connections = new Semaphore(DATABASE_CONNECTIONS);
+			return (VideoRepository) Proxy.newProxyInstance(VideoRepository.class.getClassLoader(),
+					new Class<?>[] { VideoRepository.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getDeclaringClass() == Object.class) {
+								return method.invoke(videos, args);
+							}
+							connections.acquire();
+							try {
+								Thread.sleep(DATABASE_LATENCY);
+								return method.invoke(videos, args);
+							} catch (InvocationTargetException e) {
+								throw e.getCause();
+							} finally {
+								connections.release();
+							}
+						}
+					});
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.controller.VideoETagInterceptor;
+import org.magnum.mobilecloud.video.controller.VideoListCompressionFilter;
+import org.magnum.mobilecloud.video.controller.VideoSvc;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ *
+ * This test checks that the VideoListCompressionFilter gzips the video list
+ * for clients that ask for it, and that it keeps the gzipped list until a
+ * video changes. Then it measures how much CPU time it takes to answer
+ * GET /video:
+ *
+ * 1. without compression
+ * 2. with gzip, compressing every response again (the cache is turned off)
+ * 3. with gzip, from a warm cache
+ *
+ * The requests go through the filter, the DispatcherServlet, the
+ * VideoETagInterceptor and the VideoSvc on this thread, so the CPU time of
+ * this thread is the CPU time that it took to answer them.
+ *
+ * testCpuPerRequest() needs -Dbenchmark=true; the filter checks always run.
+ *
+ * @author jules
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoListCompressionBenchmarkTest {
+
+	// The number of videos in the list
+	private static final int VIDEOS = 500;
+
+	private static final int WARMUP_REQUESTS = 500;
+
+	private static final int REQUESTS = 2000;
+
+	@Autowired
+	private VideoSvc videoService;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Before
+	public void setUp() throws Exception {
+		for (long i = videos.count(); i < VIDEOS; i++) {
+			videos.save(TestData.randomVideo());
+		}
+	}
+
+	@Test
+	public void testGzipAndCache() throws Exception {
+		MockMvc mockMvc = mockMvc(new VideoListCompressionFilter());
+
+		MockHttpServletResponse plain = mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH))
+				.andReturn().getResponse();
+		assertEquals(200, plain.getStatus());
+		assertNull(plain.getHeader(VideoListCompressionFilter.CONTENT_ENCODING_HEADER));
+
+		MockHttpServletResponse gzipped = mockMvc.perform(gzip(get(VideoSvcApi.VIDEO_SVC_PATH)))
+				.andReturn().getResponse();
+		assertEquals(200, gzipped.getStatus());
+		assertEquals(VideoListCompressionFilter.GZIP, gzipped.getHeader(VideoListCompressionFilter.CONTENT_ENCODING_HEADER));
+		assertTrue(gzipped.getContentAsByteArray().length < plain.getContentAsByteArray().length / 2);
+		assertArrayEquals(plain.getContentAsByteArray(), gunzip(gzipped.getContentAsByteArray()));
+		String etag = gzipped.getHeader(VideoETagInterceptor.ETAG_HEADER);
+		assertTrue(etag.endsWith(VideoListCompressionFilter.GZIP_ETAG_SUFFIX + "\""));
+
+		// The second time, the same bytes come out of the cache
+		MockHttpServletResponse cached = mockMvc.perform(gzip(get(VideoSvcApi.VIDEO_SVC_PATH)))
+				.andReturn().getResponse();
+		assertArrayEquals(gzipped.getContentAsByteArray(), cached.getContentAsByteArray());
+		assertEquals(etag, cached.getHeader(VideoETagInterceptor.ETAG_HEADER));
+		assertEquals(gzipped.getContentType(), cached.getContentType());
+
+		// Sending the gzip ETag back works like sending the plain one
+		MockHttpServletResponse notModified = mockMvc.perform(gzip(get(VideoSvcApi.VIDEO_SVC_PATH))
+				.header(VideoETagInterceptor.IF_NONE_MATCH_HEADER, etag))
+				.andReturn().getResponse();
+		assertEquals(304, notModified.getStatus());
+		assertEquals(0, notModified.getContentAsByteArray().length);
+
+		// A new video makes the cached list stale
+		Video added = TestData.randomVideo();
+		videoService.addVideo(added);
+		MockHttpServletResponse changed = mockMvc.perform(gzip(get(VideoSvcApi.VIDEO_SVC_PATH))
+				.header(VideoETagInterceptor.IF_NONE_MATCH_HEADER, etag))
+				.andReturn().getResponse();
+		assertEquals(200, changed.getStatus());
+		assertFalse(etag.equals(changed.getHeader(VideoETagInterceptor.ETAG_HEADER)));
+		assertTrue(new String(gunzip(changed.getContentAsByteArray()), "UTF-8").contains(added.getName()));
+
+		// Small lists and clients that refuse gzip get the plain JSON
+		MockHttpServletResponse small = mockMvc.perform(gzip(get(VideoSvcApi.VIDEO_TITLE_SEARCH_PATH))
+				.param(VideoSvcApi.TITLE_PARAMETER, added.getName()))
+				.andReturn().getResponse();
+		assertNull(small.getHeader(VideoListCompressionFilter.CONTENT_ENCODING_HEADER));
+		assertTrue(small.getContentAsString().contains(added.getName()));
+
+		MockHttpServletResponse refused = mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH)
+				.header(VideoListCompressionFilter.ACCEPT_ENCODING_HEADER, "gzip;q=0, identity"))
+				.andReturn().getResponse();
+		assertNull(refused.getHeader(VideoListCompressionFilter.CONTENT_ENCODING_HEADER));
+
+		// A weight that isn't a number doesn't turn into a 500
+		MockHttpServletResponse malformed = mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH)
+				.header(VideoListCompressionFilter.ACCEPT_ENCODING_HEADER, "gzip;q=x"))
+				.andReturn().getResponse();
+		assertEquals(200, malformed.getStatus());
+		assertNull(malformed.getHeader(VideoListCompressionFilter.CONTENT_ENCODING_HEADER));
+	}
+
+	@Test
+	public void testCpuPerRequest() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		Result plain = measure("No compression", mockMvc(new VideoListCompressionFilter()), false);
+		Result uncached = measure("gzip, no cache", mockMvc(new VideoListCompressionFilter(0)), true);
+		Result cached = measure("gzip, warm cache", mockMvc(new VideoListCompressionFilter()), true);
+		System.out.println(plain);
+		System.out.println(uncached);
+		System.out.println(cached);
+
+		assertTrue(cached.bytes < plain.bytes);
+		assertTrue(cached.cpuMicros < uncached.cpuMicros);
+	}
+
+	private MockMvc mockMvc(VideoListCompressionFilter filter) {
+		// The same filter and interceptor that the Application adds
+		return MockMvcBuilders.standaloneSetup(videoService)
+				.addInterceptors(new VideoETagInterceptor())
+				.addFilter(filter, VideoSvcApi.VIDEO_SVC_PATH, VideoSvcApi.VIDEO_TITLE_SEARCH_PATH)
+				.build();
+	}
+
+	private static MockHttpServletRequestBuilder gzip(MockHttpServletRequestBuilder request) {
+		return request.header(VideoListCompressionFilter.ACCEPT_ENCODING_HEADER, "gzip, deflate");
+	}
+
+	private static byte[] gunzip(byte[] gzipped) throws Exception {
+		return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped)));
+	}
+
+	private Result measure(String name, MockMvc mockMvc, boolean gzip) throws Exception {
+		MockHttpServletRequestBuilder request = get(VideoSvcApi.VIDEO_SVC_PATH);
+		if (gzip) {
+			request = gzip(request);
+		}
+		MockHttpServletResponse response = null;
+		for (int i = 0; i < WARMUP_REQUESTS; i++) {
+			response = mockMvc.perform(request).andReturn().getResponse();
+		}
+		assertNotNull(response);
+		assertEquals(200, response.getStatus());
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long cpu = threads.getCurrentThreadCpuTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			mockMvc.perform(request);
+		}
+		cpu = threads.getCurrentThreadCpuTime() - cpu;
+
+		return new Result(name, response.getContentAsByteArray().length, cpu / 1e3 / REQUESTS);
+	}
+
+	private static class Result {
+
+		private final String name;
+		private final int bytes;
+		private final double cpuMicros;
+
+		private Result(String name, int bytes, double cpuMicros) {
+			this.name = name;
+			this.bytes = bytes;
+			this.cpuMicros = cpuMicros;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-18s %,7d bytes/response, %,9.1f us CPU/request (%d videos)",
+					name, bytes, cpuMicros, VIDEOS);
+		}
+	}
+
+}
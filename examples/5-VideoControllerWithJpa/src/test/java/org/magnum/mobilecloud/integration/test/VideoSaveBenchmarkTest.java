@@ -0,0 +1,111 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.web.ServletContextApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+/**
+ *
+ * This test measures how many videos per second can be saved with
+ * VideoRepository.save(Iterable) against the embedded H2 database, first
+ * with JDBC batching turned off and then with the Hibernate settings from
+ * application.properties (JDBC batches of 50 inserts, ordered inserts, and
+ * pooled sequence ids).
+ *
+ * Each run starts its own copy of the Application, since the Hibernate
+ * settings can't be changed once the EntityManagerFactory has been built.
+ * The command line arguments passed to the Application take precedence
+ * over application.properties. Like the other integration tests, the
+ * Application runs with a mock ServletContext instead of a real web
+ * container.
+ *
+ * Needs -Dbenchmark=true; VideoSvcIntegrationTest covers batched saves.
+ *
+ * @author jules
+ *
+ */
+public class VideoSaveBenchmarkTest {
+
+	private static final int VIDEO_COUNT = 50000;
+
+	// The number of videos saved by each call to save(Iterable), which
+	// is the same as the chunk size used by VideoSvc.addVideos()
+	private static final int CHUNK_SIZE = 500;
+
+	@Test
+	public void testBatchedInsertThroughput() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		List<Video> videos = new ArrayList<Video>(VIDEO_COUNT);
+		for (int i = 0; i < VIDEO_COUNT; i++) {
+			videos.add(TestData.randomVideo());
+		}
+
+		long unbatched = run(videos, "--spring.jpa.properties.hibernate.jdbc.batch_size=0");
+		long batched = run(videos);
+
+		System.out.println(String.format(
+				"save(Iterable) of %,d videos: unbatched %,10d rows/s, batched %,10d rows/s",
+				VIDEO_COUNT, perSecond(unbatched), perSecond(batched)));
+	}
+
+	// Start the Application with the given arguments, save all of the
+	// videos, and return how long the saves took
+	private long run(List<Video> videos, String... args) {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.web(false)
+				.contextClass(GenericWebApplicationContext.class)
+				.initializers(new ServletContextApplicationContextInitializer(new MockServletContext()))
+				.run(args);
+		try {
+			VideoRepository repository = context.getBean(VideoRepository.class);
+
+			// Warm up
+			save(repository, copy(videos.subList(0, CHUNK_SIZE * 4)));
+			repository.deleteAll();
+
+			List<Video> toSave = copy(videos);
+			long start = System.nanoTime();
+			save(repository, toSave);
+			long elapsed = System.nanoTime() - start;
+
+			assertEquals(VIDEO_COUNT, repository.count());
+			return elapsed;
+		} finally {
+			context.close();
+		}
+	}
+
+	private void save(VideoRepository repository, List<Video> videos) {
+		for (int i = 0; i < videos.size(); i += CHUNK_SIZE) {
+			repository.save(videos.subList(i, Math.min(i + CHUNK_SIZE, videos.size())));
+		}
+	}
+
+	// Save new Video objects each time, since save() assigns ids to the
+	// objects that are passed to it
+	private List<Video> copy(List<Video> videos) {
+		List<Video> copies = new ArrayList<Video>(videos.size());
+		for (Video v : videos) {
+			copies.add(new Video(v.getName(), v.getUrl(), v.getDuration()));
+		}
+		return copies;
+	}
+
+	private long perSecond(long nanos) {
+		return (long) (VIDEO_COUNT / (nanos / 1e9));
+	}
+
+}
@@ -1,19 +1,29 @@
 package org.magnum.mobilecloud.integration.test;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.magnum.mobilecloud.video.Application;
 import org.magnum.mobilecloud.video.TestData;
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.controller.VideoETagInterceptor;
 import org.magnum.mobilecloud.video.controller.VideoSvc;
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationContextLoader;
 import org.springframework.http.MediaType;
@@ -67,8 +77,11 @@ public class VideoSvcIntegrationTest {
 	@Before
 	public void setUp() {
 		// Setup Spring test in standalone mode with our VideoSvc object
-		// that it built
-		mockMvc = MockMvcBuilders.standaloneSetup(videoService).build();
+		// that it built and the same ETag interceptor that the Application
+		// adds
+		mockMvc = MockMvcBuilders.standaloneSetup(videoService)
+				.addInterceptors(new VideoETagInterceptor())
+				.build();
 	}
 	
 	// This test is the integration testing equivalent of the
@@ -100,4 +113,147 @@ public class VideoSvcIntegrationTest {
 	            .andReturn();
 	}
 
+	// This test adds several videos with the same title and then pages
+	// through the search results two at a time, following the continuation
+	// token from each page until there isn't one. Every video should come
+	// back exactly once and in the order it was added.
+	@Test
+	public void testVideoTitleSearchPaging() throws Exception {
+		Video first = TestData.randomVideo();
+		List<Video> added = new ArrayList<Video>();
+		for (int i = 0; i < 5; i++) {
+			Video video = TestData.randomVideo();
+			video.setName(first.getName());
+			videoService.addVideo(video);
+			added.add(video);
+		}
+		
+		List<Video> found = new ArrayList<Video>();
+		VideoPage page = videoService.findByTitlePage(first.getName(), 2, null);
+		found.addAll(page.getVideos());
+		while (page.getNext() != null) {
+			assertEquals(2, page.getVideos().size());
+			page = videoService.findByTitlePage(first.getName(), 2, page.getNext());
+			found.addAll(page.getVideos());
+		}
+		
+		assertEquals(added, found);
+		assertNull(page.getNext());
+	}
+
+	// This test sends the same videos to /video/batch twice, once as a
+	// JSON array and once as newline-delimited JSON, and checks that
+	// there is a result for every video and that they were all saved.
+	@Test
+	public void testVideoBatchAdd() throws Exception {
+		List<Video> videos = new ArrayList<Video>();
+		StringBuilder array = new StringBuilder();
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < 3; i++) {
+			Video video = TestData.randomVideo();
+			videos.add(video);
+			String videoJson = TestData.toJson(video);
+			array.append(i == 0 ? "[" : ",").append(videoJson);
+			ndjson.append(videoJson).append('\n');
+		}
+		array.append("]");
+		
+		mockMvc.perform(
+				post(VideoSvcApi.VIDEO_BATCH_PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+	            .content(array.toString()))
+	            .andExpect(status().isOk())
+	            .andExpect(content().string("[true,true,true]"));
+		
+		mockMvc.perform(
+				post(VideoSvcApi.VIDEO_BATCH_PATH)
+				.contentType(MediaType.valueOf(VideoSvcApi.NDJSON_CONTENT_TYPE))
+	            .content(ndjson.toString()))
+	            .andExpect(status().isOk())
+	            .andExpect(content().string("[true,true,true]"));
+		
+		for (Video video : videos) {
+			assertEquals(2, videoService.findByTitle(video.getName()).size());
+		}
+	}
+	
+	// A newline-delimited batch stops at the first line that can't be
+	// parsed. The response only has results for the videos before it,
+	// and nothing from that line on is saved.
+	@Test
+	public void testVideoBatchStopsAtMalformedLine() throws Exception {
+		Video first = TestData.randomVideo();
+		Video last = TestData.randomVideo();
+		String ndjson = TestData.toJson(first) + "\n{\"name\":\n" + TestData.toJson(last) + "\n";
+		
+		mockMvc.perform(
+				post(VideoSvcApi.VIDEO_BATCH_PATH)
+				.contentType(MediaType.valueOf(VideoSvcApi.NDJSON_CONTENT_TYPE))
+	            .content(ndjson))
+	            .andExpect(status().isOk())
+	            .andExpect(content().string("[true]"));
+		
+		assertEquals(1, videoService.findByTitle(first.getName()).size());
+		assertEquals(0, videoService.findByTitle(last.getName()).size());
+	}
+
+	// This test makes sure that a client that sends back the ETag from
+	// its last response gets a 304 Not Modified (and no body) until a
+	// video is added, and then gets the new list with a new ETag.
+	@Test
+	public void testConditionalGet() throws Exception {
+		Video video = TestData.randomVideo();
+		videoService.addVideo(video);
+		String byId = VideoSvcApi.VIDEO_SVC_PATH + "/" + video.getId();
+		
+		String etag = mockMvc.perform(
+				get(VideoSvcApi.VIDEO_SVC_PATH))
+	            .andExpect(status().isOk())
+	            .andReturn().getResponse().getHeader(VideoETagInterceptor.ETAG_HEADER);
+		assertNotNull(etag);
+		
+		mockMvc.perform(
+				get(VideoSvcApi.VIDEO_SVC_PATH)
+				.header(VideoETagInterceptor.IF_NONE_MATCH_HEADER, etag))
+	            .andExpect(status().isNotModified())
+	            .andExpect(header().string(VideoETagInterceptor.ETAG_HEADER, etag))
+	            .andExpect(content().string(""));
+		
+		mockMvc.perform(
+				get(byId)
+				.header(VideoETagInterceptor.IF_NONE_MATCH_HEADER, etag))
+	            .andExpect(status().isNotModified());
+		
+		mockMvc.perform(
+				get(VideoSvcApi.VIDEO_TITLE_SEARCH_PATH)
+				.param(VideoSvcApi.TITLE_PARAMETER, video.getName())
+				.header(VideoETagInterceptor.IF_NONE_MATCH_HEADER, "\"stale\", " + etag))
+	            .andExpect(status().isNotModified());
+		
+		mockMvc.perform(
+				get(byId))
+	            .andExpect(status().isOk())
+	            .andExpect(content().string(containsString(video.getName())));
+		
+		mockMvc.perform(
+				get(VideoSvcApi.VIDEO_SVC_PATH + "/" + (video.getId() + 1000000)))
+	            .andExpect(status().isNotFound());
+		
+		// Adding a video has to change the ETag
+		Video added = TestData.randomVideo();
+		mockMvc.perform(
+				post(VideoSvcApi.VIDEO_SVC_PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+	            .content(TestData.toJson(added)))
+	            .andExpect(status().isOk());
+		
+		String newEtag = mockMvc.perform(
+				get(VideoSvcApi.VIDEO_SVC_PATH)
+				.header(VideoETagInterceptor.IF_NONE_MATCH_HEADER, etag))
+	            .andExpect(status().isOk())
+	            .andExpect(content().string(containsString(added.getName())))
+	            .andReturn().getResponse().getHeader(VideoETagInterceptor.ETAG_HEADER);
+		assertNotEquals(etag, newEtag);
+	}
+
 }
@@ -0,0 +1,178 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.controller.VideoSvc;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ *
+ * This test compares the two ways that VideoSvc can send the list of videos
+ * to a client:
+ *
+ * 1. getVideoList(), which loads every Video into a Collection that Spring
+ *    then converts to JSON
+ * 2. writeVideoList(), which reads the videos in chunks and writes them
+ *    straight to the response with a streaming JsonGenerator
+ *
+ * For each approach, the test reports the peak heap used while the response
+ * is written and the time until the first byte of the response is produced.
+ * The response bytes are thrown away as they are written so that buffering
+ * the output doesn't skew the heap numbers.
+ *
+ * The number of videos can be changed with the "benchmark.videos" system
+ * property. The measurements need -Dbenchmark=true; the check that both
+ * approaches produce the same JSON always runs, on a small list.
+ *
+ * @author jules
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoSvcStreamingBenchmarkTest {
+
+	private static final int CHECKED_VIDEOS = 100;
+
+	@Autowired
+	private VideoSvc videoService;
+
+	@Autowired
+	private VideoRepository videoRepository;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void testStreamingAndBufferedListsMatch() throws Exception {
+		saveVideos(CHECKED_VIDEOS);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		writeBuffered(expected);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		videoService.writeVideoList(actual);
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+	}
+
+	@Test
+	public void testPeakHeapAndTimeToFirstByte() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		int count = Integer.getInteger("benchmark.videos", 50000);
+		saveVideos(count);
+
+		// Warm up
+		writeBuffered(new DiscardingOutputStream());
+		videoService.writeVideoList(new DiscardingOutputStream());
+
+		DiscardingOutputStream buffered = new DiscardingOutputStream();
+		long bufferedPeak = measurePeakHeap(buffered, false);
+
+		DiscardingOutputStream streamed = new DiscardingOutputStream();
+		long streamedPeak = measurePeakHeap(streamed, true);
+
+		System.out.println("Videos: " + count);
+		System.out.println("getVideoList()   peak heap: " + (bufferedPeak / 1024)
+				+ "KB, time to first byte: " + (buffered.getTimeToFirstByte() / 1000000) + "ms");
+		System.out.println("writeVideoList() peak heap: " + (streamedPeak / 1024)
+				+ "KB, time to first byte: " + (streamed.getTimeToFirstByte() / 1000000) + "ms");
+	}
+
+	private void saveVideos(int count) {
+		videoRepository.deleteAll();
+		List<Video> toAdd = new ArrayList<Video>();
+		for (int i = 0; i < count; i++) {
+			toAdd.add(TestData.randomVideo());
+		}
+		videoRepository.save(toAdd);
+	}
+
+	// This is what Spring's MappingJackson2HttpMessageConverter does with
+	// the Collection that getVideoList() returns
+	private void writeBuffered(OutputStream out) throws IOException {
+		mapper.writeValue(out, videoService.getVideoList());
+	}
+
+	private long measurePeakHeap(DiscardingOutputStream out, boolean streaming) throws IOException {
+		System.gc();
+		List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+		long before = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heapPools.add(pool);
+				before += pool.getUsage().getUsed();
+			}
+		}
+
+		out.start();
+		if (streaming) {
+			videoService.writeVideoList(out);
+		} else {
+			writeBuffered(out);
+		}
+
+		long peak = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		return peak - before;
+	}
+
+	// An OutputStream that throws away everything written to it, but
+	// remembers how long it took for the first byte to show up
+	private static class DiscardingOutputStream extends OutputStream {
+
+		private long start = System.nanoTime();
+		private long firstByte = -1;
+
+		public void start() {
+			start = System.nanoTime();
+			firstByte = -1;
+		}
+
+		@Override
+		public void write(int b) {
+			markFirstByte();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			markFirstByte();
+		}
+
+		private void markFirstByte() {
+			if (firstByte < 0) {
+				firstByte = System.nanoTime();
+			}
+		}
+
+		public long getTimeToFirstByte() {
+			return firstByte - start;
+		}
+	}
+
+}
@@ -1,9 +1,11 @@
 package org.magnum.mobilecloud.video.client;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.repository.Category;
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -29,6 +31,16 @@ import retrofit.http.Query;
 public interface VideoSvcApi {
 	
 	public static final String TITLE_PARAMETER = "title";
+	
+	// The maximum number of videos to return in one page
+	public static final String LIMIT_PARAMETER = "limit";
+	
+	// The continuation token from the previous page
+	public static final String AFTER_PARAMETER = "after";
+	
+	// The largest page that the VideoSvc will return, no matter
+	// what limit the client asks for
+	public static final int MAX_PAGE_SIZE = 100;
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
@@ -39,6 +51,14 @@ public interface VideoSvcApi {
 	// The path to search videos by title
 	public static final String VIDEO_TITLE_SEARCH_PATH = VIDEO_SVC_PATH + "/find";
 
+	// The path to add a batch of videos in one request
+	public static final String VIDEO_BATCH_PATH = VIDEO_SVC_PATH + "/batch";
+
+	// The content type for a batch of videos that is sent as
+	// newline-delimited JSON (one Video object per line) instead
+	// of as a JSON array
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
@@ -51,7 +71,25 @@ public interface VideoSvcApi {
 	@GET(VIDEO_SVC_PATH+"/{category}")
 	public Collection<Video> getVideoListForCategory(@Path("category") String categoryName);
 	
+	// Get one page of the videos in a category. Pass a null "after" token
+	// to get the first page and then the VideoPage.getNext() token from
+	// each page to get the page after it. Retrofit leaves null parameters
+	// out of the query string.
+	@GET(VIDEO_SVC_PATH+"/{category}")
+	public VideoPage getVideoPageForCategory(@Path("category") String categoryName,
+			@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
 	@POST(CATEGORY_SVC_PATH)
 	public boolean addCategory(@Body Category c);
 	
+	// Add a batch of videos in one request. The result has one
+	// entry for each video, in the same order, that is true if
+	// the video was added. A video is false if its Category
+	// doesn't exist, or if it is in a chunk of the batch that
+	// couldn't be saved. The other chunks are still saved, so
+	// resend just the videos that got false.
+	@POST(VIDEO_BATCH_PATH)
+	public List<Boolean> addVideos(@Body Collection<Video> v);
+	
 }
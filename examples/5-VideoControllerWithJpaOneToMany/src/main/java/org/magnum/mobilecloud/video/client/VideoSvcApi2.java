@@ -1,6 +1,7 @@
 package org.magnum.mobilecloud.video.client;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.repositorywithoutonetomany.Category2;
 import org.magnum.mobilecloud.video.repositorywithoutonetomany.Video2;
@@ -35,6 +36,9 @@ public interface VideoSvcApi2 {
 	// The path to search videos by title
 	public static final String VIDEO_TITLE_SEARCH_PATH = VIDEO_SVC_PATH + "/find";
 
+	// The path to add a batch of videos in one request
+	public static final String VIDEO_BATCH_PATH = VIDEO_SVC_PATH + "/batch";
+
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video2> getVideoList();
 	
@@ -50,4 +54,13 @@ public interface VideoSvcApi2 {
 	@POST(CATEGORY_SVC_PATH)
 	public boolean addCategory(@Body Category2 c);
 	
+	// Add a batch of videos in one request. The result has one
+	// entry for each video, in the same order, that is true if
+	// the video was added. A video is false if its Category
+	// doesn't exist, or if it is in a chunk of the batch that
+	// couldn't be saved. The other chunks are still saved, so
+	// resend just the videos that got false.
+	@POST(VIDEO_BATCH_PATH)
+	public List<Boolean> addVideos(@Body Collection<Video2> v);
+	
 }
@@ -1,22 +1,38 @@
 package org.magnum.mobilecloud.video.controller;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.repository.Category;
 import org.magnum.mobilecloud.video.repository.CategoryRepository;
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.TransactionException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
 
 /**
@@ -59,6 +75,12 @@ public class VideoSvc implements VideoSvcApi {
 	
 	@Autowired
 	private CategoryRepository categories;
+	
+	// The number of videos from a batch request that are saved
+	// in each call to VideoRepository.save(Iterable)
+	public static final int SAVE_BATCH_SIZE = 500;
+	
+	private final ObjectMapper mapper = new ObjectMapper();
 
 	// Receives POST requests to /video and converts the HTTP
 	// request body, which should contain json, into a Video
@@ -121,10 +143,45 @@ public class VideoSvc implements VideoSvcApi {
 	
 	// Receives GET requests to /video/{category} and returns the current
 	// list of videos that are part of the specified category.
+	//
+	// The videos are loaded with one join fetch query. Looking up the
+	// Category and then calling Category.getVideos() would take one query
+	// for the Category and another for its lazy collection of videos.
+	// An unknown category has no videos, so it gets an empty list.
 	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH+"/{category}", method=RequestMethod.GET)
 	public @ResponseBody Collection<Video> getVideoListForCategory(@PathVariable("category") String categoryName){
-		Category c = categories.findOne(categoryName);
-		return (c != null) ? Lists.newArrayList(c.getVideos()) : new ArrayList<Video>();
+		return videos.findByCategory(categoryName);
+	}
+	
+	// Receives GET requests to /video/{category} that include a "limit"
+	// parameter and returns one page of the videos in the category plus
+	// a token for the next page. A large category no longer has to be
+	// loaded all at once. The "params" in the @RequestMapping is what
+	// sends requests with a limit here instead of to
+	// getVideoListForCategory().
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH+"/{category}", method=RequestMethod.GET, params=LIMIT_PARAMETER)
+	public @ResponseBody VideoPage getVideoPageForCategory(
+			@PathVariable("category") String categoryName,
+			@RequestParam(LIMIT_PARAMETER) int limit,
+			@RequestParam(value=AFTER_PARAMETER, required=false) String after
+	){
+		int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+		long lastId = VideoPage.fromCursor(after, Long.MIN_VALUE);
+		// Ask for one extra row so that we know if there is another page
+		List<Video> rows = videos.findByCategoryAfter(categoryName, lastId,
+				new PageRequest(0, size + 1));
+		if (rows.size() <= size) {
+			return new VideoPage(rows, null);
+		}
+		List<Video> page = rows.subList(0, size);
+		return new VideoPage(page, VideoPage.toCursor(page.get(size - 1).getId()));
+	}
+	
+	// Continuation tokens that weren't created by getVideoPageForCategory()
+	// are reported to the client as a 400 Bad Request
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void badRequest() {
 	}
 	
 	
@@ -139,5 +196,115 @@ public class VideoSvc implements VideoSvcApi {
 	){
 		return videos.findByName(title);
 	}
+	
+	// Receives POST requests to /video/batch with a JSON array of
+	// videos and saves all of them. One request replaces a round trip
+	// per video. The response has one result per video, in the same
+	// order as the request.
+	//
+	// A video whose Category doesn't exist is skipped and its result
+	// is false, instead of failing the whole batch.
+	//
+	// The videos are saved in chunks of SAVE_BATCH_SIZE. Each chunk is
+	// saved with a single save(Iterable) call, which runs in one
+	// transaction and lets Hibernate group the inserts into JDBC
+	// batches instead of committing every row on its own.
+	//
+	// A chunk is saved all or nothing. If its transaction fails, all of
+	// its videos get a false result, but the chunks before it stay saved
+	// and the chunks after it are still tried, so a client only needs to
+	// resend the videos that got false.
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody List<Boolean> addVideos(@RequestBody Collection<Video> v){
+		Batch batch = new Batch();
+		for (Video video : v) {
+			batch.add(video);
+		}
+		return batch.finish();
+	}
+	
+	// Receives POST requests to /video/batch with a newline-delimited
+	// JSON body (one video per line). Jackson's MappingIterator parses
+	// the videos one at a time as they are read from the request, so
+	// only one chunk of the batch is ever held in memory. The batch
+	// stops at the first line that can't be parsed, since the parser
+	// can't be trusted to find the start of the next video after an
+	// error. The response only has results for the lines before it, so
+	// every video from that line on was not saved.
+	@RequestMapping(value=VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST, consumes=NDJSON_CONTENT_TYPE)
+	public @ResponseBody List<Boolean> addVideoStream(HttpServletRequest request) throws IOException {
+		MappingIterator<Video> stream = mapper.reader(Video.class).readValues(request.getInputStream());
+		Batch batch = new Batch();
+		try {
+			while (stream.hasNextValue()) {
+				batch.add(stream.nextValue());
+			}
+		} catch (JsonProcessingException e) {
+			// The batch ends at the line that couldn't be parsed
+		}
+		return batch.finish();
+	}
+	
+	// The results of one batch request. The videos are saved in chunks
+	// of SAVE_BATCH_SIZE as they are added, as described at addVideos().
+	private class Batch {
+		
+		private final List<Boolean> results = new ArrayList<Boolean>();
+		
+		private final List<Video> chunk = new ArrayList<Video>(SAVE_BATCH_SIZE);
+		
+		// Where the result of each video in the chunk is
+		private final List<Integer> positions = new ArrayList<Integer>(SAVE_BATCH_SIZE);
+		
+		private final Map<String, Boolean> known = new HashMap<String, Boolean>();
+		
+		void add(Video video) {
+			boolean valid = video.getCategory() == null
+					|| categoryExists(video.getCategory().getName(), known);
+			if (valid) {
+				chunk.add(video);
+				positions.add(results.size());
+			}
+			results.add(valid);
+			if (chunk.size() == SAVE_BATCH_SIZE) {
+				saveChunk();
+			}
+		}
+		
+		List<Boolean> finish() {
+			saveChunk();
+			return results;
+		}
+		
+		private void saveChunk() {
+			if (chunk.isEmpty()) {
+				return;
+			}
+			try {
+				videos.save(chunk);
+			} catch (DataAccessException | TransactionException e) {
+				for (int position : positions) {
+					results.set(position, false);
+				}
+			}
+			chunk.clear();
+			positions.clear();
+		}
+	}
+	
+	// Checks if a Category exists. The answers are remembered in the
+	// known map so that each Category is only looked up once per
+	// batch, no matter how many of the videos refer to it.
+	private boolean categoryExists(String name, Map<String, Boolean> known) {
+		if (name == null) {
+			return false;
+		}
+		Boolean exists = known.get(name);
+		if (exists == null) {
+			exists = categories.exists(name);
+			known.put(name, exists);
+		}
+		return exists;
+	}
 
 }
@@ -1,6 +1,13 @@
 package org.magnum.mobilecloud.video.controller;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.repositorywithoutonetomany.Category2;
@@ -8,7 +15,9 @@ import org.magnum.mobilecloud.video.repositorywithoutonetomany.CategoryRepositor
 import org.magnum.mobilecloud.video.repositorywithoutonetomany.Video2;
 import org.magnum.mobilecloud.video.repositorywithoutonetomany.VideoRepository2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.TransactionException;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -16,6 +25,9 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
 
 /**
@@ -58,6 +70,12 @@ public class VideoSvc2 {
 	
 	@Autowired
 	private CategoryRepository2 categories;
+	
+	// The number of videos from a batch request that are saved
+	// in each call to VideoRepository2.save(Iterable)
+	public static final int SAVE_BATCH_SIZE = 500;
+	
+	private final ObjectMapper mapper = new ObjectMapper();
 
 	// Receives POST requests to /video and converts the HTTP
 	// request body, which should contain json, into a Video
@@ -139,5 +157,114 @@ public class VideoSvc2 {
 	){
 		return videos.findByName(title);
 	}
+	
+	// Receives POST requests to /2/video/batch with a JSON array of
+	// videos and saves all of them. The response has one result per
+	// video, in the same order as the request.
+	//
+	// Unlike addVideo(), an unknown Category doesn't throw an exception.
+	// The video is skipped and its result is false so that the rest of
+	// the batch can still be saved.
+	//
+	// The videos are saved in chunks of SAVE_BATCH_SIZE. Each chunk is
+	// saved with a single save(Iterable) call, which runs in one
+	// transaction and lets Hibernate group the inserts into JDBC
+	// batches instead of committing every row on its own.
+	//
+	// A chunk is saved all or nothing. If its transaction fails, all of
+	// its videos get a false result, but the chunks before it stay saved
+	// and the chunks after it are still tried, so a client only needs to
+	// resend the videos that got false.
+	@RequestMapping(value= "/2" + VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody List<Boolean> addVideos(@RequestBody Collection<Video2> v){
+		Batch batch = new Batch();
+		for (Video2 video : v) {
+			batch.add(video);
+		}
+		return batch.finish();
+	}
+	
+	// Receives POST requests to /2/video/batch with a newline-delimited
+	// JSON body (one video per line). Jackson's MappingIterator parses
+	// the videos one at a time as they are read from the request, so
+	// only one chunk of the batch is ever held in memory. The batch
+	// stops at the first line that can't be parsed, since the parser
+	// can't be trusted to find the start of the next video after an
+	// error. The response only has results for the lines before it, so
+	// every video from that line on was not saved.
+	@RequestMapping(value= "/2" + VideoSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST, consumes=VideoSvcApi.NDJSON_CONTENT_TYPE)
+	public @ResponseBody List<Boolean> addVideoStream(HttpServletRequest request) throws IOException {
+		MappingIterator<Video2> stream = mapper.reader(Video2.class).readValues(request.getInputStream());
+		Batch batch = new Batch();
+		try {
+			while (stream.hasNextValue()) {
+				batch.add(stream.nextValue());
+			}
+		} catch (JsonProcessingException e) {
+			// The batch ends at the line that couldn't be parsed
+		}
+		return batch.finish();
+	}
+	
+	// The results of one batch request. The videos are saved in chunks
+	// of SAVE_BATCH_SIZE as they are added, as described at addVideos().
+	private class Batch {
+		
+		private final List<Boolean> results = new ArrayList<Boolean>();
+		
+		private final List<Video2> chunk = new ArrayList<Video2>(SAVE_BATCH_SIZE);
+		
+		// Where the result of each video in the chunk is
+		private final List<Integer> positions = new ArrayList<Integer>(SAVE_BATCH_SIZE);
+		
+		private final Map<String, Boolean> known = new HashMap<String, Boolean>();
+		
+		void add(Video2 video) {
+			boolean valid = categoryExists(video.getCategory(), known);
+			if (valid) {
+				chunk.add(video);
+				positions.add(results.size());
+			}
+			results.add(valid);
+			if (chunk.size() == SAVE_BATCH_SIZE) {
+				saveChunk();
+			}
+		}
+		
+		List<Boolean> finish() {
+			saveChunk();
+			return results;
+		}
+		
+		private void saveChunk() {
+			if (chunk.isEmpty()) {
+				return;
+			}
+			try {
+				videos.save(chunk);
+			} catch (DataAccessException | TransactionException e) {
+				for (int position : positions) {
+					results.set(position, false);
+				}
+			}
+			chunk.clear();
+			positions.clear();
+		}
+	}
+	
+	// Checks if a Category exists. The answers are remembered in the
+	// known map so that each Category is only looked up once per
+	// batch, no matter how many of the videos refer to it.
+	private boolean categoryExists(String name, Map<String, Boolean> known) {
+		if (name == null) {
+			return false;
+		}
+		Boolean exists = known.get(name);
+		if (exists == null) {
+			exists = categories.exists(name);
+			known.put(name, exists);
+		}
+		return exists;
+	}
 
 }
@@ -1,7 +1,10 @@
 package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
+import java.util.List;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
@@ -18,4 +21,18 @@ public interface VideoRepository extends CrudRepository<Video, Long>{
 	// Find all videos with a matching title (e.g., Video.name)
 	public Collection<Video> findByName(String title);
 	
+	// Find all videos in a category with a single query. The "join fetch"
+	// loads each Video's Category in the same query, instead of loading
+	// the Category first and then walking its lazy Category.videos
+	// collection with a second query.
+	@Query("select v from Video v join fetch v.category c where c.name = ?1 order by v.id")
+	public List<Video> findByCategory(String category);
+	
+	// Find the next videos in a category whose ids are greater than the
+	// given id, in id order. The Pageable limits how many are returned,
+	// so each page is its own small query that seeks straight to the
+	// last id that the client saw.
+	@Query("select v from Video v join fetch v.category c where c.name = ?1 and v.id > ?2 order by v.id")
+	public List<Video> findByCategoryAfter(String category, long id, Pageable chunk);
+	
 }
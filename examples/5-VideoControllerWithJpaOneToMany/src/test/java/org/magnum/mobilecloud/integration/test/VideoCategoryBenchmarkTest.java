@@ -0,0 +1,176 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.controller.VideoSvc;
+import org.magnum.mobilecloud.video.controller.VideoSvc2;
+import org.magnum.mobilecloud.video.repository.Category;
+import org.magnum.mobilecloud.video.repository.CategoryRepository;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.magnum.mobilecloud.video.repositorywithoutonetomany.Category2;
+import org.magnum.mobilecloud.video.repositorywithoutonetomany.CategoryRepository2;
+import org.magnum.mobilecloud.video.repositorywithoutonetomany.Video2;
+import org.magnum.mobilecloud.video.repositorywithoutonetomany.VideoRepository2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+/**
+ *
+ * This test compares the two designs for looking up the videos in a
+ * category:
+ *
+ * 1. VideoSvc, where Video has a @ManyToOne Category and the videos are
+ *    loaded with a join fetch query
+ * 2. VideoSvc2, where Video2 stores the name of its category as a plain
+ *    string column
+ *
+ * It also times VideoSvc.getVideoPageForCategory(), which only loads one
+ * page of the category.
+ *
+ * Each design gets one category with 100k videos in it (the count can be
+ * changed with the "benchmark.videos" system property). For each lookup,
+ * the test reports the average time per call and the average number of
+ * bytes allocated per call by the calling thread.
+ *
+ * Needs -Dbenchmark=true.
+ *
+ * @author jules
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoCategoryBenchmarkTest {
+
+	private static final int RUNS = 5;
+
+	private static final int SAVE_CHUNK_SIZE = 500;
+
+	@Autowired
+	private VideoSvc videoService;
+
+	@Autowired
+	private VideoSvc2 videoService2;
+
+	@Autowired
+	private CategoryRepository categories;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private CategoryRepository2 categories2;
+
+	@Autowired
+	private VideoRepository2 videos2;
+
+	@Test
+	public void testCategoryLookups() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		final int count = Integer.getInteger("benchmark.videos", 100000);
+		final String name = "Category-" + UUID.randomUUID().toString();
+		addVideos(name, count);
+
+		report(count, "VideoSvc (@OneToMany, join fetch)", new Lookup() {
+			public int run() {
+				return videoService.getVideoListForCategory(name).size();
+			}
+		}, count);
+
+		report(count, "VideoSvc2 (string category)", new Lookup() {
+			public int run() {
+				return videoService2.getVideoListForCategory(name).size();
+			}
+		}, count);
+
+		report(count, "VideoSvc first page", new Lookup() {
+			public int run() {
+				VideoPage page = videoService.getVideoPageForCategory(name,
+						VideoSvcApi.MAX_PAGE_SIZE, null);
+				return page.getVideos().size();
+			}
+		}, Math.min(count, VideoSvcApi.MAX_PAGE_SIZE));
+	}
+
+	// Add the same number of videos to a category with each design
+	private void addVideos(String name, int count) {
+		Category category = new Category();
+		category.setName(name);
+		categories.save(category);
+
+		Category2 category2 = new Category2();
+		category2.setName(name);
+		categories2.save(category2);
+
+		List<Video> chunk = new ArrayList<Video>(SAVE_CHUNK_SIZE);
+		List<Video2> chunk2 = new ArrayList<Video2>(SAVE_CHUNK_SIZE);
+		for (int i = 0; i < count; i++) {
+			Video v = new Video("Video-" + i, "http://coursera.org/some/video-" + i, i);
+			v.setCategory(category);
+			chunk.add(v);
+
+			Video2 v2 = new Video2("Video-" + i, "http://coursera.org/some/video-" + i, i);
+			v2.setCategory(name);
+			chunk2.add(v2);
+
+			if (chunk.size() == SAVE_CHUNK_SIZE || i == count - 1) {
+				videos.save(chunk);
+				videos2.save(chunk2);
+				chunk.clear();
+				chunk2.clear();
+			}
+		}
+	}
+
+	private void report(int count, String name, Lookup lookup, int expected) {
+		// Warm up
+		assertEquals(expected, lookup.run());
+
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			assertEquals(expected, lookup.run());
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+
+		System.out.println(String.format("%-36s %,9d videos: %,8d ms, %,14d bytes allocated per call",
+				name, count, elapsed / RUNS / 1000000, allocated / RUNS));
+	}
+
+	// The number of bytes that the current thread has allocated so far,
+	// or 0 if the JVM can't measure it
+	private long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	private interface Lookup {
+		// Look the category up and return the number of videos found
+		public int run();
+	}
+
+}
@@ -1,11 +1,15 @@
 package org.magnum.mobilecloud.integration.test;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,6 +18,7 @@ import org.magnum.mobilecloud.video.TestData;
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.controller.VideoSvc;
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationContextLoader;
 import org.springframework.http.MediaType;
@@ -100,4 +105,61 @@ public class VideoSvcIntegrationTest {
 	            .andReturn();
 	}
 
+	// This test adds several videos to a category and then pages through
+	// the category two videos at a time, following the continuation token
+	// from each page until there isn't one. Every video should come back
+	// exactly once and in the order it was added, and the whole list
+	// should match.
+	@Test
+	public void testVideoCategoryPaging() throws Exception {
+		Video first = TestData.randomVideo();
+		videoService.addCategory(first.getCategory());
+		List<Video> added = new ArrayList<Video>();
+		for (int i = 0; i < 5; i++) {
+			Video video = TestData.randomVideo();
+			video.setCategory(first.getCategory());
+			videoService.addVideo(video);
+			added.add(video);
+		}
+		String category = first.getCategory().getName();
+		
+		List<Video> found = new ArrayList<Video>();
+		VideoPage page = videoService.getVideoPageForCategory(category, 2, null);
+		found.addAll(page.getVideos());
+		while (page.getNext() != null) {
+			assertEquals(2, page.getVideos().size());
+			page = videoService.getVideoPageForCategory(category, 2, page.getNext());
+			found.addAll(page.getVideos());
+		}
+		
+		assertEquals(added, found);
+		assertEquals(added, new ArrayList<Video>(videoService.getVideoListForCategory(category)));
+	}
+
+	// This test sends a batch of videos as newline-delimited JSON. The
+	// video whose Category doesn't exist gets a false result, and the
+	// batch stops at the line that can't be parsed, so there are no
+	// results for it or for the video after it.
+	@Test
+	public void testVideoBatchStream() throws Exception {
+		Video first = TestData.randomVideo();
+		videoService.addCategory(first.getCategory());
+		Video second = TestData.randomVideo();
+		Video last = TestData.randomVideo();
+		last.setCategory(first.getCategory());
+		String ndjson = TestData.toJson(first) + "\n" + TestData.toJson(second) + "\n{\"name\":\n"
+				+ TestData.toJson(last) + "\n";
+		
+		mockMvc.perform(
+				post(VideoSvcApi.VIDEO_BATCH_PATH)
+				.contentType(MediaType.valueOf(VideoSvcApi.NDJSON_CONTENT_TYPE))
+	            .content(ndjson))
+	            .andExpect(status().isOk())
+	            .andExpect(content().string("[true,false]"));
+		
+		assertEquals(1, videoService.findByTitle(first.getName()).size());
+		assertEquals(0, videoService.findByTitle(second.getName()).size());
+		assertEquals(0, videoService.findByTitle(last.getName()).size());
+	}
+
 }
@@ -1,12 +1,21 @@
 package org.magnum.mobilecloud.video;
 
+import javax.persistence.EntityManagerFactory;
+
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.json.ResourcesMapper;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoCacheMetrics;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.reader.MetricReader;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.data.rest.core.config.RepositoryRestConfiguration;
 import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguration;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
@@ -53,9 +62,36 @@ public class Application extends RepositoryRestMvcConfiguration {
 	// client.
 	//
 	// See the ResourcesMapper class for more details.
+	//
+	// The GET requests that return lists of videos (e.g., GET /video)
+	// never reach Spring Data Rest or this ObjectMapper. They are answered
+	// by the VideoListHandlerMapping, which writes the same JSON directly.
 	@Override
 	public ObjectMapper halObjectMapper(){
 		return new ResourcesMapper();
 	}
+	
+	// Replace the default PublicMetrics with one that also reports the
+	// hit, miss, and put counts for the Video cache and the query cache
+	// on the Actuator's /metrics endpoint
+	@Bean
+	public PublicMetrics publicMetrics(MetricReader metricRepository,
+			EntityManagerFactory entityManagerFactory) {
+		return new VideoCacheMetrics(metricRepository, entityManagerFactory);
+	}
+	
+	// Spring Data Rest reads the page size for search methods that take
+	// a Pageable from the "size" parameter by default. We tell it to use
+	// the "limit" parameter from our VideoSvcApi instead and to cap the
+	// page size so that clients always get bounded responses. It also
+	// writes each Video's id, as the VideoJsonWriter does, so that the
+	// same search gets the same JSON from either of them.
+	@Override
+	protected void configureRepositoryRestConfiguration(
+			RepositoryRestConfiguration config) {
+		config.setLimitParamName(VideoSvcApi.LIMIT_PARAMETER);
+		config.setMaxPageSize(VideoSvcApi.MAX_PAGE_SIZE);
+		config.exposeIdsFor(Video.class);
+	}
 
 }
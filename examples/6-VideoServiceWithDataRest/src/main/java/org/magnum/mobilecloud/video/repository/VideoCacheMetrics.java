@@ -0,0 +1,65 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.actuate.endpoint.VanillaPublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.actuate.metrics.reader.MetricReader;
+
+/**
+ * Adds the Hibernate cache statistics to the metrics that the Actuator
+ * reports on /metrics:
+ *
+ * cache.video.hits     - Videos that were found in the Video cache region
+ * cache.video.misses   - Videos that had to be loaded from the database
+ * cache.video.puts     - Videos that were added to the Video cache region
+ * cache.video.size     - Videos that are in the Video cache region now
+ * cache.query.hits     - Searches that were answered from the query cache
+ * cache.query.misses   - Searches that had to go to the database
+ * cache.query.puts     - Search results that were added to the query cache
+ *
+ * A low hit rate with a video cache that is always full means that the
+ * maxElementsInMemory for the region in ehcache.xml is too small. The counts
+ * are only collected when hibernate.generate_statistics is turned on, which
+ * is what -Dvideo.cacheStatistics=true does (see application.properties).
+ * Otherwise they all stay at 0.
+ *
+ * @author jules
+ *
+ */
+public class VideoCacheMetrics extends VanillaPublicMetrics {
+
+	private final EntityManagerFactory entityManagerFactory;
+
+	public VideoCacheMetrics(MetricReader reader, EntityManagerFactory entityManagerFactory) {
+		super(reader);
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>(super.metrics());
+		Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		// The region is null if the second-level cache is turned off
+		SecondLevelCacheStatistics videos = stats.getSecondLevelCacheStatistics(Video.CACHE_REGION);
+		if (videos != null) {
+			metrics.add(new Metric<Long>("cache.video.hits", videos.getHitCount()));
+			metrics.add(new Metric<Long>("cache.video.misses", videos.getMissCount()));
+			metrics.add(new Metric<Long>("cache.video.puts", videos.getPutCount()));
+			metrics.add(new Metric<Long>("cache.video.size", videos.getElementCountInMemory()));
+		}
+
+		metrics.add(new Metric<Long>("cache.query.hits", stats.getQueryCacheHitCount()));
+		metrics.add(new Metric<Long>("cache.query.misses", stats.getQueryCacheMissCount()));
+		metrics.add(new Metric<Long>("cache.query.puts", stats.getQueryCachePutCount()));
+		return metrics;
+	}
+
+}
@@ -1,11 +1,18 @@
 package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.QueryHint;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 /**
  * An interface for a repository that can store Video
@@ -28,7 +35,23 @@ import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 @RepositoryRestResource(path = VideoSvcApi.VIDEO_SVC_PATH)
 public interface VideoRepository extends CrudRepository<Video, Long>{
 
+	// The searches below are marked with the "org.hibernate.cacheable"
+	// hint, which tells Hibernate to keep their results in the query
+	// cache. The query cache stores the ids of the matching videos and
+	// the videos themselves come from the Video cache region. Hibernate
+	// throws away every cached result for the Video table as soon as a
+	// transaction that saves or deletes a Video commits, so a search
+	// never returns stale results.
+	
+	// Find all videos. This redeclares CrudRepository.findAll() with an
+	// explicit query so that the list that GET /video returns can be
+	// cached too.
+	@Query("select v from Video v")
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+	public Iterable<Video> findAll();
+
 	// Find all videos with a matching title (e.g., Video.name)
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
 	public Collection<Video> findByName(
 			// The @Param annotation tells Spring Data Rest which HTTP request
 			// parameter it should use to fill in the "title" variable used to
@@ -36,12 +59,52 @@ public interface VideoRepository extends CrudRepository<Video, Long>{
 			@Param(VideoSvcApi.TITLE_PARAMETER) String title);
 	
 	// Find all videos that are shorter than a specified duration
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
 	public Collection<Video> findByDurationLessThan(
 			// The @Param annotation tells tells Spring Data Rest which HTTP request
 			// parameter it should use to fill in the "duration" variable used to
 			// search for Videos
 			@Param(VideoSvcApi.DURATION_PARAMETER) long maxduration);
 	
+	// Find the first page of the videos that are shorter than a specified
+	// duration, sorted by duration (and by id for videos with the same
+	// duration)
+	@RestResource(exported = false)
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+	public List<Video> findByDurationLessThanOrderByDurationAscIdAsc(
+			@Param(VideoSvcApi.DURATION_PARAMETER) long maxduration,
+			Pageable page);
+	
+	// Find the page after that, which starts after the video with the
+	// "afterDuration" and "afterId". These are the values from the last
+	// video of the previous page, which the VideoListHandlerMapping takes
+	// from the opaque continuation token of that page (see VideoPage).
+	//
+	// The "duration >= :afterDuration and duration < :duration" part is a
+	// single range in the (duration, id) index, so the database seeks to
+	// the start of the page and reads forward until the page is full. The
+	// rest of the where clause only skips the videos at the start of the
+	// range that have the same duration as the last video and were already
+	// in the previous page. Unlike a page number, this doesn't make the
+	// database count its way past all of the earlier pages.
+	//
+	// Neither search is exported by Spring Data Rest, which would hand the
+	// raw duration and id to the clients. The VideoListHandlerMapping
+	// answers /video/search/findByDurationLessThanPage with a VideoPage
+	// instead.
+	@RestResource(exported = false)
+	@Query("select v from Video v"
+			+ " where v.duration < :" + VideoSvcApi.DURATION_PARAMETER
+			+ " and v.duration >= :afterDuration"
+			+ " and (v.duration > :afterDuration or v.id > :afterId)"
+			+ " order by v.duration, v.id")
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+	public List<Video> findByDurationLessThanPage(
+			@Param(VideoSvcApi.DURATION_PARAMETER) long maxduration,
+			@Param("afterDuration") long afterDuration,
+			@Param("afterId") long afterId,
+			Pageable page);
+	
 	/*
 	 * See: http://docs.spring.io/spring-data/jpa/docs/1.3.0.RELEASE/reference/html/jpa.repositories.html 
 	 * for more examples of writing query methods
@@ -0,0 +1,138 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.google.common.collect.Lists;
+
+/**
+ *
+ * This test checks that the VideoRepository reads are served from the
+ * second-level and query caches, that saving or deleting a Video makes
+ * the cached search results go away, and that the cache statistics show
+ * up in the Actuator metrics. Hibernate only counts the hits and misses
+ * when its statistics are turned on, which they aren't by default, so the
+ * test turns them on first.
+ *
+ * @author jules
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoCacheTest {
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PublicMetrics metrics;
+
+	@Before
+	public void setUp() {
+		statistics().setStatisticsEnabled(true);
+	}
+
+	@Test
+	public void testVideoCache() throws Exception {
+		Video video = videos.save(TestData.randomVideo());
+		Statistics stats = statistics();
+
+		videos.findOne(video.getId());
+		long hits = stats.getSecondLevelCacheStatistics(Video.CACHE_REGION).getHitCount();
+		assertEquals(video, videos.findOne(video.getId()));
+		assertEquals(hits + 1, stats.getSecondLevelCacheStatistics(Video.CACHE_REGION).getHitCount());
+	}
+
+	@Test
+	public void testQueryCacheInvalidation() throws Exception {
+		Video video = videos.save(TestData.randomVideo());
+		Statistics stats = statistics();
+
+		// The second search should be answered from the query cache
+		assertEquals(1, videos.findByName(video.getName()).size());
+		long hits = stats.getQueryCacheHitCount();
+		assertEquals(1, videos.findByName(video.getName()).size());
+		assertEquals(hits + 1, stats.getQueryCacheHitCount());
+
+		// Saving another video with the same title must not leave the
+		// old result in the cache
+		Video copy = TestData.randomVideo();
+		copy.setName(video.getName());
+		videos.save(copy);
+		assertEquals(2, videos.findByName(video.getName()).size());
+
+		// Neither should deleting one
+		videos.delete(copy);
+		assertEquals(1, videos.findByName(video.getName()).size());
+	}
+
+	@Test
+	public void testFindAllIsCached() throws Exception {
+		videos.save(TestData.randomVideo());
+		Statistics stats = statistics();
+
+		// Spring Data Rest calls findAll() through the CrudRepository
+		// interface, so make sure that goes through the cached query too
+		CrudRepository<Video, Long> crud = videos;
+		int size = Lists.newArrayList(crud.findAll()).size();
+		long hits = stats.getQueryCacheHitCount();
+		assertEquals(size, Lists.newArrayList(crud.findAll()).size());
+		assertEquals(hits + 1, stats.getQueryCacheHitCount());
+
+		videos.save(TestData.randomVideo());
+		assertEquals(size + 1, Lists.newArrayList(crud.findAll()).size());
+	}
+
+	@Test
+	public void testCacheMetrics() throws Exception {
+		Video video = videos.save(TestData.randomVideo());
+		videos.findByName(video.getName());
+		videos.findByName(video.getName());
+
+		Map<String, Number> values = new HashMap<String, Number>();
+		for (Metric<?> metric : metrics.metrics()) {
+			values.put(metric.getName(), metric.getValue());
+		}
+		assertTrue(values.containsKey("cache.video.hits"));
+		assertTrue(values.containsKey("cache.video.size"));
+		assertTrue(values.get("cache.query.hits").longValue() > 0);
+
+		// The default metrics should still be there too
+		assertTrue(values.containsKey("mem"));
+	}
+
+	private Statistics statistics() {
+		return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+}
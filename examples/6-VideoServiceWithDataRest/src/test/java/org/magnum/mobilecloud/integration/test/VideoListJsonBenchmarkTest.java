@@ -0,0 +1,308 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.controller.VideoListHandlerMapping;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.core.OrderComparator;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerAdapter;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ *
+ * This test compares the two ways that a list of videos can be sent to
+ * the client: through Spring Data Rest and the ResourcesMapper (the
+ * Application.halObjectMapper() override), and directly through the
+ * VideoListHandlerMapping and VideoJsonWriter.
+ *
+ * Each request is handed to the HandlerMapping and then to the
+ * HandlerAdapter for its handler, just like the DispatcherServlet would
+ * do, on this thread. That way the bytes that this thread allocates are
+ * exactly the bytes that it took to answer the requests, and the work
+ * that both paths have in common (the web container, the
+ * DispatcherServlet) isn't counted for either of them. The searches are
+ * answered from Hibernate's query cache, so the difference is all in
+ * turning the Videos into JSON.
+ *
+ * The allocation per request and the requests per second of both paths
+ * are printed by testAllocationAndThroughput(), which needs
+ * -Dbenchmark=true. The checks that both paths send the same videos always
+ * run.
+ *
+ * @author jules
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoListJsonBenchmarkTest {
+
+	// The number of videos in each response
+	private static final int VIDEOS = 100;
+
+	private static final int WARMUP_REQUESTS = 2000;
+
+	private static final int REQUESTS = 5000;
+
+	private static final String LINKS = "links";
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private WebApplicationContext context;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoListHandlerMapping direct;
+
+	@Autowired
+	@Qualifier("repositoryExporterHandlerMapping")
+	private HandlerMapping dataRest;
+
+	private List<HandlerAdapter> adapters;
+
+	private String title;
+
+	@Before
+	public void setUp() throws Exception {
+		// The DispatcherServlet tries the HandlerAdapters in order too
+		adapters = new ArrayList<HandlerAdapter>(context.getBeansOfType(HandlerAdapter.class).values());
+		OrderComparator.sort(adapters);
+		title = TestData.randomVideo().getName();
+		for (int i = 0; i < VIDEOS; i++) {
+			Video v = TestData.randomVideo();
+			v.setName(title);
+			videos.save(v);
+		}
+	}
+
+	@Test
+	public void testSameVideos() throws Exception {
+		String[] paths = {
+				VideoSvcApi.VIDEO_TITLE_SEARCH_PATH + "?" + VideoSvcApi.TITLE_PARAMETER + "=" + title,
+				VideoSvcApi.VIDEO_DURATION_SEARCH_PATH + "?" + VideoSvcApi.DURATION_PARAMETER + "=600000",
+				VideoSvcApi.VIDEO_SVC_PATH
+		};
+		for (String path : paths) {
+			List<Map<String, Object>> expected = videoList(dispatch(dataRest, path));
+			for (Map<String, Object> video : expected) {
+				assertNotNull(video.remove(LINKS));
+			}
+			assertEquals(expected, videoList(dispatch(direct, path)));
+		}
+		assertEquals(VIDEOS, videoList(dispatch(direct, titleSearch())).size());
+	}
+
+	// Following the "next" tokens returns every video that the unpaged
+	// search does, including the ones with negative durations, sorted by
+	// duration and id
+	@Test
+	public void testDurationPages() throws Exception {
+		long[] durations = { -5, -1, -1, -1, 0 };
+		for (long duration : durations) {
+			videos.save(new Video(title, "http://coursera.org/some/video-" + duration, duration));
+		}
+		String search = VideoSvcApi.DURATION_PARAMETER + "=1&" + VideoSvcApi.LIMIT_PARAMETER + "=2";
+
+		Set<Object> expected = new HashSet<Object>();
+		for (Map<String, Object> video : videoList(dispatch(direct,
+				VideoSvcApi.VIDEO_DURATION_SEARCH_PATH + "?" + VideoSvcApi.DURATION_PARAMETER + "=1"))) {
+			expected.add(video.get("id"));
+		}
+		assertTrue(expected.size() >= durations.length);
+
+		List<Map<String, Object>> paged = new ArrayList<Map<String, Object>>();
+		String next = null;
+		do {
+			String path = VideoSvcApi.VIDEO_DURATION_PAGE_PATH + "?" + search
+					+ (next != null ? "&" + VideoSvcApi.AFTER_PARAMETER + "=" + next : "");
+			Map<String, Object> page = videoPage(dispatch(direct, path));
+			@SuppressWarnings("unchecked")
+			List<Map<String, Object>> pageVideos = (List<Map<String, Object>>) page.get("videos");
+			assertTrue(pageVideos.size() <= 2);
+			paged.addAll(pageVideos);
+			next = (String) page.get("next");
+		} while (next != null);
+
+		Set<Object> ids = new HashSet<Object>();
+		for (int i = 0; i < paged.size(); i++) {
+			assertTrue(ids.add(paged.get(i).get("id")));
+			if (i > 0) {
+				long previous = ((Number) paged.get(i - 1).get("duration")).longValue();
+				long duration = ((Number) paged.get(i).get("duration")).longValue();
+				assertTrue(previous < duration || (previous == duration
+						&& ((Number) paged.get(i - 1).get("id")).longValue()
+							< ((Number) paged.get(i).get("id")).longValue()));
+			}
+		}
+		assertEquals(expected, ids);
+	}
+
+	@Test
+	public void testBadToken() throws Exception {
+		MockHttpServletResponse response = dispatch(direct,
+				VideoSvcApi.VIDEO_DURATION_PAGE_PATH + "?" + VideoSvcApi.DURATION_PARAMETER + "=1"
+						+ "&" + VideoSvcApi.AFTER_PARAMETER + "=abc");
+		assertEquals(400, response.getStatus());
+	}
+
+	@Test
+	public void testBadParameter() throws Exception {
+		MockHttpServletResponse response = dispatch(direct,
+				VideoSvcApi.VIDEO_DURATION_SEARCH_PATH + "?" + VideoSvcApi.DURATION_PARAMETER + "=abc");
+		assertEquals(400, response.getStatus());
+	}
+
+	@Test
+	public void testAllocationAndThroughput() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		String path = titleSearch();
+		Result halMapper = measure("Spring Data Rest + ResourcesMapper", dataRest, path);
+		Result writer = measure("VideoListHandlerMapping + VideoJsonWriter", direct, path);
+		System.out.println(halMapper);
+		System.out.println(writer);
+
+		assertTrue(writer.bytesPerRequest < halMapper.bytesPerRequest);
+	}
+
+	private String titleSearch() {
+		return VideoSvcApi.VIDEO_TITLE_SEARCH_PATH + "?" + VideoSvcApi.TITLE_PARAMETER + "=" + title;
+	}
+
+	private Result measure(String name, HandlerMapping mapping, String path) throws Exception {
+		for (int i = 0; i < WARMUP_REQUESTS; i++) {
+			dispatch(mapping, path);
+		}
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			dispatch(mapping, path);
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		return new Result(name, allocated / REQUESTS, REQUESTS * 1e9 / elapsed);
+	}
+
+	// Does what the DispatcherServlet does with a GET request for the path,
+	// but with only the given HandlerMapping
+	private MockHttpServletResponse dispatch(HandlerMapping mapping, String path) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest(context.getServletContext(), "GET", path);
+		int query = path.indexOf('?');
+		if (query >= 0) {
+			request.setRequestURI(path.substring(0, query));
+			request.setQueryString(path.substring(query + 1));
+			for (String param : path.substring(query + 1).split("&")) {
+				String[] nameAndValue = param.split("=", 2);
+				request.addParameter(nameAndValue[0], nameAndValue[1]);
+			}
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+		try {
+			HandlerExecutionChain chain = mapping.getHandler(request);
+			assertNotNull(chain);
+			HandlerInterceptor[] interceptors = chain.getInterceptors();
+			if (interceptors == null) {
+				interceptors = new HandlerInterceptor[0];
+			}
+			Object handler = chain.getHandler();
+			for (HandlerInterceptor interceptor : interceptors) {
+				interceptor.preHandle(request, response, handler);
+			}
+			adapter(handler).handle(request, response, handler);
+			for (int i = interceptors.length - 1; i >= 0; i--) {
+				interceptors[i].postHandle(request, response, handler, null);
+			}
+			for (int i = interceptors.length - 1; i >= 0; i--) {
+				interceptors[i].afterCompletion(request, response, handler, null);
+			}
+		} finally {
+			RequestContextHolder.resetRequestAttributes();
+		}
+		return response;
+	}
+
+	private HandlerAdapter adapter(Object handler) {
+		for (HandlerAdapter adapter : adapters) {
+			if (adapter.supports(handler)) {
+				return adapter;
+			}
+		}
+		throw new IllegalStateException("No HandlerAdapter for " + handler);
+	}
+
+	private List<Map<String, Object>> videoList(MockHttpServletResponse response) throws Exception {
+		assertEquals(200, response.getStatus());
+		return objectMapper.readValue(response.getContentAsByteArray(),
+				new TypeReference<List<Map<String, Object>>>() {});
+	}
+
+	private Map<String, Object> videoPage(MockHttpServletResponse response) throws Exception {
+		assertEquals(200, response.getStatus());
+		return objectMapper.readValue(response.getContentAsByteArray(),
+				new TypeReference<Map<String, Object>>() {});
+	}
+
+	private static class Result {
+
+		private final String name;
+		private final long bytesPerRequest;
+		private final double requestsPerSecond;
+
+		private Result(String name, long bytesPerRequest, double requestsPerSecond) {
+			this.name = name;
+			this.bytesPerRequest = bytesPerRequest;
+			this.requestsPerSecond = requestsPerSecond;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d bytes/request, %.0f requests/s (%d videos/response)",
+					name, bytesPerRequest, requestsPerSecond, VIDEOS);
+		}
+	}
+
+}
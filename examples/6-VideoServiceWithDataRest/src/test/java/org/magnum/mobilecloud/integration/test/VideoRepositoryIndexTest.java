@@ -0,0 +1,145 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+/**
+ *
+ * This test checks that the VideoRepository searches are answered from
+ * the indexes on the Video table instead of by scanning the whole table.
+ *
+ * testSearchesUseIndexes() asks the embedded HSQLDB database for the plan
+ * that it uses for each search and checks that the plan reads from the
+ * right index.
+ *
+ * testSearchTimes() times each search as the table grows. Every search
+ * matches the same number of videos no matter how big the table is, so
+ * with the indexes the time per search should stay about the same as the
+ * table grows 10x instead of growing 10x with it. The sizes can be changed
+ * with the "benchmark.sizes" system property (e.g.,
+ * -Dbenchmark.sizes=10000,100000). The query cache is cleared before
+ * each round of searches so that the searches really go to the database.
+ * testSearchTimes() needs -Dbenchmark=true; testSearchesUseIndexes() always
+ * runs.
+ *
+ * @author jules
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoRepositoryIndexTest {
+
+	private static final int SEARCHES = 200;
+
+	// The number of videos that each duration search matches
+	private static final int SHORT_VIDEOS = 10;
+
+	private static final int SAVE_CHUNK_SIZE = 500;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	public void testSearchesUseIndexes() throws Exception {
+		assertThat(plan("select * from video where name = 'Video-1'"),
+				containsString("VIDEO_NAME_IDX"));
+		assertThat(plan("select * from video where duration < 10"),
+				containsString("VIDEO_DURATION_IDX"));
+		assertThat(plan("select * from video where duration < 10 and duration >= -1"
+				+ " and (duration > -1 or id > 0) order by duration, id"),
+				containsString("VIDEO_DURATION_IDX"));
+	}
+
+	@Test
+	public void testSearchTimes() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		videos.deleteAll();
+		String[] sizes = System.getProperty("benchmark.sizes", "10000,100000").split(",");
+		int added = 0;
+		for (String size : sizes) {
+			int count = Integer.parseInt(size.trim());
+			addVideos(added, count);
+			added = count;
+
+			// Warm up
+			search(count);
+
+			long start = System.nanoTime();
+			search(count);
+			long elapsed = System.nanoTime() - start;
+
+			System.out.println(String.format("%,9d videos: %,10d ns per search",
+					count, elapsed / (SEARCHES * 3)));
+		}
+	}
+
+	// Add the videos numbered from (inclusive) to to (exclusive). Video i
+	// has the title "Video-i" and a duration of i, so a search for a title
+	// matches one video and a search for durations less than SHORT_VIDEOS
+	// matches SHORT_VIDEOS videos, no matter how many there are.
+	private void addVideos(int from, int to) {
+		List<Video> chunk = new ArrayList<Video>(SAVE_CHUNK_SIZE);
+		for (int i = from; i < to; i++) {
+			chunk.add(new Video("Video-" + i, "http://coursera.org/some/video-" + i, i));
+			if (chunk.size() == SAVE_CHUNK_SIZE || i == to - 1) {
+				videos.save(chunk);
+				chunk.clear();
+			}
+		}
+	}
+
+	private void search(int count) {
+		Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+		for (int i = 0; i < SEARCHES; i++) {
+			cache.evictDefaultQueryRegion();
+			assertEquals(1, videos.findByName("Video-" + ((i * 7919) % count)).size());
+			assertEquals(SHORT_VIDEOS, videos.findByDurationLessThan(SHORT_VIDEOS).size());
+			assertEquals(SHORT_VIDEOS, videos.findByDurationLessThanOrderByDurationAscIdAsc(SHORT_VIDEOS,
+					new PageRequest(0, VideoSvcApi.MAX_PAGE_SIZE)).size());
+		}
+	}
+
+	// Ask HSQLDB how it will run a query
+	private String plan(String sql) {
+		StringBuilder plan = new StringBuilder();
+		for (String line : new JdbcTemplate(dataSource).queryForList("EXPLAIN PLAN FOR " + sql, String.class)) {
+			plan.append(line).append('\n');
+		}
+		return plan.toString();
+	}
+
+}
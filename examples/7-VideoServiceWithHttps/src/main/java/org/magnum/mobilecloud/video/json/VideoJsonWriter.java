@@ -0,0 +1,128 @@
+package org.magnum.mobilecloud.video.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Writes a list of Videos as the flat JSON array that the Retrofit clients
+ * unmarshall into a Collection<Video>:
+ *
+ * [
+    {
+        "id": 1,
+        "name": "Foo",
+        "url": null,
+        "duration": 100
+    }
+   ]
+ *
+ * or a VideoPage as an object with the videos in that format and the
+ * continuation token for the next page:
+ *
+ * {
+    "videos": [ ... ],
+    "next": "MTAwOjE"
+   }
+ *
+ * The array is the same JSON that Spring Data Rest and the ResourcesMapper
+ * produce, without the "links" that they add to every Video (the clients
+ * ignore them anyway).
+ *
+ * The ResourcesMapper can only start once Spring Data Rest has wrapped every
+ * Video in a Resource with its links, wrapped the list in a Resources, and
+ * then it looks up a serializer for the content, which looks up a serializer
+ * for each Resource, and so on. This class knows that it is writing Videos,
+ * so it calls the getters itself and streams the values straight into a
+ * JsonGenerator. The field names are SerializedStrings, which keep their
+ * quoted and encoded bytes after the first time that they are written, so
+ * writing a field name is just a copy.
+ *
+ * A VideoJsonWriter doesn't have any state of its own, so one instance can
+ * be shared by all of the request threads.
+ *
+ * @author jules
+ *
+ */
+public class VideoJsonWriter {
+
+	private static final SerializedString ID = new SerializedString("id");
+
+	private static final SerializedString NAME = new SerializedString("name");
+
+	private static final SerializedString URL = new SerializedString("url");
+
+	private static final SerializedString DURATION = new SerializedString("duration");
+
+	private static final SerializedString VIDEOS = new SerializedString("videos");
+
+	private static final SerializedString NEXT = new SerializedString("next");
+
+	// The JsonFactory is thread-safe and recycles the generators' buffers.
+	// It must not close the response's stream, because the web container
+	// still has to finish the response.
+	private final JsonFactory factory = new JsonFactory()
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	/**
+	 * Writes the videos to the stream as UTF-8 JSON and flushes it.
+	 *
+	 * @param videos
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Iterable<Video> videos, OutputStream out) throws IOException {
+		JsonGenerator json = factory.createGenerator(out, JsonEncoding.UTF8);
+		try {
+			write(videos, json);
+		} finally {
+			json.close();
+		}
+	}
+
+	/**
+	 * Writes the page to the stream as UTF-8 JSON and flushes it.
+	 *
+	 * @param page
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(VideoPage page, OutputStream out) throws IOException {
+		JsonGenerator json = factory.createGenerator(out, JsonEncoding.UTF8);
+		try {
+			json.writeStartObject();
+			json.writeFieldName(VIDEOS);
+			write(page.getVideos(), json);
+			json.writeFieldName(NEXT);
+			json.writeString(page.getNext());
+			json.writeEndObject();
+		} finally {
+			json.close();
+		}
+	}
+
+	public void write(Iterable<Video> videos, JsonGenerator json) throws IOException {
+		json.writeStartArray();
+		for (Video v : videos) {
+			json.writeStartObject();
+			json.writeFieldName(ID);
+			json.writeNumber(v.getId());
+			json.writeFieldName(NAME);
+			json.writeString(v.getName());
+			json.writeFieldName(URL);
+			json.writeString(v.getUrl());
+			json.writeFieldName(DURATION);
+			json.writeNumber(v.getDuration());
+			json.writeEndObject();
+		}
+		json.writeEndArray();
+	}
+
+}
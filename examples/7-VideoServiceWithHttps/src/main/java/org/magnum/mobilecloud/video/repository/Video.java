@@ -4,6 +4,9 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 
 import com.google.common.base.Objects;
 
@@ -13,11 +16,32 @@ import com.google.common.base.Objects;
  * @author jules
  * 
  */
+// The indexes let the database answer the findByName() and
+// findByDurationLessThan() searches by seeking into a sorted index
+// instead of scanning every row in the table. The duration index also
+// includes the id so that the rows come out of the index already in the
+// (duration, id) order that VideoRepository.findByDurationLessThanPage()
+// sorts by.
 @Entity
+@Table(indexes = {
+		@Index(name = "video_name_idx", columnList = "name"),
+		@Index(name = "video_duration_idx", columnList = "duration, id") })
 public class Video {
 
+	// The number of ids that Hibernate reserves from the database
+	// each time it reads the id sequence
+	public static final int ID_ALLOCATION_SIZE = 50;
+
+	// Ids come from a database sequence (or a table, on databases that
+	// don't have sequences) that hands out a block of ID_ALLOCATION_SIZE
+	// ids at a time. Hibernate assigns ids from the block in memory, so
+	// saving a Video doesn't need an extra round trip to get its id and
+	// the inserts can be sent to the database in JDBC batches. AUTO
+	// falls back to IDENTITY columns on many databases, which turns
+	// insert batching off entirely.
 	@Id
-	@GeneratedValue(strategy = GenerationType.AUTO)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "video_seq")
+	@SequenceGenerator(name = "video_seq", sequenceName = "video_seq", allocationSize = ID_ALLOCATION_SIZE)
 	private long id;
 
 	private String name;
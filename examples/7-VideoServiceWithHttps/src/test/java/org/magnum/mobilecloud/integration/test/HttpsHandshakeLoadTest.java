@@ -0,0 +1,280 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ *
+ * This test starts the Application twice, first with Tomcat's own connector
+ * settings (-Dhttps.tuning=false) and then with the HttpsConnectorProfile,
+ * and measures the latency of GET /video from several threads at once when
+ * every request:
+ *
+ * 1. opens a new connection with a full TLS handshake (a client that has
+ * never talked to the server before, or one that can't resume sessions)
+ * 2. opens a new connection, but resumes the TLS session of an earlier one
+ * 3. reuses an open connection (HTTP keep-alive)
+ *
+ * The response is a tiny JSON list, so nearly all of the latency is in
+ * setting up connections. The median and 99th percentile latencies, the
+ * throughput, and the number of TLS connections that the client had to open
+ * are printed for each case. With Tomcat's defaults, a connection is closed
+ * after 100 requests, so even the keep-alive client has to open new ones.
+ *
+ * The client and the server run in the same JVM, so whichever one runs
+ * first would also pay for warming up the JIT. A run that isn't measured
+ * takes care of that first.
+ *
+ * Like the other integration tests, this test uses a client that trusts
+ * the self-signed certificate in the sample keystore.
+ *
+ * Needs -Dbenchmark=true.
+ *
+ * @author jules
+ *
+ */
+public class HttpsHandshakeLoadTest {
+
+	private static final int THREADS = 8;
+
+	private static final int WARMUP_REQUESTS = 25;
+
+	private static final int REQUESTS = 100;
+
+	// The number of TLS connections that the clients have opened
+	private static final AtomicInteger opened = new AtomicInteger();
+
+	@Test
+	public void testHandshakeLatency() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		run("warm-up");
+		List<Result> stock = run("Tomcat defaults", "--https.tuning=false");
+		List<Result> tuned = run("HttpsConnectorProfile");
+		for (Result result : stock) {
+			System.out.println(result);
+		}
+		for (Result result : tuned) {
+			System.out.println(result);
+		}
+
+		Result full = tuned.get(0);
+		Result resumed = tuned.get(1);
+		Result keepAlive = tuned.get(2);
+		assertTrue(resumed.median < full.median);
+		assertTrue(keepAlive.median < resumed.median);
+
+		// Every thread sends more than 100 requests on its connection
+		assertTrue(stock.get(2).connections > THREADS);
+		assertEquals(THREADS, keepAlive.connections);
+	}
+
+	// Start the Application with the given arguments and measure all three
+	// cases against it
+	private List<Result> run(String profile, String... args) throws Exception {
+		int port = freePort();
+		String keystore = new File(getClass().getResource("/private/keystore").toURI()).getAbsolutePath();
+		List<String> allArgs = new ArrayList<String>(Arrays.asList(args));
+		allArgs.add("--https.port=" + port);
+		allArgs.add("--keystore.file=" + keystore);
+		allArgs.add("--keystore.pass=changeit");
+
+		ConfigurableApplicationContext context = SpringApplication.run(Application.class,
+				allArgs.toArray(new String[allArgs.size()]));
+		try {
+			final String url = "https://localhost:" + port + VideoSvcApi.VIDEO_SVC_PATH;
+			final SSLContext shared = trustSelfSigned();
+			final CloseableHttpClient pooled = client(shared, true, THREADS);
+			final CloseableHttpClient closing = client(shared, false, THREADS);
+			try {
+				List<Result> results = new ArrayList<Result>();
+				results.add(measure(profile, "full handshake", url, new ClientFactory() {
+					@Override
+					public CloseableHttpClient client() throws Exception {
+						// A new SSLContext has no sessions to resume
+						return HttpsHandshakeLoadTest.client(trustSelfSigned(), false, 1);
+					}
+				}));
+				results.add(measure(profile, "resumed handshake", url, new Shared(closing)));
+				results.add(measure(profile, "keep-alive", url, new Shared(pooled)));
+				return results;
+			} finally {
+				pooled.close();
+				closing.close();
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+	private Result measure(String profile, String name, final String url,
+			final ClientFactory clients) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+			for (int t = 0; t < THREADS; t++) {
+				tasks.add(new Callable<long[]>() {
+					@Override
+					public long[] call() throws Exception {
+						for (int i = 0; i < WARMUP_REQUESTS; i++) {
+							get(clients, url);
+						}
+						long[] latencies = new long[REQUESTS];
+						for (int i = 0; i < REQUESTS; i++) {
+							latencies[i] = get(clients, url);
+						}
+						return latencies;
+					}
+				});
+			}
+			opened.set(0);
+			long start = System.nanoTime();
+			List<Future<long[]>> futures = executor.invokeAll(tasks);
+			long elapsed = System.nanoTime() - start;
+
+			long[] all = new long[THREADS * REQUESTS];
+			int i = 0;
+			for (Future<long[]> future : futures) {
+				for (long latency : future.get()) {
+					all[i++] = latency;
+				}
+			}
+			Arrays.sort(all);
+			// The warmup requests are part of the elapsed time too
+			double perSecond = THREADS * (WARMUP_REQUESTS + REQUESTS) * 1e9 / elapsed;
+			return new Result(profile + ", " + name, all[all.length / 2],
+					all[all.length * 99 / 100], perSecond, opened.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// Returns how long (in ns) it took to send the request and read the
+	// whole response
+	private static long get(ClientFactory clients, String url) throws Exception {
+		CloseableHttpClient client = clients.client();
+		long start = System.nanoTime();
+		CloseableHttpResponse response = client.execute(new HttpGet(url));
+		try {
+			assertEquals(200, response.getStatusLine().getStatusCode());
+			EntityUtils.consume(response.getEntity());
+		} finally {
+			response.close();
+		}
+		long latency = System.nanoTime() - start;
+		clients.done(client);
+		return latency;
+	}
+
+	private static CloseableHttpClient client(SSLContext ssl, boolean keepAlive, int connections) {
+		HttpClientBuilder builder = HttpClients.custom()
+				.setSSLSocketFactory(new SSLConnectionSocketFactory(ssl) {
+					@Override
+					protected void prepareSocket(SSLSocket socket) {
+						opened.incrementAndGet();
+					}
+				})
+				.setMaxConnTotal(connections)
+				.setMaxConnPerRoute(connections);
+		if (!keepAlive) {
+			builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+		}
+		return builder.build();
+	}
+
+	private static SSLContext trustSelfSigned() throws Exception {
+		return SSLContexts.custom().loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
+	}
+
+	private static int freePort() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	// Hands out the client for each request
+	private static abstract class ClientFactory {
+
+		public abstract CloseableHttpClient client() throws Exception;
+
+		public void done(CloseableHttpClient client) throws Exception {
+			client.close();
+		}
+	}
+
+	private static class Shared extends ClientFactory {
+
+		private final CloseableHttpClient client;
+
+		private Shared(CloseableHttpClient client) {
+			this.client = client;
+		}
+
+		@Override
+		public CloseableHttpClient client() {
+			return client;
+		}
+
+		@Override
+		public void done(CloseableHttpClient client) {
+			// The client is used again for the next request
+		}
+	}
+
+	private static class Result {
+
+		private final String name;
+		private final long median;
+		private final long p99;
+		private final double requestsPerSecond;
+		private final int connections;
+
+		private Result(String name, long median, long p99, double requestsPerSecond, int connections) {
+			this.name = name;
+			this.median = median;
+			this.p99 = p99;
+			this.requestsPerSecond = requestsPerSecond;
+			this.connections = connections;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-42s median %7.2f ms, p99 %7.2f ms, %,6.0f requests/s, %,5d connections (%d threads)",
+					name, median / 1e6, p99 / 1e6, requestsPerSecond, connections, THREADS);
+		}
+	}
+
+}
@@ -4,7 +4,9 @@ import java.io.File;
 
 import org.apache.catalina.connector.Connector;
 import org.apache.coyote.http11.Http11NioProtocol;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.json.ResourcesMapper;
+import org.magnum.mobilecloud.video.repository.Video;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
@@ -18,6 +20,7 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.data.rest.core.config.RepositoryRestConfiguration;
 import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguration;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
@@ -74,10 +77,28 @@ public class Application extends RepositoryRestMvcConfiguration {
 	// on the ObjectMapper. This is an example of how Spring dependency
 	// injection allows us to easily configure dependencies in code that
 	// we don't have easy control over otherwise.
+	//
+	// The GET requests that return lists of videos (e.g., GET /video)
+	// never reach Spring Data Rest or this ObjectMapper. They are answered
+	// by the VideoListHandlerMapping, which writes the same JSON directly.
 	@Override
 	public ObjectMapper halObjectMapper(){
 		return new ResourcesMapper();
 	}
+	
+	// Spring Data Rest reads the page size for search methods that take
+	// a Pageable from the "size" parameter by default. We tell it to use
+	// the "limit" parameter from our VideoSvcApi instead and to cap the
+	// page size so that clients always get bounded responses. It also
+	// writes each Video's id, as the VideoJsonWriter does, so that the
+	// same search gets the same JSON from either of them.
+	@Override
+	protected void configureRepositoryRestConfiguration(
+			RepositoryRestConfiguration config) {
+		config.setLimitParamName(VideoSvcApi.LIMIT_PARAMETER);
+		config.setMaxPageSize(VideoSvcApi.MAX_PAGE_SIZE);
+		config.exposeIdsFor(Video.class);
+	}
 
     // This version uses the Tomcat web container and configures it to
 	// support HTTPS. The code below performs the configuration of Tomcat
@@ -0,0 +1,103 @@
+package org.magnum.mobilecloud.video;
+
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings for the HTTPS connector that make it cheaper for clients to send
+ * many short requests, which is what mobile clients do.
+ *
+ * Setting up a new TLS session (a "full handshake") takes two extra round
+ * trips and a private key operation on the server, which is usually much
+ * more than it takes to answer the request itself. There are two ways for a
+ * client to avoid it:
+ *
+ * 1. Keep the connection open and send the next request on it (HTTP
+ * keep-alive). By default, Tomcat closes a connection after 100 requests or
+ * when it has been idle for the connection timeout. Mobile clients tend to
+ * send a burst of requests and then wait for the user, so we keep idle
+ * connections around longer and allow many more requests on each of them.
+ * The NIO connector doesn't tie up a thread for an idle connection, so this
+ * only costs a socket and a little memory.
+ *
+ * 2. Resume the TLS session from an earlier connection (an "abbreviated
+ * handshake"), which skips the key exchange and the private key operation.
+ * The server can only resume sessions that it still has in its session
+ * cache, so we make sure that the cache is large enough and that sessions
+ * live long enough, while still putting a bound on its memory.
+ *
+ * The thread pool and the accept queue are sized for bursts of new
+ * connections, so that a burst waits in the queue instead of being refused.
+ *
+ * Every setting can be changed with a system property or a command line
+ * argument (e.g., -Dhttps.maxThreads=400 or --https.maxThreads=400), and
+ * -Dhttps.tuning=false leaves Tomcat's own defaults in place.
+ *
+ * Tomcat 7 and Java 7 support neither HTTP/2 (nor ALPN, which it needs) nor
+ * TLS session tickets, so they are not part of this profile. The session
+ * cache is what resumes sessions with this stack.
+ *
+ * @author jules
+ *
+ */
+@Component
+public class HttpsConnectorProfile {
+
+	@Value("${https.port:8443}")
+	private int port;
+
+	@Value("${https.tuning:true}")
+	private boolean tuning;
+
+	// The number of TLS sessions that the server remembers
+	@Value("${https.sessionCacheSize:20480}")
+	private int sessionCacheSize;
+
+	// How long (in seconds) a TLS session can be resumed for
+	@Value("${https.sessionTimeout:86400}")
+	private int sessionTimeout;
+
+	// How long (in ms) an idle connection is kept open for the next request
+	@Value("${https.keepAliveTimeout:60000}")
+	private int keepAliveTimeout;
+
+	// How many requests a client can send on one connection (-1 for no limit)
+	@Value("${https.maxKeepAliveRequests:1000}")
+	private int maxKeepAliveRequests;
+
+	@Value("${https.maxThreads:200}")
+	private int maxThreads;
+
+	@Value("${https.minSpareThreads:25}")
+	private int minSpareThreads;
+
+	// How many new connections can wait to be accepted
+	@Value("${https.acceptCount:1024}")
+	private int acceptCount;
+
+	@Value("${https.maxConnections:10000}")
+	private int maxConnections;
+
+	public int getPort() {
+		return port;
+	}
+
+	public void apply(Http11NioProtocol proto) {
+		if (!tuning) {
+			return;
+		}
+		proto.setSessionCacheSize(Integer.toString(sessionCacheSize));
+		proto.setSessionTimeout(Integer.toString(sessionTimeout));
+		proto.setKeepAliveTimeout(keepAliveTimeout);
+		proto.setMaxKeepAliveRequests(maxKeepAliveRequests);
+		proto.setMaxThreads(maxThreads);
+		proto.setMinSpareThreads(minSpareThreads);
+		proto.setBacklog(acceptCount);
+		proto.setMaxConnections(maxConnections);
+		// Small responses go out right away instead of waiting for more
+		// data to fill a packet
+		proto.setTcpNoDelay(true);
+	}
+
+}
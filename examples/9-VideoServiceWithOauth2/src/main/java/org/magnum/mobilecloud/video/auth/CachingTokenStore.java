@@ -0,0 +1,259 @@
+/* 
+ **
+ ** Copyright 2014, Jules White
+ **
+ ** 
+ */
+package org.magnum.mobilecloud.video.auth;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * A TokenStore that remembers the access tokens that the resource server has
+ * already validated, along with their OAuth2Authentication, so that a client
+ * that sends the same bearer token over and over doesn't cost a token store
+ * lookup on every request.
+ *
+ * Every request to the resource server looks up its bearer token in the
+ * TokenStore twice: once to read the access token (and check that it hasn't
+ * expired), and once to read the OAuth2Authentication with the user, client
+ * and scopes that the "#oauth2.hasScope(...)" checks need. With a JDBC token
+ * store, that is two queries and two deserialized objects per request. This
+ * class keeps both in memory, and passes everything else straight to the
+ * TokenStore that really stores the tokens.
+ *
+ * The cache is keyed by the SHA-256 hash of the token, so that the keys
+ * aren't usable as bearer tokens themselves (e.g., in a heap dump). It holds
+ * at most maxSize tokens, and an entry is never used after:
+ *
+ * 1. its access token expires, so accessTokenValiditySeconds is honored
+ * exactly (the DefaultTokenServices still checks the expiry of the token
+ * that it gets back, too)
+ * 2. maxTtlSeconds, which bounds how long a change to a token that was made
+ * by another server sharing the same token store can go unnoticed
+ * 3. the token is removed or replaced through this TokenStore, which is what
+ * happens when a token is revoked, refreshed, or expires
+ *
+ * A lookup that races with a removal could put the removed token back into
+ * the cache, so the removals are counted and a lookup is only cached if no
+ * removal happened while it was running.
+ *
+ * A maxSize of 0 turns the cache off and sends every lookup to the
+ * delegate, but still counts the requests and the time spent in the token
+ * store, so that the overhead can be compared with and without the cache.
+ *
+ * @author jules
+ *
+ */
+public class CachingTokenStore implements TokenStore {
+
+	private final TokenStore delegate_;
+
+	private final Cache<HashCode, ValidatedToken> cache_;
+
+	private final boolean enabled_;
+
+	// Counts the removals, so that lookups can tell if one happened
+	// while they were reading from the delegate
+	private final AtomicLong removals_ = new AtomicLong();
+
+	private final AtomicLong hits_ = new AtomicLong();
+
+	private final AtomicLong misses_ = new AtomicLong();
+
+	// The number of bearer tokens that were read, which is one for every
+	// request to the resource server
+	private final AtomicLong requests_ = new AtomicLong();
+
+	// The total time spent reading tokens and authentications
+	private final AtomicLong lookupNanos_ = new AtomicLong();
+
+	public CachingTokenStore(TokenStore delegate, int maxSize, int maxTtlSeconds) {
+		delegate_ = delegate;
+		enabled_ = maxSize > 0;
+		cache_ = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(maxTtlSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+
+	@Override
+	public OAuth2AccessToken readAccessToken(String tokenValue) {
+		requests_.incrementAndGet();
+		long start = System.nanoTime();
+		try {
+			return enabled_ ? lookup(tokenValue).token_ : delegate_.readAccessToken(tokenValue);
+		} finally {
+			lookupNanos_.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+		long start = System.nanoTime();
+		try {
+			return enabled_ ? lookup(token.getValue()).authentication_ : delegate_.readAuthentication(token);
+		} finally {
+			lookupNanos_.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public OAuth2Authentication readAuthentication(String tokenValue) {
+		long start = System.nanoTime();
+		try {
+			return enabled_ ? lookup(tokenValue).authentication_ : delegate_.readAuthentication(tokenValue);
+		} finally {
+			lookupNanos_.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	// Returns the cached token, or reads it (and its authentication) from
+	// the delegate. Only a token that exists, hasn't expired, and has an
+	// authentication is cached. Anything else is returned as the delegate
+	// has it (nulls included), so that the DefaultTokenServices can reject
+	// it and remove the expired ones.
+	private ValidatedToken lookup(String tokenValue) {
+		HashCode key = hash(tokenValue);
+		ValidatedToken validated = cache_.getIfPresent(key);
+		if (validated != null) {
+			if (!validated.isExpired()) {
+				hits_.incrementAndGet();
+				return validated;
+			}
+			cache_.invalidate(key);
+		}
+		misses_.incrementAndGet();
+
+		long removals = removals_.get();
+		OAuth2AccessToken token = delegate_.readAccessToken(tokenValue);
+		OAuth2Authentication authentication = (token != null) ? delegate_.readAuthentication(token) : null;
+		validated = new ValidatedToken(token, authentication);
+		if (token != null && authentication != null && !validated.isExpired()
+				&& removals_.get() == removals) {
+			cache_.put(key, validated);
+		}
+		return validated;
+	}
+
+	@Override
+	public void storeAccessToken(OAuth2AccessToken token,
+			OAuth2Authentication authentication) {
+		delegate_.storeAccessToken(token, authentication);
+		invalidate(token.getValue());
+	}
+
+	@Override
+	public void removeAccessToken(OAuth2AccessToken token) {
+		delegate_.removeAccessToken(token);
+		invalidate(token.getValue());
+	}
+
+	// The delegate knows which access token belongs to the refresh token,
+	// but this class doesn't. Refreshing is rare, so everything is dropped.
+	@Override
+	public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+		delegate_.removeAccessTokenUsingRefreshToken(refreshToken);
+		removals_.incrementAndGet();
+		cache_.invalidateAll();
+	}
+
+	private void invalidate(String tokenValue) {
+		removals_.incrementAndGet();
+		cache_.invalidate(hash(tokenValue));
+	}
+
+	private static HashCode hash(String tokenValue) {
+		return Hashing.sha256().hashString(tokenValue, Charsets.UTF_8);
+	}
+
+	@Override
+	public void storeRefreshToken(OAuth2RefreshToken refreshToken,
+			OAuth2Authentication authentication) {
+		delegate_.storeRefreshToken(refreshToken, authentication);
+	}
+
+	@Override
+	public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+		return delegate_.readRefreshToken(tokenValue);
+	}
+
+	@Override
+	public OAuth2Authentication readAuthenticationForRefreshToken(
+			OAuth2RefreshToken token) {
+		return delegate_.readAuthenticationForRefreshToken(token);
+	}
+
+	@Override
+	public void removeRefreshToken(OAuth2RefreshToken token) {
+		delegate_.removeRefreshToken(token);
+	}
+
+	@Override
+	public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+		return delegate_.getAccessToken(authentication);
+	}
+
+	@Override
+	public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(
+			String clientId, String userName) {
+		return delegate_.findTokensByClientIdAndUserName(clientId, userName);
+	}
+
+	@Override
+	public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+		return delegate_.findTokensByClientId(clientId);
+	}
+
+	public long getHits() {
+		return hits_.get();
+	}
+
+	public long getMisses() {
+		return misses_.get();
+	}
+
+	public long getSize() {
+		return cache_.size();
+	}
+
+	public long getRequests() {
+		return requests_.get();
+	}
+
+	public long getLookupNanos() {
+		return lookupNanos_.get();
+	}
+
+	// An access token that was read from the delegate, and its authentication
+	private static class ValidatedToken {
+
+		private final OAuth2AccessToken token_;
+
+		private final OAuth2Authentication authentication_;
+
+		private ValidatedToken(OAuth2AccessToken token,
+				OAuth2Authentication authentication) {
+			token_ = token;
+			authentication_ = authentication;
+		}
+
+		private boolean isExpired() {
+			return token_.isExpired();
+		}
+	}
+
+}
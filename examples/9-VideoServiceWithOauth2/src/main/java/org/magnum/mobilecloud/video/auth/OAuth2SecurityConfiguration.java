@@ -5,8 +5,11 @@ import java.util.Arrays;
 
 import org.apache.catalina.connector.Connector;
 import org.apache.coyote.http11.Http11NioProtocol;
+import org.magnum.mobilecloud.video.HttpsConnectorProfile;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.reader.MetricReader;
 import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
 import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
 import org.springframework.boot.context.embedded.tomcat.TomcatConnectorCustomizer;
@@ -30,6 +33,7 @@ import org.springframework.security.oauth2.config.annotation.web.configuration.E
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerEndpointsConfigurer;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 
 /**
@@ -128,6 +132,24 @@ public class OAuth2SecurityConfiguration {
 		// A data structure used to store both a ClientDetailsService and a UserDetailsService
 		private ClientAndUserDetailsService combinedService_;
 
+		// The number of validated tokens that the resource server remembers,
+		// and the longest time (in seconds) that it remembers one for. A token
+		// is never used after it expires, no matter how long this is.
+		//
+		// The cache is off (0) by default, because the InMemoryTokenStore
+		// below is already a map of tokens, and hashing the token for the
+		// cache costs more than looking it up there. Turn it on (e.g.,
+		// -Doauth2.tokenCache.size=10000) if you replace the InMemoryTokenStore
+		// with one that goes to a database or another server, like a
+		// JdbcTokenStore. See CachingTokenStore and the TokenValidationCacheTest.
+		@Value("${oauth2.tokenCache.size:0}")
+		private int tokenCacheSize;
+
+		@Value("${oauth2.tokenCache.ttlSeconds:300}")
+		private int tokenCacheTtlSeconds;
+
+		private CachingTokenStore tokenStore_;
+
 		/**
 		 * 
 		 * This constructor is used to setup the clients and users that will be able to login to the
@@ -197,14 +219,42 @@ public class OAuth2SecurityConfiguration {
 			return combinedService_;
 		}
 
+		/**
+		 * The tokens are stored in memory, behind a cache of the tokens that the
+		 * resource server has already validated. The authorization server hands
+		 * this TokenStore on to the resource server, so that revoking a token
+		 * also removes it from the cache.
+		 * 
+		 * This isn't a @Bean, as the authorization server already publishes the
+		 * TokenStore that it is given as one, and a second one would leave the
+		 * resource server unable to choose between them.
+		 */
+		private synchronized CachingTokenStore tokenStore() {
+			if (tokenStore_ == null) {
+				tokenStore_ = new CachingTokenStore(new InMemoryTokenStore(),
+						tokenCacheSize, tokenCacheTtlSeconds);
+			}
+			return tokenStore_;
+		}
+
+		/**
+		 * Report the token cache hits and misses, and the time that checking
+		 * the bearer token of a request takes, on the Actuator's /metrics endpoint.
+		 */
+		@Bean
+		public PublicMetrics publicMetrics(MetricReader metricRepository) {
+			return new TokenCacheMetrics(metricRepository, tokenStore());
+		}
+
 		/**
 		 * This method tells our AuthorizationServerConfigurerAdapter to use the delegated AuthenticationManager
-		 * to process authentication requests.
+		 * to process authentication requests, and to keep the tokens in our TokenStore.
 		 */
 		@Override
 		public void configure(AuthorizationServerEndpointsConfigurer endpoints)
 				throws Exception {
-			endpoints.authenticationManager(authenticationManager);
+			endpoints.authenticationManager(authenticationManager)
+				.tokenStore(tokenStore());
 		}
 
 		/**
@@ -241,10 +291,15 @@ public class OAuth2SecurityConfiguration {
 	//
 	//       http://tomcat.apache.org/tomcat-7.0-doc/ssl-howto.html
 	//
+	// The HttpsConnectorProfile sets the port (8443 by default) and tunes
+	// the connector for many short requests: see that class for the
+	// settings and how to change them.
+	//
     @Bean
     EmbeddedServletContainerCustomizer containerCustomizer(
             @Value("${keystore.file:src/main/resources/private/keystore}") String keystoreFile,
-            @Value("${keystore.pass:changeit}") final String keystorePass) throws Exception {
+            @Value("${keystore.pass:changeit}") final String keystorePass,
+            final HttpsConnectorProfile connectorProfile) throws Exception {
 
 		// If you were going to reuse this class in another
 		// application, this is one of the key sections that you
@@ -261,7 +316,7 @@ public class OAuth2SecurityConfiguration {
 		                    new TomcatConnectorCustomizer() {
 								@Override
 								public void customize(Connector connector) {
-									connector.setPort(8443);
+									connector.setPort(connectorProfile.getPort());
 			                        connector.setSecure(true);
 			                        connector.setScheme("https");
 
@@ -271,6 +326,9 @@ public class OAuth2SecurityConfiguration {
 			                        proto.setKeystorePass(keystorePass);
 			                        proto.setKeystoreType("JKS");
 			                        proto.setKeyAlias("tomcat");
+
+			                        // Session cache, keep-alive and thread pool sizes
+			                        connectorProfile.apply(proto);
 								}
 		                    });
 		    
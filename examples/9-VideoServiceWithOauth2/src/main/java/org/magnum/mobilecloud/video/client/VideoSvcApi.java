@@ -3,6 +3,7 @@ package org.magnum.mobilecloud.video.client;
 import java.util.Collection;
 
 import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoPage;
 
 import retrofit.http.Body;
 import retrofit.http.GET;
@@ -29,6 +30,18 @@ public interface VideoSvcApi {
 	
 	public static final String DURATION_PARAMETER = "duration";
 	
+	// The maximum number of videos to return in one page
+	public static final String LIMIT_PARAMETER = "limit";
+	
+	// The continuation token from the previous page (see VideoPage)
+	public static final String AFTER_PARAMETER = "after";
+	
+	// The largest page that the VideoSvc will return, no matter
+	// what limit the client asks for
+	public static final int MAX_PAGE_SIZE = 100;
+	
+	public static final String DURATION_PAGE_SEARCH = "findByDurationLessThanPage";
+	
 	public static final String TOKEN_PATH = "/oauth/token";
 	
 	// The path where we expect the VideoSvc to live
@@ -40,6 +53,9 @@ public interface VideoSvcApi {
 	// The path to search videos by title
 	public static final String VIDEO_DURATION_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByDurationLessThan";
 	
+	// The path to get one page of the videos shorter than a duration
+	public static final String VIDEO_DURATION_PAGE_PATH = VIDEO_SVC_PATH + "/search/" + DURATION_PAGE_SEARCH;
+	
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
@@ -52,4 +68,13 @@ public interface VideoSvcApi {
 	@GET(VIDEO_DURATION_SEARCH_PATH)
 	public Collection<Video> findByDurationLessThan(@Query(DURATION_PARAMETER) String title);
 	
+	// Get up to limit videos that are shorter than a duration, sorted by
+	// duration. Pass a null after token to get the first page and then the
+	// "next" token of each page to get the page after it. The last page
+	// has a null "next" token.
+	@GET(VIDEO_DURATION_PAGE_PATH)
+	public VideoPage findByDurationLessThanPage(@Query(DURATION_PARAMETER) long duration,
+			@Query(LIMIT_PARAMETER) int limit,
+			@Query(AFTER_PARAMETER) String after);
+	
 }
@@ -0,0 +1,100 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * One page of a list of videos plus the continuation token that a client
+ * sends back (as the "after" parameter) to get the next page.
+ *
+ * The token is opaque to clients. Here it encodes the duration and id of
+ * the last video in the page, which is where the VideoRepository carries
+ * on from in the (duration, id) index. Clients shouldn't build or take
+ * apart tokens themselves, so that what is encoded into them can change
+ * without breaking the clients. The first page is asked for without a
+ * token, so there is no duration or id that a video can't have. When there
+ * are no more videos, the next token is null.
+ *
+ * @author jules
+ *
+ */
+public class VideoPage {
+
+	private static final BaseEncoding CURSOR_ENCODING = BaseEncoding.base64Url().omitPadding();
+
+	private static final String SEPARATOR = ":";
+
+	private Collection<Video> videos = new ArrayList<Video>();
+	private String next;
+
+	public VideoPage() {
+	}
+
+	public VideoPage(Collection<Video> videos, String next) {
+		super();
+		this.videos = videos;
+		this.next = next;
+	}
+
+	public Collection<Video> getVideos() {
+		return videos;
+	}
+
+	public void setVideos(Collection<Video> videos) {
+		this.videos = videos;
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+
+	/**
+	 * Encode the duration and id of the last video in a page as a
+	 * continuation token.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public static String toCursor(Video v) {
+		return CURSOR_ENCODING.encode((v.getDuration() + SEPARATOR + v.getId()).getBytes(Charsets.UTF_8));
+	}
+
+	/**
+	 * Decode a continuation token created by toCursor() back into a Video
+	 * that only has the duration and id of the video that it was created
+	 * from. A null token means "start from the beginning" and decodes to
+	 * null.
+	 *
+	 * @param cursor
+	 * @return
+	 * @throws IllegalArgumentException if the token was not created by toCursor()
+	 */
+	public static Video fromCursor(String cursor) {
+		if (cursor == null) {
+			return null;
+		}
+		String[] key;
+		Video v = new Video();
+		try {
+			key = new String(CURSOR_ENCODING.decode(cursor), Charsets.UTF_8).split(SEPARATOR);
+			if (key.length == 2) {
+				v.setDuration(Long.parseLong(key[0]));
+				v.setId(Long.parseLong(key[1]));
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token: " + cursor, e);
+		}
+		if (key.length != 2) {
+			throw new IllegalArgumentException("Invalid continuation token: " + cursor);
+		}
+		return v;
+	}
+
+}
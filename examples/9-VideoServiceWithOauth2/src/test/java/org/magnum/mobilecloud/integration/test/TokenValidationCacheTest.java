@@ -0,0 +1,226 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.mobilecloud.video.auth.CachingTokenStore;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
+import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+
+/**
+ *
+ * This test checks that the CachingTokenStore answers repeated checks of the
+ * same bearer token from its cache, and that it never lets a revoked or an
+ * expired token through. Then it measures how long the resource server
+ * spends checking the bearer token of each request, with and without the
+ * cache, for tokens that are kept:
+ *
+ * 1. in memory (the InMemoryTokenStore that the Application uses)
+ * 2. in a database (a JdbcTokenStore on an embedded HSQLDB database)
+ *
+ * The tokens are checked with the same DefaultTokenServices.loadAuthentication()
+ * that the OAuth2AuthenticationProcessingFilter calls for every request.
+ *
+ * testAuthOverheadPerRequest() needs -Dbenchmark=true; the checks of the
+ * cache's correctness always run.
+ *
+ * @author jules
+ *
+ */
+public class TokenValidationCacheTest {
+
+	// The number of clients, each of which has its own token
+	private static final int TOKENS = 100;
+
+	private static final int WARMUP_REQUESTS = 20000;
+
+	private static final int REQUESTS = 50000;
+
+	// The oauth2.tokenCache.size that the README suggests
+	private static final int CACHE_SIZE = 10000;
+
+	private EmbeddedDatabase database;
+
+	@Before
+	public void setUp() {
+		database = new EmbeddedDatabaseBuilder()
+				.setType(EmbeddedDatabaseType.HSQL)
+				.setName(UUID.randomUUID().toString())
+				.build();
+		// The tables that the JdbcTokenStore expects
+		JdbcTemplate jdbc = new JdbcTemplate(database);
+		jdbc.execute("create table oauth_access_token (token_id VARCHAR(256), token LONGVARBINARY, "
+				+ "authentication_id VARCHAR(256), user_name VARCHAR(256), client_id VARCHAR(256), "
+				+ "authentication LONGVARBINARY, refresh_token VARCHAR(256))");
+		jdbc.execute("create table oauth_refresh_token (token_id VARCHAR(256), token LONGVARBINARY, "
+				+ "authentication LONGVARBINARY)");
+	}
+
+	@After
+	public void tearDown() {
+		database.shutdown();
+	}
+
+	@Test
+	public void testCacheHitAndRevocation() throws Exception {
+		CachingTokenStore store = new CachingTokenStore(new InMemoryTokenStore(), 100, 300);
+		DefaultTokenServices services = tokenServices(store, 3600);
+
+		OAuth2Authentication authentication = authentication("admin");
+		OAuth2AccessToken token = services.createAccessToken(authentication);
+		assertEquals("admin", services.loadAuthentication(token.getValue()).getName());
+		assertEquals(1, store.getMisses());
+
+		// The second request is answered from the cache
+		OAuth2Authentication loaded = services.loadAuthentication(token.getValue());
+		assertEquals("admin", loaded.getName());
+		assertEquals(authentication.getOAuth2Request().getScope(), loaded.getOAuth2Request().getScope());
+		assertEquals(1, store.getMisses());
+		assertTrue(store.getHits() >= 3);
+		assertEquals(1, store.getSize());
+
+		// A revoked token is rejected right away
+		assertTrue(services.revokeToken(token.getValue()));
+		assertEquals(0, store.getSize());
+		assertInvalid(services, token.getValue());
+
+		// So is a token that was never issued
+		assertInvalid(services, UUID.randomUUID().toString());
+		assertEquals(0, store.getSize());
+	}
+
+	@Test
+	public void testExpiredTokenIsRejected() throws Exception {
+		// The cache would keep the token for much longer than it is valid
+		CachingTokenStore store = new CachingTokenStore(new InMemoryTokenStore(), 100, 300);
+		DefaultTokenServices services = tokenServices(store, 1);
+
+		OAuth2AccessToken token = services.createAccessToken(authentication("user0"));
+		assertNotNull(services.loadAuthentication(token.getValue()));
+		assertEquals(1, store.getSize());
+
+		Thread.sleep(token.getExpiration().getTime() - System.currentTimeMillis() + 100);
+		assertInvalid(services, token.getValue());
+		assertEquals(0, store.getSize());
+	}
+
+	@Test
+	public void testAuthOverheadPerRequest() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		Result memory = measure("InMemoryTokenStore, no cache", new InMemoryTokenStore(), 0);
+		Result memoryCached = measure("InMemoryTokenStore, cache", new InMemoryTokenStore(), CACHE_SIZE);
+		Result jdbc = measure("JdbcTokenStore, no cache", new JdbcTokenStore(database), 0);
+		database.shutdown();
+		setUp();
+		Result jdbcCached = measure("JdbcTokenStore, cache", new JdbcTokenStore(database), CACHE_SIZE);
+		System.out.println(memory);
+		System.out.println(memoryCached);
+		System.out.println(jdbc);
+		System.out.println(jdbcCached);
+
+		assertEquals(TOKENS, memoryCached.misses);
+		assertEquals(TOKENS, jdbcCached.misses);
+		assertTrue(jdbcCached.micros < jdbc.micros);
+	}
+
+	private Result measure(String name, TokenStore delegate, int cacheSize) {
+		CachingTokenStore store = new CachingTokenStore(delegate, cacheSize, 300);
+		DefaultTokenServices services = tokenServices(store, 3600);
+		String[] tokens = new String[TOKENS];
+		for (int i = 0; i < TOKENS; i++) {
+			tokens[i] = services.createAccessToken(authentication("user" + i)).getValue();
+		}
+
+		for (int i = 0; i < WARMUP_REQUESTS; i++) {
+			services.loadAuthentication(tokens[i % TOKENS]);
+		}
+		long requests = store.getRequests();
+		long nanos = store.getLookupNanos();
+		long misses = store.getMisses();
+		long start = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			services.loadAuthentication(tokens[i % TOKENS]);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		return new Result(name, (store.getLookupNanos() - nanos) / 1e3 / (store.getRequests() - requests),
+				elapsed / 1e3 / REQUESTS, misses);
+	}
+
+	private static DefaultTokenServices tokenServices(TokenStore store, int accessTokenValiditySeconds) {
+		DefaultTokenServices services = new DefaultTokenServices();
+		services.setTokenStore(store);
+		services.setAccessTokenValiditySeconds(accessTokenValiditySeconds);
+		return services;
+	}
+
+	// A password grant for the "mobile" client, like the ones that the
+	// OAuth2Config hands out
+	private static OAuth2Authentication authentication(String username) {
+		List<GrantedAuthority> clientAuthorities = AuthorityUtils.createAuthorityList("ROLE_CLIENT");
+		OAuth2Request request = new OAuth2Request(Collections.<String, String> emptyMap(), "mobile",
+				clientAuthorities, true, new HashSet<String>(Arrays.asList("read", "write")),
+				Collections.singleton("video"), null, Collections.<String> emptySet(),
+				Collections.<String, Serializable> emptyMap());
+		UsernamePasswordAuthenticationToken user = new UsernamePasswordAuthenticationToken(username, null,
+				AuthorityUtils.createAuthorityList("ROLE_USER"));
+		return new OAuth2Authentication(request, user);
+	}
+
+	private static void assertInvalid(DefaultTokenServices services, String token) {
+		try {
+			services.loadAuthentication(token);
+			fail("The token should have been rejected");
+		} catch (InvalidTokenException e) {
+			// Expected
+		}
+	}
+
+	private static class Result {
+
+		private final String name;
+		private final double micros;
+		private final double wallMicros;
+		private final long misses;
+
+		private Result(String name, double micros, double wallMicros, long misses) {
+			this.name = name;
+			this.micros = micros;
+			this.wallMicros = wallMicros;
+			this.misses = misses;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-30s %,8.2f us/request in the token store, %,8.2f us/request in total (%d tokens)",
+					name, micros, wallMicros, TOKENS);
+		}
+	}
+
+}